@@ -40,13 +40,19 @@ import org.apache.log4j.Logger;
 /**
  * This class represents an angle interval.
  * 
+ * The interval is stored as at most two sub intervals, all between 0 and 2*PI.
+ * Sub interval borders are kept in primitive fields. Intervals may be
+ * changed, and subtraction and intersection may write their results to
+ * caller supplied buffers, so that intervals can be reused.
+ * 
  * @author Fredrik Osterlind
  */
 class AngleInterval {
   private static Logger logger = Logger.getLogger(AngleInterval.class);
   
   // Sub intervals all between 0 and 2*PI
-  Vector<Interval> subIntervals;
+  private int subIntervals = 0;
+  private double low0, high0, low1, high1;
   
   /**
    * Creates a new angle interval.
@@ -55,12 +61,21 @@ class AngleInterval {
    * @param endAngle End angle (rad) (> start angle)
    */
   public AngleInterval(double startAngle, double endAngle) {
-    subIntervals = new Vector<Interval>();
-    
+    set(startAngle, endAngle);
+  }
+  
+  /**
+   * Changes this interval, as if created with the given angles.
+   * 
+   * @param startAngle Start angle (rad)
+   * @param endAngle End angle (rad) (> start angle)
+   */
+  public void set(double startAngle, double endAngle) {
+    subIntervals = 0;
     if (endAngle < startAngle) {
       
     } else if (endAngle - startAngle >= 2*Math.PI) {
-      subIntervals.add(new Interval(0, 2*Math.PI));
+      addSubInterval(0, 2*Math.PI);
     } else {
       while (startAngle < 0)
         startAngle += 2*Math.PI;
@@ -69,113 +84,265 @@ class AngleInterval {
       startAngle %= 2*Math.PI;
       endAngle %= 2*Math.PI;
       
-      Interval tempInterval;
       if (startAngle < endAngle) {
-        tempInterval = new Interval(startAngle, endAngle);
-        if (!tempInterval.isEmpty())
-          subIntervals.add(tempInterval);
+        addSubInterval(startAngle, endAngle);
       } else {
-        tempInterval = new Interval(startAngle, 2*Math.PI);
-        if (!tempInterval.isEmpty())
-          subIntervals.add(tempInterval);
-        tempInterval = new Interval(0, endAngle);
-        if (!tempInterval.isEmpty())
-          subIntervals.add(tempInterval);
+        addSubInterval(startAngle, 2*Math.PI);
+        addSubInterval(0, endAngle);
       }
     }
   }
   
+  /**
+   * Changes this interval to a copy of the given interval.
+   * 
+   * @param interval Other interval
+   */
+  public void set(AngleInterval interval) {
+    subIntervals = interval.subIntervals;
+    low0 = interval.low0;
+    high0 = interval.high0;
+    low1 = interval.low1;
+    high1 = interval.high1;
+  }
+  
+  /**
+   * Adds sub interval, if not empty.
+   * 
+   * @param low Low border
+   * @param high High border
+   */
+  private void addSubInterval(double low, double high) {
+    if (high <= low) {
+      return;
+    }
+    if (subIntervals == 0) {
+      low0 = low;
+      high0 = high;
+    } else {
+      low1 = low;
+      high1 = high;
+    }
+    subIntervals++;
+  }
+  
+  private double getLow(int i) {
+    return i == 0 ? low0 : low1;
+  }
+  
+  private double getHigh(int i) {
+    return i == 0 ? high0 : high1;
+  }
+  
+  /**
+   * Subtracts the given interval from this interval, and writes the remaining
+   * parts to the given buffer as [low, high] pairs. Each part may be used to
+   * create or set an interval. At most four parts remain.
+   * 
+   * @param intervalToSubtract Other interval (or null)
+   * @param result Remaining parts, room for at least 8 values
+   * @return Number of remaining parts
+   */
+  public int subtract(AngleInterval intervalToSubtract, double[] result) {
+    int subtractCount = intervalToSubtract == null ? 0 : intervalToSubtract.subIntervals;
+    
+    // Subtract sub intervals in increasing order (they never overlap)
+    int first = 0;
+    if (subtractCount == 2 && intervalToSubtract.low1 < intervalToSubtract.low0) {
+      first = 1;
+    }
+    
+    int count = 0;
+    for (int i=0; i < subIntervals; i++) {
+      double low = getLow(i);
+      double high = getHigh(i);
+      
+      for (int j=0; j < subtractCount; j++) {
+        int k = j == 0 ? first : 1 - first;
+        double subLow = intervalToSubtract.getLow(k);
+        double subHigh = intervalToSubtract.getHigh(k);
+        
+        if (subHigh <= low || subLow >= high) {
+          // Given interval higher or lower than what remains
+          continue;
+        }
+        if (subLow > low) {
+          result[2*count] = low;
+          result[2*count+1] = subLow;
+          count++;
+        }
+        low = subHigh;
+      }
+      
+      if (high > low) {
+        result[2*count] = low;
+        result[2*count+1] = high;
+        count++;
+      }
+    }
+    
+    return count;
+  }
+  
   /**
    * Returns new intervals consisting of this interval with the given interval removed.
    * These can either be null (if entire interval was removed), 
    * one interval (if upper or lower part, or nothing was removed) or two intervals
    * (if middle part of interval was removed).
    * 
+   * Allocates its working buffers and results, see
+   * {@link #subtract(AngleInterval, double[])} for the buffer based version.
+   * 
    * @param intervalToSubtract Other interval
    * @return New intervals
    */
   public Vector<AngleInterval> subtract(AngleInterval intervalToSubtract) {
-    Vector<Interval> afterSubtractionIntervals = new Vector<Interval>();
-    
-    // Before subtraction
-    afterSubtractionIntervals.addAll(subIntervals);
-    
     if (intervalToSubtract == null) {
       Vector<AngleInterval> ret = new Vector<AngleInterval>();
       ret.add(this);
       return ret;
     }
     
+    // Before subtraction (each subtracted sub interval may split every interval)
+    double[] lows = new double[8], highs = new double[8];
+    double[] newLows = new double[8], newHighs = new double[8];
+    int count = subIntervals;
+    for (int i=0; i < count; i++) {
+      lows[i] = getLow(i);
+      highs[i] = getHigh(i);
+    }
+    
     // Subtract every subinterval each
-    for (int i=0; i < intervalToSubtract.subIntervals.size(); i++) {
-      Interval subIntervalToSubtract = intervalToSubtract.subIntervals.get(i);
-      Vector<Interval> newAfterSubtractionIntervals = new Vector<Interval>();
+    for (int i=0; i < intervalToSubtract.subIntervals; i++) {
+      double subLow = intervalToSubtract.getLow(i);
+      double subHigh = intervalToSubtract.getHigh(i);
+      int newCount = 0;
       
-      for (int j=0; j < afterSubtractionIntervals.size(); j++) {
-        Vector<Interval> tempIntervals = afterSubtractionIntervals.get(j).subtract(subIntervalToSubtract);
-        if (tempIntervals != null)
-          newAfterSubtractionIntervals.addAll(tempIntervals);
+      for (int j=0; j < count; j++) {
+        double low = lows[j];
+        double high = highs[j];
+        
+        if (high <= subLow || low >= subHigh) {
+          // Given interval higher or lower than this interval
+          newLows[newCount] = low;
+          newHighs[newCount++] = high;
+        } else if (low >= subLow && high <= subHigh) {
+          // Given interval covers this interval
+        } else if (low <= subLow && high >= subHigh) {
+          // Given interval inside this interval
+          newLows[newCount] = low;
+          newHighs[newCount++] = subLow;
+          newLows[newCount] = subHigh;
+          newHighs[newCount++] = high;
+        } else if (low >= subLow && high >= subHigh) {
+          // Given interval overlaps lower part of this interval
+          newLows[newCount] = subHigh;
+          newHighs[newCount++] = high;
+        } else if (low <= subLow && high <= subHigh) {
+          // Given interval overlaps upper part of this interval
+          newLows[newCount] = low;
+          newHighs[newCount++] = subLow;
+        } else {
+          logger.fatal("AngleInterval.subtract() error!");
+        }
       }
       
-      afterSubtractionIntervals = newAfterSubtractionIntervals;
+      double[] tmp = lows; lows = newLows; newLows = tmp;
+      tmp = highs; highs = newHighs; newHighs = tmp;
+      count = newCount;
     }
     
     Vector<AngleInterval> newAngleIntervals = new Vector<AngleInterval>();
-    for (int i=0; i < afterSubtractionIntervals.size(); i++) {
-      if (afterSubtractionIntervals.get(i) != null && !afterSubtractionIntervals.get(i).isEmpty())
-        newAngleIntervals.add(
-            new AngleInterval(afterSubtractionIntervals.get(i).getLow(), afterSubtractionIntervals.get(i).getHigh())
-        );
+    for (int i=0; i < count; i++) {
+      if (highs[i] > lows[i])
+        newAngleIntervals.add(new AngleInterval(lows[i], highs[i]));
     }
     
     return newAngleIntervals;
   }
   
   /**
-   * Returns the intersection of this interval with
-   * the given.
+   * Intersects all sub intervals of given interval with all sub intervals of
+   * this interval. At most two non-empty results are saved.
    * 
    * @param interval Other interval
-   * @return Intersection
+   * @param result Intersections [low0, high0, low1, high1] (or null)
+   * @return Number of non-empty intersections
    */
-  public AngleInterval intersectWith(AngleInterval interval) {
-    Vector<Interval> afterIntersectionIntervals = new Vector<Interval>();
-    
-    // Intersect all subintervals, keep all results
-    for (int i=0; i < interval.subIntervals.size(); i++) {
-      for (int j=0; j < subIntervals.size(); j++) {
-        Interval temp = interval.subIntervals.get(i).intersectWith(subIntervals.get(j));
-        if (temp != null && !temp.isEmpty())
-          afterIntersectionIntervals.add(temp);
+  private int intersectSubIntervals(AngleInterval interval, double[] result) {
+    int count = 0;
+    for (int i=0; i < interval.subIntervals; i++) {
+      double low = interval.getLow(i);
+      double high = interval.getHigh(i);
+      for (int j=0; j < subIntervals; j++) {
+        double otherLow = getLow(j);
+        double otherHigh = getHigh(j);
+        
+        if (high <= otherLow || low >= otherHigh) {
+          continue;
+        }
+        double intersectionLow = low >= otherLow ? low : otherLow;
+        double intersectionHigh = high <= otherHigh ? high : otherHigh;
+        if (intersectionHigh <= intersectionLow) {
+          continue;
+        }
+        if (result != null && count < 2) {
+          result[2*count] = intersectionLow;
+          result[2*count+1] = intersectionHigh;
+        }
+        count++;
       }
     }
+    return count;
+  }
+  
+  /**
+   * Intersects this interval with the given, and writes the start and end
+   * angles of the intersection to the first two values of the given buffer.
+   * The intersection may be used to create or set an interval.
+   * 
+   * @param interval Other interval
+   * @param result Intersection [start, end], room for at least 4 values
+   * @return True if intersection is not empty
+   */
+  public boolean intersectWith(AngleInterval interval, double[] result) {
+    int count = intersectSubIntervals(interval, result);
     
-    if (afterIntersectionIntervals.size() > 2) {
+    if (count > 2) {
       logger.fatal("AngleInterval.intersectWith() error!");
-    } else if (afterIntersectionIntervals.size() == 2) {
+    } else if (count == 2) {
       
       // The interval (y-x) is divided into:
       //  y -> 2*PI
       //  0 -> x
-      Interval interval1 = afterIntersectionIntervals.get(0);
-      Interval interval2 = afterIntersectionIntervals.get(1);
-      
-      if (interval1.getLow() == 0)
-        return new AngleInterval(
-            interval2.getLow(), interval1.getHigh() + 2*Math.PI
-        );
-      else
-        return new AngleInterval(
-            interval1.getLow(), interval2.getHigh() + 2*Math.PI
-        );
+      if (result[0] == 0) {
+        double start = result[2];
+        result[1] = result[1] + 2*Math.PI;
+        result[0] = start;
+      } else {
+        result[1] = result[3] + 2*Math.PI;
+      }
+      return true;
       
-    } else if (afterIntersectionIntervals.size() == 1) {
-      return new AngleInterval(
-          afterIntersectionIntervals.firstElement().getLow(),
-          afterIntersectionIntervals.firstElement().getHigh()
-      ); 
+    } else if (count == 1) {
+      return true;
     }
     
+    return false;
+  }
+  
+  /**
+   * Returns the intersection of this interval with
+   * the given.
+   * 
+   * @param interval Other interval
+   * @return Intersection
+   */
+  public AngleInterval intersectWith(AngleInterval interval) {
+    double[] intersection = new double[4];
+    if (intersectWith(interval, intersection)) {
+      return new AngleInterval(intersection[0], intersection[1]);
+    }
     return null;
   }
   
@@ -186,30 +353,22 @@ class AngleInterval {
    * @return Start angle
    */
   public double getStartAngle() {
-    if (subIntervals == null || subIntervals.isEmpty()) {
+    if (subIntervals == 0) {
       logger.warn("Getting start angle of null angle interval!");
       return 0;
     }
     
-    if (subIntervals.size() > 2) {
-      logger.warn("Getting start angle of malformed angle interval!");
-      return 0;
-    }
-    
-    if (subIntervals.size() == 1) {
-      return subIntervals.firstElement().getLow();
+    if (subIntervals == 1) {
+      return low0;
     }
     
     // The interval (y-x) is divided into:
     //  y -> 2*PI
     //  0 -> x
-    Interval interval1 = subIntervals.get(0);
-    Interval interval2 = subIntervals.get(1);
-    
-    if (interval1.getLow() == 0)
-      return interval2.getLow();
+    if (low0 == 0)
+      return low1;
     else
-      return interval1.getLow();
+      return low0;
   }
   
   /**
@@ -219,30 +378,22 @@ class AngleInterval {
    * @return End angle
    */
   public double getEndAngle() {
-    if (subIntervals == null || subIntervals.isEmpty()) {
+    if (subIntervals == 0) {
       logger.warn("Getting start angle of null angle interval!");
       return 0;
     }
     
-    if (subIntervals.size() > 2) {
-      logger.warn("Getting start angle of malformed angle interval!");
-      return 0;
-    }
-    
-    if (subIntervals.size() == 1) {
-      return subIntervals.firstElement().getHigh();
+    if (subIntervals == 1) {
+      return high0;
     }
     
     // The interval (y-x) is divided into:
     //  y -> 2*PI
     //  0 -> x
-    Interval interval1 = subIntervals.get(0);
-    Interval interval2 = subIntervals.get(1);
-    
-    if (interval1.getLow() == 0)
-      return interval1.getHigh() + 2*Math.PI;
+    if (low0 == 0)
+      return high0 + 2*Math.PI;
     else
-      return interval2.getHigh() + 2*Math.PI;
+      return high1 + 2*Math.PI;
   }
   
   /**
@@ -250,8 +401,8 @@ class AngleInterval {
    */
   public double getSize() {
     double size = 0;
-    for (int i=0; i < subIntervals.size(); i++)
-      size += subIntervals.get(i).getSize();
+    for (int i=0; i < subIntervals; i++)
+      size += getHigh(i) - getLow(i);
     
     return size;
   }
@@ -264,10 +415,10 @@ class AngleInterval {
    */
   public boolean contains(AngleInterval interval) {
     // Check that all parts of argument is contained by any part of this
-    for (int i=0; i < interval.subIntervals.size(); i++) {
+    for (int i=0; i < interval.subIntervals; i++) {
       boolean contained = false;
-      for (int j=0; j < subIntervals.size(); j++) {
-        if (subIntervals.get(j).contains(interval.subIntervals.get(i))) {
+      for (int j=0; j < subIntervals; j++) {
+        if (getLow(j) <= interval.getLow(i) && getHigh(j) >= interval.getHigh(i)) {
           contained = true;
           break;
         }
@@ -281,18 +432,23 @@ class AngleInterval {
   /**
    * Checks if the two intervals intersect.
    * 
+   * Unlike {@link #intersectWith(AngleInterval)}, intervals intersecting in
+   * more than two parts (both almost full circles) also intersect.
+   * Otherwise an interval could intersect a part of another interval, but
+   * not the whole interval.
+   * 
    * @param interval Other interval
    * @return True if this interval intersects given interval
    */
   public boolean intersects(AngleInterval interval) {
-    return (intersectWith(interval) != null);
+    return intersectSubIntervals(interval, null) > 0;
   }
   
   /**
    * @return True if interval defined is of no size.
    */
   public boolean isEmpty() {
-    if (subIntervals.isEmpty())
+    if (subIntervals == 0)
       return true;
     if (getSize() <= 0.001)
       return true;
@@ -301,12 +457,12 @@ class AngleInterval {
   
   public String toString() {
     String retString = "";
-    for (int i=0; i < subIntervals.size(); i++) {
+    for (int i=0; i < subIntervals; i++) {
       if (!retString.equals(""))
         retString = retString.concat(" && ");
       
       retString = retString.concat("(");
-      retString = retString.concat(Math.toDegrees(subIntervals.get(i).getLow()) + " -> " + Math.toDegrees(subIntervals.get(i).getHigh()));
+      retString = retString.concat(Math.toDegrees(getLow(i)) + " -> " + Math.toDegrees(getHigh(i)));
       retString = retString.concat(")");
     }
     
@@ -340,11 +496,43 @@ class AngleInterval {
    * @return Angle interval (-pi <-> pi)
    */
   public static AngleInterval getAngleIntervalOfLine(Point2D refPoint, Line2D line) {
+    return getAngleIntervalOfLine(
+        refPoint.getX(), refPoint.getY(),
+        line.getX1(), line.getY1(), line.getX2(), line.getY2());
+  }
+  
+  /**
+   * Returns an angle interval of the given line (x1, y1) -> (x2, y2) seen
+   * from the given reference point.
+   * 
+   * @param refX Reference point X
+   * @param refY Reference point Y
+   * @param lineX1 Line start X
+   * @param lineY1 Line start Y
+   * @param lineX2 Line end X
+   * @param lineY2 Line end Y
+   * @return Angle interval (-pi <-> pi)
+   */
+  public static AngleInterval getAngleIntervalOfLine(double refX, double refY,
+      double lineX1, double lineY1, double lineX2, double lineY2) {
+    AngleInterval interval = new AngleInterval(0, 0);
+    interval.setToLine(refX, refY, lineX1, lineY1, lineX2, lineY2);
+    return interval;
+  }
+  
+  /**
+   * Changes this interval to the angle interval of the given line
+   * (x1, y1) -> (x2, y2) seen from the given reference point.
+   * 
+   * @see #getAngleIntervalOfLine(double, double, double, double, double, double)
+   */
+  public void setToLine(double refX, double refY,
+      double lineX1, double lineY1, double lineX2, double lineY2) {
     // Create angle interval of this line
-    double x1 = line.getX1() - refPoint.getX(); 
-    double y1 = line.getY1() - refPoint.getY(); 
-    double x2 = line.getX2() - refPoint.getX(); 
-    double y2 = line.getY2() - refPoint.getY(); 
+    double x1 = lineX1 - refX; 
+    double y1 = lineY1 - refY; 
+    double x2 = lineX2 - refX; 
+    double y2 = lineY2 - refY; 
     
     double angle1 = Math.atan2(y1, x1);
     double angle2 = Math.atan2(y2, x2);
@@ -357,9 +545,7 @@ class AngleInterval {
         angle2 += 2*Math.PI;
     }
     
-    return new AngleInterval(
-        Math.min(angle1, angle2), Math.max(angle1, angle2)
-    );
+    set(Math.min(angle1, angle2), Math.max(angle1, angle2));
   }
   
   public boolean equals(Object object) {
@@ -373,6 +559,7 @@ class AngleInterval {
   /**
    * Subtracts given interval from all intervals in given vector.
    * This method never returns null (but empty vectors).
+   * The ray tracer uses the buffer based methods instead.
    * 
    * @param initialIntervals Initial intervals
    * @param interval Interval to subtract
@@ -394,6 +581,7 @@ class AngleInterval {
   /**
    * Intersects given interval with all intervals in given vector.
    * This method never returns null (but empty vectors).
+   * The ray tracer uses the buffer based methods instead.
    * 
    * @param initialIntervals Initial intervals
    * @param interval Interval to intersect
@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2008, Swedish Institute of Computer Science.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * $Id$
+ */
+
+package se.sics.mrm;
+
+import java.util.Arrays;
+
+/**
+ * List of angle intervals, used by the ray tracer instead of vectors of
+ * new intervals. Intervals are reused when the list is cleared.
+ *
+ * @author Fredrik Osterlind
+ */
+class AngleIntervalBuffer {
+  private AngleInterval[] intervals = new AngleInterval[16];
+  private int count = 0;
+
+  void clear() {
+    count = 0;
+  }
+
+  boolean isEmpty() {
+    return count == 0;
+  }
+
+  int size() {
+    return count;
+  }
+
+  AngleInterval get(int i) {
+    return intervals[i];
+  }
+
+  AngleInterval add(double startAngle, double endAngle) {
+    if (count == intervals.length) {
+      intervals = Arrays.copyOf(intervals, 2*count);
+    }
+    if (intervals[count] == null) {
+      intervals[count] = new AngleInterval(startAngle, endAngle);
+    } else {
+      intervals[count].set(startAngle, endAngle);
+    }
+    return intervals[count++];
+  }
+
+  void add(AngleInterval interval) {
+    add(0, 0).set(interval);
+  }
+
+  /**
+   * Removes first interval.
+   */
+  void removeFirst() {
+    AngleInterval first = intervals[0];
+    System.arraycopy(intervals, 1, intervals, 0, count - 1);
+    intervals[--count] = first;
+  }
+
+  /**
+   * Adds the non-empty intersections of given interval with all intervals
+   * of given list.
+   *
+   * @param list Intervals to intersect
+   * @param interval Interval to intersect with
+   * @param buffer Scratch buffer, at least 4 values
+   */
+  void addIntersections(AngleIntervalBuffer list, AngleInterval interval, double[] buffer) {
+    for (int i=0; i < list.count; i++) {
+      if (list.intervals[i].intersectWith(interval, buffer) &&
+          add(buffer[0], buffer[1]).isEmpty()) {
+        count--;
+      }
+    }
+  }
+
+  /**
+   * Subtracts given interval from all intervals in this list.
+   *
+   * @param interval Interval to subtract
+   * @param remaining Scratch list, swapped with this list
+   * @param buffer Scratch buffer, at least 8 values
+   */
+  void subtract(AngleInterval interval, AngleIntervalBuffer remaining, double[] buffer) {
+    remaining.clear();
+    for (int i=0; i < count; i++) {
+      int parts = intervals[i].subtract(interval, buffer);
+      for (int j=0; j < parts; j++) {
+        remaining.add(buffer[2*j], buffer[2*j+1]);
+      }
+    }
+
+    AngleInterval[] tmp = intervals;
+    intervals = remaining.intervals;
+    remaining.intervals = tmp;
+    int tmpCount = count;
+    count = remaining.count;
+    remaining.count = tmpCount;
+  }
+}
@@ -40,6 +40,12 @@ import java.net.URL;
 import java.text.DecimalFormat;
 import java.text.NumberFormat;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.swing.*;
 import javax.swing.filechooser.FileFilter;
 import org.apache.log4j.Logger;
@@ -137,6 +143,10 @@ public class AreaViewer extends VisPlugin {
   private boolean coloringIsFixed = true;
 
   private Thread attenuatorThread = null;
+  private ForkJoinPool attenuatorPool = new ForkJoinPool();
+  private ChannelRendering currentRendering = null;
+  private static final int CHANNEL_TILE_SIZE = 16;
+  private static final long CHANNEL_REPAINT_INTERVAL = 200;
 
   private JCheckBox showSettingsBox;
   private JCheckBox backgroundCheckBox;
@@ -1589,6 +1599,137 @@ public class AreaViewer extends VisPlugin {
     return (alpha << 24) | (red << 16) | (green << 8) | blue;
   }
 
+  /**
+   * Channel image calculation in progress, shared by all tiles.
+   */
+  private class ChannelRendering {
+    private final ChannelModel.TransmissionData dataType;
+    private final double radioX, radioY;
+    private final double startX, startY, width, height;
+    private final Dimension resolution;
+    private final double[][] imageValues;
+    private final BufferedImage image;
+    private final double[] fixedInterval; // Null if relative coloring
+    private final AtomicBoolean canceled = new AtomicBoolean(false);
+    private final AtomicInteger pixelsDone = new AtomicInteger(0);
+
+    public ChannelRendering(ChannelModel.TransmissionData dataType,
+        double radioX, double radioY, double startX, double startY,
+        double width, double height, Dimension resolution,
+        BufferedImage image, boolean coloringIsFixed) {
+      this.dataType = dataType;
+      this.radioX = radioX;
+      this.radioY = radioY;
+      this.startX = startX;
+      this.startY = startY;
+      this.width = width;
+      this.height = height;
+      this.resolution = resolution;
+      this.image = image;
+      this.imageValues = new double[resolution.width][resolution.height];
+      this.fixedInterval = coloringIsFixed ? getFixedColoringInterval(dataType) : null;
+    }
+
+    /**
+     * Calculates value of given pixel, and colors it if coloring is fixed.
+     *
+     * @param x Pixel X
+     * @param y Pixel Y
+     */
+    public void calculatePixel(int x, int y) {
+      double destX = startX + width * x/resolution.width;
+      double destY = startY + height * y/resolution.height;
+      double value = 0;
+
+      if (dataType == ChannelModel.TransmissionData.SIGNAL_STRENGTH) {
+        value = currentChannelModel.getReceivedSignalStrength(radioX, radioY, destX, destY)[0];
+      } else if (dataType == ChannelModel.TransmissionData.SIGNAL_STRENGTH_VAR) {
+        value = currentChannelModel.getReceivedSignalStrength(radioX, radioY, destX, destY)[1];
+      } else if (dataType == ChannelModel.TransmissionData.SNR) {
+        value = currentChannelModel.getSINR(radioX, radioY, destX, destY, -Double.MAX_VALUE)[0];
+      } else if (dataType == ChannelModel.TransmissionData.SNR_VAR) {
+        value = currentChannelModel.getSINR(radioX, radioY, destX, destY, -Double.MAX_VALUE)[1];
+      } else if (dataType == ChannelModel.TransmissionData.PROB_OF_RECEPTION) {
+        // TODO What size? Does it matter?
+        value = currentChannelModel.getProbability(radioX, radioY, destX, destY, -Double.MAX_VALUE)[0];
+      } else if (dataType == ChannelModel.TransmissionData.DELAY_SPREAD_RMS) {
+        value = currentChannelModel.getRMSDelaySpread(radioX, radioY, destX, destY);
+      }
+
+      imageValues[x][y] = value;
+      if (fixedInterval != null) {
+        image.setRGB(x, y, getColorOfSignalStrength(value, fixedInterval[0], fixedInterval[1]));
+      }
+    }
+  }
+
+  /**
+   * Calculates all pixels of a rectangular channel image area. Large areas
+   * are split in tiles calculated in parallel.
+   */
+  private class ChannelTileTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+    private final ChannelRendering rendering;
+    private final int x0, y0, x1, y1;
+
+    public ChannelTileTask(ChannelRendering rendering, int x0, int y0, int x1, int y1) {
+      this.rendering = rendering;
+      this.x0 = x0;
+      this.y0 = y0;
+      this.x1 = x1;
+      this.y1 = y1;
+    }
+
+    protected void compute() {
+      int w = x1 - x0;
+      int h = y1 - y0;
+      if (w > CHANNEL_TILE_SIZE || h > CHANNEL_TILE_SIZE) {
+        // Split along longest side
+        if (w >= h) {
+          invokeAll(
+              new ChannelTileTask(rendering, x0, y0, x0 + w/2, y1),
+              new ChannelTileTask(rendering, x0 + w/2, y0, x1, y1));
+        } else {
+          invokeAll(
+              new ChannelTileTask(rendering, x0, y0, x1, y0 + h/2),
+              new ChannelTileTask(rendering, x0, y0 + h/2, x1, y1));
+        }
+        return;
+      }
+
+      for (int x=x0; x < x1; x++) {
+        for (int y=y0; y < y1; y++) {
+          if (rendering.canceled.get()) {
+            return;
+          }
+          rendering.calculatePixel(x, y);
+        }
+        rendering.pixelsDone.addAndGet(h);
+      }
+    }
+  }
+
+  /**
+   * @param dataType Visualized data type
+   * @return Fixed coloring interval [lowest, highest] of given data type
+   */
+  private static double[] getFixedColoringInterval(ChannelModel.TransmissionData dataType) {
+    if (dataType == ChannelModel.TransmissionData.SIGNAL_STRENGTH) {
+      return new double[] { -100, 0 };
+    } else if (dataType == ChannelModel.TransmissionData.SIGNAL_STRENGTH_VAR) {
+      return new double[] { 0, 20 };
+    } else if (dataType == ChannelModel.TransmissionData.SNR) {
+      return new double[] { -10, 30 };
+    } else if (dataType == ChannelModel.TransmissionData.SNR_VAR) {
+      return new double[] { 0, 20 };
+    } else if (dataType == ChannelModel.TransmissionData.PROB_OF_RECEPTION) {
+      return new double[] { 0, 1 };
+    } else if (dataType == ChannelModel.TransmissionData.DELAY_SPREAD_RMS) {
+      return new double[] { 0, 5 };
+    }
+    return new double[] { Double.MAX_VALUE, -Double.MAX_VALUE };
+  }
+
   /**
    * Helps user adjust and calculate the channel propagation formula
    */
@@ -1623,6 +1764,16 @@ public class AreaViewer extends VisPlugin {
         // Create temporary image
         final BufferedImage tempChannelImage = new BufferedImage(resolution.width, resolution.height, BufferedImage.TYPE_INT_ARGB);
 
+        // Cancel any earlier calculation
+        if (currentRendering != null) {
+          currentRendering.canceled.set(true);
+        }
+        final ChannelRendering rendering = new ChannelRendering(
+            dataTypeToVisualize, radioX, radioY, startX, startY, width, height,
+            resolution, tempChannelImage, coloringIsFixed
+        );
+        currentRendering = rendering;
+
         // Save time for later analysis
         final long timeBeforeCalculating = System.currentTimeMillis();
 
@@ -1632,170 +1783,67 @@ public class AreaViewer extends VisPlugin {
             "Calculating channel attenuation",
             null,
             0,
-            resolution.width - 1
+            resolution.width * resolution.height
         );
 
-        // Thread that will perform the work
+        // Thread that will distribute the work and show progress
         final Runnable runnable = new Runnable() {
           public void run() {
             try {
 
-              // Available signal strength intervals
-              double lowestImageValue = Double.MAX_VALUE;
-              double highestImageValue = -Double.MAX_VALUE;
-
-              // Create image values (calculate each pixel)
-              double[][] imageValues = new double[resolution.width][resolution.height];
-              for (int x=0; x < resolution.width; x++) {
-                for (int y=0; y < resolution.height; y++) {
-
-                  if (dataTypeToVisualize == ChannelModel.TransmissionData.SIGNAL_STRENGTH) {
-                    // Attenuate
-                    double[] signalStrength = currentChannelModel.getReceivedSignalStrength(
-                        radioX,
-                        radioY,
-                        startX + width * x/resolution.width,
-                        startY + height * y/resolution.height
-                    );
-
-                    // Collecting signal strengths
-                    if (signalStrength[0] < lowestImageValue) {
-                      lowestImageValue = signalStrength[0];
-                    }
-                    if (signalStrength[0] > highestImageValue) {
-                      highestImageValue = signalStrength[0];
-                    }
-
-                    imageValues[x][y] = signalStrength[0];
-
-                  } else if (dataTypeToVisualize == ChannelModel.TransmissionData.SIGNAL_STRENGTH_VAR) {
-                    // Attenuate
-                    double[] signalStrength = currentChannelModel.getReceivedSignalStrength(
-                        radioX,
-                        radioY,
-                        startX + width * x/resolution.width,
-                        startY + height * y/resolution.height
-                    );
-
-                    // Collecting variances
-                    if (signalStrength[1] < lowestImageValue) {
-                      lowestImageValue = signalStrength[1];
-                    }
-                    if (signalStrength[1] > highestImageValue) {
-                      highestImageValue = signalStrength[1];
-                    }
-
-                    imageValues[x][y] = signalStrength[1];
-
-                  } else if (dataTypeToVisualize == ChannelModel.TransmissionData.SNR) {
-                    // Get signal to noise ratio
-                    double[] snr = currentChannelModel.getSINR(
-                        radioX,
-                        radioY,
-                        startX + width * x/resolution.width,
-                        startY + height * y/resolution.height,
-                        -Double.MAX_VALUE
-                    );
-
-                    // Collecting signal to noise ratio
-                    if (snr[0] < lowestImageValue) {
-                      lowestImageValue = snr[0];
-                    }
-                    if (snr[0] > highestImageValue) {
-                      highestImageValue = snr[0];
-                    }
-
-                    imageValues[x][y] = snr[0];
-
-                  } else if (dataTypeToVisualize == ChannelModel.TransmissionData.SNR_VAR) {
-                    // Get signal to noise ratio
-                    double[] snr = currentChannelModel.getSINR(
-                        radioX,
-                        radioY,
-                        startX + width * x/resolution.width,
-                        startY + height * y/resolution.height,
-                        -Double.MAX_VALUE
-                    );
-
-                    // Collecting variances
-                    if (snr[1] < lowestImageValue) {
-                      lowestImageValue = snr[1];
-                    }
-                    if (snr[1] > highestImageValue) {
-                      highestImageValue = snr[1];
-                    }
-
-                    imageValues[x][y] = snr[1];
-                  } else if (dataTypeToVisualize == ChannelModel.TransmissionData.PROB_OF_RECEPTION) {
-                    // Get probability of receiving a packet TODO What size? Does it matter?
-                    double probability = currentChannelModel.getProbability(
-                        radioX,
-                        radioY,
-                        startX + width * x/resolution.width,
-                        startY + height * y/resolution.height,
-                        -Double.MAX_VALUE
-                    )[0];
-
-                    // Collecting variances
-                    if (probability < lowestImageValue) {
-                      lowestImageValue = probability;
-                    }
-                    if (probability > highestImageValue) {
-                      highestImageValue = probability;
-                    }
-
-                    imageValues[x][y] = probability;
-                  } else if (dataTypeToVisualize == ChannelModel.TransmissionData.DELAY_SPREAD_RMS) {
-                    // Get RMS delay spread of receiving a packet
-                    double rmsDelaySpread = currentChannelModel.getRMSDelaySpread(
-                        radioX,
-                        radioY,
-                        startX + width * x/resolution.width,
-                        startY + height * y/resolution.height
-                    );
-
-                    // Collecting variances
-                    if (rmsDelaySpread < lowestImageValue) {
-                      lowestImageValue = rmsDelaySpread;
-                    }
-                    if (rmsDelaySpread > highestImageValue) {
-                      highestImageValue = rmsDelaySpread;
-                    }
-
-                    imageValues[x][y] = rmsDelaySpread;
-                  }
+              // Show image while calculating (only possible with fixed coloring)
+              if (rendering.fixedInterval != null) {
+                channelStartX = startX;
+                channelStartY = startY;
+                channelWidth = width;
+                channelHeight = height;
+                channelImage = tempChannelImage;
+              }
 
-                  // Check if the dialog has been canceled
-                  if (pm.isCanceled()) {
-                    return;
-                  }
+              // Calculate each pixel, tiles are calculated in parallel
+              ChannelTileTask task = new ChannelTileTask(rendering, 0, 0, resolution.width, resolution.height);
+              attenuatorPool.execute(task);
+              while (!task.isDone()) {
+                try {
+                  task.get(CHANNEL_REPAINT_INTERVAL, TimeUnit.MILLISECONDS);
+                } catch (TimeoutException e) {
+                }
 
-                  // Update progress
-                  pm.setProgress(x);
+                // Check if the dialog has been canceled
+                if (pm.isCanceled()) {
+                  rendering.canceled.set(true);
+                }
+                if (rendering.canceled.get()) {
+                  pm.close();
+                  return;
+                }
 
+                // Update progress
+                pm.setProgress(rendering.pixelsDone.get());
+                if (rendering.fixedInterval != null) {
+                  canvas.repaint();
                 }
               }
+              task.get();
+              if (rendering.canceled.get()) {
+                pm.close();
+                return;
+              }
+
+              // Available signal strength intervals
+              double lowestImageValue = Double.MAX_VALUE;
+              double highestImageValue = -Double.MAX_VALUE;
 
               // Adjust coloring signal strength limit
-              if (coloringIsFixed) {
-                if (dataTypeToVisualize == ChannelModel.TransmissionData.SIGNAL_STRENGTH) {
-                  lowestImageValue = -100;
-                  highestImageValue = 0;
-                } else if (dataTypeToVisualize == ChannelModel.TransmissionData.SIGNAL_STRENGTH_VAR) {
-                  lowestImageValue = 0;
-                  highestImageValue = 20;
-                } else if (dataTypeToVisualize == ChannelModel.TransmissionData.SNR) {
-                  lowestImageValue = -10;
-                  highestImageValue = 30;
-                } else if (dataTypeToVisualize == ChannelModel.TransmissionData.SNR_VAR) {
-                  lowestImageValue = 0;
-                  highestImageValue = 20;
-                } else if (dataTypeToVisualize == ChannelModel.TransmissionData.PROB_OF_RECEPTION) {
-                  lowestImageValue = 0;
-                  highestImageValue = 1;
-                } else if (dataTypeToVisualize == ChannelModel.TransmissionData.DELAY_SPREAD_RMS) {
-                  lowestImageValue = 0;
-                  highestImageValue = 5;
+              if (rendering.fixedInterval != null) {
+                lowestImageValue = rendering.fixedInterval[0];
+                highestImageValue = rendering.fixedInterval[1];
+              } else {
+                for (int x=0; x < resolution.width; x++) {
+                  for (int y=0; y < resolution.height; y++) {
+                    lowestImageValue = Math.min(lowestImageValue, rendering.imageValues[x][y]);
+                    highestImageValue = Math.max(highestImageValue, rendering.imageValues[x][y]);
+                  }
                 }
               }
 
@@ -1804,14 +1852,16 @@ public class AreaViewer extends VisPlugin {
               coloringLowest = lowestImageValue;
 
               // Create image
-              for (int x=0; x < resolution.width; x++) {
-                for (int y=0; y < resolution.height; y++) {
-
-                  tempChannelImage.setRGB(
-                      x,
-                      y,
-                      getColorOfSignalStrength(imageValues[x][y], lowestImageValue, highestImageValue)
-                  );
+              if (rendering.fixedInterval == null) {
+                for (int x=0; x < resolution.width; x++) {
+                  for (int y=0; y < resolution.height; y++) {
+
+                    tempChannelImage.setRGB(
+                        x,
+                        y,
+                        getColorOfSignalStrength(rendering.imageValues[x][y], lowestImageValue, highestImageValue)
+                    );
+                  }
                 }
               }
               logger.info("Attenuating area done, time=" + (System.currentTimeMillis() - timeBeforeCalculating));
@@ -1827,7 +1877,8 @@ public class AreaViewer extends VisPlugin {
               coloringIntervalPanel.repaint();
 
             } catch (Exception ex) {
-              if (pm.isCanceled()) {
+              if (pm.isCanceled() || rendering.canceled.get()) {
+                pm.close();
                 return;
               }
               logger.fatal("Attenuation aborted: " + ex);
@@ -2184,6 +2235,12 @@ public class AreaViewer extends VisPlugin {
   }
 
   public void closePlugin() {
+    // Stop any channel calculation
+    if (currentRendering != null) {
+      currentRendering.canceled.set(true);
+    }
+    attenuatorPool.shutdownNow();
+
     // Remove all our observers
 
     if (currentChannelModel != null && channelModelSettingsObserver != null) {
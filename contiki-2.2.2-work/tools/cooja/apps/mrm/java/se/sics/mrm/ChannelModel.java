@@ -58,35 +58,185 @@ public class ChannelModel {
   private Properties parameterDescriptions = new Properties();
   
   // Parameters used for speeding up calculations
-  private boolean needToPrecalculateFSPL = true;
-  private static double paramFSPL = 0;
-  private boolean needToPrecalculateOutputPower = true;
-  private static double paramOutputPower = 0;
+  private volatile boolean needToPrecalculateFSPL = true;
+  private double paramFSPL = 0;
+  private volatile boolean needToPrecalculateOutputPower = true;
+  private double paramOutputPower = 0;
   
   private ObstacleWorld myObstacleWorld = new ObstacleWorld();
   
-  // Ray tracing components temporary vector
-  private boolean inLoggingMode = false;
-  private Vector<Line2D> savedRays = null;
-  private Vector<Vector<Line2D>> calculatedVisibleSides = new Vector<Vector<Line2D>>();
-  private Vector<Point2D> calculatedVisibleSidesSources = new Vector<Point2D>();
-  private Vector<Line2D> calculatedVisibleSidesLines = new Vector<Line2D>();
-  private Vector<AngleInterval> calculatedVisibleSidesAngleIntervals = new Vector<AngleInterval>();
-  private static int maxSavedVisibleSides = 30; // Max size of lists above
+  // Ray tracing components temporary vector, non-null only in logging mode
+  private ThreadLocal<Vector<Line2D>> savedRays = new ThreadLocal<Vector<Line2D>>();
+
+  // Visible sides calculated earlier, kept per thread
+  private ThreadLocal<VisibleSidesCache> visibleSidesCache = new ThreadLocal<VisibleSidesCache>() {
+    protected VisibleSidesCache initialValue() {
+      return new VisibleSidesCache();
+    }
+  };
+  private static int maxSavedVisibleSides = 30; // Max size of lists in cache
+
+  // Link cache, stores probability calculations between positions
+  private static int maxSavedLinks = 100000;
+  private LinkedHashMap<LinkKey, double[]> linkCache = new LinkedHashMap<LinkKey, double[]>(1024, 0.75f, true) {
+    protected boolean removeEldestEntry(Map.Entry<LinkKey, double[]> eldest) {
+      return size() > maxSavedLinks;
+    }
+  };
+  private long linkCacheHits = 0;
+  private long linkCacheMisses = 0;
+
+  // Visibility tree cache, stores visible lines trees per source position
+  private static int maxSavedVisibilityTrees = 64;
+  private volatile long settingsVersion = 0;
+  private LinkedHashMap<TreeKey, TreeEntry> visibilityTreeCache =
+    new LinkedHashMap<TreeKey, TreeEntry>(128, 0.75f, true) {
+    protected boolean removeEldestEntry(Map.Entry<TreeKey, TreeEntry> eldest) {
+      return size() > maxSavedVisibilityTrees;
+    }
+  };
+  private long visibilityTreeCacheHits = 0;
+  private long visibilityTreeCacheMisses = 0;
+
+  /**
+   * Visibility tree cache entry. The tree is built by the first thread
+   * requesting it, other threads requesting the same tree wait for it.
+   */
+  private static class TreeEntry {
+    private volatile DefaultMutableTreeNode tree = null;
+  }
+
+  /**
+   * Visible sides calculated earlier by one thread, most recently used first.
+   * All lists are cleared when settings change.
+   *
+   * Also holds the scratch buffers used by the thread when calculating
+   * visible sides. Lines are stored as [x1, y1, x2, y2].
+   */
+  private static class VisibleSidesCache {
+    private long version = 0;
+    private Vector<Vector<Line2D>> sides = new Vector<Vector<Line2D>>();
+    private Vector<Point2D> sources = new Vector<Point2D>();
+    private Vector<Line2D> lines = new Vector<Line2D>();
+    private Vector<AngleInterval> angleIntervals = new Vector<AngleInterval>();
+
+    private double[] candidates = new double[64];
+    private double[] cropped = new double[64];
+    private double[] croppedData = new double[112];
+    private AngleInterval[] croppedIntervals = new AngleInterval[16];
+    private boolean[] croppedIntervalsCalculated = new boolean[16];
+    private double[] start = new double[2];
+    private double[] end = new double[2];
+    private GeneralPath testArea = new GeneralPath();
+
+    private AngleIntervalBuffer unhandledAngles = new AngleIntervalBuffer();
+    private AngleIntervalBuffer newAngles = new AngleIntervalBuffer();
+    private AngleIntervalBuffer remainingAngles = new AngleIntervalBuffer();
+    private AngleInterval lineInterval = new AngleInterval(0, 0);
+    private AngleInterval intersection = new AngleInterval(0, 0);
+    private AngleInterval part = new AngleInterval(0, 0);
+    private double[] angles = new double[4];
+    private double[] parts = new double[8];
+  }
+
+  /**
+   * Visibility tree cache key: source position and settings version.
+   */
+  private static class TreeKey {
+    private double sourceX, sourceY;
+    private long version;
+    private int hash;
+
+    TreeKey(double sourceX, double sourceY, long version) {
+      this.sourceX = sourceX;
+      this.sourceY = sourceY;
+      this.version = version;
+
+      long bits = Double.doubleToLongBits(sourceX);
+      bits = 31*bits + Double.doubleToLongBits(sourceY);
+      bits = 31*bits + version;
+      hash = (int) (bits ^ (bits >>> 32));
+    }
+
+    public int hashCode() {
+      return hash;
+    }
+
+    public boolean equals(Object obj) {
+      if (!(obj instanceof TreeKey)) {
+        return false;
+      }
+      TreeKey key = (TreeKey) obj;
+      return
+        Double.doubleToLongBits(sourceX) == Double.doubleToLongBits(key.sourceX) &&
+        Double.doubleToLongBits(sourceY) == Double.doubleToLongBits(key.sourceY) &&
+        version == key.version;
+    }
+  }
+
+  /**
+   * Link cache key: source and destination positions, interference and
+   * settings version.
+   */
+  private static class LinkKey {
+    private double sourceX, sourceY, destX, destY, interference;
+    private long version;
+    private int hash;
+
+    LinkKey(double sourceX, double sourceY, double destX, double destY, double interference, long version) {
+      this.sourceX = sourceX;
+      this.sourceY = sourceY;
+      this.destX = destX;
+      this.destY = destY;
+      this.interference = interference;
+      this.version = version;
+
+      long bits = Double.doubleToLongBits(sourceX);
+      bits = 31*bits + Double.doubleToLongBits(sourceY);
+      bits = 31*bits + Double.doubleToLongBits(destX);
+      bits = 31*bits + Double.doubleToLongBits(destY);
+      bits = 31*bits + Double.doubleToLongBits(interference);
+      bits = 31*bits + version;
+      hash = (int) (bits ^ (bits >>> 32));
+    }
+
+    public int hashCode() {
+      return hash;
+    }
+
+    public boolean equals(Object obj) {
+      if (!(obj instanceof LinkKey)) {
+        return false;
+      }
+      LinkKey key = (LinkKey) obj;
+      return
+        Double.doubleToLongBits(sourceX) == Double.doubleToLongBits(key.sourceX) &&
+        Double.doubleToLongBits(sourceY) == Double.doubleToLongBits(key.sourceY) &&
+        Double.doubleToLongBits(destX) == Double.doubleToLongBits(key.destX) &&
+        Double.doubleToLongBits(destY) == Double.doubleToLongBits(key.destY) &&
+        Double.doubleToLongBits(interference) == Double.doubleToLongBits(key.interference) &&
+        version == key.version;
+    }
+  }
   
   /**
    * Notifies observers when this channel model has changed settings.
    */
   private class SettingsObservable extends Observable {
     private void notifySettingsChanged() {
+      clearCaches();
       setChanged();
       notifyObservers();
     }
   }
   private SettingsObservable settingsObservable = new SettingsObservable();
   
-  // A random number generator
-  private Random random = new Random();
+  // Random number generators, one per thread
+  private ThreadLocal<Random> random = new ThreadLocal<Random>() {
+    protected Random initialValue() {
+      return new Random();
+    }
+  };
   
   public ChannelModel() {
     // - Set initial parameter values -
@@ -95,6 +245,10 @@ public class ChannelModel {
     parameters.put("apply_random", new Boolean(false)); // TODO Should not use random variables as default
     parameterDescriptions.put("apply_random", "Apply random values immediately");
     
+    // Precomputed link table, for static topologies
+    parameters.put("link_table", new Boolean(false));
+    parameterDescriptions.put("link_table", "Use precomputed link table");
+    
     // Signal to noise reception threshold
     parameters.put("snr_threshold", new Double(6));
     parameterDescriptions.put("snr_threshold", "SNR reception threshold (dB)");
@@ -242,6 +396,7 @@ public class ChannelModel {
    */
   public void addRectObstacle(double startX, double startY, double width, double height, boolean notify) {
     myObstacleWorld.addObstacle(startX, startY, width, height);
+    clearCaches();
     
     if (notify)
       settingsObservable.notifySettingsChanged();
@@ -351,6 +506,36 @@ public class ChannelModel {
     settingsObservable.notifySettingsChanged();
   }
   
+  /**
+   * Returns a distance beyond which a transmission can neither be received
+   * nor interfere with a receiver. The received signal strength at this
+   * distance is below the background noise mean, even with free space
+   * propagation, a multi-path gain margin (20 dB) and a six standard
+   * deviation margin for the random gain and noise variables.
+   *
+   * Since obstacles only attenuate signals, this range is independent of
+   * the obstacle world.
+   *
+   * @return Maximum interference range (m)
+   */
+  public double getMaxInterferenceRange() {
+    double deviation = Math.sqrt(
+        getParameterDoubleValue("system_gain_var") +
+        getParameterDoubleValue("bg_noise_var"));
+    double maxPower =
+      getParameterDoubleValue("tx_power") +
+      getParameterDoubleValue("system_gain_mean") +
+      getParameterDoubleValue("tx_antenna_gain") +
+      Math.max(0, getParameterDoubleValue("rx_antenna_gain")) +
+      20 + 6*deviation;
+    double maxPathLoss = maxPower - getParameterDoubleValue("bg_noise_mean");
+
+    // Solve FSPL(d) = -maxPathLoss for d, see getFSPL()
+    double w = getParameterDoubleValue("wavelength");
+    double fsplConstant = 20*Math.log10(w) - 20*Math.log10(4*Math.PI);
+    return Math.pow(10, (fsplConstant + maxPathLoss)/20.0);
+  }
+
   /**
    * Returns the Free Space Path Loss factor (in dB), by using
    * parts of the Friis equation. (FSPL <= 0)
@@ -386,131 +571,124 @@ public class ChannelModel {
    * @param x2 Line end point X
    * @param y2 Line epoint Y
    * @param rectangle Rectangle which line may intersect
+   * @param points Scratch buffer of length 8
+   * @param point Scratch buffer [x, y]
    * @return Intersection line of given line and rectangle (or null)
    */
-  private Line2D getIntersectionLine(double x1, double y1, double x2, double y2, Rectangle2D rectangle) {
+  private Line2D getIntersectionLine(double x1, double y1, double x2, double y2,
+      Rectangle2D rectangle, double[] points, double[] point) {
     
     // Check if entire line is inside rectangle
     if (rectangle.contains(x1, y1) && rectangle.contains(x2, y2)) {
       return new Line2D.Double(x1, y1, x2, y2);
     }
     
-    // Get rectangle and test lines
-    Line2D rectangleLower = new Line2D.Double(rectangle.getMinX(), rectangle.getMinY(), rectangle.getMaxX(), rectangle.getMinY());
-    Line2D rectangleUpper = new Line2D.Double(rectangle.getMinX(), rectangle.getMaxY(), rectangle.getMaxX(), rectangle.getMaxY());
-    Line2D rectangleLeft = new Line2D.Double(rectangle.getMinX(), rectangle.getMinY(), rectangle.getMinX(), rectangle.getMaxY());
-    Line2D rectangleRight = new Line2D.Double(rectangle.getMaxX(), rectangle.getMinY(), rectangle.getMaxX(), rectangle.getMaxY());
-    Line2D testLine = new Line2D.Double(x1, y1, x2, y2);
-    
-    // Check which sides of the rectangle the test line passes through
-    Vector<Line2D> intersectedSides = new Vector<Line2D>();
-    
-    if (rectangleLower.intersectsLine(testLine))
-      intersectedSides.add(rectangleLower);
-    
-    if (rectangleUpper.intersectsLine(testLine))
-      intersectedSides.add(rectangleUpper);
-    
-    if (rectangleLeft.intersectsLine(testLine))
-      intersectedSides.add(rectangleLeft);
-    
-    if (rectangleRight.intersectsLine(testLine))
-      intersectedSides.add(rectangleRight);
+    // Check which sides of the rectangle the test line passes through,
+    // and calculate all resulting line points (should be 2)
+    double minX = rectangle.getMinX();
+    double minY = rectangle.getMinY();
+    double maxX = rectangle.getMaxX();
+    double maxY = rectangle.getMaxY();
+    int nrPoints = 0;
+    nrPoints = addSideIntersection(x1, y1, x2, y2, minX, minY, maxX, minY, points, nrPoints, point); // Lower
+    nrPoints = addSideIntersection(x1, y1, x2, y2, minX, maxY, maxX, maxY, points, nrPoints, point); // Upper
+    nrPoints = addSideIntersection(x1, y1, x2, y2, minX, minY, minX, maxY, points, nrPoints, point); // Left
+    nrPoints = addSideIntersection(x1, y1, x2, y2, maxX, minY, maxX, maxY, points, nrPoints, point); // Right
     
     // If no sides are intersected, return null (no intersection)
-    if (intersectedSides.isEmpty()) {
+    if (nrPoints == 0) {
       return null;
     }
     
-    // Calculate all resulting line points (should be 2)
-    Vector<Point2D> intersectingLinePoints = new Vector<Point2D>();
-    
-    for (int i=0; i < intersectedSides.size(); i++) {
-      intersectingLinePoints.add(
-          getIntersectionPoint(testLine, intersectedSides.get(i))
-      );
-    }
-    
     // If only one side was intersected, one point must be inside rectangle
-    if (intersectingLinePoints.size() == 1) {
+    if (nrPoints == 1) {
       if (rectangle.contains(x1, y1)) {
-        intersectingLinePoints.add(new Point2D.Double(x1, y1));
+        points[2] = x1;
+        points[3] = y1;
+        nrPoints++;
       } else if (rectangle.contains(x2, y2)) {
-        intersectingLinePoints.add(new Point2D.Double(x2, y2));
+        points[2] = x2;
+        points[3] = y2;
+        nrPoints++;
       } else {
         // Border case, no intersection line
         return null;
       }
     }
     
-    if (intersectingLinePoints.size() != 2) {
+    if (nrPoints != 2) {
       // We should have 2 line points!
       logger.warn("Intersecting points != 2");
       return null;
     }
     
-    if (intersectingLinePoints.get(0).distance(intersectingLinePoints.get(1)) < 0.001)
+    // Side intersected, but intersection point could not be calculated
+    if (Double.isNaN(points[0]) || Double.isNaN(points[2])) {
       return null;
+    }
     
-    return new Line2D.Double(
-        intersectingLinePoints.get(0),
-        intersectingLinePoints.get(1)
-    );
+    if (Point2D.distance(points[0], points[1], points[2], points[3]) < 0.001)
+      return null;
+    
+    return new Line2D.Double(points[0], points[1], points[2], points[3]);
   }
   
   /**
-   * Returns the intersection point of the two given lines.
+   * Adds intersection point of given line (x1, y1) -> (x2, y2) and given
+   * rectangle side to the point buffer, if the line passes through the side.
+   * If the point cannot be calculated, NaN is added.
    * 
-   * @param firstLine First line
-   * @param secondLine Second line
-   * @return Intersection point of the two lines or null
+   * @param points Point buffer, [x, y] per point
+   * @param nrPoints Current number of points
+   * @param point Scratch buffer [x, y]
+   * @return New number of points
    */
-  private Point2D getIntersectionPoint(Line2D firstLine, Line2D secondLine) {
-    double dx1 = firstLine.getX2() - firstLine.getX1();
-    double dy1 = firstLine.getY2() - firstLine.getY1();
-    double dx2 = secondLine.getX2() - secondLine.getX1();
-    double dy2 = secondLine.getY2() - secondLine.getY1();
-    double det = (dx2*dy1-dy2*dx1);
-    
-    if (det == 0.0)
-      // Lines parallell, not intersecting
-      return null;
-    
-    double mu = ((firstLine.getX1() - secondLine.getX1())*dy1 - (firstLine.getY1() - secondLine.getY1())*dx1)/det;
-    if (mu >= 0.0  &&  mu <= 1.0) {
-      Point2D.Double intersectionPoint = new Point2D.Double((secondLine.getX1() + mu*dx2),
-          (secondLine.getY1() + mu*dy2));
-      
-      return intersectionPoint;
+  private static int addSideIntersection(double x1, double y1, double x2, double y2,
+      double sideX1, double sideY1, double sideX2, double sideY2, double[] points, int nrPoints,
+      double[] point) {
+    if (!Line2D.linesIntersect(x1, y1, x2, y2, sideX1, sideY1, sideX2, sideY2)) {
+      return nrPoints;
     }
-    
-    // Lines not intersecting withing segments
-    return null;
+    if (nrPoints < 4) {
+      double pointX = Double.NaN, pointY = Double.NaN;
+      if (Geometry.getIntersectionPoint(x1, y1, x2, y2, sideX1, sideY1, sideX2, sideY2, point)) {
+        pointX = point[0];
+        pointY = point[1];
+      }
+      points[2*nrPoints] = pointX;
+      points[2*nrPoints+1] = pointY;
+    }
+    return nrPoints + 1;
   }
+
   
   /**
-   * Returns the intersection point of the two given lines when streched to infinity.
+   * Checks if the given line (x1, y1) -> (x2, y2) intersects the other line.
+   * 
+   * @return True if lines intersect
+   */
+  private static boolean intersectsLine(double x1, double y1, double x2, double y2, Line2D line) {
+    return Line2D.linesIntersect(
+        line.getX1(), line.getY1(), line.getX2(), line.getY2(), x1, y1, x2, y2);
+  }
+
+  /**
+   * Returns the intersection point of the given line (x1, y1) -> (x2, y2)
+   * and the second line segment.
    * 
-   * @param firstLine First line
    * @param secondLine Second line
-   * @return Intersection point of the two infinite lines or null if parallell
+   * @param point Scratch buffer [x, y]
+   * @return Intersection point of the two lines or null
    */
-  private Point2D getIntersectionPointInfinite(Line2D firstLine, Line2D secondLine) {
-    double dx1 = firstLine.getX2() - firstLine.getX1();
-    double dy1 = firstLine.getY2() - firstLine.getY1();
-    double dx2 = secondLine.getX2() - secondLine.getX1();
-    double dy2 = secondLine.getY2() - secondLine.getY1();
-    double det = (dx2*dy1-dy2*dx1);
-    
-    if (det == 0.0)
-      // Lines parallell, not intersecting
+  private static Point2D getIntersectionPoint(double x1, double y1, double x2, double y2,
+      Line2D secondLine, double[] point) {
+    if (!Geometry.getIntersectionPoint(
+        x1, y1, x2, y2,
+        secondLine.getX1(), secondLine.getY1(), secondLine.getX2(), secondLine.getY2(),
+        point)) {
       return null;
-    
-    double mu = ((firstLine.getX1() - secondLine.getX1())*dy1 - (firstLine.getY1() - secondLine.getY1())*dx1)/det;
-    Point2D.Double intersectionPoint = new Point2D.Double((secondLine.getX1() + mu*dx2),
-        (secondLine.getY1() + mu*dy2));
-    
-    return intersectionPoint;
+    }
+    return new Point2D.Double(point[0], point[1]);
   }
 
   /**
@@ -574,10 +752,10 @@ public class ChannelModel {
         Line2D reflectingSide = visibleSidesEnum.nextElement();
         
         // Create new pseudo-source
-        Rectangle2D bounds = reflectingSide.getBounds2D();
         double newPsuedoSourceX = source.getX();
         double newPsuedoSourceY = source.getY();
-        if (bounds.getHeight() > bounds.getWidth())
+        if (Math.abs(reflectingSide.getY2() - reflectingSide.getY1()) >
+            Math.abs(reflectingSide.getX2() - reflectingSide.getX1()))
           newPsuedoSourceX = 2*reflectingSide.getX1() - newPsuedoSourceX;
         else
           newPsuedoSourceY = 2*reflectingSide.getY1() - newPsuedoSourceY;
@@ -641,6 +819,9 @@ public class ChannelModel {
    */
   private Vector<RayPath> getConnectingPaths(Point2D origin, Point2D dest, DefaultMutableTreeNode visibleLinesTree) {
     Vector<RayPath> allPaths = new Vector<RayPath>();
+    double destX = dest.getX();
+    double destY = dest.getY();
+    double[] intersectionPoint = new double[2];
     
     // Analyse the possible paths to find which actually reached destination
     Enumeration treeEnum = visibleLinesTree.breadthFirstEnumeration();
@@ -653,7 +834,8 @@ public class ChannelModel {
       Line2D line = rayData.getLine();
       RayData.RayType type = rayData.getType();
       
-      Line2D pseudoSourceToDest = new Line2D.Double(sourcePoint, dest);
+      double sourceX = sourcePoint.getX();
+      double sourceY = sourcePoint.getY();
       boolean directPathExists = false;
       Point2D justBeforeDestination = null;
       
@@ -668,21 +850,21 @@ public class ChannelModel {
         else
           directPathExists = false;
         
-      } else if (type == RayData.RayType.REFRACTION && pseudoSourceToDest.intersectsLine(line)) {
+      } else if (type == RayData.RayType.REFRACTION && intersectsLine(sourceX, sourceY, destX, destY, line)) {
         
         // Destination is inside refraction interval
-        justBeforeDestination = getIntersectionPoint(pseudoSourceToDest, line);
+        justBeforeDestination = getIntersectionPoint(sourceX, sourceY, destX, destY, line, intersectionPoint);
         
         // Check if direct path exists (but ignore when leaving obstacle)
-        directPathExists = isDirectPath(justBeforeDestination, dest);
+        directPathExists = justBeforeDestination != null && isDirectPath(justBeforeDestination, dest);
         
-      } else if (type == RayData.RayType.REFLECTION && pseudoSourceToDest.intersectsLine(line)) {
+      } else if (type == RayData.RayType.REFLECTION && intersectsLine(sourceX, sourceY, destX, destY, line)) {
         
         // Destination is inside reflection interval
-        justBeforeDestination = getIntersectionPoint(pseudoSourceToDest, line);
+        justBeforeDestination = getIntersectionPoint(sourceX, sourceY, destX, destY, line, intersectionPoint);
         
         // Check if direct path exists (ignore reflection line)
-        directPathExists = isDirectPath(justBeforeDestination, dest);
+        directPathExists = justBeforeDestination != null && isDirectPath(justBeforeDestination, dest);
 
       } else if (type == RayData.RayType.DIFFRACTION) {
         
@@ -752,8 +934,14 @@ public class ChannelModel {
               // Traced tree element is a reflection/refraction - get intersection point and keep climbing
               lastPoint = newestPoint;
               
-              Line2D newToOldIntersection = new Line2D.Double(currentlyTracedSource, lastPoint);
-              newestPoint = getIntersectionPointInfinite(newToOldIntersection, currentlyTracedLine);
+              if (Geometry.getIntersectionPointInfinite(
+                  currentlyTracedSource.getX(), currentlyTracedSource.getY(), lastPoint.getX(), lastPoint.getY(),
+                  currentlyTracedLine.getX1(), currentlyTracedLine.getY1(), currentlyTracedLine.getX2(), currentlyTracedLine.getY2(),
+                  intersectionPoint)) {
+                newestPoint = new Point2D.Double(intersectionPoint[0], intersectionPoint[1]);
+              } else {
+                newestPoint = null;
+              }
               
             } else {
               // Traced tree element is a diffraction - save point and keep climbing
@@ -806,28 +994,45 @@ public class ChannelModel {
    * @return True if no obstacles between source and destination
    */
   private boolean isDirectPath(Point2D source, Point2D dest) {
-    Line2D sourceToDest = new Line2D.Double(source, dest);
+    double sourceX = source.getX();
+    double sourceY = source.getY();
+    double destX = dest.getX();
+    double destY = dest.getY();
+
+    // No obstacle near the line at all => direct path
+    if (!myObstacleWorld.intersectsAnyObstacle(sourceX, sourceY, destX, destY)) {
+      return true;
+    }
     
     // Get angle
-    double deltaX = dest.getX() - source.getX(); 
-    double deltaY = dest.getY() - source.getY(); 
+    double deltaX = destX - sourceX; 
+    double deltaY = destY - sourceY; 
     double angleSourceToDest = Math.atan2(deltaY, deltaX);
       
     // Get all visible sides near angle
     Vector<Line2D> visibleSides = getAllVisibleSides(
-        source.getX(),
-        source.getY(), 
+        sourceX,
+        sourceY, 
         new AngleInterval(angleSourceToDest - 0.1, angleSourceToDest + 0.1), 
         null
     );
     
     // Check for intersections
     if (visibleSides != null) {
+      double[] intersectionPoint = new double[2];
       for (int i=0; i < visibleSides.size(); i++) {
-        if (visibleSides.get(i).intersectsLine(sourceToDest)) {
+        Line2D side = visibleSides.get(i);
+        if (Line2D.linesIntersect(
+            sourceX, sourceY, destX, destY,
+            side.getX1(), side.getY1(), side.getX2(), side.getY2())) {
           // Check that intersection point is not destination
-          Point2D intersectionPoint = getIntersectionPointInfinite(visibleSides.get(i), sourceToDest);
-          if (dest.distance(intersectionPoint) > 0.01)
+          if (!Geometry.getIntersectionPointInfinite(
+              side.getX1(), side.getY1(), side.getX2(), side.getY2(),
+              sourceX, sourceY, destX, destY,
+              intersectionPoint)) {
+            return false;
+          }
+          if (Point2D.distance(destX, destY, intersectionPoint[0], intersectionPoint[1]) > 0.01)
             return false;
         }
       }
@@ -908,6 +1113,21 @@ public class ChannelModel {
   private Vector<Line2D> getAllVisibleSides(double sourceX, double sourceY, AngleInterval angleInterval, Line2D lookThrough) {
     Point2D source = new Point2D.Double(sourceX, sourceY);    
 
+    // Earlier results of this thread, cleared if settings have changed
+    long version = settingsVersion;
+    VisibleSidesCache cache = visibleSidesCache.get();
+    if (cache.version != version) {
+      cache.sides.clear();
+      cache.sources.clear();
+      cache.lines.clear();
+      cache.angleIntervals.clear();
+      cache.version = version;
+    }
+    Vector<Vector<Line2D>> calculatedVisibleSides = cache.sides;
+    Vector<Point2D> calculatedVisibleSidesSources = cache.sources;
+    Vector<Line2D> calculatedVisibleSidesLines = cache.lines;
+    Vector<AngleInterval> calculatedVisibleSidesAngleIntervals = cache.angleIntervals;
+
     // Check if results were already calculated earlier
     for (int i=0; i < calculatedVisibleSidesSources.size(); i++) {
       if (
@@ -939,16 +1159,24 @@ public class ChannelModel {
     }
 
     Vector<Line2D> visibleLines = new Vector<Line2D>();
-    Vector<AngleInterval> unhandledAngles = new Vector<AngleInterval>();
+    AngleIntervalBuffer unhandledAngles = cache.unhandledAngles;
+    AngleIntervalBuffer newIntervalsToAdd = cache.newAngles;
+    AngleInterval lineAngleInterval = cache.lineInterval;
+    AngleInterval intersectionInterval = cache.intersection;
+    double[] angles = cache.angles;
+    double[] parts = cache.parts;
+    unhandledAngles.clear();
     
     if (lookThrough != null) {
+      lineAngleInterval.setToLine(sourceX, sourceY,
+          lookThrough.getX1(), lookThrough.getY1(), lookThrough.getX2(), lookThrough.getY2());
       if (angleInterval == null)
-        unhandledAngles.add(AngleInterval.getAngleIntervalOfLine(source, lookThrough));
-      else
-        unhandledAngles.add(AngleInterval.getAngleIntervalOfLine(source, lookThrough).intersectWith(angleInterval));
+        unhandledAngles.add(lineAngleInterval);
+      else if (lineAngleInterval.intersectWith(angleInterval, angles))
+        unhandledAngles.add(angles[0], angles[1]);
     } else {
       if (angleInterval == null)
-        unhandledAngles.add(new AngleInterval(0, 2*Math.PI));
+        unhandledAngles.add(0, 2*Math.PI);
       else
         unhandledAngles.add(angleInterval);
     }
@@ -959,12 +1187,12 @@ public class ChannelModel {
       // While unhandled angles still exist, keep searching for visible lines
       while (!unhandledAngles.isEmpty()) {
         //logger.info("Beginning of while-loop, unhandled angles left = " + unhandledAngles.size());
-        AngleInterval angleIntervalToCheck = unhandledAngles.firstElement();
+        AngleInterval angleIntervalToCheck = unhandledAngles.get(0);
         
         // Check that interval is not empty or "infinite small"
-        if (angleIntervalToCheck == null || angleIntervalToCheck.isEmpty()) {
+        if (angleIntervalToCheck.isEmpty()) {
           //logger.info("Angle interval (almost) empty, ignoring");
-          unhandledAngles.remove(angleIntervalToCheck);
+          unhandledAngles.removeFirst();
           break;
         }
         
@@ -975,126 +1203,85 @@ public class ChannelModel {
         //logger.info("Obstacle candidates count = " + visibleObstacleCandidates.size());
         if (visibleObstacleCandidates.isEmpty()) {
           //logger.info("Visible obstacles candidates empty");
-          unhandledAngles.remove(angleIntervalToCheck);
+          unhandledAngles.removeFirst();
           break; // Restart without this angle
         }
         
         // <<<< Get visible line candidates of these obstacles >>>>
-        Vector<Line2D> visibleLineCandidates = new Vector<Line2D>();
+        double[] candidates = cache.candidates = ensureCapacity(cache.candidates, 16*visibleObstacleCandidates.size());
+        int nrCandidates = 0;
         for (int i=0; i < visibleObstacleCandidates.size(); i++) {
           Rectangle2D obstacle = visibleObstacleCandidates.get(i);
           int outcode = obstacle.outcode(source);
           
           if ((outcode & Rectangle2D.OUT_BOTTOM) != 0)
-            visibleLineCandidates.add(
-                new Line2D.Double(obstacle.getMinX(), obstacle.getMaxY(), obstacle.getMaxX(), obstacle.getMaxY()));
+            nrCandidates = addLine(candidates, nrCandidates,
+                obstacle.getMinX(), obstacle.getMaxY(), obstacle.getMaxX(), obstacle.getMaxY());
           
           if ((outcode & Rectangle2D.OUT_TOP) != 0)
-            visibleLineCandidates.add(
-                new Line2D.Double(obstacle.getMinX(), obstacle.getMinY(), obstacle.getMaxX(), obstacle.getMinY()));
+            nrCandidates = addLine(candidates, nrCandidates,
+                obstacle.getMinX(), obstacle.getMinY(), obstacle.getMaxX(), obstacle.getMinY());
           
           if ((outcode & Rectangle2D.OUT_LEFT) != 0)
-            visibleLineCandidates.add(
-                new Line2D.Double(obstacle.getMinX(), obstacle.getMinY(), obstacle.getMinX(), obstacle.getMaxY()));
+            nrCandidates = addLine(candidates, nrCandidates,
+                obstacle.getMinX(), obstacle.getMinY(), obstacle.getMinX(), obstacle.getMaxY());
           
           if ((outcode & Rectangle2D.OUT_RIGHT) != 0)
-            visibleLineCandidates.add(
-                new Line2D.Double(obstacle.getMaxX(), obstacle.getMinY(), obstacle.getMaxX(), obstacle.getMaxY()));
+            nrCandidates = addLine(candidates, nrCandidates,
+                obstacle.getMaxX(), obstacle.getMinY(), obstacle.getMaxX(), obstacle.getMaxY());
         }
-        //logger.info("Line candidates count = " + visibleLineCandidates.size());
-        if (visibleLineCandidates.isEmpty()) {
+        //logger.info("Line candidates count = " + nrCandidates);
+        if (nrCandidates == 0) {
           //logger.info("Visible line candidates empty");
-          unhandledAngles.remove(angleIntervalToCheck);
+          unhandledAngles.removeFirst();
           break; // Restart without this angle
         }
         
         // <<<< Get cropped visible line candidates of these lines >>>>
-        Vector<Line2D> croppedVisibleLineCandidates = new Vector<Line2D>();
-        for (int i=0; i < visibleLineCandidates.size(); i++) {
-          Line2D lineCandidate = visibleLineCandidates.get(i);
+        double[] cropped = cache.cropped = ensureCapacity(cache.cropped, 4*nrCandidates);
+        double[] start = cache.start;
+        double[] end = cache.end;
+        int nrCropped = 0;
+        for (int i=0; i < nrCandidates; i++) {
+          double x1 = candidates[4*i];
+          double y1 = candidates[4*i+1];
+          double x2 = candidates[4*i+2];
+          double y2 = candidates[4*i+3];
           
           // Create angle interval of this line
-          AngleInterval lineAngleInterval = AngleInterval.getAngleIntervalOfLine(source, lineCandidate);
-          
-          AngleInterval intersectionInterval = null;
+          lineAngleInterval.setToLine(sourceX, sourceY, x1, y1, x2, y2);
 
           // Add entire line if it is fully inside our visible angle interval
           if (angleIntervalToCheck.contains(lineAngleInterval)) {
 
-            if (lookThrough != null) {
-              // Check if the candidate is "equal" to the see through line
-              if (Math.abs(lineCandidate.getX1() - lookThrough.getX1()) +
-                  Math.abs(lineCandidate.getY1() - lookThrough.getY1()) +
-                  Math.abs(lineCandidate.getX2() - lookThrough.getX2()) +
-                  Math.abs(lineCandidate.getY2() - lookThrough.getY2()) < 0.01) {
-                // See through line and candidate line are the same - skip this candidate
-              }
-              
-              // Check if the candidate is on our side of the see through line
-              else if (new Line2D.Double(
-                  lineCandidate.getBounds2D().getCenterX(), 
-                  lineCandidate.getBounds2D().getCenterY(),
-                  sourceX,
-                  sourceY
-              ).intersectsLine(lookThrough)) {
-                croppedVisibleLineCandidates.add(lineCandidate);
-              } // else Skip line
-            } else croppedVisibleLineCandidates.add(lineCandidate);
+            if (lookThrough == null || isBehindLine(x1, y1, x2, y2, sourceX, sourceY, lookThrough)) {
+              nrCropped = addLine(cropped, nrCropped, x1, y1, x2, y2);
+            } // else Skip line
             
           } 
           
           // Add part of line if it is partly inside our visible angle interval
-          else if ((intersectionInterval = lineAngleInterval.intersectWith(angleIntervalToCheck)) != null) {
-            
-            // Get lines towards the visible segment
-            Line2D lineToStartAngle = AngleInterval.getDirectedLine(
-                source,
-                intersectionInterval.getStartAngle(),
-                1.0
-            );
-            Line2D lineToEndAngle = AngleInterval.getDirectedLine(
-                source,
-                intersectionInterval.getEndAngle(),
-                1.0
-            );
-            
-            // Calculate intersection points
-            Point2D intersectionStart = getIntersectionPointInfinite(
-                lineCandidate,
-                lineToStartAngle
-            );
-            Point2D intersectionEnd = getIntersectionPointInfinite(
-                lineCandidate,
-                lineToEndAngle
-            );
+          else if (lineAngleInterval.intersectWith(angleIntervalToCheck, angles)) {
+            intersectionInterval.set(angles[0], angles[1]);
             
+            // Calculate intersection points with lines towards the visible segment
+            double startAngle = intersectionInterval.getStartAngle();
+            double endAngle = intersectionInterval.getEndAngle();
             if (
-                intersectionStart != null &&
-                intersectionEnd != null &&
-                intersectionStart.distance(intersectionEnd) > 0.001 // Rounding error limit (1 mm)
+                Geometry.getIntersectionPointInfinite(
+                    x1, y1, x2, y2,
+                    sourceX, sourceY, sourceX + Math.cos(startAngle), sourceY + Math.sin(startAngle),
+                    start) &&
+                Geometry.getIntersectionPointInfinite(
+                    x1, y1, x2, y2,
+                    sourceX, sourceY, sourceX + Math.cos(endAngle), sourceY + Math.sin(endAngle),
+                    end) &&
+                Point2D.distance(start[0], start[1], end[0], end[1]) > 0.001 // Rounding error limit (1 mm)
             ) {
 
-              Line2D newCropped = new Line2D.Double(intersectionStart, intersectionEnd);
-
-              if (lookThrough != null) {
-                // Check if the candidate is "equal" to the see through line
-                if (Math.abs(newCropped.getX1() - lookThrough.getX1()) +
-                    Math.abs(newCropped.getY1() - lookThrough.getY1()) +
-                    Math.abs(newCropped.getX2() - lookThrough.getX2()) +
-                    Math.abs(newCropped.getY2() - lookThrough.getY2()) < 0.01) {
-                  // See through line and candidate line are the same - skip this candidate
-                }
-                
-                // Check if the candidate is on our side of the see through line
-                else if (new Line2D.Double(
-                    newCropped.getBounds2D().getCenterX(), 
-                    newCropped.getBounds2D().getCenterY(),
-                    sourceX,
-                    sourceY
-                ).intersectsLine(lookThrough)) {
-                  croppedVisibleLineCandidates.add(newCropped);
-                } // else Skip line
-              } else croppedVisibleLineCandidates.add(newCropped);
+              if (lookThrough == null || isBehindLine(start[0], start[1], end[0], end[1], sourceX, sourceY, lookThrough)) {
+                nrCropped = addLine(cropped, nrCropped, start[0], start[1], end[0], end[1]);
+              } // else Skip line
 
             }
           }
@@ -1103,73 +1290,86 @@ public class ChannelModel {
           else {
           }
         }
-        //logger.info("Cropped line candidates count = " + croppedVisibleLineCandidates.size());
-        if (croppedVisibleLineCandidates.isEmpty()) {
+        //logger.info("Cropped line candidates count = " + nrCropped);
+        if (nrCropped == 0) {
           //logger.info("Cropped visible line candidates empty");
-          unhandledAngles.remove(angleIntervalToCheck);
+          unhandledAngles.removeFirst();
           break; // Restart without this angle
         }        
         
+        // Shadow rectangles and distances to source of all cropped candidates:
+        // [x, y, width, height, distance sum, closest distance, farthest distance]
+        double[] croppedData = cache.croppedData = ensureCapacity(cache.croppedData, 7*nrCropped);
+        for (int i=0; i < nrCropped; i++) {
+          double x1 = cropped[4*i];
+          double y1 = cropped[4*i+1];
+          double x2 = cropped[4*i+2];
+          double y2 = cropped[4*i+3];
+          
+          // Bounds of line, extended towards center
+          double minX = x1 < x2 ? x1 : x2;
+          double minY = y1 < y2 ? y1 : y2;
+          double width = x1 < x2 ? x2 - x1 : x1 - x2;
+          double height = y1 < y2 ? y2 - y1 : y1 - y2;
+          double minDelta = 0.01*Math.max(width, height);
+          double addX = Geometry.getBoundsCenter(x1, x2) + minDelta;
+          double addY = Geometry.getBoundsCenter(y1, y2) + minDelta;
+          double rectMinX = Math.min(minX, addX);
+          double rectMaxX = Math.max(minX + width, addX);
+          double rectMinY = Math.min(minY, addY);
+          double rectMaxY = Math.max(minY + height, addY);
+          croppedData[7*i] = rectMinX;
+          croppedData[7*i+1] = rectMinY;
+          croppedData[7*i+2] = rectMaxX - rectMinX;
+          croppedData[7*i+3] = rectMaxY - rectMinY;
+          
+          double distance1 = Point2D.distance(x1, y1, sourceX, sourceY);
+          double distance2 = Point2D.distance(x2, y2, sourceX, sourceY);
+          croppedData[7*i+4] = distance1 + distance2;
+          croppedData[7*i+5] = Math.min(distance1, distance2);
+          croppedData[7*i+6] = Math.max(distance1, distance2);
+        }
+        
+        // Angle intervals of cropped candidates, calculated when needed
+        cache.croppedIntervals = ensureCapacity(cache.croppedIntervals, nrCropped);
+        cache.croppedIntervalsCalculated = ensureCapacity(cache.croppedIntervalsCalculated, nrCropped);
+        Arrays.fill(cache.croppedIntervalsCalculated, 0, nrCropped, false);
+        
         // <<<< Get visible lines from these line candidates >>>>
-        for (int i=0; i < croppedVisibleLineCandidates.size(); i++) {
-          Line2D visibleLineCandidate = croppedVisibleLineCandidates.get(i);
+        for (int i=0; i < nrCropped; i++) {
           AngleInterval visibleLineCandidateAngleInterval = 
-            AngleInterval.getAngleIntervalOfLine(source, visibleLineCandidate).intersectWith(angleIntervalToCheck);
+            getCroppedInterval(i, cropped, cache, sourceX, sourceY, angleIntervalToCheck);
           
           //logger.info("Incoming angle interval " + angleIntervalToCheck);
           //logger.info(". => line interval " + visibleLineCandidateAngleInterval);
 
           // Area to test for shadowing objects
-          GeneralPath testArea = new GeneralPath();
+          GeneralPath testArea = cache.testArea;
+          testArea.reset();
           testArea.moveTo((float) sourceX, (float) sourceY);
-          testArea.lineTo((float) visibleLineCandidate.getX1(), (float) visibleLineCandidate.getY1());
-          testArea.lineTo((float) visibleLineCandidate.getX2(), (float) visibleLineCandidate.getY2());
+          testArea.lineTo((float) cropped[4*i], (float) cropped[4*i+1]);
+          testArea.lineTo((float) cropped[4*i+2], (float) cropped[4*i+3]);
           testArea.closePath();
           
           // Does any other line shadow this line?
           boolean unshadowed = true;
           boolean unhandledAnglesChanged = false;
-          for (int j=0; j < croppedVisibleLineCandidates.size(); j++) {
-            
-            // Create shadow rectangle
-            Line2D shadowLineCandidate = croppedVisibleLineCandidates.get(j);
-            Rectangle2D shadowRectangleCandidate = shadowLineCandidate.getBounds2D();
-            double minDelta = 0.01*Math.max(
-                shadowRectangleCandidate.getWidth(), 
-                shadowRectangleCandidate.getHeight()
-            );
-            shadowRectangleCandidate.add(
-                shadowRectangleCandidate.getCenterX() + minDelta,
-                shadowRectangleCandidate.getCenterY() + minDelta
-            );
-
-            // Find the shortest of the two
-            double shadowDistance =
-              shadowLineCandidate.getP1().distance(source) + 
-              shadowLineCandidate.getP2().distance(source);
-            
-            double visibleDistance =
-              visibleLineCandidate.getP1().distance(source) + 
-              visibleLineCandidate.getP2().distance(source);
-
-            double shadowCloseDistance =
-              Math.min(
-                  shadowLineCandidate.getP1().distance(source),
-                  shadowLineCandidate.getP2().distance(source));
+          double visibleDistance = croppedData[7*i+4];
+          double visibleFarDistance = croppedData[7*i+6];
+          for (int j=0; j < nrCropped; j++) {
             
-            double visibleFarDistance =
-              Math.max(
-                  visibleLineCandidate.getP1().distance(source),
-                  visibleLineCandidate.getP2().distance(source));
+            // Shadow rectangle and distances
+            double shadowDistance = croppedData[7*j+4];
+            double shadowCloseDistance = croppedData[7*j+5];
             
             // Does shadow rectangle intersect test area?
-            if (visibleLineCandidate != shadowLineCandidate &&
-                testArea.intersects(shadowRectangleCandidate) &&
+            if (i != j &&
+                testArea.intersects(croppedData[7*j], croppedData[7*j+1], croppedData[7*j+2], croppedData[7*j+3]) &&
                 shadowCloseDistance <= visibleFarDistance) {
               
               // Shadow line candidate seems to shadow (part of) our visible candidate
               AngleInterval shadowLineCandidateAngleInterval = 
-                AngleInterval.getAngleIntervalOfLine(source, shadowLineCandidate).intersectWith(angleIntervalToCheck);
+                getCroppedInterval(j, cropped, cache, sourceX, sourceY, angleIntervalToCheck);
               
               if (shadowLineCandidateAngleInterval.contains(visibleLineCandidateAngleInterval)) {
                 // Covers us entirely, do nothing
@@ -1188,42 +1388,33 @@ public class ChannelModel {
                 
               } else if (visibleLineCandidateAngleInterval.intersects(shadowLineCandidateAngleInterval)) {
                 // Covers us partly, split angle interval
-                Vector<AngleInterval> newIntervalsToAdd = new Vector<AngleInterval>();
+                newIntervalsToAdd.clear();
                 
                 // Create angle interval of intersection between shadow and visible candidate
-                AngleInterval intersectedInterval = 
-                  visibleLineCandidateAngleInterval.intersectWith(shadowLineCandidateAngleInterval);
-                if (intersectedInterval != null) {
-                  Vector<AngleInterval> tempVector1 =
-                    AngleInterval.intersect(unhandledAngles, intersectedInterval);
-                  
-                  if (tempVector1 != null) 
-                    for (int k=0; k < tempVector1.size(); k++) 
-                      if (tempVector1.get(k) != null && !tempVector1.get(k).isEmpty()) {
-                        newIntervalsToAdd.add(tempVector1.get(k));
-                      }
+                if (visibleLineCandidateAngleInterval.intersectWith(shadowLineCandidateAngleInterval, angles)) {
+                  intersectionInterval.set(angles[0], angles[1]);
+                  newIntervalsToAdd.addIntersections(unhandledAngles, intersectionInterval, angles);
                 }
                 
                 // Add angle interval of visible candidate without shadow candidate
-                Vector<AngleInterval> tempVector2 = 
-                  visibleLineCandidateAngleInterval.subtract(shadowLineCandidateAngleInterval);
-                if (tempVector2 != null) 
-                  for (int k=0; k < tempVector2.size(); k++) 
-                    if (tempVector2.get(k) != null && !tempVector2.get(k).isEmpty())
-                      newIntervalsToAdd.addAll(AngleInterval.intersect(unhandledAngles, tempVector2.get(k)));
+                AngleInterval part = cache.part;
+                int nrParts = visibleLineCandidateAngleInterval.subtract(shadowLineCandidateAngleInterval, parts);
+                for (int k=0; k < nrParts; k++) {
+                  part.set(parts[2*k], parts[2*k+1]);
+                  if (!part.isEmpty())
+                    newIntervalsToAdd.addIntersections(unhandledAngles, part, angles);
+                }
                 
                 // Subtract angle interval of visible candidate
-                unhandledAngles = AngleInterval.subtract(unhandledAngles, visibleLineCandidateAngleInterval);
+                unhandledAngles.subtract(visibleLineCandidateAngleInterval, cache.remainingAngles, parts);
                 unhandledAnglesChanged = true;
                 
                 // Add new angle intervals
                 //logger.info("Split angle interval: " + visibleLineCandidateAngleInterval);
                 for (int k=0; k < newIntervalsToAdd.size(); k++) {
-                  if (newIntervalsToAdd.get(k) != null && !newIntervalsToAdd.get(k).isEmpty()) {
-                    //logger.info("> into: " + newIntervalsToAdd.get(k));
-                    unhandledAngles.add(newIntervalsToAdd.get(k));
-                    unhandledAnglesChanged = true;
-                  }
+                  //logger.info("> into: " + newIntervalsToAdd.get(k));
+                  unhandledAngles.add(newIntervalsToAdd.get(k));
+                  unhandledAnglesChanged = true;
                 }
                 
                 unshadowed = false;
@@ -1245,8 +1436,8 @@ public class ChannelModel {
           if (unshadowed) {
             // No other lines shadow this line => this line must be visible!
             
-            unhandledAngles = AngleInterval.subtract(unhandledAngles, visibleLineCandidateAngleInterval);
-            visibleLines.add(visibleLineCandidate);
+            unhandledAngles.subtract(visibleLineCandidateAngleInterval, cache.remainingAngles, parts);
+            visibleLines.add(new Line2D.Double(cropped[4*i], cropped[4*i+1], cropped[4*i+2], cropped[4*i+3]));
             
             //logger.info("Added visible line and removed angle interval: " + visibleLineCandidateAngleInterval);
             //logger.info("Number of visible lines sofar: " + visibleLines.size());
@@ -1260,6 +1451,9 @@ public class ChannelModel {
     } // End of outer loop
     
     // Save results in order to speed up later calculations
+    if (cache.version != settingsVersion) {
+      return visibleLines;
+    }
     int size = calculatedVisibleSides.size();
     // Crop saved sides vectors
     if (size >= maxSavedVisibleSides) {
@@ -1277,6 +1471,81 @@ public class ChannelModel {
     return visibleLines;
   }
   
+  /**
+   * Adds line to given line buffer.
+   *
+   * @param lines Line buffer, [x1, y1, x2, y2] per line
+   * @param nrLines Current number of lines
+   * @return New number of lines
+   */
+  private static int addLine(double[] lines, int nrLines, double x1, double y1, double x2, double y2) {
+    lines[4*nrLines] = x1;
+    lines[4*nrLines+1] = y1;
+    lines[4*nrLines+2] = x2;
+    lines[4*nrLines+3] = y2;
+    return nrLines + 1;
+  }
+
+  private static double[] ensureCapacity(double[] buffer, int size) {
+    return buffer.length >= size ? buffer : new double[Math.max(size, 2*buffer.length)];
+  }
+
+  private static boolean[] ensureCapacity(boolean[] buffer, int size) {
+    return buffer.length >= size ? buffer : new boolean[Math.max(size, 2*buffer.length)];
+  }
+
+  private static AngleInterval[] ensureCapacity(AngleInterval[] buffer, int size) {
+    return buffer.length >= size ? buffer : new AngleInterval[Math.max(size, 2*buffer.length)];
+  }
+
+  /**
+   * Checks if the given line is behind the given look through line, as seen
+   * from the source. Lines equal to the look through line are not behind it.
+   *
+   * @return True if line is behind look through line
+   */
+  private static boolean isBehindLine(double x1, double y1, double x2, double y2,
+      double sourceX, double sourceY, Line2D lookThrough) {
+    // Check if the candidate is "equal" to the see through line
+    if (Math.abs(x1 - lookThrough.getX1()) +
+        Math.abs(y1 - lookThrough.getY1()) +
+        Math.abs(x2 - lookThrough.getX2()) +
+        Math.abs(y2 - lookThrough.getY2()) < 0.01) {
+      return false;
+    }
+
+    // Check if the candidate is on the far side of the see through line
+    return Line2D.linesIntersect(
+        lookThrough.getX1(), lookThrough.getY1(), lookThrough.getX2(), lookThrough.getY2(),
+        Geometry.getBoundsCenter(x1, x2), Geometry.getBoundsCenter(y1, y2), sourceX, sourceY);
+  }
+
+  /**
+   * Returns angle interval of cropped line candidate, intersected with the
+   * given interval. Intervals are only calculated once per candidate, and
+   * are reused by later calculations.
+   */
+  private static AngleInterval getCroppedInterval(int i, double[] cropped,
+      VisibleSidesCache cache, double sourceX, double sourceY, AngleInterval angleIntervalToCheck) {
+    AngleInterval[] intervals = cache.croppedIntervals;
+    boolean[] calculated = cache.croppedIntervalsCalculated;
+    if (!calculated[i]) {
+      AngleInterval lineInterval = cache.lineInterval;
+      double[] angles = cache.angles;
+      lineInterval.setToLine(
+          sourceX, sourceY, cropped[4*i], cropped[4*i+1], cropped[4*i+2], cropped[4*i+3]);
+      if (!lineInterval.intersectWith(angleIntervalToCheck, angles)) {
+        intervals[i] = null;
+      } else if (intervals[i] == null) {
+        intervals[i] = new AngleInterval(angles[0], angles[1]);
+      } else {
+        intervals[i].set(angles[0], angles[1]);
+      }
+      calculated[i] = true;
+    }
+    return intervals[i];
+  }
+
   /**
    * Calculates and returns the received signal strength (dBm) of a signal sent
    * from the given source position to the given destination position as a
@@ -1318,9 +1587,28 @@ public class ChannelModel {
     // TODO Current (changing) signal strength should be built into 'build visible lines' to speed up things!
     
     // Check if origin tree is already calculated and saved
-    DefaultMutableTreeNode visibleLinesTree = null;
-    visibleLinesTree =
-      buildVisibleLinesTree(originRayData); 
+    TreeKey treeKey = new TreeKey(sourceX, sourceY, settingsVersion);
+    TreeEntry treeEntry;
+    synchronized (visibilityTreeCache) {
+      treeEntry = visibilityTreeCache.get(treeKey);
+      if (treeEntry != null) {
+        visibilityTreeCacheHits++;
+      } else {
+        visibilityTreeCacheMisses++;
+        treeEntry = new TreeEntry();
+        visibilityTreeCache.put(treeKey, treeEntry);
+      }
+    }
+    DefaultMutableTreeNode visibleLinesTree = treeEntry.tree;
+    if (visibleLinesTree == null) {
+      synchronized (treeEntry) {
+        if (treeEntry.tree == null) {
+          treeEntry.tree = buildVisibleLinesTree(originRayData);
+        }
+        visibleLinesTree = treeEntry.tree;
+      }
+    }
+    boolean inLoggingMode = savedRays.get() != null;
 
     // Calculate all paths from source to destination, using above calculated tree
     Vector<RayPath> allPaths = getConnectingPaths(source, dest, visibleLinesTree);
@@ -1332,7 +1620,7 @@ public class ChannelModel {
         RayPath currentPath = pathsEnum.nextElement();
         logger.info("* " + currentPath);
         for (int i=0; i < currentPath.getSubPathCount(); i++) {
-          savedRays.add(currentPath.getSubPath(i));
+          savedRays.get().add(currentPath.getSubPath(i));
         }
       }
     }
@@ -1340,6 +1628,8 @@ public class ChannelModel {
     // - Extract length and losses of each path -
     double[] pathLengths = new double[allPaths.size()];
     double[] pathGain = new double[allPaths.size()];
+    double[] intersectionPoints = new double[8];
+    double[] intersectionPoint = new double[2];
     int bestSignalNr = -1;
     double bestSignalPathLoss = 0;
     for (int i=0; i < allPaths.size(); i++) {
@@ -1392,7 +1682,9 @@ public class ChannelModel {
                 subPath.getP1().getY(), 
                 subPath.getP2().getX(), 
                 subPath.getP2().getY(), 
-                obstacle
+                obstacle,
+                intersectionPoints,
+                intersectionPoint
             );
             
             if (line != null) {
@@ -1481,11 +1773,10 @@ public class ChannelModel {
     // Using formula (dB)
     //  Received power = Output power + System gain + Transmitter gain + Path Loss + Receiver gain
     // TODO Update formulas
-    Random random = new Random();
     double outputPower = getParameterDoubleValue("tx_power");
     double systemGain = getParameterDoubleValue("system_gain_mean");
     if (getParameterBooleanValue("apply_random")) {
-      systemGain += Math.sqrt(getParameterDoubleValue("system_gain_var")) * random.nextGaussian();
+      systemGain += Math.sqrt(getParameterDoubleValue("system_gain_var")) * random.get().nextGaussian();
     } else {
       accumulatedVariance += getParameterDoubleValue("system_gain_var");
     }
@@ -1516,15 +1807,17 @@ public class ChannelModel {
   public Vector<Line2D> getRaysOfTransmission(double sourceX, double sourceY, double destX, double destY) {
     
     // Reset current rays vector
-    inLoggingMode = true;
-    savedRays = new Vector<Line2D>();
+    Vector<Line2D> rays = new Vector<Line2D>();
+    savedRays.set(rays);
     
     // Calculate rays, ignore power
-    getProbability(sourceX, sourceY, destX, destY, -Double.MAX_VALUE);
-    
-    inLoggingMode = false;
+    try {
+      getProbability(sourceX, sourceY, destX, destY, -Double.MAX_VALUE);
+    } finally {
+      savedRays.remove();
+    }
     
-    return savedRays;
+    return rays;
   }
 
   /**
@@ -1561,8 +1854,9 @@ public class ChannelModel {
     if (interference > noiseMean)
       noiseMean = interference;
     
+    boolean inLoggingMode = savedRays.get() != null;
     if (getParameterBooleanValue("apply_random")) {
-      noiseMean += Math.sqrt(noiseVariance) * random.nextGaussian();
+      noiseMean += Math.sqrt(noiseVariance) * random.get().nextGaussian();
       noiseVariance = 0;
     }
 
@@ -1601,6 +1895,7 @@ public class ChannelModel {
     double signalStrength = snrData[2];
     double threshold = getParameterDoubleValue("snr_threshold");
     double rxSensitivity = getParameterDoubleValue("rx_sensitivity");
+    boolean inLoggingMode = savedRays.get() != null;
 
     // Check signal strength against receiver sensitivity and interference
     if (rxSensitivity > signalStrength - snrMean && threshold < rxSensitivity + snrMean - signalStrength) {
@@ -1636,6 +1931,111 @@ public class ChannelModel {
     return new double[] { probReception, signalStrength };
   }
   
+  /**
+   * Returns probability of reception, as calculated by
+   * {@link #getProbability(double, double, double, double, double)}.
+   * Results are cached per source and destination positions, and the cache
+   * is cleared whenever settings or obstacles change.
+   *
+   * Results are not cached when random values are applied immediately.
+   *
+   * @see #getLinkCacheHits()
+   * @see #getLinkCacheMisses()
+   * @param sourceX
+   *          Source position X
+   * @param sourceY
+   *          Source position Y
+   * @param destX
+   *          Destination position X
+   * @param destY
+   *          Destination position Y
+   * @param interference
+   *          Current interference at destination (dBm)
+   * @return [Probability of reception, signal strength at destination]
+   */
+  public double[] getCachedProbability(double sourceX, double sourceY, double destX, double destY, double interference) {
+    if (getParameterBooleanValue("apply_random")) {
+      return getProbability(sourceX, sourceY, destX, destY, interference);
+    }
+
+    LinkKey key = new LinkKey(sourceX, sourceY, destX, destY, interference, settingsVersion);
+    double[] probData;
+    synchronized (linkCache) {
+      probData = linkCache.get(key);
+      if (probData != null) {
+        linkCacheHits++;
+        return probData.clone();
+      }
+      linkCacheMisses++;
+    }
+    probData = getProbability(sourceX, sourceY, destX, destY, interference);
+    synchronized (linkCache) {
+      /* Settings changed during calculation: result may be stale */
+      if (key.version == settingsVersion) {
+        linkCache.put(key, probData);
+      }
+    }
+    return probData.clone();
+  }
+
+  /**
+   * Removes all cached link calculations.
+   */
+  public void clearLinkCache() {
+    synchronized (linkCache) {
+      linkCache.clear();
+    }
+  }
+
+  /**
+   * Removes all cached calculations: links, visibility trees and visible
+   * sides. Called when settings or obstacles change.
+   * Visible sides are cleared lazily by each thread, see settings version.
+   */
+  private void clearCaches() {
+    settingsVersion++;
+    clearLinkCache();
+    synchronized (visibilityTreeCache) {
+      visibilityTreeCache.clear();
+    }
+  }
+
+  /**
+   * @return Number of visibility trees found in cache
+   */
+  public long getVisibilityTreeCacheHits() {
+    synchronized (visibilityTreeCache) {
+      return visibilityTreeCacheHits;
+    }
+  }
+
+  /**
+   * @return Number of visibility trees built
+   */
+  public long getVisibilityTreeCacheMisses() {
+    synchronized (visibilityTreeCache) {
+      return visibilityTreeCacheMisses;
+    }
+  }
+
+  /**
+   * @return Number of link calculations found in cache
+   */
+  public long getLinkCacheHits() {
+    synchronized (linkCache) {
+      return linkCacheHits;
+    }
+  }
+
+  /**
+   * @return Number of link calculations not found in cache
+   */
+  public long getLinkCacheMisses() {
+    synchronized (linkCache) {
+      return linkCacheMisses;
+    }
+  }
+
   /**
    * Calculates and returns root-mean-square delay spread when given destination receives a packet from a transmitter at given source.
    * This method uses current parameters such as transmitted power,
@@ -108,6 +108,13 @@ public class FormulaViewer extends se.sics.cooja.VisPlugin {
         currentChannelModel.getParameterBooleanValue("apply_random")
     );
 
+    addBooleanParameter(
+        "link_table",
+        currentChannelModel.getParameterDescription("link_table"),
+        collapsableArea,
+        currentChannelModel.getParameterBooleanValue("link_table")
+    );
+
     addDoubleParameter(
         "snr_threshold",
         currentChannelModel.getParameterDescription("snr_threshold"),
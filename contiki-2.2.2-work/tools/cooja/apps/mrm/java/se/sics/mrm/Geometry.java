@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2008, Swedish Institute of Computer Science.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * $Id$
+ */
+
+package se.sics.mrm;
+
+/**
+ * Geometry operations on primitive coordinates, used by the ray tracer.
+ * 
+ * Lines are given as start and end coordinates, and calculated points are
+ * written to caller supplied arrays. No objects are allocated.
+ * 
+ * @author Fredrik Osterlind
+ */
+final class Geometry {
+
+  private Geometry() {
+  }
+
+  /**
+   * Calculates the intersection point of the two given lines.
+   * The point must be on the second line segment, but may be outside the
+   * first line segment.
+   * 
+   * @param x1 First line start X
+   * @param y1 First line start Y
+   * @param x2 First line end X
+   * @param y2 First line end Y
+   * @param x3 Second line start X
+   * @param y3 Second line start Y
+   * @param x4 Second line end X
+   * @param y4 Second line end Y
+   * @param point Intersection point [x, y]
+   * @return True if lines intersect, false otherwise
+   */
+  static boolean getIntersectionPoint(
+      double x1, double y1, double x2, double y2,
+      double x3, double y3, double x4, double y4,
+      double[] point) {
+    double dx1 = x2 - x1;
+    double dy1 = y2 - y1;
+    double dx2 = x4 - x3;
+    double dy2 = y4 - y3;
+    double det = (dx2*dy1-dy2*dx1);
+
+    if (det == 0.0)
+      // Lines parallell, not intersecting
+      return false;
+
+    double mu = ((x1 - x3)*dy1 - (y1 - y3)*dx1)/det;
+    if (mu >= 0.0  &&  mu <= 1.0) {
+      point[0] = x3 + mu*dx2;
+      point[1] = y3 + mu*dy2;
+      return true;
+    }
+
+    // Lines not intersecting withing segments
+    return false;
+  }
+
+  /**
+   * Calculates the intersection point of the two given lines when
+   * streched to infinity.
+   * 
+   * @param x1 First line start X
+   * @param y1 First line start Y
+   * @param x2 First line end X
+   * @param y2 First line end Y
+   * @param x3 Second line start X
+   * @param y3 Second line start Y
+   * @param x4 Second line end X
+   * @param y4 Second line end Y
+   * @param point Intersection point [x, y]
+   * @return True if lines intersect, false if parallell
+   */
+  static boolean getIntersectionPointInfinite(
+      double x1, double y1, double x2, double y2,
+      double x3, double y3, double x4, double y4,
+      double[] point) {
+    double dx1 = x2 - x1;
+    double dy1 = y2 - y1;
+    double dx2 = x4 - x3;
+    double dy2 = y4 - y3;
+    double det = (dx2*dy1-dy2*dx1);
+
+    if (det == 0.0)
+      // Lines parallell, not intersecting
+      return false;
+
+    double mu = ((x1 - x3)*dy1 - (y1 - y3)*dx1)/det;
+    point[0] = x3 + mu*dx2;
+    point[1] = y3 + mu*dy2;
+    return true;
+  }
+
+  /**
+   * Returns the center coordinate of the bounds of a line, calculated as
+   * by Line2D.getBounds2D().getCenterX().
+   * 
+   * @param c1 Line start coordinate
+   * @param c2 Line end coordinate
+   * @return Center coordinate
+   */
+  static double getBoundsCenter(double c1, double c2) {
+    if (c1 < c2) {
+      return c1 + (c2 - c1) / 2.0;
+    }
+    return c2 + (c1 - c2) / 2.0;
+  }
+
+}
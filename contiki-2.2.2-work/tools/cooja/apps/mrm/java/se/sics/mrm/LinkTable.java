@@ -0,0 +1,573 @@
+/*
+ * Copyright (c) 2008, Swedish Institute of Computer Science.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * $Id$
+ */
+
+package se.sics.mrm;
+
+import java.awt.geom.Point2D;
+import java.io.*;
+import java.util.*;
+import java.util.zip.CRC32;
+import org.apache.log4j.Logger;
+import org.jdom.Element;
+import org.jdom.output.XMLOutputter;
+
+import se.sics.cooja.interfaces.Position;
+import se.sics.cooja.interfaces.Radio;
+
+/**
+ * Precomputed reception probabilities and signal strengths between all
+ * registered radios, for simulations with static topologies.
+ *
+ * Each source radio has a row of links, calculated once by the channel
+ * model for all radios within the maximum interference range. Rows are
+ * sparse: links that can neither be received nor interfere are not stored.
+ * Values are stored as floats.
+ *
+ * When a radio moves, only links to and from that radio are recalculated.
+ * When channel model settings change, the whole table is recalculated.
+ *
+ * The table may be saved to, and loaded from, a file. Radios are matched by
+ * position, and a table calculated with other channel model settings is
+ * ignored.
+ *
+ * Note that random channel model values, if applied, are drawn only once
+ * per link.
+ *
+ * @see MRM
+ * @author Fredrik Osterlind
+ */
+class LinkTable {
+  private static Logger logger = Logger.getLogger(LinkTable.class);
+
+  private static final int FILE_MAGIC = 0x4d524d4c; /* "MRML" */
+  private static final int FILE_VERSION = 1;
+
+  private MRM radioMedium;
+  private ChannelModel channelModel;
+
+  // Radio identifiers, used as link destinations in rows
+  private HashMap<Radio, Integer> radioIds = new HashMap<Radio, Integer>();
+  private int nextRadioId = 0;
+
+  // Calculated rows, per source radio
+  private HashMap<Radio, Row> rows = new HashMap<Radio, Row>();
+
+  // Radios whose links in existing rows must be recalculated
+  private LinkedHashSet<Radio> movedRadios = new LinkedHashSet<Radio>();
+
+  private boolean prepared = false;
+  private boolean changed = false;
+  private long calculatedLinks = 0;
+
+  /**
+   * Links from one source radio, sorted by destination radio identifier.
+   */
+  private static class Row {
+    private int size = 0;
+    private int[] destinations = new int[8];
+    private float[] probabilities = new float[8];
+    private float[] signalStrengths = new float[8];
+
+    private int indexOf(int destination) {
+      return Arrays.binarySearch(destinations, 0, size, destination);
+    }
+
+    private void put(int destination, float probability, float signalStrength) {
+      int index = indexOf(destination);
+      if (index < 0) {
+        index = -index - 1;
+        if (size == destinations.length) {
+          destinations = Arrays.copyOf(destinations, 2*size);
+          probabilities = Arrays.copyOf(probabilities, 2*size);
+          signalStrengths = Arrays.copyOf(signalStrengths, 2*size);
+        }
+        System.arraycopy(destinations, index, destinations, index + 1, size - index);
+        System.arraycopy(probabilities, index, probabilities, index + 1, size - index);
+        System.arraycopy(signalStrengths, index, signalStrengths, index + 1, size - index);
+        destinations[index] = destination;
+        size++;
+      }
+      probabilities[index] = probability;
+      signalStrengths[index] = signalStrength;
+    }
+
+    private void remove(int destination) {
+      int index = indexOf(destination);
+      if (index < 0) {
+        return;
+      }
+      System.arraycopy(destinations, index + 1, destinations, index, size - index - 1);
+      System.arraycopy(probabilities, index + 1, probabilities, index, size - index - 1);
+      System.arraycopy(signalStrengths, index + 1, signalStrengths, index, size - index - 1);
+      size--;
+    }
+  }
+
+  /**
+   * Creates a new empty link table.
+   *
+   * @param radioMedium Radio medium
+   * @param channelModel Channel model calculating the links
+   */
+  public LinkTable(MRM radioMedium, ChannelModel channelModel) {
+    this.radioMedium = radioMedium;
+    this.channelModel = channelModel;
+  }
+
+  /**
+   * Adds radio to table. Its links are calculated when next needed.
+   *
+   * @param radio Radio
+   */
+  public synchronized void registerRadio(Radio radio) {
+    if (radioIds.containsKey(radio)) {
+      return;
+    }
+    radioIds.put(radio, nextRadioId++);
+    movedRadios.add(radio);
+  }
+
+  /**
+   * Removes radio from table.
+   *
+   * @param radio Radio
+   */
+  public synchronized void unregisterRadio(Radio radio) {
+    radioIds.remove(radio);
+    rows.remove(radio);
+    movedRadios.remove(radio);
+  }
+
+  /**
+   * Marks links to and from given radio for recalculation.
+   *
+   * @param radio Moved radio
+   */
+  public synchronized void positionChanged(Radio radio) {
+    if (radioIds.containsKey(radio)) {
+      movedRadios.add(radio);
+    }
+  }
+
+  /**
+   * Removes all calculated links. The table is loaded or calculated again
+   * when next prepared.
+   */
+  public synchronized void clear() {
+    rows.clear();
+    movedRadios.clear();
+    prepared = false;
+    changed = true;
+  }
+
+  /**
+   * Makes sure links between all registered radios are available.
+   * The first time, or after the table was cleared, links are loaded from
+   * given file, if it exists and was calculated with the current settings.
+   * Any links still missing are calculated, and the table is saved.
+   *
+   * @param file Link table file, or null
+   */
+  public synchronized void prepare(File file) {
+    if (prepared) {
+      return;
+    }
+    prepared = true;
+    changed = false;
+
+    if (file != null && file.exists()) {
+      load(file);
+    }
+
+    long linksBefore = calculatedLinks;
+    calculateMissingLinks();
+    if (calculatedLinks > linksBefore) {
+      logger.info("Calculated " + (calculatedLinks - linksBefore) + " links between " +
+          radioIds.size() + " radios");
+    }
+
+    if (changed && file != null) {
+      save(file);
+    }
+  }
+
+  /**
+   * Looks up reception probability and signal strength of link between
+   * given radios. Links that are not stored can neither be received nor
+   * interfere, and have zero probability and an infinitely low signal
+   * strength.
+   *
+   * @see ChannelModel#getProbability(double, double, double, double, double)
+   * @param source Source radio
+   * @param destination Destination radio
+   * @param probData Array of length 2 to store probability and signal strength in
+   */
+  public synchronized void getLink(Radio source, Radio destination, double[] probData) {
+    calculateMovedLinks();
+
+    Row row = rows.get(source);
+    if (row == null) {
+      row = calculateRow(source);
+    }
+
+    Integer destinationId = radioIds.get(destination);
+    int index = destinationId == null ? -1 : row.indexOf(destinationId);
+    if (index < 0) {
+      probData[0] = 0;
+      probData[1] = Double.NEGATIVE_INFINITY;
+      return;
+    }
+    probData[0] = row.probabilities[index];
+    probData[1] = row.signalStrengths[index];
+  }
+
+  /**
+   * Saves table to given file if links have been calculated since it was
+   * last loaded or saved. Only already calculated links are saved: missing
+   * links are calculated when next prepared or looked up.
+   *
+   * @param file Link table file
+   */
+  public synchronized void saveIfChanged(File file) {
+    if (prepared && changed) {
+      save(file);
+    }
+  }
+
+  private void calculateMissingLinks() {
+    calculateMovedLinks();
+    for (Radio radio: radioMedium.getRegisteredRadios()) {
+      if (!rows.containsKey(radio)) {
+        calculateRow(radio);
+      }
+    }
+  }
+
+  private Row calculateRow(Radio source) {
+    Row row = new Row();
+    double range = channelModel.getMaxInterferenceRange();
+    for (Radio destination: radioMedium.getRadiosInRange(source.getPosition(), range)) {
+      if (destination != source) {
+        calculateLink(source, destination, row);
+      }
+    }
+    rows.put(source, row);
+    changed = true;
+    return row;
+  }
+
+  private void calculateMovedLinks() {
+    if (movedRadios.isEmpty()) {
+      return;
+    }
+
+    double range = channelModel.getMaxInterferenceRange();
+    for (Radio moved: movedRadios) {
+      rows.remove(moved);
+      Integer movedId = radioIds.get(moved);
+      if (movedId == null) {
+        continue;
+      }
+
+      HashSet<Radio> radiosInRange = new HashSet<Radio>(
+          Arrays.asList(radioMedium.getRadiosInRange(moved.getPosition(), range)));
+      for (Map.Entry<Radio, Row> entry: rows.entrySet()) {
+        if (radiosInRange.contains(entry.getKey())) {
+          calculateLink(entry.getKey(), moved, entry.getValue());
+        } else {
+          entry.getValue().remove(movedId);
+        }
+      }
+    }
+    movedRadios.clear();
+    changed = true;
+  }
+
+  private void calculateLink(Radio source, Radio destination, Row row) {
+    Position sourcePosition = source.getPosition();
+    Position destinationPosition = destination.getPosition();
+    double[] probData = channelModel.getProbability(
+        sourcePosition.getXCoordinate(),
+        sourcePosition.getYCoordinate(),
+        destinationPosition.getXCoordinate(),
+        destinationPosition.getYCoordinate(),
+        -Double.MAX_VALUE
+    );
+    calculatedLinks++;
+
+    Integer destinationId = radioIds.get(destination);
+    if (destinationId == null) {
+      return;
+    }
+    if (probData[0] > 0 ||
+        probData[1] > channelModel.getParameterDoubleValue("bg_noise_mean")) {
+      row.put(destinationId, (float) probData[0], (float) probData[1]);
+    } else {
+      row.remove(destinationId);
+    }
+  }
+
+  /**
+   * @return Checksum of all channel model settings, including obstacles
+   */
+  private long getSettingsChecksum() {
+    CRC32 crc = new CRC32();
+    XMLOutputter outputter = new XMLOutputter();
+    for (Element element: channelModel.getConfigXML()) {
+      try {
+        crc.update(outputter.outputString(element).getBytes("UTF-8"));
+      } catch (UnsupportedEncodingException e) {
+        crc.update(outputter.outputString(element).getBytes());
+      }
+    }
+    return crc.getValue();
+  }
+
+  private static Point2D getPoint(Radio radio) {
+    return new Point2D.Double(
+        radio.getPosition().getXCoordinate(),
+        radio.getPosition().getYCoordinate());
+  }
+
+  /**
+   * Loads links from file. Radios are matched by position; radios not
+   * matching any saved position are marked for recalculation.
+   *
+   * @param file Link table file
+   * @return True if links were loaded
+   */
+  private boolean load(File file) {
+    rows.clear();
+    movedRadios.clear();
+
+    HashMap<Point2D, Vector<Radio>> radiosAtPoint = new HashMap<Point2D, Vector<Radio>>();
+    for (Radio radio: radioMedium.getRegisteredRadios()) {
+      Point2D point = getPoint(radio);
+      Vector<Radio> radios = radiosAtPoint.get(point);
+      if (radios == null) {
+        radios = new Vector<Radio>();
+        radiosAtPoint.put(point, radios);
+      }
+      radios.add(radio);
+    }
+
+    HashSet<Radio> loadedRadios = new HashSet<Radio>();
+    int loadedLinks = 0;
+    DataInputStream in = null;
+    try {
+      in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+      if (in.readInt() != FILE_MAGIC || in.readInt() != FILE_VERSION) {
+        logger.warn("Unknown link table format: " + file);
+        return false;
+      }
+      if (in.readLong() != getSettingsChecksum()) {
+        logger.info("Link table calculated with other settings, recalculating: " + file);
+        return false;
+      }
+
+      // Radios at each saved position
+      int nrPoints = in.readInt();
+      if (nrPoints < 0 || 16L*nrPoints > file.length()) {
+        throw new IOException("Bad number of positions: " + nrPoints);
+      }
+      ArrayList<Vector<Radio>> pointRadios = new ArrayList<Vector<Radio>>(nrPoints);
+      for (int i=0; i < nrPoints; i++) {
+        Point2D point = new Point2D.Double(in.readDouble(), in.readDouble());
+        pointRadios.add(radiosAtPoint.get(point));
+      }
+
+      int nrRows = in.readInt();
+      for (int r=0; r < nrRows; r++) {
+        Vector<Radio> sources = pointRadios.get(readPointIndex(in, nrPoints));
+        int size = in.readInt();
+        if (size < 0 || 12L*size > file.length()) {
+          throw new IOException("Bad row size: " + size);
+        }
+        int[] destinationPoints = new int[size];
+        float[] probabilities = new float[size];
+        float[] signalStrengths = new float[size];
+        for (int i=0; i < size; i++) {
+          destinationPoints[i] = readPointIndex(in, nrPoints);
+          probabilities[i] = in.readFloat();
+          signalStrengths[i] = in.readFloat();
+        }
+        if (sources == null) {
+          continue;
+        }
+
+        for (Radio source: sources) {
+          Row row = new Row();
+          for (int i=0; i < size; i++) {
+            Vector<Radio> destinations = pointRadios.get(destinationPoints[i]);
+            if (destinations == null) {
+              continue;
+            }
+            for (Radio destination: destinations) {
+              if (destination != source && radioIds.containsKey(destination)) {
+                row.put(radioIds.get(destination), probabilities[i], signalStrengths[i]);
+                loadedLinks++;
+              }
+            }
+          }
+          rows.put(source, row);
+          loadedRadios.add(source);
+        }
+      }
+    } catch (IOException e) {
+      logger.warn("Error when reading link table " + file + ": " + e.getMessage());
+      rows.clear();
+      loadedRadios.clear();
+      loadedLinks = 0;
+    } finally {
+      if (in != null) {
+        try {
+          in.close();
+        } catch (IOException e) {
+        }
+      }
+    }
+
+    // Radios at new positions are missing in loaded rows
+    for (Radio radio: radioMedium.getRegisteredRadios()) {
+      if (!loadedRadios.contains(radio)) {
+        movedRadios.add(radio);
+      }
+    }
+
+    if (loadedLinks > 0) {
+      logger.info("Loaded " + loadedLinks + " links from " + file);
+    }
+    return !loadedRadios.isEmpty();
+  }
+
+  private static int readPointIndex(DataInputStream in, int nrPoints) throws IOException {
+    int index = in.readInt();
+    if (index < 0 || index >= nrPoints) {
+      throw new IOException("Bad position index: " + index);
+    }
+    return index;
+  }
+
+  /**
+   * Saves all calculated links to file. Links to and from moved radios are
+   * not up to date, and are left out. The file is replaced only when
+   * completely written.
+   *
+   * @param file Link table file
+   */
+  private void save(File file) {
+    HashMap<Integer, Radio> radiosById = new HashMap<Integer, Radio>();
+    for (Map.Entry<Radio, Integer> entry: radioIds.entrySet()) {
+      if (!movedRadios.contains(entry.getKey())) {
+        radiosById.put(entry.getValue(), entry.getKey());
+      }
+    }
+    ArrayList<Map.Entry<Radio, Row>> savedRows = new ArrayList<Map.Entry<Radio, Row>>();
+    for (Map.Entry<Radio, Row> entry: rows.entrySet()) {
+      if (!movedRadios.contains(entry.getKey())) {
+        savedRows.add(entry);
+      }
+    }
+
+    // Index all radio positions
+    LinkedHashMap<Point2D, Integer> pointIndices = new LinkedHashMap<Point2D, Integer>();
+    for (Radio radio: radioMedium.getRegisteredRadios()) {
+      Point2D point = getPoint(radio);
+      if (!pointIndices.containsKey(point)) {
+        pointIndices.put(point, pointIndices.size());
+      }
+    }
+
+    File tmpFile = null;
+    DataOutputStream out = null;
+    try {
+      File dir = file.getAbsoluteFile().getParentFile();
+      tmpFile = File.createTempFile(file.getName(), ".tmp", dir);
+      out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+      out.writeInt(FILE_MAGIC);
+      out.writeInt(FILE_VERSION);
+      out.writeLong(getSettingsChecksum());
+
+      out.writeInt(pointIndices.size());
+      for (Point2D point: pointIndices.keySet()) {
+        out.writeDouble(point.getX());
+        out.writeDouble(point.getY());
+      }
+
+      out.writeInt(savedRows.size());
+      for (Map.Entry<Radio, Row> entry: savedRows) {
+        Row row = entry.getValue();
+        int size = 0;
+        for (int i=0; i < row.size; i++) {
+          if (radiosById.containsKey(row.destinations[i])) {
+            size++;
+          }
+        }
+
+        out.writeInt(pointIndices.get(getPoint(entry.getKey())));
+        out.writeInt(size);
+        for (int i=0; i < row.size; i++) {
+          Radio destination = radiosById.get(row.destinations[i]);
+          if (destination != null) {
+            out.writeInt(pointIndices.get(getPoint(destination)));
+            out.writeFloat(row.probabilities[i]);
+            out.writeFloat(row.signalStrengths[i]);
+          }
+        }
+      }
+      out.close();
+      out = null;
+
+      if (!tmpFile.renameTo(file)) {
+        file.delete();
+        if (!tmpFile.renameTo(file)) {
+          throw new IOException("Could not replace " + file);
+        }
+      }
+      tmpFile = null;
+      changed = false;
+      logger.info("Saved link table: " + file);
+    } catch (IOException e) {
+      logger.warn("Error when writing link table " + file + ": " + e.getMessage());
+    } finally {
+      if (out != null) {
+        try {
+          out.close();
+        } catch (IOException e) {
+        }
+      }
+      if (tmpFile != null) {
+        tmpFile.delete();
+      }
+    }
+  }
+
+}
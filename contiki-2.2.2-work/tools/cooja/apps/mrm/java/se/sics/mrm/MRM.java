@@ -31,6 +31,7 @@
 
 package se.sics.mrm;
 
+import java.io.File;
 import java.util.*;
 import org.apache.log4j.Logger;
 import org.jdom.Element;
@@ -52,6 +53,11 @@ import se.sics.cooja.radiomediums.AbstractRadioMedium;
  * MRM provides a number of plugins for example a plugin for visualizing radio
  * environments, and a plugin for configuring the radio medium.
  *
+ * For static topologies, links between all radios may be calculated once and
+ * stored in a link table (channel model parameter "link_table"). The table is
+ * saved next to the simulation config when the config is saved or a batch
+ * run ends, and loaded by later runs.
+ *
  * Future work includes adding diffractions and scattering support.
  *
  * @author Fredrik Osterlind
@@ -65,6 +71,11 @@ public class MRM extends AbstractRadioMedium {
 
   private Random random = new Random();
 
+  // Precomputed links, used if enabled in channel model
+  private LinkTable linkTable = null;
+  private HashMap<Position, Radio> positionRadios = new HashMap<Position, Radio>();
+  private double[] linkData = new double[2];
+
   /**
    * Notifies observers when this radio medium has changed settings.
    */
@@ -75,21 +86,48 @@ public class MRM extends AbstractRadioMedium {
    */
   public MRM(Simulation simulation) {
     super(simulation);
+    mySimulation = simulation;
 
     // Create the channel model
     currentChannelModel = new ChannelModel();
 
+    // Recalculate link table when channel model settings change
+    linkTable = new LinkTable(this, currentChannelModel);
+    currentChannelModel.addSettingsObserver(new Observer() {
+      public void update(Observable obs, Object obj) {
+        linkTable.clear();
+      }
+    });
+
     // Register temporary plugins
-    simulation.getGUI().registerTemporaryPlugin(AreaViewer.class);
-    simulation.getGUI().registerTemporaryPlugin(FormulaViewer.class);
+    if (simulation.getGUI() != null) {
+      simulation.getGUI().registerTemporaryPlugin(AreaViewer.class);
+      simulation.getGUI().registerTemporaryPlugin(FormulaViewer.class);
+    }
   }
 
   public MRMRadioConnection createConnections(Radio sendingRadio) {
     Position sendingPosition = sendingRadio.getPosition();
     MRMRadioConnection newConnection = new MRMRadioConnection(sendingRadio);
 
+    boolean useLinkTable = currentChannelModel.getParameterBooleanValue("link_table");
+    if (useLinkTable) {
+      linkTable.prepare(getLinkTableFile());
+    }
+
+    // Radios that may be affected by transmission, in registration order
+    double interferenceRange = currentChannelModel.getMaxInterferenceRange();
+    Radio[] radiosInRange = getRadiosInRange(sendingPosition, interferenceRange);
+    int nextInRange = 0;
+
     // Loop through all radios
     for (Radio listeningRadio: getRegisteredRadios()) {
+      boolean inRange = nextInRange < radiosInRange.length &&
+          radiosInRange[nextInRange] == listeningRadio;
+      if (inRange) {
+        nextInRange++;
+      }
+
       // Ignore sending radio and radios on different channels
       if (sendingRadio == listeningRadio) {
         continue;
@@ -100,21 +138,33 @@ public class MRM extends AbstractRadioMedium {
         continue;
       }
 
+      // Every radio consumes a random draw, so results do not depend on range
+      float draw = random.nextFloat();
+      if (!inRange) {
+        continue;
+      }
+
       double listeningPositionX = listeningRadio.getPosition().getXCoordinate();
       double listeningPositionY = listeningRadio.getPosition().getYCoordinate();
 
       // Calculate probability of reception of listening radio
-      double[] probData = currentChannelModel.getProbability(
-          sendingPosition.getXCoordinate(),
-          sendingPosition.getYCoordinate(),
-          listeningPositionX,
-          listeningPositionY,
-          -Double.MAX_VALUE
-      );
+      double[] probData;
+      if (useLinkTable) {
+        probData = linkData;
+        linkTable.getLink(sendingRadio, listeningRadio, probData);
+      } else {
+        probData = currentChannelModel.getCachedProbability(
+            sendingPosition.getXCoordinate(),
+            sendingPosition.getYCoordinate(),
+            listeningPositionX,
+            listeningPositionY,
+            -Double.MAX_VALUE
+        );
+      }
 
       //logger.info("Probability of reception is " + probData[0]);
       //logger.info("Signal strength at destination is " + probData[1]);
-      if (random.nextFloat() < probData[0]) {
+      if (draw < probData[0]) {
         // Check if this radio is able to receive transmission
         if (listeningRadio.isInterfered()) {
           // Keep interfering radio
@@ -127,15 +177,7 @@ public class MRM extends AbstractRadioMedium {
           listeningRadio.interfereAnyReception();
 
           // Update connection that is transmitting to this radio
-          MRMRadioConnection existingConn = null;
-          for (RadioConnection conn : getActiveConnections()) {
-            for (Radio dstRadio : ((MRMRadioConnection) conn).getDestinations()) {
-              if (dstRadio == listeningRadio) {
-                existingConn = (MRMRadioConnection) conn;
-                break;
-              }
-            }
-          }
+          RadioConnection existingConn = getReceivingConnection(listeningRadio);
           if (existingConn != null) {
             // Change radio from receiving to interfered
             existingConn.removeDestination(listeningRadio);
@@ -174,6 +216,35 @@ public class MRM extends AbstractRadioMedium {
     return newConnection;
   }
 
+  protected boolean supportsIncrementalSignalStrengths() {
+    return true;
+  }
+
+  protected double getBaseSignalStrength(Radio radio) {
+    return currentChannelModel.getParameterDoubleValue("bg_noise_mean");
+  }
+
+  protected double getSignalStrength(RadioConnection conn, Radio radio) {
+    if (radio == conn.getSource()) {
+      // TODO Set signal strength on source?
+      return Double.NaN;
+    }
+    return ((MRMRadioConnection) conn).getDestinationSignalStrength(radio);
+  }
+
+  protected RadioConnection restoreConnection(Radio source,
+      Radio[] destinations, double[] destinationStrengths,
+      Radio[] interfered, double[] interferedStrengths) {
+    MRMRadioConnection conn = new MRMRadioConnection(source);
+    for (int i=0; i < destinations.length; i++) {
+      conn.addDestination(destinations[i], destinationStrengths[i]);
+    }
+    for (int i=0; i < interfered.length; i++) {
+      conn.addInterfered(interfered[i], interferedStrengths[i]);
+    }
+    return conn;
+  }
+
   public void updateSignalStrengths() {
     // // Save old signal strengths
     // double[] oldSignalStrengths = new double[registeredRadios.size()];
@@ -228,15 +299,84 @@ public class MRM extends AbstractRadioMedium {
     // }
   }
 
+  public void registerRadioInterface(Radio radio, Simulation sim) {
+    super.registerRadioInterface(radio, sim);
+    if (radio != null) {
+      linkTable.registerRadio(radio);
+      positionRadios.put(radio.getPosition(), radio);
+      radio.getPosition().addObserver(positionObserver);
+    }
+  }
+
+  public void unregisterRadioInterface(Radio radio, Simulation sim) {
+    super.unregisterRadioInterface(radio, sim);
+    radio.getPosition().deleteObserver(positionObserver);
+    positionRadios.remove(radio.getPosition());
+    linkTable.unregisterRadio(radio);
+  }
+
+  private Observer positionObserver = new Observer() {
+    public void update(Observable obs, Object obj) {
+      Radio radio = positionRadios.get(obs);
+      if (radio != null) {
+        linkTable.positionChanged(radio);
+      }
+    }
+  };
+
+  /**
+   * Returns the file the link table is saved to: next to the simulation
+   * config, with the same name but extension ".mrmlinks".
+   *
+   * @return Link table file, or null if simulation has no config file
+   */
+  public File getLinkTableFile() {
+    File configFile = mySimulation.getConfigFile();
+    if (configFile == null) {
+      return null;
+    }
+    String name = configFile.getName();
+    if (name.endsWith(".csc")) {
+      name = name.substring(0, name.length() - 4);
+    }
+    return new File(configFile.getAbsoluteFile().getParentFile(), name + ".mrmlinks");
+  }
+
+  public void saveConfigFiles() {
+    // Save calculated links next to simulation config
+    if (currentChannelModel.getParameterBooleanValue("link_table")) {
+      File linkTableFile = getLinkTableFile();
+      if (linkTableFile != null) {
+        linkTable.saveIfChanged(linkTableFile);
+      }
+    }
+  }
+
   public Collection<Element> getConfigXML() {
     // Forwarding to current channel model
-    return currentChannelModel.getConfigXML();
+    Collection<Element> config = currentChannelModel.getConfigXML();
+
+    // Incremental signal strength updates
+    Element element = new Element("incremental_signal_strengths");
+    element.setText(Boolean.toString(isIncrementalSignalStrengths()));
+    config.add(element);
+
+    return config;
   }
 
   public boolean setConfigXML(Collection<Element> configXML,
       boolean visAvailable) {
+    Vector<Element> channelModelConfig = new Vector<Element>();
+    for (Element element: configXML) {
+      if (element.getName().equals("incremental_signal_strengths")) {
+        setIncrementalSignalStrengths(Boolean.parseBoolean(element.getText()));
+      } else {
+        channelModelConfig.add(element);
+      }
+    }
+
     // Forwarding to current channel model
-    return currentChannelModel.setConfigXML(configXML);
+    return currentChannelModel.setConfigXML(channelModelConfig);
   }
 
 
@@ -0,0 +1,516 @@
+/*
+ * Copyright (c) 2008, Swedish Institute of Computer Science.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * $Id$
+ */
+
+package se.sics.mrm;
+
+import java.awt.geom.Rectangle2D;
+import java.util.Arrays;
+import java.util.Vector;
+
+/**
+ * Bounding volume hierarchy of obstacles.
+ *
+ * The hierarchy is built once from a snapshot of the registered obstacles
+ * and is never changed afterwards; the obstacle world simply builds a new
+ * one when obstacles are added or removed. Nodes are split at the median
+ * obstacle center along their longest axis, so the tree depth grows
+ * logarithmically with the number of obstacles.
+ *
+ * Angle interval queries return obstacles in order of distance from the
+ * center point, other queries return obstacles in registration order.
+ *
+ * @author Fredrik Osterlind
+ */
+class ObstacleTree {
+  private static final int MAX_LEAF_SIZE = 4;
+
+  // Tolerance used when testing segments against obstacle bounds
+  private static final double SEGMENT_TOLERANCE = 1e-6;
+
+  // Obstacles in registration order
+  private final Rectangle2D[] obstacles;
+
+  // Registration index and bounds of each obstacle, in leaf order
+  private final int[] order;
+  private final double[] obstacleBounds;
+
+  // Node bounds (minX, minY, maxX, maxY) and children.
+  // Leaves hold obstacles [nodeStart, nodeStart+nodeCount) in leaf order,
+  // inner nodes (nodeCount == 0) have children nodeStart and nodeStart+1.
+  private double[] nodeBounds;
+  private int[] nodeStart;
+  private int[] nodeCount;
+  private int nrNodes = 0;
+  private int depth = 0;
+
+  /**
+   * Builds a new hierarchy of the given obstacles.
+   *
+   * @param allObstacles Obstacles
+   */
+  public ObstacleTree(Vector<Rectangle2D> allObstacles) {
+    obstacles = allObstacles.toArray(new Rectangle2D[allObstacles.size()]);
+    order = new int[obstacles.length];
+    obstacleBounds = new double[4*obstacles.length];
+
+    double[] centers = new double[2*obstacles.length];
+    for (int i=0; i < obstacles.length; i++) {
+      order[i] = i;
+      centers[2*i] = obstacles[i].getCenterX();
+      centers[2*i+1] = obstacles[i].getCenterY();
+    }
+
+    int maxNodes = Math.max(1, 2*obstacles.length);
+    nodeBounds = new double[4*maxNodes];
+    nodeStart = new int[maxNodes];
+    nodeCount = new int[maxNodes];
+    nrNodes = 1;
+    build(0, 0, obstacles.length, centers, 1);
+
+    for (int i=0; i < obstacles.length; i++) {
+      Rectangle2D obstacle = obstacles[order[i]];
+      obstacleBounds[4*i] = obstacle.getMinX();
+      obstacleBounds[4*i+1] = obstacle.getMinY();
+      obstacleBounds[4*i+2] = obstacle.getMaxX();
+      obstacleBounds[4*i+3] = obstacle.getMaxY();
+    }
+  }
+
+  private void build(int node, int start, int end, double[] centers, int level) {
+    depth = Math.max(depth, level);
+
+    double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+    double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+    double minCenterX = Double.POSITIVE_INFINITY, minCenterY = Double.POSITIVE_INFINITY;
+    double maxCenterX = Double.NEGATIVE_INFINITY, maxCenterY = Double.NEGATIVE_INFINITY;
+    for (int i=start; i < end; i++) {
+      Rectangle2D obstacle = obstacles[order[i]];
+      minX = Math.min(minX, obstacle.getMinX());
+      minY = Math.min(minY, obstacle.getMinY());
+      maxX = Math.max(maxX, obstacle.getMaxX());
+      maxY = Math.max(maxY, obstacle.getMaxY());
+      minCenterX = Math.min(minCenterX, centers[2*order[i]]);
+      minCenterY = Math.min(minCenterY, centers[2*order[i]+1]);
+      maxCenterX = Math.max(maxCenterX, centers[2*order[i]]);
+      maxCenterY = Math.max(maxCenterY, centers[2*order[i]+1]);
+    }
+    nodeBounds[4*node] = minX;
+    nodeBounds[4*node+1] = minY;
+    nodeBounds[4*node+2] = maxX;
+    nodeBounds[4*node+3] = maxY;
+
+    if (end - start <= MAX_LEAF_SIZE) {
+      nodeStart[node] = start;
+      nodeCount[node] = end - start;
+      return;
+    }
+
+    // Split at median center along longest axis
+    int axis = (maxCenterX - minCenterX >= maxCenterY - minCenterY) ? 0 : 1;
+    int mid = (start + end) / 2;
+    select(start, end - 1, mid, centers, axis);
+
+    int left = nrNodes;
+    nrNodes += 2;
+    nodeStart[node] = left;
+    nodeCount[node] = 0;
+    build(left, start, mid, centers, level + 1);
+    build(left + 1, mid, end, centers, level + 1);
+  }
+
+  /**
+   * Partially sorts order[low..high] so that position k holds the obstacle
+   * that would be there if the range was sorted by center coordinate.
+   */
+  private void select(int low, int high, int k, double[] centers, int axis) {
+    while (high > low) {
+      double pivot = centers[2*order[(low + high) >>> 1] + axis];
+      int i = low, j = high;
+      while (i <= j) {
+        while (centers[2*order[i] + axis] < pivot) {
+          i++;
+        }
+        while (centers[2*order[j] + axis] > pivot) {
+          j--;
+        }
+        if (i <= j) {
+          int tmp = order[i];
+          order[i] = order[j];
+          order[j] = tmp;
+          i++;
+          j--;
+        }
+      }
+      if (k <= j) {
+        high = j;
+      } else if (k >= i) {
+        low = i;
+      } else {
+        return;
+      }
+    }
+  }
+
+  /**
+   * @return Number of obstacles
+   */
+  public int size() {
+    return obstacles.length;
+  }
+
+  /**
+   * @return Number of tree nodes
+   */
+  public int getNrNodes() {
+    return nrNodes;
+  }
+
+  /**
+   * @return Tree depth
+   */
+  public int getDepth() {
+    return depth;
+  }
+
+  private Vector<Rectangle2D> toObstacles(int[] indices, int nrIndices) {
+    Arrays.sort(indices, 0, nrIndices);
+    Vector<Rectangle2D> result = new Vector<Rectangle2D>(nrIndices);
+    for (int i=0; i < nrIndices; i++) {
+      result.add(obstacles[indices[i]]);
+    }
+    return result;
+  }
+
+  private Vector<Rectangle2D> toObstaclesByDistance(int[] indices, int nrIndices,
+      double centerX, double centerY) {
+    double[] distances = new double[nrIndices];
+    for (int i=0; i < nrIndices; i++) {
+      Rectangle2D obstacle = obstacles[indices[i]];
+      double dx = Math.max(0, Math.max(obstacle.getMinX() - centerX, centerX - obstacle.getMaxX()));
+      double dy = Math.max(0, Math.max(obstacle.getMinY() - centerY, centerY - obstacle.getMaxY()));
+      distances[i] = dx*dx + dy*dy;
+    }
+    sortByDistance(indices, distances, 0, nrIndices - 1);
+
+    Vector<Rectangle2D> result = new Vector<Rectangle2D>(nrIndices);
+    for (int i=0; i < nrIndices; i++) {
+      result.add(obstacles[indices[i]]);
+    }
+    return result;
+  }
+
+  /**
+   * Sorts indices[low..high] by distance, and by index for equal distances.
+   */
+  private static void sortByDistance(int[] indices, double[] distances, int low, int high) {
+    while (high - low > 8) {
+      int middle = (low + high) >>> 1;
+      double pivotDistance = distances[middle];
+      int pivotIndex = indices[middle];
+      int i = low, j = high;
+      while (i <= j) {
+        while (distances[i] < pivotDistance ||
+            (distances[i] == pivotDistance && indices[i] < pivotIndex)) {
+          i++;
+        }
+        while (distances[j] > pivotDistance ||
+            (distances[j] == pivotDistance && indices[j] > pivotIndex)) {
+          j--;
+        }
+        if (i <= j) {
+          int tmpIndex = indices[i];
+          indices[i] = indices[j];
+          indices[j] = tmpIndex;
+          double tmpDistance = distances[i];
+          distances[i] = distances[j];
+          distances[j] = tmpDistance;
+          i++;
+          j--;
+        }
+      }
+      // Recurse into smaller part, loop on larger
+      if (j - low < high - i) {
+        sortByDistance(indices, distances, low, j);
+        low = i;
+      } else {
+        sortByDistance(indices, distances, i, high);
+        high = j;
+      }
+    }
+
+    for (int i=low + 1; i <= high; i++) {
+      int index = indices[i];
+      double distance = distances[i];
+      int j = i - 1;
+      while (j >= low && (distances[j] > distance ||
+          (distances[j] == distance && indices[j] > index))) {
+        indices[j+1] = indices[j];
+        distances[j+1] = distances[j];
+        j--;
+      }
+      indices[j+1] = index;
+      distances[j+1] = distance;
+    }
+  }
+
+  /**
+   * Returns all obstacles that contain the center point, or whose extent
+   * seen from the center point intersects the given angle interval.
+   * Obstacles are ordered by distance from the center point.
+   *
+   * @param centerX Center X coordinate
+   * @param centerY Center Y coordinate
+   * @param angleInterval Angle interval
+   * @return Obstacles in angle interval
+   */
+  public Vector<Rectangle2D> getObstaclesInAngleInterval(double centerX, double centerY, AngleInterval angleInterval) {
+    int[] found = new int[16];
+    int nrFound = 0;
+    if (obstacles.length == 0) {
+      return new Vector<Rectangle2D>();
+    }
+
+    int[] stack = new int[2*depth + 2];
+    int stackSize = 0;
+    stack[stackSize++] = 0;
+    while (stackSize > 0) {
+      int node = stack[--stackSize];
+      if (!boxInAngleInterval(nodeBounds, 4*node, centerX, centerY, angleInterval)) {
+        continue;
+      }
+      if (nodeCount[node] == 0) {
+        stack[stackSize++] = nodeStart[node];
+        stack[stackSize++] = nodeStart[node] + 1;
+        continue;
+      }
+      for (int i=nodeStart[node]; i < nodeStart[node] + nodeCount[node]; i++) {
+        if (boxInAngleInterval(obstacleBounds, 4*i, centerX, centerY, angleInterval)) {
+          if (nrFound == found.length) {
+            found = Arrays.copyOf(found, 2*nrFound);
+          }
+          found[nrFound++] = order[i];
+        }
+      }
+    }
+    return toObstaclesByDistance(found, nrFound, centerX, centerY);
+  }
+
+  /**
+   * Returns all obstacles containing the given point, or within the given
+   * distance of it in each direction.
+   *
+   * @param x X coordinate
+   * @param y Y coordinate
+   * @param tolerance Tolerance
+   * @return Obstacles near point
+   */
+  public Vector<Rectangle2D> getObstaclesNear(double x, double y, double tolerance) {
+    int[] found = new int[4];
+    int nrFound = 0;
+    if (obstacles.length == 0) {
+      return new Vector<Rectangle2D>();
+    }
+
+    int[] stack = new int[2*depth + 2];
+    int stackSize = 0;
+    stack[stackSize++] = 0;
+    while (stackSize > 0) {
+      int node = stack[--stackSize];
+      if (!boxNearPoint(nodeBounds, 4*node, x, y, tolerance)) {
+        continue;
+      }
+      if (nodeCount[node] == 0) {
+        stack[stackSize++] = nodeStart[node];
+        stack[stackSize++] = nodeStart[node] + 1;
+        continue;
+      }
+      for (int i=nodeStart[node]; i < nodeStart[node] + nodeCount[node]; i++) {
+        if (boxNearPoint(obstacleBounds, 4*i, x, y, tolerance)) {
+          if (nrFound == found.length) {
+            found = Arrays.copyOf(found, 2*nrFound);
+          }
+          found[nrFound++] = order[i];
+        }
+      }
+    }
+    return toObstacles(found, nrFound);
+  }
+
+  /**
+   * Counts obstacles containing the given point, as defined by
+   * {@link Rectangle2D#contains(double, double)}.
+   * Counting stops when the given maximum is exceeded.
+   *
+   * @param x X coordinate
+   * @param y Y coordinate
+   * @param max Maximum count of interest
+   * @return Number of obstacles containing point, at most max+1
+   */
+  public int countObstaclesContaining(double x, double y, int max) {
+    if (obstacles.length == 0) {
+      return 0;
+    }
+
+    int count = 0;
+    int[] stack = new int[2*depth + 2];
+    int stackSize = 0;
+    stack[stackSize++] = 0;
+    while (stackSize > 0) {
+      int node = stack[--stackSize];
+      if (!boxNearPoint(nodeBounds, 4*node, x, y, 0)) {
+        continue;
+      }
+      if (nodeCount[node] == 0) {
+        stack[stackSize++] = nodeStart[node];
+        stack[stackSize++] = nodeStart[node] + 1;
+        continue;
+      }
+      for (int i=nodeStart[node]; i < nodeStart[node] + nodeCount[node]; i++) {
+        if (obstacles[order[i]].contains(x, y)) {
+          count++;
+          if (count > max) {
+            return count;
+          }
+        }
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Checks whether any obstacle intersects or touches the given line segment.
+   * Obstacles only a tiny distance away from the segment may also be reported
+   * as intersecting.
+   *
+   * @param x1 Segment start X coordinate
+   * @param y1 Segment start Y coordinate
+   * @param x2 Segment end X coordinate
+   * @param y2 Segment end Y coordinate
+   * @return True if any obstacle may intersect segment
+   */
+  public boolean intersectsSegment(double x1, double y1, double x2, double y2) {
+    if (obstacles.length == 0) {
+      return false;
+    }
+
+    int[] stack = new int[2*depth + 2];
+    int stackSize = 0;
+    stack[stackSize++] = 0;
+    while (stackSize > 0) {
+      int node = stack[--stackSize];
+      if (!boxIntersectsSegment(nodeBounds, 4*node, x1, y1, x2, y2)) {
+        continue;
+      }
+      if (nodeCount[node] == 0) {
+        stack[stackSize++] = nodeStart[node];
+        stack[stackSize++] = nodeStart[node] + 1;
+        continue;
+      }
+      for (int i=nodeStart[node]; i < nodeStart[node] + nodeCount[node]; i++) {
+        if (boxIntersectsSegment(obstacleBounds, 4*i, x1, y1, x2, y2)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  private static boolean boxNearPoint(double[] bounds, int offset,
+      double x, double y, double tolerance) {
+    return
+        x >= bounds[offset] - tolerance &&
+        y >= bounds[offset+1] - tolerance &&
+        x <= bounds[offset+2] + tolerance &&
+        y <= bounds[offset+3] + tolerance;
+  }
+
+  private static boolean boxInAngleInterval(double[] bounds, int offset,
+      double centerX, double centerY, AngleInterval angleInterval) {
+    double minX = bounds[offset];
+    double minY = bounds[offset+1];
+    double maxX = bounds[offset+2];
+    double maxY = bounds[offset+3];
+
+    if (centerX >= minX && centerX <= maxX && centerY >= minY && centerY <= maxY) {
+      return true;
+    }
+
+    // The two diagonals together span the angles of the whole box
+    if (AngleInterval.getAngleIntervalOfLine(centerX, centerY,
+        minX, minY, maxX, maxY).intersects(angleInterval)) {
+      return true;
+    }
+    return AngleInterval.getAngleIntervalOfLine(centerX, centerY,
+        minX, maxY, maxX, minY).intersects(angleInterval);
+  }
+
+  private static boolean boxIntersectsSegment(double[] bounds, int offset,
+      double x1, double y1, double x2, double y2) {
+    double minX = bounds[offset] - SEGMENT_TOLERANCE;
+    double minY = bounds[offset+1] - SEGMENT_TOLERANCE;
+    double maxX = bounds[offset+2] + SEGMENT_TOLERANCE;
+    double maxY = bounds[offset+3] + SEGMENT_TOLERANCE;
+
+    // Clip segment parameter range against both slabs
+    double tMin = 0, tMax = 1;
+    double dx = x2 - x1;
+    if (dx == 0) {
+      if (x1 < minX || x1 > maxX) {
+        return false;
+      }
+    } else {
+      double t1 = (minX - x1) / dx;
+      double t2 = (maxX - x1) / dx;
+      tMin = Math.max(tMin, Math.min(t1, t2));
+      tMax = Math.min(tMax, Math.max(t1, t2));
+      if (tMin > tMax) {
+        return false;
+      }
+    }
+
+    double dy = y2 - y1;
+    if (dy == 0) {
+      if (y1 < minY || y1 > maxY) {
+        return false;
+      }
+    } else {
+      double t1 = (minY - y1) / dy;
+      double t2 = (maxY - y1) / dy;
+      tMin = Math.max(tMin, Math.min(t1, t2));
+      tMax = Math.min(tMax, Math.max(t1, t2));
+      if (tMin > tMax) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+}
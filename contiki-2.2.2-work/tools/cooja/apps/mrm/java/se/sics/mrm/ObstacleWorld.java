@@ -31,10 +31,8 @@
 
 package se.sics.mrm;
 
-import java.awt.Point;
 import java.awt.geom.*;
 import java.util.Collection;
-import java.util.Enumeration;
 import java.util.Vector;
 import org.apache.log4j.Logger;
 import org.jdom.Element;
@@ -51,10 +49,17 @@ class ObstacleWorld {
   // All registered obstacles
   private Vector<Rectangle2D> allObstacles = null;
   
-  // All registered obstacles, with spatial information
-  private int spatialResolution = 10;
-  private Vector<Rectangle2D>[][] allObstaclesSpatial = new Vector[spatialResolution][spatialResolution];
-  private boolean obstaclesOrganized = false;
+  // Spatial index of all registered obstacles, null when out of date
+  private volatile ObstacleTree obstacleTree = null;
+
+  // Number of obstacle changes, a tree is only stored if none happened while building it
+  private volatile int modifications = 0;
+
+  // Held while building the spatial index, so it is only built once
+  private final Object treeBuildLock = new Object();
+
+  // Tolerance used when searching obstacles near a point
+  private static final double NEAR_TOLERANCE = 0.01; // 1 cm
   
   // Outer bounds of all obstacles
   private Rectangle2D outerBounds = null;
@@ -67,10 +72,6 @@ class ObstacleWorld {
     // No obstacles present so far
     allObstacles = new Vector<Rectangle2D>();
     
-    for (int x=0; x < spatialResolution; x++)
-      for (int y=0; y < spatialResolution; y++) 
-        allObstaclesSpatial[x][y] = new Vector<Rectangle2D>();
-    
     outerBounds = new Rectangle2D.Double(0,0,0,0);
   }
   
@@ -118,204 +119,36 @@ class ObstacleWorld {
    * @return All obstacles containing or near center
    */
   public Vector<Rectangle2D> getAllObstaclesNear(Point2D center) {
-    double boxWidth = outerBounds.getWidth() / (double) spatialResolution;
-    double boxHeight = outerBounds.getHeight() / (double) spatialResolution;
-    double areaStartX = outerBounds.getMinX();
-    double areaStartY = outerBounds.getMinY();
-    
-    double centerX = (center.getX() - areaStartX)/boxWidth;
-    double centerY = (center.getY() - areaStartY)/boxHeight;
-
-    Vector<Rectangle2D> allNearObstacles = new Vector<Rectangle2D>();
-
-    Point pointToAdd = new Point((int) centerX, (int) centerY);
-    if (pointToAdd.x >= 0 &&
-        pointToAdd.x < allObstaclesSpatial.length &&
-        pointToAdd.y >= 0 &&
-        pointToAdd.y < allObstaclesSpatial[0].length)
-      allNearObstacles.addAll(allObstaclesSpatial[pointToAdd.x][pointToAdd.y]);
-
-    // Add borders if needed
-    boolean addedXBorder = false;
-    boolean addedYBorder = false;
-    if (Math.floor(centerX) == centerX) {
-      pointToAdd = new Point((int) centerX-1, (int) centerY);
-      if (pointToAdd.x >= 0 &&
-          pointToAdd.x < allObstaclesSpatial.length &&
-          pointToAdd.y >= 0 &&
-          pointToAdd.y < allObstaclesSpatial[0].length) {
-        allNearObstacles.addAll(allObstaclesSpatial[pointToAdd.x][pointToAdd.y]);
-        addedXBorder = true;
-      }
-    }
-
-    if (Math.floor(centerY) == centerY) {
-      pointToAdd = new Point((int) centerX, (int) centerY-1);
-      if (pointToAdd.x >= 0 &&
-          pointToAdd.x < allObstaclesSpatial.length &&
-          pointToAdd.y >= 0 &&
-          pointToAdd.y < allObstaclesSpatial[0].length) {
-        allNearObstacles.addAll(allObstaclesSpatial[pointToAdd.x][pointToAdd.y]);
-        addedYBorder = true;
-      }
-    }
-    
-    if (addedXBorder && addedYBorder) {
-      pointToAdd = new Point((int) centerX-1, (int) centerY-1);
-      allNearObstacles.addAll(allObstaclesSpatial[pointToAdd.x][pointToAdd.y]);
-    }
-      
-    return allNearObstacles;
+    return getObstacleTree().getObstaclesNear(center.getX(), center.getY(), NEAR_TOLERANCE);
   }
 
   /**
    * Returns at least all registered obstacles inside the given angle
    * interval when at the given center point. Note that obstacles partly or 
    * completely outside the interval may also be returned.
-   * All obstacles are preferably returned in order of distance from given
-   * center point, although this is not guaranteed.
+   * Obstacles are returned in order of distance from given center point.
    * 
    * @param center Center point
    * @param angleInterval Angle interval
    * @return All obstacles in given angle interval
    */
   public Vector<Rectangle2D> getAllObstaclesInAngleInterval(Point2D center, AngleInterval angleInterval) {
-    Vector<Rectangle2D> obstaclesToReturn = new Vector<Rectangle2D>();
-    if (!obstaclesOrganized) {
-      reorganizeSpatialObstacles();
-    }
-    
-    double boxWidth = outerBounds.getWidth() / (double) spatialResolution;
-    double boxHeight = outerBounds.getHeight() / (double) spatialResolution;
-    double areaStartX = outerBounds.getMinX();
-    double areaStartY = outerBounds.getMinY();
-    
-    // Calculate which boxes to check (and in which order)
-    Point centerInArray = new Point(
-        (int) ((center.getX() - areaStartX)/boxWidth),
-        (int) ((center.getY() - areaStartY)/boxHeight)
-    );
-    Vector<Point> pointsToCheck = new Vector<Point>();
-    
-    int currentDistance = 0;
-    while (currentDistance < 2*spatialResolution) {
-      
-      if (currentDistance > 0) {
-        int currentX = centerInArray.x - currentDistance;
-        int currentY = centerInArray.y - currentDistance;
-        
-        // Step right
-        while (currentX < centerInArray.x + currentDistance) {
-          if (currentX >= 0 &&
-              currentX < allObstaclesSpatial.length &&
-              currentY >= 0 &&
-              currentY < allObstaclesSpatial[0].length)
-            pointsToCheck.add(new Point(currentX, currentY));
-          currentX++;
-        }
-        
-        // Step right
-        while (currentY < centerInArray.y + currentDistance) {
-          if (currentX >= 0 &&
-              currentX < allObstaclesSpatial.length &&
-              currentY >= 0 &&
-              currentY < allObstaclesSpatial[0].length)
-            pointsToCheck.add(new Point(currentX, currentY));
-          currentY++;
-        }
-        
-        // Step left
-        while (currentX > centerInArray.x - currentDistance) {
-          if (currentX >= 0 &&
-              currentX < allObstaclesSpatial.length &&
-              currentY >= 0 &&
-              currentY < allObstaclesSpatial[0].length)
-            pointsToCheck.add(new Point(currentX, currentY));
-          currentX--;
-        }
-        
-        // Step up
-        while (currentY > centerInArray.y - currentDistance) {
-          if (currentX >= 0 &&
-              currentX < allObstaclesSpatial.length &&
-              currentY >= 0 &&
-              currentY < allObstaclesSpatial[0].length)
-            pointsToCheck.add(new Point(currentX, currentY));
-          currentY--;
-        }
-            
-      } else {
-        if (centerInArray.x >= 0 &&
-            centerInArray.x < allObstaclesSpatial.length &&
-            centerInArray.y >= 0 &&
-            centerInArray.y < allObstaclesSpatial[0].length) {
-          pointsToCheck.add(new Point(centerInArray.x, centerInArray.y));
-        }
-      }
-      currentDistance++;  
-    }
-      
-    for (int pointNr=0; pointNr < pointsToCheck.size(); pointNr++) {
-      // Check which obstacles should be in this box
-      boolean hit = false;
-      int x = pointsToCheck.get(pointNr).x;
-      int y = pointsToCheck.get(pointNr).y;
-      
-      // Test if we are inside test box
-      if (!hit) {
-        if (new Rectangle2D.Double(
-            areaStartX + x*boxWidth, 
-            areaStartY + y*boxHeight, 
-            boxWidth, 
-            boxHeight).contains(center)) {
-          hit = true;
-          for (int i=0; i < allObstaclesSpatial[x][y].size(); i++) {
-            if (!obstaclesToReturn.contains(allObstaclesSpatial[x][y].get(i)))
-              obstaclesToReturn.add(allObstaclesSpatial[x][y].get(i));
-          }
-        }
-      }
-      
-      // Test first diagonal
-      if (!hit) {
-        AngleInterval testInterval = AngleInterval.getAngleIntervalOfLine(
-            center,
-            new Line2D.Double(
-                areaStartX + x*boxWidth, 
-                areaStartY + y*boxHeight, 
-                areaStartX + (x+1)*boxWidth, 
-                areaStartY + (y+1)*boxHeight)
-        );
-        if (testInterval.intersects(angleInterval)) {
-          hit = true;
-          for (int i=0; i < allObstaclesSpatial[x][y].size(); i++) {
-            if (!obstaclesToReturn.contains(allObstaclesSpatial[x][y].get(i)))
-              obstaclesToReturn.add(allObstaclesSpatial[x][y].get(i));
-          }
-        }
-      }
-        
-      // Test second diagonal
-      if (!hit) {
-        AngleInterval testInterval = AngleInterval.getAngleIntervalOfLine(
-            center,
-            new Line2D.Double(
-                areaStartX + x*boxWidth, 
-                areaStartY + (y+1)*boxHeight,
-                areaStartX + (x+1)*boxWidth, 
-                areaStartY + y*boxHeight)
-        );
-        if (testInterval.intersects(angleInterval)) {
-          hit = true;
-          for (int i=0; i < allObstaclesSpatial[x][y].size(); i++) {
-            if (!obstaclesToReturn.contains(allObstaclesSpatial[x][y].get(i)))
-              obstaclesToReturn.add(allObstaclesSpatial[x][y].get(i));
-          }
-        }
-      }
-    }
-        
-    return obstaclesToReturn;
+    return getObstacleTree().getObstaclesInAngleInterval(center.getX(), center.getY(), angleInterval);
+  }
+  
+  /**
+   * Checks whether any registered obstacle intersects or touches the line
+   * segment between the given points. Obstacles only a tiny distance away
+   * from the segment may also be reported as intersecting.
+   * 
+   * @param x1 Start X coordinate
+   * @param y1 Start Y coordinate
+   * @param x2 End X coordinate
+   * @param y2 End Y coordinate
+   * @return True if any obstacle may intersect line segment
+   */
+  public boolean intersectsAnyObstacle(double x1, double y1, double x2, double y2) {
+    return getObstacleTree().intersectsSegment(x1, y1, x2, y2);
   }
   
   /**
@@ -323,11 +156,9 @@ class ObstacleWorld {
    */
   public void removeAll() {
     allObstacles.removeAllElements();
-    for (int x=0; x < spatialResolution; x++)
-      for (int y=0; y < spatialResolution; y++) 
-        allObstaclesSpatial[x][y].removeAllElements();
     
     outerBounds = new Rectangle2D.Double(0,0,0,0);
+    obstaclesChanged();
   }
   
   /**
@@ -342,51 +173,15 @@ class ObstacleWorld {
    * @return True of point is on a corner, false otherwise
    */
   public boolean pointIsNearCorner(Point2D point) {
-    double boxWidth = outerBounds.getWidth() / (double) spatialResolution;
-    double boxHeight = outerBounds.getHeight() / (double) spatialResolution;
-    double areaStartX = outerBounds.getMinX();
-    double areaStartY = outerBounds.getMinY();
+    ObstacleTree tree = getObstacleTree();
 
-    // Which obstacles should be checked
-    Point centerInArray = new Point(
-        (int) ((point.getX() - areaStartX)/boxWidth),
-        (int) ((point.getY() - areaStartY)/boxHeight)
-    );
-    Vector<Rectangle2D> allObstaclesToCheck = null;
-    if (centerInArray.x < 0)
-      centerInArray.x = 0;
-    if (centerInArray.x >= spatialResolution)
-      centerInArray.x = spatialResolution-1;
-    if (centerInArray.y < 0)
-      centerInArray.y = 0;
-    if (centerInArray.y >= spatialResolution)
-      centerInArray.y = spatialResolution-1;
-    
-    allObstaclesToCheck = allObstaclesSpatial[centerInArray.x][centerInArray.y];
-
-    if (allObstaclesToCheck.size() == 0) {
-      return false;
-    } 
-    
-    // Create the four point to check
+    // Check the four points
     double deltaDistance = 0.01; // 1 cm TODO Change this?
-    Point2D point1 = new Point2D.Double(point.getX() - deltaDistance, point.getY() - deltaDistance);
-    Point2D point2 = new Point2D.Double(point.getX() - deltaDistance, point.getY() + deltaDistance);
-    Point2D point3 = new Point2D.Double(point.getX() + deltaDistance, point.getY() - deltaDistance);
-    Point2D point4 = new Point2D.Double(point.getX() + deltaDistance, point.getY() + deltaDistance);
-
     int containedPoints = 0;
-    Enumeration<Rectangle2D> allObstaclesToCheckEnum = allObstaclesToCheck.elements();
-    while (allObstaclesToCheckEnum.hasMoreElements()) {
-      Rectangle2D obstacleToCheck = allObstaclesToCheckEnum.nextElement();
-      if (obstacleToCheck.contains(point1))
-        containedPoints++;
-      if (obstacleToCheck.contains(point2))
-        containedPoints++;
-      if (obstacleToCheck.contains(point3))
-        containedPoints++;
-      if (obstacleToCheck.contains(point4))
-        containedPoints++;
+    for (int i=0; i < 4; i++) {
+      double x = point.getX() + (i < 2 ? -deltaDistance : deltaDistance);
+      double y = point.getY() + (i % 2 == 0 ? -deltaDistance : deltaDistance);
+      containedPoints += tree.countObstaclesContaining(x, y, 1 - containedPoints);
 
       // Abort if already to many contained points
       if (containedPoints > 1) {
@@ -434,7 +229,7 @@ class ObstacleWorld {
           removeObstacle(existingObstacle);
           addObstacle(unionObstacle, false);
           
-          obstaclesOrganized = false;
+          obstaclesChanged();
           return unionObstacle;
         }
       }
@@ -510,7 +305,7 @@ class ObstacleWorld {
         mergedObstacle = mergeObstacle(mergedObstacle);
     }
     
-    obstaclesOrganized = false;
+    obstaclesChanged();
   }
   
   /**
@@ -522,7 +317,7 @@ class ObstacleWorld {
     allObstacles.remove(obstacle);
     
     recreateOuterBounds();
-    obstaclesOrganized = false;
+    obstaclesChanged();
   }
   
   /**
@@ -537,74 +332,68 @@ class ObstacleWorld {
     for (int i=0; i < allObstacles.size(); i++) {
       outerBounds = outerBounds.createUnion(allObstacles.get(i));
     }
-    obstaclesOrganized = false;
+    obstaclesChanged();
+  }
+  
+  /**
+   * Invalidates the spatial index after obstacles have changed.
+   */
+  private synchronized void obstaclesChanged() {
+    modifications++;
+    obstacleTree = null;
+  }
+
+  /**
+   * Returns the spatial index of all registered obstacles,
+   * rebuilding it first if obstacles have changed.
+   * 
+   * @return Obstacle tree
+   */
+  private ObstacleTree getObstacleTree() {
+    ObstacleTree tree = obstacleTree;
+    if (tree == null) {
+      synchronized (treeBuildLock) {
+        tree = obstacleTree;
+        if (tree == null) {
+          tree = reorganizeSpatialObstacles();
+        }
+      }
+    }
+    return tree;
   }
   
   /**
    * Reorganizes all registered obstacles in order to speed up
    * searches for obstacles in spatial areas.
-   * This method is run automatically 
+   * This method is run automatically when obstacles have changed.
+   * 
+   * @return New obstacle tree
    */
-  public void reorganizeSpatialObstacles() {
-    // Remove all spatial obstacles
-    for (int x=0; x < spatialResolution; x++)
-      for (int y=0; y < spatialResolution; y++) 
-        allObstaclesSpatial[x][y].removeAllElements();
-    
-    double boxWidth = outerBounds.getWidth() / (double) spatialResolution;
-    double boxHeight = outerBounds.getHeight() / (double) spatialResolution;
-    double currentBoxMinX = outerBounds.getMinX();
-    double currentBoxMinY = outerBounds.getMinY();
-    
-    // For each box, add obstacles that belong there
-    for (int x=0; x < spatialResolution; x++)
-      for (int y=0; y < spatialResolution; y++) {
-        // Check which obstacles should be in this box
-        Rectangle2D boxToCheck = new Rectangle2D.Double(currentBoxMinX + x*boxWidth, currentBoxMinY + y*boxHeight, boxWidth, boxHeight);
-        for (int i=0; i < allObstacles.size(); i++) {
-          if (allObstacles.get(i).intersects(boxToCheck)) {
-            allObstaclesSpatial[x][y].add(allObstacles.get(i));
-          }
-        }
+  public ObstacleTree reorganizeSpatialObstacles() {
+    int modificationsBefore = modifications;
+    ObstacleTree tree = new ObstacleTree(allObstacles);
+    synchronized (this) {
+      if (modifications == modificationsBefore) {
+        obstacleTree = tree;
       }
-    
-    obstaclesOrganized = true;
+    }
     
     //printObstacleGridToConsole();
+    return tree;
   }
   
   /**
    * Prints a description of all obstacles to the console
    */
   public void printObstacleGridToConsole() {
+    ObstacleTree tree = getObstacleTree();
     logger.info("<<<<<<< printObstacleGridToConsole >>>>>>>");
     logger.info(". Number of obstacles:\t" + getNrObstacles());
     logger.info(". Outer boundary min:\t" + getOuterBounds().getMinX() + ", " + getOuterBounds().getMinY());
     logger.info(". Outer boundary max:\t" + getOuterBounds().getMaxX() + ", " + getOuterBounds().getMaxY());
-    
-    Vector<Rectangle2D> uniqueSpatialObstacles = new Vector<Rectangle2D>();
-    for (int x=0; x < spatialResolution; x++)
-      for (int y=0; y < spatialResolution; y++) 
-        for (int i=0; i < allObstaclesSpatial[x][y].size(); i++) 
-          if (!uniqueSpatialObstacles.contains(allObstaclesSpatial[x][y].get(i)))
-            uniqueSpatialObstacles.add(allObstaclesSpatial[x][y].get(i));
-    logger.info(". Unique spatial obstacles:\t" + uniqueSpatialObstacles.size());
-    
-    int allSpatialObstacles = 0;
-    for (int x=0; x < spatialResolution; x++)
-      for (int y=0; y < spatialResolution; y++) 
-        for (int i=0; i < allObstaclesSpatial[x][y].size(); i++) 
-          allSpatialObstacles++;
-    logger.debug(". All spatial obstacles:\t" + allSpatialObstacles);
-    
-    logger.info(". Spatial map counts:");
-    for (int y=0; y < spatialResolution; y++) {
-      for (int x=0; x < spatialResolution; x++) {
-        System.out.print(allObstaclesSpatial[x][y].size() + " ");
-      }
-      System.out.println("");
-    }
-    
+    logger.info(". Indexed obstacles:\t" + tree.size());
+    logger.info(". Tree nodes:\t" + tree.getNrNodes());
+    logger.info(". Tree depth:\t" + tree.getDepth());
   }
   
   /**
@@ -30,6 +30,8 @@
  */
 
 package se.sics.cooja.mspmote;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintStream;
@@ -46,12 +48,18 @@ import se.sics.cooja.MoteInterface;
 import se.sics.cooja.MoteInterfaceHandler;
 import se.sics.cooja.MoteMemory;
 import se.sics.cooja.MoteType;
+import se.sics.cooja.RadioMedium;
 import se.sics.cooja.Simulation;
+import se.sics.cooja.Snapshottable;
+import se.sics.cooja.SynchronizedMote;
+import se.sics.cooja.interfaces.Radio;
+import se.sics.cooja.radiomediums.AbstractRadioMedium;
 import se.sics.cooja.mspmote.interfaces.TR1001Radio;
 import se.sics.mspsim.cli.CommandHandler;
 import se.sics.mspsim.cli.LineListener;
 import se.sics.mspsim.cli.LineOutputStream;
 import se.sics.mspsim.core.MSP430;
+import se.sics.mspsim.core.MSP430Constants;
 import se.sics.mspsim.platform.GenericNode;
 import se.sics.mspsim.util.ConfigManager;
 import se.sics.mspsim.util.ELF;
@@ -61,12 +69,22 @@ import se.sics.mspsim.util.MapTable;
 /**
  * @author Fredrik Osterlind
  */
-public abstract class MspMote implements Mote {
+public abstract class MspMote implements Mote, Snapshottable, SynchronizedMote {
   private static Logger logger = Logger.getLogger(MspMote.class);
 
   /* 2.4576 MHz according to Contiki's speed sync loop*/
   public static int NR_CYCLES_PER_MSEC = 2458;
 
+  /*
+   * Optional max number of cycles executed per mote tick, 0 means no limit.
+   * A mote tick otherwise runs the CPU until the earliest cycle at which any
+   * MSP mote may start a radio transmission.
+   */
+  public static int MAX_CYCLES_PER_TICK = 0;
+
+  /* Earliest interaction of all MSP motes, in cycles since simulation start */
+  private long interactionHorizon = Long.MIN_VALUE;
+
   /* Cycle counter */
   public long cycleCounter = 0;
   public int cycleDrift = 0;
@@ -231,16 +249,22 @@ public abstract class MspMote implements Mote {
     this.myCpu.setMonitorExec(true);
 
     int[] memory = myCpu.getMemory();
+    MapTable map;
     if (GUI.isVisualizedInApplet()) {
       myELFModule = node.loadFirmware(new URL(GUI.getAppletCodeBase(), fileELF.getName()), memory);
+      map = myELFModule.getMap();
     } else {
-      myELFModule = node.loadFirmware(fileELF.getPath(), memory);
+      /* Firmware is parsed once per mote type */
+      myELFModule = myMoteType.getELF();
+      synchronized (myELFModule) {
+        node.loadFirmware(myELFModule, memory);
+        map = myELFModule.getMap();
+      }
     }
 
     /* TODO Need new memory type including size and type as well */
 
     /* Create mote address memory */
-    MapTable map = myELFModule.getMap();
     MapEntry[] allEntries = map.getAllEntries();
     myMemory = new MspMoteMemory(allEntries, myCpu);
 
@@ -312,40 +336,128 @@ public abstract class MspMote implements Mote {
       return false;
     }
 
-    // Leave control to emulated CPU
-    cycleCounter += 1;
-
+    // Leave control to emulated CPU, at most until end of this millisecond
     MSP430 cpu = getCPU();
+    cycleCounter = Math.min(maxSimTimeCycles, getExecutionHorizon(maxSimTimeCycles));
+
     if (cpu.cycles > cycleCounter) {
       /* CPU already ticked too far - just wait it out */
       return true;
     }
     myMoteInterfaceHandler.doActiveActionsBeforeTick();
 
-    cpu.step(cycleCounter);
+    /* Execute instructions until cycle counter is reached */
+    do {
+      cpu.step(cycleCounter);
 
-    /* Check if radio has pending incoming bytes */
-    if (myRadio != null && myRadio.hasPendingBytes()) {
-      myRadio.tryDeliverNextByte(cpu.cycles);
-    }
-
-    if (monitorStackUsage) {
-      int newStack = cpu.reg[MSP430.SP];
-      if (newStack < stackPointerLow && newStack > 0) {
-        stackPointerLow = cpu.reg[MSP430.SP];
+      /* Check if radio has pending incoming bytes */
+      if (myRadio != null && myRadio.hasPendingBytes()) {
+        myRadio.tryDeliverNextByte(cpu.cycles);
+      }
 
-        // Check if stack is writing in memory
-        if (stackPointerLow < heapStartAddress) {
-          stackOverflowObservable.signalStackOverflow();
-          stopNextInstruction = true;
-          getSimulation().stopSimulation();
+      if (monitorStackUsage) {
+        int newStack = cpu.reg[MSP430.SP];
+        if (newStack < stackPointerLow && newStack > 0) {
+          stackPointerLow = cpu.reg[MSP430.SP];
+
+          // Check if stack is writing in memory
+          if (stackPointerLow < heapStartAddress) {
+            stopNextInstruction = true;
+            getSimulation().invokeSimulationThread(new Runnable() {
+              public void run() {
+                stackOverflowObservable.signalStackOverflow();
+                getSimulation().stopSimulation();
+              }
+            });
+          }
         }
       }
-    }
+
+      /* Breakpoint handlers abort the tick */
+      if (stopNextInstruction) {
+        break;
+      }
+    } while (cpu.cycles < cycleCounter);
 
     return true;
   }
 
+  /**
+   * Returns the cycle until which the CPU may execute without missing
+   * interactions with other motes. No MSP mote may start a radio transmission
+   * before the earliest interaction of all MSP motes, so all motes may
+   * execute until it. Any later cycle is reached one cycle per tick, as all
+   * motes then execute in lockstep.
+   *
+   * @param maxSimTimeCycles End of current millisecond
+   * @return Execution horizon in CPU cycles
+   */
+  private long getExecutionHorizon(long maxSimTimeCycles) {
+    long horizon = cycleCounter + 1;
+    if (interactionHorizon != Long.MIN_VALUE) {
+      long lastCycle = Math.min(interactionHorizon, maxSimTimeCycles - cycleDrift);
+      horizon = Math.max(horizon, lastCycle + cycleDrift + 1);
+    }
+    if (MAX_CYCLES_PER_TICK > 0) {
+      horizon = Math.min(horizon, cycleCounter + MAX_CYCLES_PER_TICK);
+    }
+    return horizon;
+  }
+
+  public void setInteractionHorizon(long time) {
+    interactionHorizon = time;
+  }
+
+  /**
+   * Returns the earliest cycle at which this mote may start a radio
+   * transmission: the next instruction of an active CPU, or the next
+   * scheduled CPU event (timers, peripherals) of a sleeping CPU. While any
+   * radio traffic is ongoing, this is the current cycle.
+   *
+   * A sleeping CPU skips directly to its next event when asked to execute,
+   * without changing any other state. The next event is found this way, and
+   * the CPU is then set back to the current cycle. If a pending interrupt
+   * wakes the CPU instead, it has executed the instruction it would have
+   * executed at its next tick.
+   *
+   * @return Earliest interaction in cycles since simulation start
+   */
+  public long getEarliestInteraction() {
+    MSP430 cpu = getCPU();
+    if (firstTick) {
+      /* Not yet synchronized with simulation time */
+      return Long.MIN_VALUE;
+    }
+
+    long cycles = cpu.cycles;
+    if (cpu.getMode() == MSP430Constants.MODE_ACTIVE || !isRadioIdle()) {
+      return cycles - cycleDrift;
+    }
+
+    cpu.emulateOP(-1);
+    if (cpu.getMode() == MSP430Constants.MODE_ACTIVE) {
+      return cycles - cycleDrift;
+    }
+    long nextEventCycles = cpu.cycles;
+    cpu.cycles = cycles;
+    return nextEventCycles - cycleDrift;
+  }
+
+  private boolean isRadioIdle() {
+    if (myRadio != null && myRadio.hasPendingBytes()) {
+      return false;
+    }
+    Radio radio = myMoteInterfaceHandler.getRadio();
+    if (radio != null && (radio.isTransmitting() || radio.isReceiving())) {
+      return false;
+    }
+    RadioMedium radioMedium = getSimulation().getRadioMedium();
+    if (!(radioMedium instanceof AbstractRadioMedium)) {
+      return false;
+    }
+    return ((AbstractRadioMedium) radioMedium).getActiveConnections().length == 0;
+  }
+
   public boolean setConfigXML(Simulation simulation, Collection<Element> configXML, boolean visAvailable) {
     for (Element element: configXML) {
       String name = element.getName();
@@ -401,4 +513,19 @@ public abstract class MspMote implements Mote {
     return config;
   }
 
+  /*
+   * MSP motes can not be snapshotted: timer, USART and radio chip state is
+   * private to MSPSim and tied to its own cycle based scheduling, and a mote
+   * restored with reset peripherals would never be interrupted again.
+   */
+  public void writeSnapshot(DataOutputStream out) throws IOException {
+    throw new IOException("MSP motes do not support snapshots: "
+        + "MSPSim peripheral state can not be saved");
+  }
+
+  public void readSnapshot(DataInputStream in) throws IOException {
+    throw new IOException("MSP motes do not support snapshots: "
+        + "MSPSim peripheral state can not be restored");
+  }
+
 }
@@ -191,4 +191,42 @@ public class MspMoteMemory implements MoteMemory, AddressMemory {
     setMemorySegment(varAddr, data);
   }
 
+  public IntVariable getIntVariable(String varName) throws UnknownVariableException {
+    final int varAddr = getMapEntry(varName).getAddress();
+    return new IntVariable() {
+      public int getValue() {
+        /* Little-endian signed 16-bit, see getIntValueOf() */
+        return (short) ((cpu.memory[varAddr] & 0xFF) | ((cpu.memory[varAddr + 1] & 0xFF) << 8));
+      }
+      public void setValue(int newVal) {
+        cpu.memory[varAddr] = newVal & 0xFF;
+        cpu.memory[varAddr + 1] = (newVal >> 8) & 0xFF;
+      }
+    };
+  }
+
+  public ByteVariable getByteVariable(String varName) throws UnknownVariableException {
+    final int varAddr = getMapEntry(varName).getAddress();
+    return new ByteVariable() {
+      public byte getValue() {
+        return (byte) cpu.memory[varAddr];
+      }
+      public void setValue(byte newVal) {
+        cpu.memory[varAddr] = newVal & 0xFF;
+      }
+    };
+  }
+
+  public ByteArrayVariable getByteArrayVariable(String varName) throws UnknownVariableException {
+    final int varAddr = getMapEntry(varName).getAddress();
+    return new ByteArrayVariable() {
+      public byte[] getValue(int length) {
+        return getMemorySegment(varAddr, length);
+      }
+      public void setValue(byte[] data) {
+        setMemorySegment(varAddr, data);
+      }
+    };
+  }
+
 }
@@ -45,6 +45,7 @@ import org.apache.log4j.Logger;
 import org.jdom.Element;
 import se.sics.cooja.*;
 import se.sics.cooja.dialogs.MessageList;
+import se.sics.mspsim.util.ELF;
 
 @ClassDescription("Msp Mote Type")
 public abstract class MspMoteType implements MoteType {
@@ -65,6 +66,9 @@ public abstract class MspMoteType implements MoteType {
   private File fileSource = null;
   private String compileCommand = null;
 
+  /* Parsed firmware, shared by all motes of this type */
+  private ELF elf = null;
+
   public String getIdentifier() {
     return identifier;
   }
@@ -89,6 +93,24 @@ public abstract class MspMoteType implements MoteType {
    */
   public void setELFFile(File file) {
     this.fileFirmware = file;
+    synchronized (this) {
+      elf = null;
+    }
+  }
+
+  /**
+   * Returns the parsed firmware. The firmware is parsed once, and then
+   * shared by all motes of this type. Users must synchronize on the
+   * returned object, since reading symbols is not thread safe.
+   *
+   * @return Parsed ELF file
+   * @throws IOException If ELF file could not be read
+   */
+  public synchronized ELF getELF() throws IOException {
+    if (elf == null) {
+      elf = ELF.readELF(fileFirmware.getPath());
+    }
+    return elf;
   }
 
   /**
@@ -172,13 +172,18 @@ public class ESBLED extends LED implements PortListener {
   }
 
 
-  public void portWrite(IOPort source, int data) {
-    redOn = (data & ESBNode.RED_LED) == 0;
-    greenOn = (data & ESBNode.GREEN_LED) == 0;
-    yellowOn = (data & ESBNode.YELLOW_LED) == 0;
-
-    setChanged();
-    notifyObservers();
+  public void portWrite(IOPort source, final int data) {
+    /* Notify observers on simulation thread */
+    mspMote.getSimulation().invokeSimulationThread(new Runnable() {
+      public void run() {
+        redOn = (data & ESBNode.RED_LED) == 0;
+        greenOn = (data & ESBNode.GREEN_LED) == 0;
+        yellowOn = (data & ESBNode.YELLOW_LED) == 0;
+
+        setChanged();
+        notifyObservers();
+      }
+    });
   }
 
 }
@@ -122,10 +122,17 @@ public class ESBLog extends Log implements USARTListener {
   public void dataReceived(USART source, int data) {
     newMessage += (char) data;
     if (data == '\n') {
-      lastLogMessage = newMessage;
+      final String message = newMessage;
       newMessage = "";
-      this.setChanged();
-      this.notifyObservers(myMote);
+
+      /* Notify observers on simulation thread */
+      myMote.getSimulation().invokeSimulationThread(new Runnable() {
+        public void run() {
+          lastLogMessage = message;
+          setChanged();
+          notifyObservers(myMote);
+        }
+      });
     }
   }
 
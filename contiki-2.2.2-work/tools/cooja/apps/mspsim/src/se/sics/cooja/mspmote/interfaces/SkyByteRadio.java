@@ -97,20 +97,8 @@ public class SkyByteRadio extends Radio implements CustomDataRadio {
       int expLen = 0;
       byte[] buffer = new byte[127 + 5];
       public void receivedByte(byte data) {
-        if (len == 0) {
-          lastEventTime = SkyByteRadio.this.mote.getSimulation().getSimulationTime();
-          lastEvent = RadioEvent.TRANSMISSION_STARTED;
-          /*logger.debug("----- SKY TRANSMISSION STARTED -----");*/
-          setChanged();
-          notifyObservers();
-        }
-
-        /* send this byte to all nodes */
-        lastOutgoingByte = new CC2420RadioByte(data);
-        lastEventTime = SkyByteRadio.this.mote.getSimulation().getSimulationTime();
-        lastEvent = RadioEvent.CUSTOM_DATA_TRANSMITTED;
-        setChanged();
-        notifyObservers();
+        final boolean started = len == 0;
+        final CC2420RadioByte outgoingByte = new CC2420RadioByte(data);
 
         buffer[len++] = data;
 
@@ -119,26 +107,52 @@ public class SkyByteRadio extends Radio implements CustomDataRadio {
           expLen = data + 6;
         }
 
+        final RadioPacket outgoingPacket;
         if (len == expLen) {
-          /*logger.debug("----- SKY CUSTOM DATA TRANSMITTED -----");*/
-
-          lastOutgoingPacket = CC2420RadioPacketConverter.fromCC2420ToCooja(buffer);
-          lastEventTime = SkyByteRadio.this.mote.getSimulation().getSimulationTime();
-          lastEvent = RadioEvent.PACKET_TRANSMITTED;
-          /*logger.debug("----- SKY PACKET TRANSMITTED -----");*/
-          setChanged();
-          notifyObservers();
-
-
-//          System.out.println("## CC2420 Transmission finished...");
-
-          lastEventTime = SkyByteRadio.this.mote.getSimulation().getSimulationTime();
-          /*logger.debug("----- SKY TRANSMISSION FINISHED -----");*/
-          lastEvent = RadioEvent.TRANSMISSION_FINISHED;
-          setChanged();
-          notifyObservers();
+          outgoingPacket = CC2420RadioPacketConverter.fromCC2420ToCooja(buffer);
           len = 0;
+        } else {
+          outgoingPacket = null;
         }
+
+        /* Notify observers on simulation thread */
+        mote.getSimulation().invokeSimulationThread(new Runnable() {
+          public void run() {
+            if (started) {
+              lastEventTime = mote.getSimulation().getSimulationTime();
+              lastEvent = RadioEvent.TRANSMISSION_STARTED;
+              /*logger.debug("----- SKY TRANSMISSION STARTED -----");*/
+              setChanged();
+              notifyObservers();
+            }
+
+            /* send this byte to all nodes */
+            lastOutgoingByte = outgoingByte;
+            lastEventTime = mote.getSimulation().getSimulationTime();
+            lastEvent = RadioEvent.CUSTOM_DATA_TRANSMITTED;
+            setChanged();
+            notifyObservers();
+
+            if (outgoingPacket != null) {
+              /*logger.debug("----- SKY CUSTOM DATA TRANSMITTED -----");*/
+
+              lastOutgoingPacket = outgoingPacket;
+              lastEventTime = mote.getSimulation().getSimulationTime();
+              lastEvent = RadioEvent.PACKET_TRANSMITTED;
+              /*logger.debug("----- SKY PACKET TRANSMITTED -----");*/
+              setChanged();
+              notifyObservers();
+
+//              System.out.println("## CC2420 Transmission finished...");
+
+              lastEventTime = mote.getSimulation().getSimulationTime();
+              /*logger.debug("----- SKY TRANSMISSION FINISHED -----");*/
+              lastEvent = RadioEvent.TRANSMISSION_FINISHED;
+              setChanged();
+              notifyObservers();
+            }
+          }
+        });
       }
     });
   }
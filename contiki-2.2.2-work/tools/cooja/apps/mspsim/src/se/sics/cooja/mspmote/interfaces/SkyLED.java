@@ -70,12 +70,17 @@ public class SkyLED extends LED {
     IOUnit unit = mspMote.getCPU().getIOUnit("Port 5");
     if (unit instanceof IOPort) {
       ((IOPort) unit).setPortListener(new PortListener() {
-        public void portWrite(IOPort source, int data) {
-          blueOn = (data & SkyNode.BLUE_LED) == 0;
-          greenOn = (data & SkyNode.GREEN_LED) == 0;
-          redOn = (data & SkyNode.RED_LED) == 0;
-          setChanged();
-          notifyObservers();
+        public void portWrite(IOPort source, final int data) {
+          /* Notify observers on simulation thread */
+          mspMote.getSimulation().invokeSimulationThread(new Runnable() {
+            public void run() {
+              blueOn = (data & SkyNode.BLUE_LED) == 0;
+              greenOn = (data & SkyNode.GREEN_LED) == 0;
+              redOn = (data & SkyNode.RED_LED) == 0;
+              setChanged();
+              notifyObservers();
+            }
+          });
         }
       });
     }
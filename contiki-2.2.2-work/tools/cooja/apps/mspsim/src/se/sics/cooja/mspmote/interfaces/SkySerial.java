@@ -203,17 +203,26 @@ public class SkySerial extends Log implements SerialPort, USARTListener {
   public void setConfigXML(Collection<Element> configXML, boolean visAvailable) {
   }
 
-  public void dataReceived(USART source, int data) {
+  public void dataReceived(USART source, final int data) {
     newMessage += (char) data;
-    if (data == '\n') {
-      lastLogMessage = newMessage;
+    final String message = (data == '\n') ? newMessage : null;
+    if (message != null) {
       newMessage = "";
-      this.setChanged();
-      this.notifyObservers(mote);
     }
 
-    lastSerialData = (byte) data;
-    serialDataObservable.notifyNewData();
+    /* Notify observers on simulation thread */
+    mote.getSimulation().invokeSimulationThread(new Runnable() {
+      public void run() {
+        if (message != null) {
+          lastLogMessage = message;
+          setChanged();
+          notifyObservers(mote);
+        }
+
+        lastSerialData = (byte) data;
+        serialDataObservable.notifyNewData();
+      }
+    });
   }
 
   public void close() {
@@ -232,6 +232,7 @@ public class TR1001Radio extends Radio implements USARTListener, CustomDataRadio
 
   /* USART listener support */
   public void dataReceived(USART source, int data) {
+    final boolean started;
     if (outgoingDataLength == 0 && !isTransmitting()) {
       /* New transmission discovered */
       /*logger.debug("----- NEW TR1001 TRANSMISSION DETECTED -----");*/
@@ -241,11 +242,9 @@ public class TR1001Radio extends Radio implements USARTListener, CustomDataRadio
 
       transmissionStartCycles = mote.getCPU().cycles;
       lastDeliveredByteTimestamp = transmissionStartCycles;
-
-      lastEvent = RadioEvent.TRANSMISSION_STARTED;
-      lastEventTime = mote.getSimulation().getSimulationTime();
-      this.setChanged();
-      this.notifyObservers();
+      started = true;
+    } else {
+      started = false;
     }
 
     // Remember recent radio activity
@@ -254,31 +253,24 @@ public class TR1001Radio extends Radio implements USARTListener, CustomDataRadio
 
     if (outgoingDataLength >= outgoingData.length) {
       logger.fatal("Ignoring byte due to buffer overflow");
+      notifyTransmission(started, null, false, null);
       return;
     }
 
     // Deliver byte to radio medium as custom data
     /*logger.debug("----- TR1001 DELIVERED BYTE -----");*/
-    lastEvent = RadioEvent.CUSTOM_DATA_TRANSMITTED;
-    tr1001ByteFromMote = new TR1001RadioByte((byte) data, mote.getCPU().cycles - lastDeliveredByteTimestamp);
-    this.setChanged();
-    this.notifyObservers();
+    TR1001RadioByte outgoingByte = new TR1001RadioByte((byte) data, mote.getCPU().cycles - lastDeliveredByteTimestamp);
 
     lastDeliveredByteTimestamp = mote.getCPU().cycles;
-    outgoingData[outgoingDataLength++] = tr1001ByteFromMote;
+    outgoingData[outgoingDataLength++] = outgoingByte;
 
     // Feed to application level immediately
-    boolean finished = tr1001PacketConverter.fromTR1001ToCoojaAccumulated(tr1001ByteFromMote);
+    boolean finished = tr1001PacketConverter.fromTR1001ToCoojaAccumulated(outgoingByte);
+    RadioPacket outgoingPacket = null;
     if (finished) {
         /* Transmission finished - deliver packet immediately */
         if (tr1001PacketConverter.accumulatedConversionIsOk()) {
-          packetFromMote = tr1001PacketConverter.getAccumulatedConvertedCoojaPacket();
-
-          /* Notify observers of new prepared packet */
-          /*logger.debug("----- TR1001 DELIVERED PACKET -----");*/
-          lastEvent = RadioEvent.PACKET_TRANSMITTED;
-          this.setChanged();
-          this.notifyObservers();
+          outgoingPacket = tr1001PacketConverter.getAccumulatedConvertedCoojaPacket();
         }
 
         // Reset counters and wait for next packet
@@ -287,12 +279,54 @@ public class TR1001Radio extends Radio implements USARTListener, CustomDataRadio
 
         // Signal we are done transmitting
         transmitting = false;
-        lastEvent = RadioEvent.TRANSMISSION_FINISHED;
-        this.setChanged();
-        this.notifyObservers();
 
         /*logger.debug("----- TR1001 TRANSMISSION ENDED -----");*/
     }
+    notifyTransmission(started, outgoingByte, finished, outgoingPacket);
+  }
+
+  /**
+   * Notifies observers of transmission events on the simulation thread.
+   *
+   * @param started Transmission started
+   * @param outgoingByte Byte delivered to radio medium, or null
+   * @param finished Transmission finished
+   * @param outgoingPacket Packet delivered to radio medium, or null
+   */
+  private void notifyTransmission(final boolean started, final TR1001RadioByte outgoingByte,
+      final boolean finished, final RadioPacket outgoingPacket) {
+    mote.getSimulation().invokeSimulationThread(new Runnable() {
+      public void run() {
+        if (started) {
+          lastEvent = RadioEvent.TRANSMISSION_STARTED;
+          lastEventTime = mote.getSimulation().getSimulationTime();
+          setChanged();
+          notifyObservers();
+        }
+
+        if (outgoingByte != null) {
+          lastEvent = RadioEvent.CUSTOM_DATA_TRANSMITTED;
+          tr1001ByteFromMote = outgoingByte;
+          setChanged();
+          notifyObservers();
+        }
+
+        if (outgoingPacket != null) {
+          /* Notify observers of new prepared packet */
+          /*logger.debug("----- TR1001 DELIVERED PACKET -----");*/
+          packetFromMote = outgoingPacket;
+          lastEvent = RadioEvent.PACKET_TRANSMITTED;
+          setChanged();
+          notifyObservers();
+        }
+
+        if (finished) {
+          lastEvent = RadioEvent.TRANSMISSION_FINISHED;
+          setChanged();
+          notifyObservers();
+        }
+      }
+    });
   }
 
   /* General radio support */
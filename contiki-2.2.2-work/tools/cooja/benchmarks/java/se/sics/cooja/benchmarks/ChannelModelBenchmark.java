@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2008, Swedish Institute of Computer Science.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * $Id$
+ */
+
+package se.sics.cooja.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import se.sics.mrm.ChannelModel;
+
+/**
+ * MRM channel model benchmarks, with different numbers of obstacles.
+ *
+ * @author Fredrik sterlind
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ChannelModelBenchmark {
+
+  private static final double AREA_SIZE = 200;
+
+  @Param({"0", "10", "50"})
+  public int obstacles;
+
+  private ChannelModel channelModel;
+
+  /* Source and destination coordinates: sx, sy, dx, dy */
+  private double[][] links;
+  private int nextLink = 0;
+
+  @Setup
+  public void setup() {
+    Random random = new Random(123);
+
+    channelModel = new ChannelModel();
+    for (int i=0; i < obstacles; i++) {
+      channelModel.addRectObstacle(
+          random.nextDouble() * AREA_SIZE, random.nextDouble() * AREA_SIZE,
+          1 + random.nextDouble() * 20, 1 + random.nextDouble() * 20, false);
+    }
+
+    /* Few links, as in a network of static motes */
+    links = new double[64][];
+    for (int i=0; i < links.length; i++) {
+      links[i] = new double[] {
+          random.nextDouble() * AREA_SIZE, random.nextDouble() * AREA_SIZE,
+          random.nextDouble() * AREA_SIZE, random.nextDouble() * AREA_SIZE
+      };
+    }
+  }
+
+  @Benchmark
+  public double[] getProbability() {
+    double[] link = links[nextLink++ & (links.length-1)];
+    return channelModel.getProbability(link[0], link[1], link[2], link[3], -Double.MAX_VALUE);
+  }
+
+  /**
+   * Transmissions from new source positions. The visibility tree and all
+   * visible sides are calculated by the ray tracer for each call.
+   * Run with -prof gc to compare allocation rates.
+   */
+  @Benchmark
+  public double[] getProbabilityNewSource() {
+    double[] link = links[nextLink++ & (links.length-1)];
+    double offset = 1e-6 * (nextLink & 0xffff);
+    return channelModel.getProbability(link[0] + offset, link[1], link[2], link[3], -Double.MAX_VALUE);
+  }
+
+  @Benchmark
+  public double[] getCachedProbability() {
+    double[] link = links[nextLink++ & (links.length-1)];
+    return channelModel.getCachedProbability(link[0], link[1], link[2], link[3], -Double.MAX_VALUE);
+  }
+
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2008, Swedish Institute of Computer Science.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * $Id$
+ */
+
+package se.sics.cooja.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import se.sics.cooja.*;
+
+/**
+ * Event queue insert and pop benchmarks.
+ *
+ * @author Fredrik sterlind
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class EventQueueBenchmark {
+
+  @Param({"heap", "calendar", "linkedlist"})
+  public String queue;
+
+  @Param({"16", "1024"})
+  public int events;
+
+  private EventQueue eventQueue;
+  private TimeEvent[] timeEvents;
+  private TimeEvent[] drainEvents;
+  private int[] delays;
+  private int nextDelay = 0;
+
+  static EventQueue createEventQueue(String queue) {
+    if (queue.equals("heap")) {
+      return new HeapEventQueue();
+    } else if (queue.equals("calendar")) {
+      return new CalendarEventQueue();
+    } else if (queue.equals("linkedlist")) {
+      return new LinkedListEventQueue();
+    }
+    throw new IllegalArgumentException("Unknown event queue: " + queue);
+  }
+
+  private static TimeEvent[] createEvents(int nrEvents) {
+    TimeEvent[] timeEvents = new TimeEvent[nrEvents];
+    for (int i=0; i < nrEvents; i++) {
+      timeEvents[i] = new TimeEvent(0) {
+        public void execute(int t) {
+        }
+      };
+    }
+    return timeEvents;
+  }
+
+  @Setup
+  public void setup() {
+    Random random = new Random(123);
+
+    eventQueue = createEventQueue(queue);
+    timeEvents = createEvents(events);
+    for (TimeEvent event: timeEvents) {
+      eventQueue.addEvent(event, random.nextInt(events));
+    }
+    drainEvents = createEvents(1024);
+
+    /* Mostly short delays, as when motes reschedule their next tick */
+    delays = new int[4096];
+    for (int i=0; i < delays.length; i++) {
+      delays[i] = random.nextInt(10) == 0 ? random.nextInt(10*events) : 1 + random.nextInt(4);
+    }
+  }
+
+  /**
+   * Pops the first event and schedules it again, keeping the queue size
+   * constant (hold model).
+   */
+  @Benchmark
+  public TimeEvent popAndReschedule() {
+    TimeEvent event = eventQueue.popFirst();
+    eventQueue.addEvent(event, event.getTime() + delays[nextDelay++ & (delays.length-1)]);
+    return event;
+  }
+
+  /**
+   * Schedules 1024 events into an empty queue, and pops them in order.
+   */
+  @Benchmark
+  @OperationsPerInvocation(1024)
+  public void fillAndDrain(Blackhole blackhole) {
+    EventQueue emptyQueue = createEventQueue(queue);
+    for (int i=0; i < 1024; i++) {
+      emptyQueue.addEvent(drainEvents[i], delays[i]);
+    }
+    TimeEvent event;
+    while ((event = emptyQueue.popFirst()) != null) {
+      blackhole.consume(event);
+    }
+  }
+
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2008, Swedish Institute of Computer Science.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * $Id$
+ */
+
+package se.sics.cooja.benchmarks;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import se.sics.cooja.AddressMemory.ByteVariable;
+import se.sics.cooja.AddressMemory.IntVariable;
+import se.sics.cooja.SectionMoteMemory;
+
+/**
+ * Section mote memory variable access benchmarks.
+ *
+ * @author Fredrik sterlind
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SectionMoteMemoryBenchmark {
+
+  @Param({"false", "true"})
+  public boolean direct;
+
+  private SectionMoteMemory memory;
+  private IntVariable intVariable;
+  private ByteVariable byteVariable;
+  private byte[] segment = new byte[32];
+  private int counter = 0;
+
+  @Setup
+  public void setup() {
+    Properties variables = new Properties();
+    variables.put("simInt", new Integer(0x1100));
+    variables.put("simByte", new Integer(0x1104));
+    variables.put("simArray", new Integer(0x1200));
+
+    /* Data and bss sections, similar to a small Contiki system */
+    memory = new SectionMoteMemory(variables, direct);
+    memory.setMemorySegment(0x1000, new byte[1024]);
+    memory.setMemorySegment(0x2000, new byte[8192]);
+
+    intVariable = memory.getIntVariable("simInt");
+    byteVariable = memory.getByteVariable("simByte");
+  }
+
+  @Benchmark
+  public int getIntValueOf() {
+    return memory.getIntValueOf("simInt");
+  }
+
+  @Benchmark
+  public void setIntValueOf() {
+    memory.setIntValueOf("simInt", counter++);
+  }
+
+  @Benchmark
+  public byte getByteValueOf() {
+    return memory.getByteValueOf("simByte");
+  }
+
+  @Benchmark
+  public int intVariableGet() {
+    return intVariable.getValue();
+  }
+
+  @Benchmark
+  public void intVariableSet() {
+    intVariable.setValue(counter++);
+  }
+
+  @Benchmark
+  public byte byteVariableGet() {
+    return byteVariable.getValue();
+  }
+
+  @Benchmark
+  public byte[] getByteArray() {
+    return memory.getByteArray("simArray", segment.length);
+  }
+
+  @Benchmark
+  public void setMemorySegment() {
+    memory.setMemorySegment(0x1200, segment);
+  }
+
+}
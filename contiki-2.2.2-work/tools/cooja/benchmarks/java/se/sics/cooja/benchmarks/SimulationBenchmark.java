@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2008, Swedish Institute of Computer Science.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * $Id$
+ */
+
+package se.sics.cooja.benchmarks;
+
+import java.util.Observable;
+import java.util.Observer;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import se.sics.cooja.*;
+import se.sics.cooja.motes.DisturberMoteType;
+import se.sics.cooja.motes.DummyMoteType;
+import se.sics.cooja.radiomediums.UDGM;
+
+/**
+ * Headless simulation benchmarks. Each invocation runs a network of dummy
+ * or disturber motes for one simulated second.
+ *
+ * @author Fredrik sterlind
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SimulationBenchmark {
+
+  private static final int SIMULATED_TIME = 1000;
+
+  @Param({"dummy", "disturber"})
+  public String mote;
+
+  @Param({"10", "100"})
+  public int motes;
+
+  private Simulation simulation;
+  private CountDownLatch stopped;
+
+  @Setup
+  public void setup() {
+    Random random = new Random(123);
+
+    simulation = new Simulation(null);
+    simulation.setDelayTime(0);
+    simulation.setRadioMedium(new UDGM(simulation));
+
+    MoteType moteType;
+    if (mote.equals("dummy")) {
+      moteType = new DummyMoteType("benchmark");
+    } else {
+      moteType = new DisturberMoteType("benchmark");
+    }
+    simulation.addMoteType(moteType);
+
+    for (int i=0; i < motes; i++) {
+      Mote newMote = moteType.generateMote(simulation);
+      newMote.getInterfaces().getPosition().setCoordinates(
+          random.nextDouble() * 200, random.nextDouble() * 200, 0);
+      simulation.addMote(newMote);
+    }
+
+    simulation.addObserver(new Observer() {
+      public void update(Observable obs, Object obj) {
+        if (!simulation.isRunning() && stopped != null) {
+          stopped.countDown();
+        }
+      }
+    });
+  }
+
+  @Benchmark
+  public int runOneSecond() throws InterruptedException {
+    int stopTime = simulation.getSimulationTime() + SIMULATED_TIME;
+    simulation.scheduleEvent(new TimeEvent(0) {
+      public void execute(int t) {
+        simulation.stopSimulation();
+      }
+    }, stopTime);
+
+    stopped = new CountDownLatch(1);
+    simulation.startSimulation();
+    stopped.await();
+    return simulation.getSimulationTime();
+  }
+
+}
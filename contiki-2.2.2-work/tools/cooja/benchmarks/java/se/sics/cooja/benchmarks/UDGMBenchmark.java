@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2008, Swedish Institute of Computer Science.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * $Id$
+ */
+
+package se.sics.cooja.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import se.sics.cooja.*;
+import se.sics.cooja.interfaces.Radio;
+import se.sics.cooja.motes.DisturberMoteType;
+import se.sics.cooja.radiomediums.UDGM;
+
+/**
+ * UDGM connection creation benchmarks, at different network densities.
+ *
+ * @author Fredrik sterlind
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class UDGMBenchmark {
+
+  @Param({"100", "1000"})
+  public int motes;
+
+  /* Average number of motes within interference range of each mote */
+  @Param({"2", "10", "50"})
+  public int neighbours;
+
+  private UDGM radioMedium;
+  private Radio[] radios;
+  private int nextRadio = 0;
+
+  @Setup
+  public void setup() {
+    Random random = new Random(123);
+
+    Simulation simulation = new Simulation(null);
+    radioMedium = new UDGM(simulation);
+    simulation.setRadioMedium(radioMedium);
+
+    double range = radioMedium.getInterferenceRange();
+    double side = Math.sqrt(motes * Math.PI * range * range / neighbours);
+    MoteType moteType = new DisturberMoteType("benchmark");
+    radios = new Radio[motes];
+    for (int i=0; i < motes; i++) {
+      Mote mote = moteType.generateMote(simulation);
+      mote.getInterfaces().getPosition().setCoordinates(
+          random.nextDouble() * side, random.nextDouble() * side, 0);
+      simulation.addMote(mote);
+      radios[i] = mote.getInterfaces().getRadio();
+    }
+  }
+
+  @Benchmark
+  public RadioConnection createConnections() {
+    return radioMedium.createConnections(radios[nextRadio++ % radios.length]);
+  }
+
+}
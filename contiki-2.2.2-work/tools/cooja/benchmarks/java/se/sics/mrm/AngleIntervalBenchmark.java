@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 2008, Swedish Institute of Computer Science.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * $Id$
+ */
+
+package se.sics.mrm;
+
+import java.util.Random;
+import java.util.Vector;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Angle interval benchmarks of the MRM ray tracer, when a line candidate is
+ * partly shadowed by another candidate: the unhandled angle intervals are
+ * split into intersections with the visible and shadow candidates.
+ *
+ * The vector based methods are the baseline; the ray tracer uses the buffer
+ * based methods. Run with -prof gc to compare allocation rates.
+ *
+ * Placed in the MRM package, since angle intervals are package private.
+ *
+ * @author Fredrik sterlind
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class AngleIntervalBenchmark {
+
+  @Param({"1", "4"})
+  public int unhandled;
+
+  /* Unhandled, visible candidate and shadow candidate intervals */
+  private Vector<AngleInterval>[] unhandledAngles;
+  private AngleInterval[] visible;
+  private AngleInterval[] shadow;
+  private int nextCase = 0;
+
+  private AngleIntervalBuffer unhandledBuffer = new AngleIntervalBuffer();
+  private AngleIntervalBuffer newBuffer = new AngleIntervalBuffer();
+  private AngleIntervalBuffer remainingBuffer = new AngleIntervalBuffer();
+  private AngleInterval intersection = new AngleInterval(0, 0);
+  private AngleInterval part = new AngleInterval(0, 0);
+  private double[] angles = new double[4];
+  private double[] parts = new double[8];
+
+  @SuppressWarnings("unchecked")
+  @Setup
+  public void setup() {
+    Random random = new Random(123);
+
+    unhandledAngles = new Vector[64];
+    visible = new AngleInterval[64];
+    shadow = new AngleInterval[64];
+    for (int i=0; i < unhandledAngles.length; i++) {
+      unhandledAngles[i] = new Vector<AngleInterval>();
+      for (int j=0; j < unhandled; j++) {
+        unhandledAngles[i].add(randomInterval(random, 2));
+      }
+      visible[i] = randomInterval(random, 1);
+      double start = visible[i].getStartAngle() + (random.nextDouble() - 0.5);
+      shadow[i] = new AngleInterval(start, start + random.nextDouble());
+    }
+  }
+
+  private static AngleInterval randomInterval(Random random, double maxSize) {
+    double start = random.nextDouble() * 2*Math.PI;
+    return new AngleInterval(start, start + 0.01 + random.nextDouble() * maxSize);
+  }
+
+  /**
+   * Split as in earlier ray tracers, creating new vectors and intervals.
+   */
+  @Benchmark
+  public int splitVector() {
+    int i = nextCase++ & (unhandledAngles.length-1);
+    Vector<AngleInterval> unhandledAngles = this.unhandledAngles[i];
+    AngleInterval visibleLineCandidateAngleInterval = visible[i];
+    AngleInterval shadowLineCandidateAngleInterval = shadow[i];
+
+    Vector<AngleInterval> newIntervalsToAdd = new Vector<AngleInterval>();
+
+    AngleInterval intersectedInterval =
+      visibleLineCandidateAngleInterval.intersectWith(shadowLineCandidateAngleInterval);
+    if (intersectedInterval != null) {
+      Vector<AngleInterval> tempVector1 =
+        AngleInterval.intersect(unhandledAngles, intersectedInterval);
+      for (int k=0; k < tempVector1.size(); k++)
+        if (tempVector1.get(k) != null && !tempVector1.get(k).isEmpty())
+          newIntervalsToAdd.add(tempVector1.get(k));
+    }
+
+    Vector<AngleInterval> tempVector2 =
+      visibleLineCandidateAngleInterval.subtract(shadowLineCandidateAngleInterval);
+    for (int k=0; k < tempVector2.size(); k++)
+      if (tempVector2.get(k) != null && !tempVector2.get(k).isEmpty())
+        newIntervalsToAdd.addAll(AngleInterval.intersect(unhandledAngles, tempVector2.get(k)));
+
+    unhandledAngles = AngleInterval.subtract(unhandledAngles, visibleLineCandidateAngleInterval);
+    for (int k=0; k < newIntervalsToAdd.size(); k++)
+      if (newIntervalsToAdd.get(k) != null && !newIntervalsToAdd.get(k).isEmpty())
+        unhandledAngles.add(newIntervalsToAdd.get(k));
+
+    return unhandledAngles.size();
+  }
+
+  /**
+   * Split as in the current ray tracer, reusing intervals and buffers.
+   */
+  @Benchmark
+  public int splitBuffer() {
+    int i = nextCase++ & (unhandledAngles.length-1);
+    AngleInterval visibleLineCandidateAngleInterval = visible[i];
+    AngleInterval shadowLineCandidateAngleInterval = shadow[i];
+
+    AngleIntervalBuffer unhandledAngles = unhandledBuffer;
+    unhandledAngles.clear();
+    for (int k=0; k < this.unhandledAngles[i].size(); k++)
+      unhandledAngles.add(this.unhandledAngles[i].get(k));
+
+    AngleIntervalBuffer newIntervalsToAdd = newBuffer;
+    newIntervalsToAdd.clear();
+
+    if (visibleLineCandidateAngleInterval.intersectWith(shadowLineCandidateAngleInterval, angles)) {
+      intersection.set(angles[0], angles[1]);
+      newIntervalsToAdd.addIntersections(unhandledAngles, intersection, angles);
+    }
+
+    int nrParts = visibleLineCandidateAngleInterval.subtract(shadowLineCandidateAngleInterval, parts);
+    for (int k=0; k < nrParts; k++) {
+      part.set(parts[2*k], parts[2*k+1]);
+      if (!part.isEmpty())
+        newIntervalsToAdd.addIntersections(unhandledAngles, part, angles);
+    }
+
+    unhandledAngles.subtract(visibleLineCandidateAngleInterval, remainingBuffer, parts);
+    for (int k=0; k < newIntervalsToAdd.size(); k++)
+      unhandledAngles.add(newIntervalsToAdd.get(k));
+
+    return unhandledAngles.size();
+  }
+
+}
@@ -205,6 +205,125 @@ Java_se_sics_cooja_corecomm_[CLASS_NAME]_setMemory(JNIEnv *env, jobject obj, jin
   (*env)->ReleaseByteArrayElements(env, mem_arr, mem, 0);
 }
 /*---------------------------------------------------------------------------*/
+/**
+ * \brief      Replace a region of a process memory segment.
+ * \param start Start address of segment
+ * \param offset Offset of region in segment and byte array
+ * \param length Size of region
+ * \param mem_arr Byte array containing new memory segment
+ *
+ *             Replaces (length) bytes starting at (start + offset) with the
+ *             bytes starting at (offset) in the given byte array. Used to
+ *             transfer only the parts of a segment modified by the Java part.
+ *             This function does not perform ANY error checking.
+ *
+ *             This is a JNI function and should only be called via the
+ *             responsible Java part (MoteType.java).
+ */
+JNIEXPORT void JNICALL
+Java_se_sics_cooja_corecomm_[CLASS_NAME]_setMemoryRegion(JNIEnv *env, jobject obj, jint start, jint offset, jint length, jbyteArray mem_arr)
+{
+  (*env)->GetByteArrayRegion(env, mem_arr, offset, (size_t) length, (jbyte *) (start + offset));
+}
+/*---------------------------------------------------------------------------*/
+/**
+ * \brief      Copy changed pages from src to dst.
+ * \return     Number of changed pages
+ */
+static jint
+copy_changed_pages(jbyte *dst, jbyte *src, jint length, jint page_size)
+{
+  jint offset, size, changed = 0;
+
+  for(offset = 0; offset < length; offset += page_size) {
+    size = length - offset < page_size ? length - offset : page_size;
+    if(memcmp(dst + offset, src + offset, size) != 0) {
+      memcpy(dst + offset, src + offset, size);
+      changed++;
+    }
+  }
+  return changed;
+}
+/*---------------------------------------------------------------------------*/
+/**
+ * \brief      Copy changed pages of a segment from the process memory.
+ * \param start Start address of segment
+ * \param length Size of memory segment
+ * \param mem_arr Byte array containing an earlier copy of the segment
+ * \param page_size Page size
+ * \return     Number of changed pages
+ *
+ *             Compares the process memory segment with the given byte array
+ *             page by page, and copies only the pages that differ to the
+ *             byte array. This function does not perform ANY error checking.
+ *
+ *             This is a JNI function and should only be called via the
+ *             responsible Java part (MoteType.java).
+ */
+JNIEXPORT jint JNICALL
+Java_se_sics_cooja_corecomm_[CLASS_NAME]_getMemoryChanges(JNIEnv *env, jobject obj, jint start, jint length, jbyteArray mem_arr, jint page_size)
+{
+  jint changed;
+  jbyte *mem = (*env)->GetPrimitiveArrayCritical(env, mem_arr, 0);
+
+  if(mem == NULL) {
+    return -1;
+  }
+
+  changed = copy_changed_pages(mem, (jbyte *) start, length, page_size);
+
+  (*env)->ReleasePrimitiveArrayCritical(env, mem_arr, mem, 0);
+  return changed;
+}
+/*---------------------------------------------------------------------------*/
+/**
+ * \brief      Replace a region of a process memory segment.
+ * \param start Start address of segment
+ * \param offset Offset of region in segment and buffer
+ * \param length Size of region
+ * \param mem_buf Direct byte buffer containing new memory segment
+ *
+ *             Same as setMemoryRegion(), but copies directly from a direct
+ *             byte buffer without involving the Java heap.
+ *             This function does not perform ANY error checking.
+ *
+ *             This is a JNI function and should only be called via the
+ *             responsible Java part (MoteType.java).
+ */
+JNIEXPORT void JNICALL
+Java_se_sics_cooja_corecomm_[CLASS_NAME]_setMemoryFromBuffer(JNIEnv *env, jobject obj, jint start, jint offset, jint length, jobject mem_buf)
+{
+  jbyte *mem = (*env)->GetDirectBufferAddress(env, mem_buf);
+  memcpy((jbyte *) start + offset, mem + offset, length);
+}
+/*---------------------------------------------------------------------------*/
+/**
+ * \brief      Copy changed pages of a segment from the process memory.
+ * \param start Start address of segment
+ * \param length Size of memory segment
+ * \param mem_buf Direct byte buffer containing an earlier copy of the segment
+ * \param page_size Page size
+ * \return     Number of changed pages
+ *
+ *             Same as getMemoryChanges(), but copies directly to a direct
+ *             byte buffer without involving the Java heap.
+ *             This function does not perform ANY error checking.
+ *
+ *             This is a JNI function and should only be called via the
+ *             responsible Java part (MoteType.java).
+ */
+JNIEXPORT jint JNICALL
+Java_se_sics_cooja_corecomm_[CLASS_NAME]_getMemoryChangesToBuffer(JNIEnv *env, jobject obj, jint start, jint length, jobject mem_buf, jint page_size)
+{
+  jbyte *mem = (*env)->GetDirectBufferAddress(env, mem_buf);
+
+  if(mem == NULL) {
+    return -1;
+  }
+
+  return copy_changed_pages(mem, (jbyte *) start, length, page_size);
+}
+/*---------------------------------------------------------------------------*/
 /**
  * \brief      Let mote execute one "block" of code (tick mote).
  *
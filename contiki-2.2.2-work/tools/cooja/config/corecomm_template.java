@@ -30,6 +30,7 @@
 
 package se.sics.cooja.corecomm;
 import java.io.File;
+import java.nio.ByteBuffer;
 
 import se.sics.cooja.*;
 
@@ -55,4 +56,8 @@ public class [CLASSNAME] extends CoreComm {
   public native int getReferenceAbsAddr();
   public native void getMemory(int start, int length, byte[] mem);
   public native void setMemory(int start, int length, byte[] mem);
+  public native void setMemoryRegion(int start, int offset, int length, byte[] mem);
+  public native int getMemoryChanges(int start, int length, byte[] mem, int pageSize);
+  public native void setMemoryFromBuffer(int start, int offset, int length, ByteBuffer mem);
+  public native int getMemoryChangesToBuffer(int start, int length, ByteBuffer mem, int pageSize);
 }
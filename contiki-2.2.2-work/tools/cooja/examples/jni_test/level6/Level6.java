@@ -0,0 +1,228 @@
+/*
+ * Copyright (c) 2009, Swedish Institute of Computer Science.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * $Id$
+ */
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.Properties;
+import java.util.Vector;
+import org.apache.log4j.xml.DOMConfigurator;
+
+import se.sics.cooja.GUI;
+import se.sics.cooja.SectionMoteMemory;
+import se.sics.cooja.contikimote.ContikiMoteType;
+
+public class Level6 {
+  private final File externalToolsSettingsFile = new File("../exttools.cfg");
+
+  static {
+    System.load(new File("level6.library").getAbsolutePath());
+  }
+
+  private native void doCount();
+  private native int getRefAddress();
+  public native void getMemory(int start, int length, byte[] mem);
+  public native void setMemory(int start, int length, byte[] mem);
+  public native void setMemoryFromBuffer(int start, int length, ByteBuffer mem);
+  public native int getMemoryChangesToBuffer(int start, int length, ByteBuffer mem, int pageSize);
+
+  private static final int NR_MOTES = 10;
+  private static final int NR_ROUNDS = 20000;
+
+  private int offsetRelToAbs;
+
+  public Level6() {
+
+    // Configure logger
+    DOMConfigurator.configure(GUI.class.getResource("/" + GUI.LOG_CONFIG_FILE));
+
+    // Load configuration
+    System.out.println("Loading COOJA configuration");
+    GUI.externalToolsUserSettingsFile = externalToolsSettingsFile;
+    GUI.loadExternalToolsDefaultSettings();
+    GUI.loadExternalToolsUserSettings();
+
+    // Should we parse addresses using map file or command?
+    boolean useCommand = Boolean.parseBoolean(GUI.getExternalToolsSetting("PARSE_WITH_COMMAND", "false"));
+
+    Properties addresses = new Properties();
+    int relDataSectionAddr = -1;
+    int dataSectionSize = -1;
+    int relBssSectionAddr = -1;
+    int bssSectionSize = -1;
+
+    if (useCommand) {
+      // Parse command output
+      System.out.println("Parsing using command");
+
+      File libFile = new File("level6.library");
+      if (!libFile.exists()) {
+        System.err.println("Library file " + libFile.getAbsolutePath() + " could not be found!");
+        System.exit(1);
+      }
+
+      Vector<String> commandData = ContikiMoteType.loadCommandData(libFile);
+      if (commandData == null) {
+        System.err.println("No command data could be loaded");
+        System.exit(1);
+      }
+
+      boolean parseOK = ContikiMoteType.parseCommandData(commandData, addresses);
+      if (!parseOK) {
+        System.err.println("Command data parsing failed");
+        System.exit(1);
+      }
+
+      relDataSectionAddr = ContikiMoteType.loadCommandRelDataSectionAddr(commandData);
+      dataSectionSize = ContikiMoteType.loadCommandDataSectionSize(commandData);
+      relBssSectionAddr = ContikiMoteType.loadCommandRelBssSectionAddr(commandData);
+      bssSectionSize = ContikiMoteType.loadCommandBssSectionSize(commandData);
+    } else {
+      // Parse map file
+      System.out.println("Parsing using map file");
+      File mapFile = new File("level6.map");
+      if (!mapFile.exists()) {
+        System.err.println("No map file could be loaded");
+        System.exit(1);
+      }
+
+      Vector<String> mapData = ContikiMoteType.loadMapFile(mapFile);
+      if (mapData == null) {
+        System.err.println("No map data could be loaded");
+        System.exit(1);
+      }
+
+      boolean parseOK = ContikiMoteType.parseMapFileData(mapData, addresses);
+      if (!parseOK) {
+        System.err.println("Map data parsing failed");
+        System.exit(1);
+      }
+
+      relDataSectionAddr = ContikiMoteType.loadRelDataSectionAddr(mapData);
+      dataSectionSize = ContikiMoteType.loadDataSectionSize(mapData);
+      relBssSectionAddr = ContikiMoteType.loadRelBssSectionAddr(mapData);
+      bssSectionSize = ContikiMoteType.loadBssSectionSize(mapData);
+    }
+
+    int absRefAddress = getRefAddress();
+    int relRefAddress = (Integer) addresses.get("ref_var");
+    offsetRelToAbs = absRefAddress - relRefAddress;
+
+    byte[] initialDataSection = new byte[dataSectionSize];
+    byte[] initialBssSection = new byte[bssSectionSize];
+    getMemory(relDataSectionAddr + offsetRelToAbs, dataSectionSize, initialDataSection);
+    getMemory(relBssSectionAddr + offsetRelToAbs, bssSectionSize, initialBssSection);
+
+    System.out.println("Section sizes: data=" + dataSectionSize + " bss=" + bssSectionSize);
+    System.out.println("Ticking " + NR_MOTES + " motes " + NR_ROUNDS + " times each");
+
+    /* Warm up both paths before measuring */
+    runBenchmark(addresses, initialDataSection, relDataSectionAddr,
+        initialBssSection, relBssSectionAddr, false, NR_ROUNDS / 10);
+    runBenchmark(addresses, initialDataSection, relDataSectionAddr,
+        initialBssSection, relBssSectionAddr, true, NR_ROUNDS / 10);
+
+    double copyRate = runBenchmark(addresses, initialDataSection, relDataSectionAddr,
+        initialBssSection, relBssSectionAddr, false, NR_ROUNDS);
+    System.out.println("Byte array copy path:\t" + (long) copyRate + " ticks/s");
+
+    double directRate = runBenchmark(addresses, initialDataSection, relDataSectionAddr,
+        initialBssSection, relBssSectionAddr, true, NR_ROUNDS);
+    System.out.println("Direct buffer path:\t" + (long) directRate + " ticks/s");
+
+    System.out.println("\n");
+    System.out.println("Speedup: " + ((int) (100*directRate/copyRate))/100.0);
+    System.out.println("Level 6 OK!");
+  }
+
+  /**
+   * Ticks all motes round robin, switching memory between each tick the same
+   * way ContikiMoteType does.
+   *
+   * @return Ticks per second
+   */
+  private double runBenchmark(Properties addresses,
+      byte[] dataSection, int dataSectionAddr,
+      byte[] bssSection, int bssSectionAddr,
+      boolean direct, int rounds) {
+    SectionMoteMemory[] memories = new SectionMoteMemory[NR_MOTES];
+    for (int i=0; i < NR_MOTES; i++) {
+      memories[i] = new SectionMoteMemory(addresses, direct);
+      memories[i].setMemorySegment(dataSectionAddr, dataSection.clone());
+      memories[i].setMemorySegment(bssSectionAddr, bssSection.clone());
+    }
+    int initialDataCounter = memories[0].getIntValueOf("initialized_counter");
+    int initialBssCounter = memories[0].getIntValueOf("uninitialized_counter");
+
+    long start = System.nanoTime();
+    for (int round=0; round < rounds; round++) {
+      for (SectionMoteMemory memory: memories) {
+        for (int s=0; s < memory.getNumberOfSections(); s++) {
+          int addr = memory.getStartAddrOfSection(s) + offsetRelToAbs;
+          int size = memory.getSizeOfSection(s);
+          if (direct) {
+            setMemoryFromBuffer(addr, size, memory.getBufferOfSection(s));
+          } else {
+            setMemory(addr, size, memory.getDataOfSection(s));
+          }
+        }
+
+        doCount();
+
+        for (int s=0; s < memory.getNumberOfSections(); s++) {
+          int addr = memory.getStartAddrOfSection(s) + offsetRelToAbs;
+          int size = memory.getSizeOfSection(s);
+          if (direct) {
+            getMemoryChangesToBuffer(addr, size, memory.getBufferOfSection(s),
+                SectionMoteMemory.PAGE_SIZE);
+          } else {
+            getMemory(addr, size, memory.getDataOfSection(s));
+          }
+        }
+      }
+    }
+    long duration = System.nanoTime() - start;
+
+    for (SectionMoteMemory memory: memories) {
+      if (memory.getIntValueOf("initialized_counter") != initialDataCounter + rounds
+          || memory.getIntValueOf("uninitialized_counter") != initialBssCounter + rounds) {
+        System.out.println("Mote memory counters mismatch: FAILED!");
+        System.exit(1);
+      }
+    }
+
+    return (double) rounds * NR_MOTES * 1000000000L / duration;
+  }
+
+  public static void main(String[] args) {
+    new Level6();
+  }
+
+}
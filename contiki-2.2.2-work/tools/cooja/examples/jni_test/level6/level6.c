@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2009, Swedish Institute of Computer Science.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * $Id$
+ */
+
+#include <jni.h>
+#include <stdio.h>
+#include <string.h>
+
+int ref_var;
+
+int initialized_counter=1;
+int uninitialized_counter;
+
+/* Large arrays, emulating the data and bss sections of a Contiki system */
+char initialized_array[4096] = { 1 };
+char uninitialized_array[16384];
+
+JNIEXPORT void JNICALL
+Java_Level6_doCount(JNIEnv *env, jobject obj)
+{
+  ++initialized_counter;
+  ++uninitialized_counter;
+  initialized_array[initialized_counter % sizeof(initialized_array)]++;
+  uninitialized_array[uninitialized_counter % sizeof(uninitialized_array)]++;
+}
+JNIEXPORT jint JNICALL
+Java_Level6_getRefAddress(JNIEnv *env, jobject obj)
+{
+  return (jint) &ref_var;
+}
+
+JNIEXPORT void JNICALL
+Java_Level6_getMemory(JNIEnv *env, jobject obj, jint start, jint length, jbyteArray mem_arr)
+{
+  (*env)->SetByteArrayRegion(env, mem_arr, 0, (size_t) length, (jbyte *) start);
+}
+
+JNIEXPORT void JNICALL
+Java_Level6_setMemory(JNIEnv *env, jobject obj, jint start, jint length, jbyteArray mem_arr)
+{
+  jbyte *mem = (*env)->GetByteArrayElements(env, mem_arr, 0);
+  memcpy((void *) start, mem, length);
+  (*env)->ReleaseByteArrayElements(env, mem_arr, mem, 0);
+}
+
+JNIEXPORT void JNICALL
+Java_Level6_setMemoryFromBuffer(JNIEnv *env, jobject obj, jint start, jint length, jobject mem_buf)
+{
+  jbyte *mem = (*env)->GetDirectBufferAddress(env, mem_buf);
+  memcpy((void *) start, mem, length);
+}
+
+JNIEXPORT jint JNICALL
+Java_Level6_getMemoryChangesToBuffer(JNIEnv *env, jobject obj, jint start, jint length, jobject mem_buf, jint page_size)
+{
+  jint offset, size, changed = 0;
+  jbyte *mem = (*env)->GetDirectBufferAddress(env, mem_buf);
+
+  for(offset = 0; offset < length; offset += page_size) {
+    size = length - offset < page_size ? length - offset : page_size;
+    if(memcmp(mem + offset, (jbyte *) start + offset, size) != 0) {
+      memcpy(mem + offset, (jbyte *) start + offset, size);
+      changed++;
+    }
+  }
+  return changed;
+}
@@ -113,6 +113,61 @@ public interface AddressMemory {
    */
   public void setIntValueOf(String varName, int newVal) throws UnknownVariableException;
 
+  /**
+   * Returns a handle to the integer variable with the given name. The
+   * variable address is resolved once, and the handle then accesses the
+   * variable without any name lookups.
+   *
+   * @param varName Name of integer variable
+   * @return Variable handle
+   * @throws UnknownVariableException Variable does not exist
+   */
+  public IntVariable getIntVariable(String varName) throws UnknownVariableException;
+
+  /**
+   * Returns a handle to the byte variable with the given name.
+   *
+   * @see #getIntVariable(String)
+   * @param varName Name of byte variable
+   * @return Variable handle
+   * @throws UnknownVariableException Variable does not exist
+   */
+  public ByteVariable getByteVariable(String varName) throws UnknownVariableException;
+
+  /**
+   * Returns a handle to the byte array with the given name.
+   *
+   * @see #getIntVariable(String)
+   * @param varName Name of array
+   * @return Variable handle
+   * @throws UnknownVariableException Variable does not exist
+   */
+  public ByteArrayVariable getByteArrayVariable(String varName) throws UnknownVariableException;
+
+  /**
+   * Pre-resolved integer variable.
+   */
+  public interface IntVariable {
+    public int getValue();
+    public void setValue(int newVal);
+  }
+
+  /**
+   * Pre-resolved byte variable.
+   */
+  public interface ByteVariable {
+    public byte getValue();
+    public void setValue(byte newVal);
+  }
+
+  /**
+   * Pre-resolved byte array.
+   */
+  public interface ByteArrayVariable {
+    public byte[] getValue(int length);
+    public void setValue(byte[] data);
+  }
+
   /**
    * Unknown variable name exception.
    */
@@ -0,0 +1,549 @@
+/*
+ * Copyright (c) 2008, Swedish Institute of Computer Science.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * $Id$
+ */
+
+package se.sics.cooja;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.apache.log4j.Logger;
+import org.jdom.Element;
+import org.jdom.JDOMException;
+import org.jdom.input.SAXBuilder;
+
+import se.sics.cooja.plugins.LogScriptEngine;
+import se.sics.cooja.radiomediums.RadioCapture;
+
+/**
+ * Runs many simulations concurrently without visualization.
+ *
+ * Runs are read from a runs file, one simulation config per line:
+ * <pre>
+ * # Comment
+ * &lt;config.csc&gt; [script=&lt;test.js&gt;] [seeds=&lt;first&gt;[-&lt;last&gt;]] [timeout=&lt;ms&gt;] [snapshot=&lt;file&gt;] [capture=&lt;file&gt;] [trace=&lt;file&gt;] [profile=&lt;file&gt;] [&lt;path&gt;=&lt;value&gt; ...]
+ * </pre>
+ * A line with a seed range results in one run per seed. Other arguments
+ * override leaf elements of the simulation config, the path being the
+ * slash separated element names below the root element, for example
+ * <code>simulation/radiomedium/transmitting_range=30</code>.
+ *
+ * The config may also be a simulation snapshot, in which case each run
+ * continues from the snapshot. Timeouts are relative to the start time of
+ * the run. Runs with a snapshot argument save a snapshot when they end.
+ * Runs with a capture argument stream all radio traffic to the given file,
+ * in pcap format if the file name ends with .pcap.
+ * Runs with a trace argument record an event trace to the given file, see
+ * EventTraceAnalyzer. Runs with a profile argument write a summary of where
+ * time was spent per phase, mote type, mote and interface to the given file.
+ * A run can not be both traced and profiled. The seed is added to snapshot,
+ * capture, trace and profile file names when the line has several seeds.
+ *
+ * Simulations are loaded one at a time, and then run concurrently. Plugins
+ * in the simulation configs are not started. Loaded mote types are kept in
+ * a pool and reused by later runs with the same mote type config, so each
+ * Contiki mote type is compiled and loaded at most once per concurrent run,
+ * and MSP firmwares are read once per concurrent run. A mote type is used
+ * by one run at a time, since Contiki libraries hold the state of the
+ * simulated motes.
+ *
+ * The result of each run, including the resident mote memory size, is
+ * appended to summary.csv in the output directory, and any script output is
+ * written to run[number].log.
+ *
+ * @see LogScriptEngine
+ * @see SimulationSnapshot
+ * @see RadioCapture
+ * @see MoteTypePool
+ * @see EventTrace
+ * @see SimulationProfiler
+ * @author Fredrik sterlind
+ */
+public class BatchRunner {
+  private static Logger logger = Logger.getLogger(BatchRunner.class);
+
+  public static final int DEFAULT_TIMEOUT = 1200000; /* 1200s = 20 minutes */
+
+  private GUI gui;
+
+  private File outputDir;
+
+  private int threads;
+
+  private int timeout = DEFAULT_TIMEOUT;
+
+  private ArrayList<Run> runs = new ArrayList<Run>();
+
+  private BufferedWriter summaryWriter = null;
+
+  private MoteTypePool moteTypePool = null;
+
+  private class Run {
+    int number;
+    File config;
+    File script = null;
+    Long seed = null;
+    int timeout;
+    File snapshot = null;
+    File capture = null;
+    File trace = null;
+    File profile = null;
+    LinkedHashMap<String, String> overrides = new LinkedHashMap<String, String>();
+
+    String status = "ERROR";
+    String message = "";
+    long seedUsed = 0;
+    int simulationTime = 0;
+    long wallTime = 0;
+    long memorySize = 0;
+  }
+
+  /**
+   * @param gui GUI used to load simulations
+   * @param outputDir Directory of summary and script logs
+   * @param threads Number of concurrent simulations
+   */
+  public BatchRunner(GUI gui, File outputDir, int threads) {
+    this.gui = gui;
+    this.outputDir = outputDir;
+    this.threads = Math.max(1, threads);
+  }
+
+  /**
+   * Sets default timeout of runs, in simulated milliseconds.
+   * Runs without test script are stopped at the timeout.
+   *
+   * @param timeout Timeout
+   */
+  public void setTimeout(int timeout) {
+    this.timeout = timeout;
+  }
+
+  /**
+   * Reads runs from given runs file.
+   *
+   * @param runsFile Runs file
+   * @throws IOException If file could not be read, or contains errors
+   */
+  public void readRuns(File runsFile) throws IOException {
+    BufferedReader in = new BufferedReader(new FileReader(runsFile));
+    String line;
+    int lineNr = 0;
+    try {
+      while ((line = in.readLine()) != null) {
+        lineNr++;
+        line = line.trim();
+        if (line.length() == 0 || line.startsWith("#")) {
+          continue;
+        }
+
+        String[] args = line.split("\\s+");
+        File config = new File(args[0]);
+        if (!config.exists()) {
+          throw new IOException(runsFile + ":" + lineNr + ": Can't locate simulation config: " + config);
+        }
+
+        File script = null;
+        File snapshot = null;
+        File capture = null;
+        File trace = null;
+        File profile = null;
+        long firstSeed = 0, lastSeed = 0;
+        boolean hasSeeds = false;
+        int runTimeout = timeout;
+        LinkedHashMap<String, String> overrides = new LinkedHashMap<String, String>();
+        for (int i=1; i < args.length; i++) {
+          int eq = args[i].indexOf('=');
+          if (eq <= 0) {
+            throw new IOException(runsFile + ":" + lineNr + ": Bad argument: " + args[i]);
+          }
+          String key = args[i].substring(0, eq);
+          String value = args[i].substring(eq+1);
+
+          try {
+            if (key.equals("script")) {
+              script = new File(value);
+              if (!script.exists()) {
+                throw new IOException(runsFile + ":" + lineNr + ": Can't locate script: " + script);
+              }
+            } else if (key.equals("seeds")) {
+              int dash = value.indexOf('-', 1);
+              if (dash > 0) {
+                firstSeed = Long.parseLong(value.substring(0, dash));
+                lastSeed = Long.parseLong(value.substring(dash+1));
+              } else {
+                firstSeed = lastSeed = Long.parseLong(value);
+              }
+              hasSeeds = true;
+            } else if (key.equals("timeout")) {
+              runTimeout = Integer.parseInt(value);
+            } else if (key.equals("snapshot")) {
+              snapshot = new File(value);
+            } else if (key.equals("capture")) {
+              capture = new File(value);
+            } else if (key.equals("trace")) {
+              trace = new File(value);
+            } else if (key.equals("profile")) {
+              profile = new File(value);
+            } else {
+              overrides.put(key, value);
+            }
+          } catch (NumberFormatException e) {
+            throw new IOException(runsFile + ":" + lineNr + ": Bad number: " + args[i]);
+          }
+        }
+
+        if (trace != null && profile != null) {
+          throw new IOException(runsFile + ":" + lineNr + ": Can't both trace and profile a run");
+        }
+
+        for (long seed=firstSeed; seed <= lastSeed; seed++) {
+          Run run = new Run();
+          run.number = runs.size() + 1;
+          run.config = config;
+          run.script = script;
+          run.seed = hasSeeds?seed:null;
+          run.timeout = runTimeout;
+          run.overrides = overrides;
+          if (snapshot != null) {
+            run.snapshot = lastSeed > firstSeed?getSeedFile(snapshot, seed):snapshot;
+          }
+          if (capture != null) {
+            run.capture = lastSeed > firstSeed?getSeedFile(capture, seed):capture;
+          }
+          if (trace != null) {
+            run.trace = lastSeed > firstSeed?getSeedFile(trace, seed):trace;
+          }
+          if (profile != null) {
+            run.profile = lastSeed > firstSeed?getSeedFile(profile, seed):profile;
+          }
+          runs.add(run);
+        }
+      }
+    } finally {
+      in.close();
+    }
+  }
+
+  private static File getSeedFile(File file, long seed) {
+    String name = file.getName();
+    int dot = name.lastIndexOf('.');
+    if (dot <= 0) {
+      return new File(file.getParentFile(), name + "-" + seed);
+    }
+    return new File(file.getParentFile(),
+        name.substring(0, dot) + "-" + seed + name.substring(dot));
+  }
+
+  /**
+   * @return Number of runs
+   */
+  public int getRunsCount() {
+    return runs.size();
+  }
+
+  /**
+   * Executes all runs, and blocks until all have finished.
+   *
+   * @return True if all runs finished without errors or failed tests
+   * @throws IOException If summary could not be written
+   */
+  public boolean runAll() throws IOException {
+    outputDir.mkdirs();
+    summaryWriter = new BufferedWriter(new FileWriter(new File(outputDir, "summary.csv")));
+    summaryWriter.write("run,config,seed,status,simulated_ms,wall_ms,memory_bytes,message\n");
+    summaryWriter.flush();
+
+    moteTypePool = new MoteTypePool();
+    gui.setMoteTypePool(moteTypePool);
+
+    ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, "batch run");
+        t.setDaemon(true);
+        return t;
+      }
+    });
+
+    ArrayList<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+    for (final Run run: runs) {
+      results.add(executor.submit(new Callable<Boolean>() {
+        public Boolean call() throws IOException {
+          execute(run);
+          writeSummary(run);
+          return run.status.equals("OK") || run.status.equals("DONE");
+        }
+      }));
+    }
+
+    boolean allOK = true;
+    try {
+      for (Future<Boolean> result: results) {
+        if (!result.get()) {
+          allOK = false;
+        }
+      }
+    } catch (InterruptedException e) {
+      allOK = false;
+    } catch (ExecutionException e) {
+      logger.fatal("Error when writing summary: " + e.getCause());
+      allOK = false;
+    } finally {
+      executor.shutdownNow();
+      gui.setMoteTypePool(null);
+      summaryWriter.close();
+    }
+
+    return allOK;
+  }
+
+  private synchronized void writeSummary(Run run) throws IOException {
+    summaryWriter.write(
+        run.number + "," +
+        run.config.getPath() + "," +
+        run.seedUsed + "," +
+        run.status + "," +
+        run.simulationTime + "," +
+        run.wallTime + "," +
+        run.memorySize + "," +
+        run.message.replace(',', ';').replace('\n', ' ') + "\n");
+    summaryWriter.flush();
+  }
+
+  /**
+   * Applies seed and overrides of run to given simulation config.
+   *
+   * @param run Run
+   * @param root Simulation config root element
+   */
+  private void applyConfig(Run run, Element root) throws JDOMException {
+    /* Plugins are not started */
+    root.removeChildren("plugin");
+
+    Element simElement = root.getChild("simulation");
+    if (simElement == null) {
+      throw new JDOMException("No simulation element in config");
+    }
+    if (run.seed != null) {
+      Element seedElement = simElement.getChild("randomseed");
+      if (seedElement == null) {
+        /* Must precede radio medium and motes */
+        seedElement = new Element("randomseed");
+        simElement.addContent(0, seedElement);
+      }
+      seedElement.setText(Long.toString(run.seed));
+    }
+
+    for (Map.Entry<String, String> override: run.overrides.entrySet()) {
+      Element element = root;
+      for (String name: override.getKey().split("/")) {
+        element = element.getChild(name);
+        if (element == null) {
+          throw new JDOMException("Can't find config element: " + override.getKey());
+        }
+      }
+      if (!element.getChildren().isEmpty()) {
+        throw new JDOMException("Config element is not a leaf: " + override.getKey());
+      }
+      element.setText(override.getValue());
+    }
+  }
+
+  private boolean isSnapshot(Run run) {
+    return run.config.getName().endsWith(SimulationSnapshot.FILE_EXTENSION);
+  }
+
+  private void execute(final Run run) {
+    long startTime = System.currentTimeMillis();
+    LogScriptEngine engine = null;
+    BufferedWriter logWriter = null;
+    RadioCapture capture = null;
+    EventTrace trace = null;
+    SimulationProfiler profiler = null;
+    Simulation traced = null;
+    Simulation loaded = null;
+
+    try {
+      /* Load simulation. Mote type loading is not thread safe */
+      final Simulation sim;
+      if (isSnapshot(run)) {
+        SimulationSnapshot snapshot = SimulationSnapshot.read(run.config);
+        applyConfig(run, snapshot.getConfig());
+        synchronized (gui) {
+          sim = snapshot.restore(gui);
+        }
+      } else {
+        Element root = new SAXBuilder().build(run.config).getRootElement();
+        applyConfig(run, root);
+        synchronized (gui) {
+          sim = gui.loadSimulationConfig(root, true);
+        }
+        if (sim != null) {
+          sim.setConfigFile(run.config);
+        }
+      }
+      if (sim == null) {
+        run.message = "Simulation not loaded";
+        return;
+      }
+      loaded = sim;
+      run.seedUsed = sim.getRandomSeed();
+
+      /* Activate test script */
+      if (run.script != null) {
+        BufferedReader in = new BufferedReader(new FileReader(run.script));
+        StringBuilder code = new StringBuilder();
+        String line;
+        while ((line = in.readLine()) != null) {
+          code.append(line).append('\n');
+        }
+        in.close();
+
+        final BufferedWriter writer =
+          new BufferedWriter(new FileWriter(new File(outputDir, "run" + run.number + ".log")));
+        logWriter = writer;
+        engine = new LogScriptEngine(sim, code.toString());
+        engine.setScriptLogObserver(new Observer() {
+          public void update(Observable obs, Object obj) {
+            try {
+              writer.write((String) obj);
+            } catch (IOException e) {
+              logger.fatal("Error when writing to test log file: " + obj);
+            }
+          }
+        });
+        engine.activateScript();
+      }
+
+      /* Capture radio traffic */
+      if (run.capture != null) {
+        capture = new RadioCapture(sim, run.capture);
+        capture.start();
+      }
+
+      /* Record event trace */
+      if (run.trace != null) {
+        trace = new EventTraceWriter(run.trace);
+        traced = sim;
+        sim.setEventTrace(trace);
+      }
+
+      /* Profile run */
+      if (run.profile != null) {
+        profiler = new SimulationProfiler();
+        trace = profiler;
+        traced = sim;
+        sim.setEventTrace(profiler);
+      }
+
+      /* Stop at timeout */
+      final int stopTime = sim.getSimulationTime() + run.timeout;
+      sim.addTickObserver(new Observer() {
+        public void update(Observable obs, Object obj) {
+          if (sim.getSimulationTime() >= stopTime) {
+            sim.stopSimulation();
+          }
+        }
+      });
+
+      /* Run until stopped */
+      final CountDownLatch stopped = new CountDownLatch(1);
+      sim.addObserver(new Observer() {
+        public void update(Observable obs, Object obj) {
+          if (!sim.isRunning()) {
+            stopped.countDown();
+          }
+        }
+      });
+      sim.startSimulation();
+      stopped.await();
+
+      run.simulationTime = sim.getSimulationTime();
+      run.memorySize = sim.getMoteMemorySize();
+      sim.getRadioMedium().saveConfigFiles();
+      if (profiler != null) {
+        PrintStream out = new PrintStream(new FileOutputStream(run.profile));
+        profiler.print(out, Integer.MAX_VALUE);
+        out.close();
+      }
+      if (run.snapshot != null) {
+        SimulationSnapshot.save(sim, run.snapshot);
+      }
+      if (engine == null) {
+        run.status = "DONE";
+      } else if (engine.getTestResult() == null) {
+        run.status = "TIMEOUT";
+      } else if (engine.getTestResult()) {
+        run.status = "OK";
+      } else {
+        run.status = "FAILED";
+      }
+    } catch (Exception e) {
+      logger.fatal("Run " + run.number + " failed: " + e);
+      run.message = e.getMessage() != null?e.getMessage():e.toString();
+    } catch (UnsatisfiedLinkError e) {
+      logger.fatal("Run " + run.number + " failed: " + e);
+      run.message = e.getMessage();
+    } finally {
+      if (capture != null) {
+        capture.stop();
+      }
+      if (trace != null) {
+        traced.setEventTrace(null);
+        trace.close();
+      }
+      if (engine != null) {
+        engine.deactiveScript();
+        engine.setScriptLogObserver(null);
+      }
+      if (logWriter != null) {
+        try {
+          logWriter.close();
+        } catch (IOException e) {
+        }
+      }
+      if (loaded != null && !loaded.isRunning()) {
+        /* Mote types may be reused by later runs */
+        moteTypePool.release(loaded);
+      }
+      run.wallTime = System.currentTimeMillis() - startTime;
+      logger.info("Run " + run.number + " (" + run.config + "): " + run.status);
+    }
+  }
+
+}
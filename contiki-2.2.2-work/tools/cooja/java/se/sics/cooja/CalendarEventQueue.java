@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2008, Swedish Institute of Computer Science.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * $Id$
+ */
+
+package se.sics.cooja;
+
+/**
+ * Calendar queue for integer event times.
+ *
+ * Events are hashed on their time into an array of buckets, each bucket
+ * covering one millisecond per "year". Each bucket is a sorted doubly linked
+ * list. Since most simulation events are scheduled in the near future, both
+ * inserting and popping events are expected constant time. The number of
+ * buckets grows with the number of scheduled events.
+ *
+ * @author Fredrik sterlind
+ */
+public class CalendarEventQueue extends EventQueue {
+
+  private static final int INITIAL_BUCKETS = 64;
+
+  private TimeEvent[] heads = new TimeEvent[INITIAL_BUCKETS];
+  private TimeEvent[] tails = new TimeEvent[INITIAL_BUCKETS];
+  private int mask = INITIAL_BUCKETS - 1;
+  private int size = 0;
+
+  /* No scheduled event has an earlier time than this */
+  private int cursor = 0;
+
+  protected void insert(TimeEvent event) {
+    if (size == 0 || event.time < cursor) {
+      cursor = event.time;
+    }
+    if (size >= 2 * heads.length) {
+      resize(heads.length * 2);
+    }
+    link(event);
+    size++;
+  }
+
+  protected void unlink(TimeEvent event) {
+    int bucket = event.time & mask;
+    if (event.prevEvent == null) {
+      heads[bucket] = event.nextEvent;
+    } else {
+      event.prevEvent.nextEvent = event.nextEvent;
+    }
+    if (event.nextEvent == null) {
+      tails[bucket] = event.prevEvent;
+    } else {
+      event.nextEvent.prevEvent = event.prevEvent;
+    }
+    event.nextEvent = null;
+    event.prevEvent = null;
+    size--;
+  }
+
+  protected TimeEvent first() {
+    if (size == 0) {
+      return null;
+    }
+
+    /* Scan one year of buckets, starting at cursor */
+    for (int i=0; i < heads.length; i++) {
+      TimeEvent head = heads[(cursor + i) & mask];
+      if (head != null && head.time == cursor + i) {
+        cursor += i;
+        return head;
+      }
+    }
+
+    /* Sparse queue: direct search for earliest event */
+    TimeEvent earliest = null;
+    for (TimeEvent head : heads) {
+      if (head != null && (earliest == null || isBefore(head, earliest))) {
+        earliest = head;
+      }
+    }
+    cursor = earliest.time;
+    return earliest;
+  }
+
+  private void link(TimeEvent event) {
+    int bucket = event.time & mask;
+
+    /* Search backwards: new events are normally last in their bucket */
+    TimeEvent pos = tails[bucket];
+    while (pos != null && isBefore(event, pos)) {
+      pos = pos.prevEvent;
+    }
+
+    event.prevEvent = pos;
+    if (pos == null) {
+      event.nextEvent = heads[bucket];
+      heads[bucket] = event;
+    } else {
+      event.nextEvent = pos.nextEvent;
+      pos.nextEvent = event;
+    }
+    if (event.nextEvent == null) {
+      tails[bucket] = event;
+    } else {
+      event.nextEvent.prevEvent = event;
+    }
+  }
+
+  private void resize(int buckets) {
+    TimeEvent[] oldHeads = heads;
+    heads = new TimeEvent[buckets];
+    tails = new TimeEvent[buckets];
+    mask = buckets - 1;
+
+    for (TimeEvent head : oldHeads) {
+      TimeEvent t = head;
+      while (t != null) {
+        TimeEvent next = t.nextEvent;
+        t.nextEvent = null;
+        t.prevEvent = null;
+        link(t);
+        t = next;
+      }
+    }
+  }
+
+}
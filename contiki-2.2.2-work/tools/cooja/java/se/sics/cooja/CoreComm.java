@@ -32,6 +32,7 @@ package se.sics.cooja;
 import java.io.*;
 import java.lang.reflect.*;
 import java.net.*;
+import java.nio.ByteBuffer;
 import java.util.Vector;
 
 import se.sics.cooja.MoteType.MoteTypeCreationException;
@@ -65,6 +66,10 @@ import se.sics.cooja.dialogs.MessageList;
  * <li>getReferenceAbsAddr()
  * <li>getMemory(int start, int length, byte[] mem)
  * <li>setMemory(int start, int length, byte[] mem)
+ * <li>setMemoryRegion(int start, int offset, int length, byte[] mem)
+ * <li>getMemoryChanges(int start, int length, byte[] mem, int pageSize)
+ * <li>setMemoryFromBuffer(int start, int offset, int length, ByteBuffer mem)
+ * <li>getMemoryChangesToBuffer(int start, int length, ByteBuffer mem, int pageSize)
  *
  * @author Fredrik Osterlind
  */
@@ -392,4 +397,69 @@ public abstract class CoreComm {
    */
   public abstract void setMemory(int start, int length, byte[] mem);
 
+  /**
+   * Overwrites part of a memory segment. Copies length bytes from the given
+   * array, starting at offset, to the segment starting at start+offset.
+   *
+   * @param start
+   *          Start address of segment
+   * @param offset
+   *          Offset of region in both segment and array
+   * @param length
+   *          Length of region
+   * @param mem
+   *          Memory segment data
+   */
+  public abstract void setMemoryRegion(int start, int offset, int length, byte[] mem);
+
+  /**
+   * Compares a memory segment with the given array page by page, and copies
+   * only pages that differ to the array.
+   *
+   * @param start
+   *          Start address of segment
+   * @param length
+   *          Length of segment
+   * @param mem
+   *          Array holding an earlier copy of the memory segment
+   * @param pageSize
+   *          Page size
+   * @return Number of changed pages
+   */
+  public abstract int getMemoryChanges(int start, int length, byte[] mem, int pageSize);
+
+  /**
+   * Overwrites part of a memory segment. Copies length bytes from the given
+   * direct buffer, starting at offset, to the segment starting at
+   * start+offset.
+   *
+   * @see #setMemoryRegion(int, int, int, byte[])
+   * @param start
+   *          Start address of segment
+   * @param offset
+   *          Offset of region in both segment and buffer
+   * @param length
+   *          Length of region
+   * @param mem
+   *          Direct buffer holding memory segment data
+   */
+  public abstract void setMemoryFromBuffer(int start, int offset, int length, ByteBuffer mem);
+
+  /**
+   * Compares a memory segment with the given direct buffer page by page, and
+   * copies only pages that differ to the buffer.
+   *
+   * @see #getMemoryChanges(int, int, byte[], int)
+   * @param start
+   *          Start address of segment
+   * @param length
+   *          Length of segment
+   * @param mem
+   *          Direct buffer holding an earlier copy of the memory segment
+   * @param pageSize
+   *          Page size
+   * @return Number of changed pages
+   */
+  public abstract int getMemoryChangesToBuffer(int start, int length, ByteBuffer mem, int pageSize);
+
 }
@@ -32,18 +32,28 @@
 package se.sics.cooja;
 
 /**
+ * Simulation event scheduler.
+ *
+ * Events are executed in time order. Events scheduled at the same time are
+ * executed in the order they were scheduled (FIFO), regardless of which
+ * implementation is used. Rescheduling an already scheduled event moves it
+ * last among the events at its new time.
+ *
+ * @see LinkedListEventQueue
+ * @see HeapEventQueue
+ * @see CalendarEventQueue
  * @author Joakim Eriksson (ported to COOJA by Fredrik sterlind)
  */
-public class EventQueue {
+public abstract class EventQueue {
 
-  private TimeEvent first;
-  private int nextTime;
   private int eventCount = 0;
-
-  public EventQueue() {
-  }
+  private long nextSequence = 0;
 
   public void addEvent(TimeEvent event, int time) {
+    /* Unlink using old time */
+    if (event.scheduledIn != null) {
+      event.remove();
+    }
     event.time = time;
     addEvent(event);
   }
@@ -52,106 +62,104 @@ public class EventQueue {
     if (event.scheduledIn != null) {
       event.remove();
     }
-    if (first == null) {
-      first = event;
-    } else {
-      TimeEvent pos = first;
-      TimeEvent lastPos = first;
-      while (pos != null && pos.time <= event.time) {
-        lastPos = pos;
-        pos = pos.nextEvent;
-      }
-      // Here pos will be the first TE after event
-      // and lastPos the first before
-      if (pos == first) {
-        // Before all other
-        event.nextEvent = pos;
-        first = event;
-      } else {
-        event.nextEvent = pos;
-        lastPos.nextEvent = event;
-      }
-    }
-    if (first != null) {
-      nextTime = first.time;
-    } else {
-      nextTime = 0;
-    }
+    event.queueSequence = nextSequence++;
+    insert(event);
     event.scheduledIn = this;
     eventCount++;
   }
 
-  // Not yet impl.
   public boolean removeEvent(TimeEvent event) {
-    TimeEvent pos = first;
-    TimeEvent lastPos = first;
-//  System.out.println("Removing: " + event.getShort() + "  Before remove: ");
-//  print();
-    while (pos != null && pos != event) {
-      lastPos = pos;
-      pos = pos.nextEvent;
-    }
-    if (pos == null) {
+    if (event.scheduledIn != this) {
       return false;
     }
-    // pos == event!
-    if (pos == first) {
-      // remove it from first pos.
-      first = pos.nextEvent;
-    } else {
-      // else link prev to next...
-      lastPos.nextEvent = pos.nextEvent;
-    }
-    // unlink
-    pos.nextEvent = null;
-
-    if (first != null) {
-      nextTime = first.time;
-    } else {
-      nextTime = 0;
-    }
-//  System.out.println("Removed =>");
-//  print();
+    unlink(event);
     event.scheduledIn = null;
     eventCount--;
     return true;
   }
 
   public TimeEvent popFirst() {
-    TimeEvent tmp = first;
+    TimeEvent tmp = first();
     if (tmp == null) {
       return null;
     }
+    unlink(tmp);
 
-    first = tmp.nextEvent;
-    // Unlink.
-    tmp.nextEvent = null;
-
-    if (first != null) {
-      nextTime = first.time;
-    } else {
-      nextTime = 0;
-    }
     // No longer scheduled!
     tmp.scheduledIn = null;
     eventCount--;
     return tmp;
   }
 
+  /**
+   * @return Next event to be executed, or null if queue is empty
+   */
+  public TimeEvent peekFirst() {
+    return first();
+  }
+
   public void removeAll() {
-    TimeEvent t = first;
-    while(t != null) {
-      TimeEvent clr = t;
-      t = t.nextEvent;
-      clr.nextEvent = null;
-      clr.time = 0;
-      clr.scheduledIn = null;
+    TimeEvent t;
+    while ((t = popFirst()) != null) {
+      t.time = 0;
     }
-    first = null;
     eventCount = 0;
   }
 
+  /**
+   * Moves all scheduled events to the given queue, preserving the execution
+   * order of events scheduled at the same time.
+   *
+   * @param queue Destination queue
+   */
+  public void transferTo(EventQueue queue) {
+    TimeEvent t;
+    while ((t = popFirst()) != null) {
+      queue.addEvent(t);
+    }
+  }
+
+  /**
+   * @return Number of scheduled events
+   */
+  public int size() {
+    return eventCount;
+  }
+
+  /**
+   * Compares events by time, and by insertion order for equal times.
+   *
+   * @return True if a should be executed before b
+   */
+  protected static boolean isBefore(TimeEvent a, TimeEvent b) {
+    if (a.time != b.time) {
+      return a.time < b.time;
+    }
+    return a.queueSequence < b.queueSequence;
+  }
+
+  /**
+   * Inserts event in scheduler structure.
+   * Event time and sequence number have already been set.
+   *
+   * @param event Event
+   */
+  protected abstract void insert(TimeEvent event);
+
+  /**
+   * Removes event from scheduler structure.
+   * The event is known to be scheduled in this queue.
+   *
+   * @param event Event
+   */
+  protected abstract void unlink(TimeEvent event);
+
+  /**
+   * @return First event, or null if queue is empty
+   */
+  protected abstract TimeEvent first();
+
   public String toString() {
-    return "EventQueue (" + eventCount + " events)";
+    return getClass().getSimpleName() + " (" + eventCount + " events)";
   }
-} // LLEventQueue
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2008, Swedish Institute of Computer Science.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * $Id$
+ */
+
+package se.sics.cooja;
+
+/**
+ * Receives records of simulation activity, for profiling runs: executed
+ * events, mote ticks, radio medium events and mote interface actions, with
+ * wall clock durations.
+ *
+ * Tracing is enabled per simulation, and instrumented code only checks for
+ * a null trace when tracing is disabled. Records may be made from any
+ * thread, including parallel tick workers.
+ *
+ * @see Simulation#setEventTrace(EventTrace)
+ * @see EventTraceWriter
+ * @see SimulationProfiler
+ * @author Fredrik sterlind
+ */
+public abstract class EventTrace {
+
+  /* Record types */
+  public static final int EVENT = 0;
+  public static final int MOTE_TICK = 1;
+  public static final int RADIO = 2;
+  public static final int INTERFACE = 3;
+
+  /* Mote interface polling phases, argument of INTERFACE records */
+  public static final int ACTIVE_BEFORE_TICK = 0;
+  public static final int ACTIVE_AFTER_TICK = 1;
+  public static final int PASSIVE_BEFORE_TICK = 2;
+  public static final int PASSIVE_AFTER_TICK = 3;
+
+  protected volatile int simulationTime = 0;
+
+  /**
+   * Sets the simulation time of following records.
+   * Called by the simulation before executing each event.
+   *
+   * @param time Simulation time
+   */
+  public void setSimulationTime(int time) {
+    simulationTime = time;
+  }
+
+  /**
+   * @return Start time of a traced operation, to be passed to record()
+   */
+  public long start() {
+    return System.nanoTime();
+  }
+
+  /**
+   * Records an operation started at the given time and ending now.
+   * May be called from any thread.
+   *
+   * @param type Record type
+   * @param moteID Mote ID, or -1
+   * @param name Event, mote type, radio event or interface name
+   * @param arg Event queue size for EVENT records, polling phase for
+   * INTERFACE records, otherwise 0
+   * @param start Start time, from start()
+   */
+  public abstract void record(int type, int moteID, String name, int arg, long start);
+
+  /**
+   * Ticks given mote and records the tick.
+   *
+   * @param mote Mote
+   * @param time Simulation time
+   * @return Mote tick return value
+   */
+  public boolean tickMote(Mote mote, int time) {
+    long start = start();
+    boolean wantMoreTicks = mote.tick(time);
+    record(MOTE_TICK, getMoteID(mote), mote.getType().getIdentifier(), 0, start);
+    return wantMoreTicks;
+  }
+
+  /**
+   * Ends tracing. Must not be called while traced threads are active,
+   * i.e. the simulation must be stopped.
+   */
+  public void close() {
+  }
+
+  /**
+   * @param mote Mote
+   * @return Mote ID, or -1 if mote has no ID
+   */
+  public static int getMoteID(Mote mote) {
+    if (mote == null || mote.getInterfaces().getMoteID() == null) {
+      return -1;
+    }
+    return mote.getInterfaces().getMoteID().getMoteID();
+  }
+
+  /**
+   * @param event Event
+   * @return Event name, or class name of unnamed events
+   */
+  public static String getEventName(TimeEvent event) {
+    if (event.name != null) {
+      return event.name;
+    }
+    return event.getClass().getName();
+  }
+
+}
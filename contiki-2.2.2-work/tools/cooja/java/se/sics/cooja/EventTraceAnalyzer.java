@@ -0,0 +1,284 @@
+/*
+ * Copyright (c) 2008, Swedish Institute of Computer Science.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * $Id$
+ */
+
+package se.sics.cooja;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Summarizes an event trace: hot event types, events per simulated
+ * millisecond, and CPU time per mote.
+ *
+ * Usage: java se.sics.cooja.EventTraceAnalyzer [trace file] [max rows]
+ *
+ * @see EventTraceWriter
+ * @author Fredrik sterlind
+ */
+public class EventTraceAnalyzer {
+
+  public static final int DEFAULT_MAX_ROWS = 20;
+
+  private static final String[] TYPE_NAMES = { "event", "tick", "radio", "interface" };
+
+  /* Accumulated count and duration of one kind of record */
+  private static class Stats {
+    final String label;
+    long count = 0;
+    long nanos = 0;
+    long maxNanos = 0;
+
+    Stats(String label) {
+      this.label = label;
+    }
+
+    void add(long duration) {
+      count++;
+      nanos += duration;
+      maxNanos = Math.max(maxNanos, duration);
+    }
+  }
+
+  private long records = 0;
+  private long[] typeCounts = new long[TYPE_NAMES.length];
+  private long[] typeNanos = new long[TYPE_NAMES.length];
+
+  /* Keyed by type and name code */
+  private HashMap<Long, Stats> nameStats = new HashMap<Long, Stats>();
+  /* Keyed by mote ID */
+  private HashMap<Integer, Stats> moteStats = new HashMap<Integer, Stats>();
+
+  /* Events per simulated millisecond, relative to first event time */
+  private int firstTime = -1;
+  private int lastTime = -1;
+  private int[] eventsPerMs = new int[1024];
+  private long queueSizeSum = 0;
+  private int maxQueueSize = 0;
+
+  private long firstStart = Long.MAX_VALUE;
+  private long lastEnd = Long.MIN_VALUE;
+
+  private String[] names = new String[0];
+
+  /**
+   * Reads and summarizes given trace file.
+   *
+   * @param file Trace file
+   * @throws IOException On read error or malformed trace
+   */
+  public EventTraceAnalyzer(File file) throws IOException {
+    DataInputStream in = new DataInputStream(new BufferedInputStream(
+        new FileInputStream(file), 1 << 16));
+    try {
+      byte[] magic = new byte[4];
+      in.readFully(magic);
+      if (!"CETR".equals(new String(magic, "US-ASCII"))) {
+        throw new IOException("Not an event trace: " + file);
+      }
+      int version = in.readInt();
+      if (version != EventTraceWriter.VERSION) {
+        throw new IOException("Unsupported event trace version: " + version);
+      }
+
+      while (true) {
+        int type = in.readInt();
+        if (type == EventTraceWriter.END) {
+          in.skipBytes(EventTraceWriter.RECORD_SIZE - 4);
+          break;
+        }
+        int time = in.readInt();
+        int moteID = in.readInt();
+        int name = in.readInt();
+        int arg = in.readInt();
+        long duration = in.readInt();
+        long start = in.readLong();
+        addRecord(type, time, moteID, name, arg, duration, start);
+      }
+
+      names = new String[in.readInt()];
+      for (int i=0; i < names.length; i++) {
+        names[i] = in.readUTF();
+      }
+    } catch (EOFException e) {
+      throw new IOException("Truncated event trace (not closed?): " + file);
+    } finally {
+      in.close();
+    }
+  }
+
+  private void addRecord(int type, int time, int moteID, int name, int arg,
+      long duration, long start) throws IOException {
+    if (type < 0 || type >= TYPE_NAMES.length) {
+      throw new IOException("Malformed record type: " + type);
+    }
+    records++;
+    typeCounts[type]++;
+    typeNanos[type] += duration;
+    firstStart = Math.min(firstStart, start);
+    lastEnd = Math.max(lastEnd, start + duration);
+
+    long key = ((long) type << 32) | name;
+    Stats stats = nameStats.get(key);
+    if (stats == null) {
+      stats = new Stats(null);
+      nameStats.put(key, stats);
+    }
+    stats.add(duration);
+
+    if (type == EventTrace.MOTE_TICK) {
+      stats = moteStats.get(moteID);
+      if (stats == null) {
+        stats = new Stats("" + moteID);
+        moteStats.put(moteID, stats);
+      }
+      stats.add(duration);
+    }
+
+    if (type == EventTrace.EVENT) {
+      if (firstTime < 0) {
+        firstTime = time;
+      }
+      if (time >= firstTime) {
+        int index = time - firstTime;
+        if (index >= eventsPerMs.length) {
+          eventsPerMs = Arrays.copyOf(eventsPerMs, Math.max(index + 1, 2*eventsPerMs.length));
+        }
+        eventsPerMs[index]++;
+        lastTime = Math.max(lastTime, time);
+      }
+      queueSizeSum += arg;
+      maxQueueSize = Math.max(maxQueueSize, arg);
+    }
+  }
+
+  private static List<Stats> sortByTime(Collection<Stats> stats) {
+    ArrayList<Stats> sorted = new ArrayList<Stats>(stats);
+    Collections.sort(sorted, new Comparator<Stats>() {
+      public int compare(Stats a, Stats b) {
+        return a.nanos == b.nanos ? 0 : (a.nanos > b.nanos ? -1 : 1);
+      }
+    });
+    return sorted;
+  }
+
+  private static void printStats(PrintStream out, List<Stats> stats, long totalNanos, int maxRows) {
+    out.println(String.format("  %10s %12s %10s %10s %7s  %s",
+        "count", "total_ms", "avg_us", "max_us", "share", "name"));
+    for (Stats s: stats.subList(0, Math.min(maxRows, stats.size()))) {
+      out.println(String.format("  %10d %12.1f %10.2f %10.1f %6.1f%%  %s",
+          s.count, s.nanos/1e6, s.nanos/1e3/s.count, s.maxNanos/1e3,
+          totalNanos > 0 ? 100.0*s.nanos/totalNanos : 0.0, s.label));
+    }
+    if (stats.size() > maxRows) {
+      out.println("  (" + (stats.size() - maxRows) + " more)");
+    }
+  }
+
+  /**
+   * Prints summary.
+   *
+   * @param out Output stream
+   * @param maxRows Maximum number of rows in each table
+   */
+  public void print(PrintStream out, int maxRows) {
+    out.println("Records: " + records);
+    if (records == 0) {
+      return;
+    }
+    out.println(String.format("Wall time: %.1f ms", (lastEnd - firstStart)/1e6));
+    for (int type=0; type < TYPE_NAMES.length; type++) {
+      out.println(String.format("  %-10s %10d records %12.1f ms",
+          TYPE_NAMES[type], typeCounts[type], typeNanos[type]/1e6));
+    }
+
+    /* Events per simulated millisecond */
+    if (firstTime >= 0) {
+      int span = lastTime - firstTime + 1;
+      int maxEvents = 0;
+      int maxTime = firstTime;
+      for (int i=0; i < span; i++) {
+        if (eventsPerMs[i] > maxEvents) {
+          maxEvents = eventsPerMs[i];
+          maxTime = firstTime + i;
+        }
+      }
+      out.println();
+      out.println("Simulated time: " + firstTime + " - " + lastTime + " ms");
+      out.println(String.format("Events per ms: %.2f average, %d max (at %d ms)",
+          (double) typeCounts[EventTrace.EVENT] / span, maxEvents, maxTime));
+      out.println(String.format("Event queue size: %.1f average, %d max",
+          (double) queueSizeSum / typeCounts[EventTrace.EVENT], maxQueueSize));
+    }
+
+    /* Hot event types, all record types */
+    ArrayList<Stats> hot = new ArrayList<Stats>();
+    for (Map.Entry<Long, Stats> entry: nameStats.entrySet()) {
+      int type = (int) (entry.getKey() >> 32);
+      int name = (int) (entry.getKey() & 0xffffffffL);
+      Stats s = entry.getValue();
+      Stats labeled = new Stats(TYPE_NAMES[type] + ": " +
+          (name < names.length ? names[name] : "#" + name));
+      labeled.count = s.count;
+      labeled.nanos = s.nanos;
+      labeled.maxNanos = s.maxNanos;
+      hot.add(labeled);
+    }
+    out.println();
+    out.println("Hot event types (events include the ticks and actions they execute):");
+    printStats(out, sortByTime(hot), typeNanos[EventTrace.EVENT], maxRows);
+
+    /* CPU time per mote */
+    if (!moteStats.isEmpty()) {
+      out.println();
+      out.println("Mote tick CPU time (mote ID):");
+      printStats(out, sortByTime(moteStats.values()), typeNanos[EventTrace.MOTE_TICK], maxRows);
+    }
+  }
+
+  public static void main(String[] args) {
+    if (args.length < 1 || args.length > 2) {
+      System.err.println("Usage: java " + EventTraceAnalyzer.class.getName() +
+          " [trace file] [max rows]");
+      System.exit(1);
+    }
+    try {
+      int maxRows = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_MAX_ROWS;
+      new EventTraceAnalyzer(new File(args[0])).print(System.out, maxRows);
+    } catch (NumberFormatException e) {
+      System.err.println("Bad number of rows: " + args[1]);
+      System.exit(1);
+    } catch (IOException e) {
+      System.err.println(e.getMessage());
+      System.exit(1);
+    }
+  }
+
+}
@@ -0,0 +1,283 @@
+/*
+ * Copyright (c) 2008, Swedish Institute of Computer Science.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * $Id$
+ */
+
+package se.sics.cooja;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import org.apache.log4j.Logger;
+
+/**
+ * Writes event trace records to a binary file.
+ *
+ * Records are written to per-thread buffers, and full buffers are written
+ * to file by a separate thread.
+ *
+ * File format, all values big-endian:
+ * <pre>
+ * header: "CETR" version(int)
+ * record: type(int) sim_time_ms(int) mote_id(int) name(int) arg(int)
+ *         duration_ns(int) start_ns(long)
+ * end:    record with type END, followed by the name table:
+ *         nr_names(int) {name(UTF)}
+ * </pre>
+ * Names are event, mote type, radio event or interface names, coded in order of first
+ * use. Mote ID is -1 for records not belonging to a mote. Arg is the event
+ * queue size for EVENT records, the polling phase for INTERFACE records, and
+ * otherwise 0. Start times are relative to the start of the trace.
+ *
+ * @see EventTraceAnalyzer
+ * @author Fredrik sterlind
+ */
+public class EventTraceWriter extends EventTrace {
+  private static Logger logger = Logger.getLogger(EventTraceWriter.class);
+
+  public static final int VERSION = 1;
+
+  public static final int RECORD_SIZE = 32;
+
+  public static final int BUFFER_SIZE = 64*1024;
+
+  /* Record type of end marker */
+  public static final int END = -1;
+
+  /* Full buffers waiting to be written, tracing threads block when reached */
+  private static final int MAX_QUEUED_BUFFERS = 64;
+
+  private static final ByteBuffer WRITER_STOP = ByteBuffer.allocate(0);
+
+  private final File file;
+  private final FileChannel channel;
+  private final long traceStart = System.nanoTime();
+  private volatile boolean closed = false;
+
+  private final ConcurrentHashMap<String, Integer> nameCodes = new ConcurrentHashMap<String, Integer>();
+  private final ArrayList<String> names = new ArrayList<String>();
+
+  private final LinkedBlockingQueue<ByteBuffer> fullBuffers =
+    new LinkedBlockingQueue<ByteBuffer>(MAX_QUEUED_BUFFERS);
+  private final LinkedBlockingQueue<ByteBuffer> freeBuffers =
+    new LinkedBlockingQueue<ByteBuffer>();
+
+  private final Thread writerThread;
+  private long recordsWritten = 0;
+
+  private static class ThreadBuffer {
+    ByteBuffer buffer;
+  }
+  private final ArrayList<ThreadBuffer> threadBuffers = new ArrayList<ThreadBuffer>();
+  private final ThreadLocal<ThreadBuffer> threadBuffer = new ThreadLocal<ThreadBuffer>() {
+    protected ThreadBuffer initialValue() {
+      ThreadBuffer tb = new ThreadBuffer();
+      tb.buffer = getFreeBuffer();
+      synchronized (threadBuffers) {
+        threadBuffers.add(tb);
+      }
+      return tb;
+    }
+  };
+
+  /**
+   * Creates a new trace file, and starts the writer thread.
+   *
+   * @param file Trace file
+   * @throws IOException On file creation error
+   */
+  public EventTraceWriter(File file) throws IOException {
+    this.file = file;
+    channel = new FileOutputStream(file).getChannel();
+    ByteBuffer header = ByteBuffer.allocate(8);
+    header.put("CETR".getBytes("US-ASCII")).putInt(VERSION);
+    header.flip();
+    channel.write(header);
+
+    writerThread = new Thread(new Runnable() {
+      public void run() {
+        writeBuffers();
+      }
+    }, "event trace writer");
+    writerThread.setDaemon(true);
+    writerThread.start();
+  }
+
+  /**
+   * @return Trace file
+   */
+  public File getFile() {
+    return file;
+  }
+
+  /**
+   * @return Number of records written to file so far
+   */
+  public synchronized long getRecordsWritten() {
+    return recordsWritten;
+  }
+
+  public void record(int type, int moteID, String name, int arg, long start) {
+    long duration = System.nanoTime() - start;
+    if (closed) {
+      return;
+    }
+    ThreadBuffer tb = threadBuffer.get();
+    if (tb.buffer.remaining() < RECORD_SIZE) {
+      queueBuffer(tb.buffer);
+      tb.buffer = getFreeBuffer();
+    }
+    tb.buffer
+    .putInt(type)
+    .putInt(simulationTime)
+    .putInt(moteID)
+    .putInt(getNameCode(name))
+    .putInt(arg)
+    .putInt((int) Math.min(duration, Integer.MAX_VALUE))
+    .putLong(start - traceStart);
+  }
+
+  private int getNameCode(String name) {
+    Integer code = nameCodes.get(name);
+    if (code != null) {
+      return code;
+    }
+    synchronized (names) {
+      code = nameCodes.get(name);
+      if (code == null) {
+        code = names.size();
+        names.add(name);
+        nameCodes.put(name, code);
+      }
+      return code;
+    }
+  }
+
+  private ByteBuffer getFreeBuffer() {
+    ByteBuffer buffer = freeBuffers.poll();
+    if (buffer == null) {
+      buffer = ByteBuffer.allocate(BUFFER_SIZE - BUFFER_SIZE % RECORD_SIZE);
+    }
+    return buffer;
+  }
+
+  private void queueBuffer(ByteBuffer buffer) {
+    /* Simulation threads are interrupted on stop requests: keep waiting */
+    boolean interrupted = false;
+    while (true) {
+      try {
+        fullBuffers.put(buffer);
+        break;
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void writeBuffers() {
+    boolean failed = false;
+    while (true) {
+      ByteBuffer buffer;
+      try {
+        buffer = fullBuffers.take();
+      } catch (InterruptedException e) {
+        continue;
+      }
+      if (buffer == WRITER_STOP) {
+        return;
+      }
+
+      buffer.flip();
+      if (!failed) {
+        try {
+          int records = buffer.remaining() / RECORD_SIZE;
+          while (buffer.hasRemaining()) {
+            channel.write(buffer);
+          }
+          synchronized (this) {
+            recordsWritten += records;
+          }
+        } catch (IOException e) {
+          /* Keep draining buffers, so that tracing threads are not blocked */
+          logger.fatal("Error when writing event trace " + file + ": " + e.getMessage());
+          failed = true;
+        }
+      }
+      buffer.clear();
+      freeBuffers.offer(buffer);
+    }
+  }
+
+  /**
+   * Writes remaining records and the name table, and closes the trace file.
+   */
+  public void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+
+    synchronized (threadBuffers) {
+      for (ThreadBuffer tb: threadBuffers) {
+        queueBuffer(tb.buffer);
+        tb.buffer = ByteBuffer.allocate(0);
+      }
+    }
+    queueBuffer(WRITER_STOP);
+    try {
+      writerThread.join();
+    } catch (InterruptedException e) {
+      logger.warn("Interrupted when closing event trace: " + file);
+    }
+
+    try {
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+          Channels.newOutputStream(channel)));
+      out.writeInt(END);
+      out.write(new byte[RECORD_SIZE - 4]);
+      synchronized (names) {
+        out.writeInt(names.size());
+        for (String name: names) {
+          out.writeUTF(name);
+        }
+      }
+      out.close();
+    } catch (IOException e) {
+      logger.fatal("Error when closing event trace " + file + ": " + e.getMessage());
+    }
+  }
+
+}
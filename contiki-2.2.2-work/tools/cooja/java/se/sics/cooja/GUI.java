@@ -236,6 +236,8 @@ public class GUI extends Observable {
   }
   private HighlightObservable moteHighlightObservable = new HighlightObservable();
 
+  private MoteTypePool moteTypePool = null;
+
   /**
    * Creates a new COOJA Simulator GUI.
    *
@@ -1597,6 +1599,23 @@ public class GUI extends Observable {
     return projectConfig;
   }
 
+  /**
+   * Sets pool of loaded mote types, reused by simulations loaded
+   * afterwards.
+   *
+   * @param pool Mote type pool, or null to always create new mote types
+   */
+  public void setMoteTypePool(MoteTypePool pool) {
+    moteTypePool = pool;
+  }
+
+  /**
+   * @return Pool of loaded mote types, or null
+   */
+  public MoteTypePool getMoteTypePool() {
+    return moteTypePool;
+  }
+
   /**
    * Returns the current project directories common to the entire simulator.
    *
@@ -3151,6 +3170,62 @@ public class GUI extends Observable {
         }
       });
 
+    } else if (args.length > 0 && args[0].startsWith("-batch")) {
+
+      /* Parse batch arguments */
+      File runsFile = null;
+      File outputDir = new File("batch");
+      int threads = Runtime.getRuntime().availableProcessors();
+      int timeout = BatchRunner.DEFAULT_TIMEOUT;
+      for (int i=1; i < args.length; i++) {
+        if (args[i].startsWith("-runs=")) {
+          runsFile = new File(args[i].substring("-runs=".length()));
+        } else if (args[i].startsWith("-output=")) {
+          outputDir = new File(args[i].substring("-output=".length()));
+        } else if (args[i].startsWith("-threads=")) {
+          threads = Integer.parseInt(args[i].substring("-threads=".length()));
+        } else if (args[i].startsWith("-timeout=")) {
+          timeout = Integer.parseInt(args[i].substring("-timeout=".length()));
+        } else if (args[i].startsWith("-contiki=") || args[i].startsWith("-external_tools_config=")) {
+          /* Already parsed */
+        } else {
+          logger.fatal("Unknown argument: " + args[i]);
+          System.exit(1);
+        }
+      }
+      if (runsFile == null || !runsFile.exists()) {
+        logger.fatal("Can't locate runs file: " + runsFile);
+        System.exit(1);
+      }
+
+      /* No GUI start-up */
+      final GUI[] batchGUI = new GUI[1];
+      try {
+        javax.swing.SwingUtilities.invokeAndWait(new Runnable() {
+          public void run() {
+            JDesktopPane desktop = new JDesktopPane();
+            desktop.setDragMode(JDesktopPane.OUTLINE_DRAG_MODE);
+            batchGUI[0] = new GUI(desktop);
+          }
+        });
+      } catch (Exception e) {
+        logger.fatal("Error when starting COOJA: " + e);
+        System.exit(1);
+      }
+
+      /* Execute runs */
+      try {
+        BatchRunner batchRunner = new BatchRunner(batchGUI[0], outputDir, threads);
+        batchRunner.setTimeout(timeout);
+        batchRunner.readRuns(runsFile);
+        logger.info("Executing " + batchRunner.getRunsCount() + " runs using " + threads + " threads");
+        boolean allOK = batchRunner.runAll();
+        System.exit(allOK?0:1);
+      } catch (IOException e) {
+        logger.fatal("Error when executing batch: " + e.getMessage());
+        System.exit(1);
+      }
+
     } else if (args.length > 0 && args[0].startsWith("-applet")) {
 
       String tmpWebPath=null, tmpBuildPath=null, tmpEsbFirmware=null, tmpSkyFirmware=null;
@@ -3221,7 +3296,11 @@ public class GUI extends Observable {
       Document doc = builder.build(file);
       Element root = doc.getRootElement();
 
-      return loadSimulationConfig(root, quick);
+      Simulation newSim = loadSimulationConfig(root, quick);
+      if (newSim != null) {
+        newSim.setConfigFile(file);
+      }
+      return newSim;
     } catch (JDOMException e) {
       logger.fatal("Config not wellformed: " + e.getMessage());
       return null;
@@ -3248,7 +3327,16 @@ public class GUI extends Observable {
     }
   }
 
-  private Simulation loadSimulationConfig(Element root, boolean quick)
+  /**
+   * Loads a simulation configuration from given root element.
+   * The current simulation is not changed.
+   *
+   * @see #loadSimulationConfig(File, boolean)
+   * @param root
+   *          Simulation config root element
+   * @return New simulation or null if recompiling failed or aborted
+   */
+  public Simulation loadSimulationConfig(Element root, boolean quick)
   throws SimulationCreationException {
     Simulation newSim = null;
 
@@ -3279,7 +3367,18 @@ public class GUI extends Observable {
         if (mySimulation != null) {
           existingMoteTypes = mySimulation.getMoteTypes();
         }
-        String newID = ContikiMoteType.generateUniqueMoteTypeID(existingMoteTypes, moteTypeIDMappings.values());
+        String newID = null;
+        if (moteTypePool != null) {
+          /* Map to already loaded library */
+          Collection<Element> moteTypeConfig = getContikiMoteTypeConfig(root, existingIdentifier);
+          if (moteTypeConfig != null) {
+            newID = moteTypePool.getFreeIdentifier(ContikiMoteType.class.getName(),
+                moteTypeConfig, moteTypeIDMappings.values());
+          }
+        }
+        if (newID == null) {
+          newID = ContikiMoteType.generateUniqueMoteTypeID(existingMoteTypes, moteTypeIDMappings.values());
+        }
         moteTypeIDMappings.setProperty(existingIdentifier, newID);
       }
 
@@ -3332,6 +3431,21 @@ public class GUI extends Observable {
     return newSim;
   }
 
+  private static Collection<Element> getContikiMoteTypeConfig(Element root, String identifier) {
+    Element simElement = root.getChild("simulation");
+    if (simElement == null) {
+      return null;
+    }
+    for (Object moteType: simElement.getChildren("motetype")) {
+      Element element = (Element) moteType;
+      if (element.getTextTrim().equals(ContikiMoteType.class.getName())
+          && identifier.equals(element.getChildText("identifier"))) {
+        return element.getChildren();
+      }
+    }
+    return null;
+  }
+
   /**
    * Saves current simulation configuration to given file and notifies
    * observers.
@@ -3343,6 +3457,8 @@ public class GUI extends Observable {
   public void saveSimulationConfig(File file) {
 
     try {
+      mySimulation.setConfigFile(file);
+
       // Create simulation configL
       Element root = new Element("simconf");
       Element simulationElement = new Element("simulation");
@@ -3363,6 +3479,8 @@ public class GUI extends Observable {
       outputter.output(doc, out);
       out.close();
 
+      mySimulation.getRadioMedium().saveConfigFiles();
+
       logger.info("Saved to file: " + file.getAbsolutePath());
     } catch (Exception e) {
       logger.warn("Exception while saving simulation config: " + e);
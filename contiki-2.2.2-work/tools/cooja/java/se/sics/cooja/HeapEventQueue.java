@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2008, Swedish Institute of Computer Science.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * $Id$
+ */
+
+package se.sics.cooja;
+
+/**
+ * Event queue implemented as an array backed binary min-heap.
+ *
+ * Inserting and removing events is logarithmic in the number of scheduled
+ * events. Each event remembers its heap position, so removing an arbitrary
+ * event does not require a search.
+ *
+ * @author Fredrik sterlind
+ */
+public class HeapEventQueue extends EventQueue {
+
+  private TimeEvent[] heap = new TimeEvent[64];
+  private int size = 0;
+
+  protected void insert(TimeEvent event) {
+    if (size == heap.length) {
+      TimeEvent[] newHeap = new TimeEvent[heap.length * 2];
+      System.arraycopy(heap, 0, newHeap, 0, size);
+      heap = newHeap;
+    }
+    siftUp(event, size++);
+  }
+
+  protected void unlink(TimeEvent event) {
+    int index = event.queueIndex;
+    event.queueIndex = -1;
+
+    size--;
+    TimeEvent moved = heap[size];
+    heap[size] = null;
+    if (index == size) {
+      return;
+    }
+
+    /* Fill hole with last event */
+    if (index > 0 && isBefore(moved, heap[(index - 1) >>> 1])) {
+      siftUp(moved, index);
+    } else {
+      siftDown(moved, index);
+    }
+  }
+
+  protected TimeEvent first() {
+    return size == 0 ? null : heap[0];
+  }
+
+  private void siftUp(TimeEvent event, int index) {
+    while (index > 0) {
+      int parent = (index - 1) >>> 1;
+      TimeEvent p = heap[parent];
+      if (!isBefore(event, p)) {
+        break;
+      }
+      heap[index] = p;
+      p.queueIndex = index;
+      index = parent;
+    }
+    heap[index] = event;
+    event.queueIndex = index;
+  }
+
+  private void siftDown(TimeEvent event, int index) {
+    int half = size >>> 1;
+    while (index < half) {
+      int child = 2 * index + 1;
+      TimeEvent c = heap[child];
+      int right = child + 1;
+      if (right < size && isBefore(heap[right], c)) {
+        child = right;
+        c = heap[child];
+      }
+      if (!isBefore(c, event)) {
+        break;
+      }
+      heap[index] = c;
+      c.queueIndex = index;
+      index = child;
+    }
+    heap[index] = event;
+    event.queueIndex = index;
+  }
+
+}
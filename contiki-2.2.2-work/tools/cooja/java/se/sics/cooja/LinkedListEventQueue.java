@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2008, Swedish Institute of Computer Science.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * $Id$
+ */
+
+package se.sics.cooja;
+
+/**
+ * Event queue implemented as a sorted doubly linked list.
+ *
+ * Inserting an event is linear in the number of scheduled events, removing
+ * and popping events is constant time. Suitable for simulations with very
+ * few pending events.
+ *
+ * @author Joakim Eriksson (ported to COOJA by Fredrik sterlind)
+ */
+public class LinkedListEventQueue extends EventQueue {
+
+  private TimeEvent first;
+  private TimeEvent last;
+
+  protected void insert(TimeEvent event) {
+    /* Search backwards: most events are scheduled in the near future */
+    TimeEvent pos = last;
+    while (pos != null && pos.time > event.time) {
+      pos = pos.prevEvent;
+    }
+
+    // Here pos will be the last TE before event (or null)
+    event.prevEvent = pos;
+    if (pos == null) {
+      // Before all other
+      event.nextEvent = first;
+      first = event;
+    } else {
+      event.nextEvent = pos.nextEvent;
+      pos.nextEvent = event;
+    }
+    if (event.nextEvent == null) {
+      last = event;
+    } else {
+      event.nextEvent.prevEvent = event;
+    }
+  }
+
+  protected void unlink(TimeEvent event) {
+    if (event.prevEvent == null) {
+      first = event.nextEvent;
+    } else {
+      event.prevEvent.nextEvent = event.nextEvent;
+    }
+    if (event.nextEvent == null) {
+      last = event.prevEvent;
+    } else {
+      event.nextEvent.prevEvent = event.prevEvent;
+    }
+    event.nextEvent = null;
+    event.prevEvent = null;
+  }
+
+  protected TimeEvent first() {
+    return first;
+  }
+
+}
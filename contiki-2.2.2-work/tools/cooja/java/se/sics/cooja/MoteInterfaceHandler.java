@@ -67,6 +67,9 @@ public class MoteInterfaceHandler {
   private PolledAfterActiveTicks[] polledAfterActive = null;
   private PolledBeforeAllTicks[] polledBeforeAll = null;
   private PolledAfterAllTicks[] polledAfterAll = null;
+  private Boolean requiresAllTicks = null;
+
+  private volatile EventTrace eventTrace = null;
 
   /**
    * Creates new empty mote interface handler.
@@ -243,6 +246,21 @@ public class MoteInterfaceHandler {
     return myRadio;
   }
 
+  /**
+   * Enables or disables recording of interface actions.
+   *
+   * @see Simulation#setEventTrace(EventTrace)
+   * @param trace Event trace, or null to disable tracing
+   */
+  public void setEventTrace(EventTrace trace) {
+    eventTrace = trace;
+  }
+
+  private void traceInterface(EventTrace trace, Object intf, int phase, long start) {
+    int id = getMoteID() != null ? getMoteID().getMoteID() : -1;
+    trace.record(EventTrace.INTERFACE, id, intf.getClass().getName(), phase, start);
+  }
+
   /**
    * Polls active interfaces before mote tick.
    */
@@ -257,6 +275,16 @@ public class MoteInterfaceHandler {
       polledBeforeActive = intfs.toArray(new PolledBeforeActiveTicks[intfs.size()]);
     }
 
+    EventTrace trace = eventTrace;
+    if (trace != null) {
+      for (PolledBeforeActiveTicks element : polledBeforeActive) {
+        long start = trace.start();
+        element.doActionsBeforeTick();
+        traceInterface(trace, element, EventTrace.ACTIVE_BEFORE_TICK, start);
+      }
+      return;
+    }
+
     for (PolledBeforeActiveTicks element : polledBeforeActive) {
       element.doActionsBeforeTick();
     }
@@ -276,6 +304,16 @@ public class MoteInterfaceHandler {
       polledAfterActive = intfs.toArray(new PolledAfterActiveTicks[intfs.size()]);
     }
 
+    EventTrace trace = eventTrace;
+    if (trace != null) {
+      for (PolledAfterActiveTicks element : polledAfterActive) {
+        long start = trace.start();
+        element.doActionsAfterTick();
+        traceInterface(trace, element, EventTrace.ACTIVE_AFTER_TICK, start);
+      }
+      return;
+    }
+
     for (PolledAfterActiveTicks element : polledAfterActive) {
       element.doActionsAfterTick();
     }
@@ -295,6 +333,16 @@ public class MoteInterfaceHandler {
       polledBeforeAll = intfs.toArray(new PolledBeforeAllTicks[intfs.size()]);
     }
 
+    EventTrace trace = eventTrace;
+    if (trace != null) {
+      for (PolledBeforeAllTicks element : polledBeforeAll) {
+        long start = trace.start();
+        element.doActionsBeforeTick();
+        traceInterface(trace, element, EventTrace.PASSIVE_BEFORE_TICK, start);
+      }
+      return;
+    }
+
     for (PolledBeforeAllTicks element : polledBeforeAll) {
       element.doActionsBeforeTick();
     }
@@ -314,6 +362,16 @@ public class MoteInterfaceHandler {
       polledAfterAll = intfs.toArray(new PolledAfterAllTicks[intfs.size()]);
     }
 
+    EventTrace trace = eventTrace;
+    if (trace != null) {
+      for (PolledAfterAllTicks element : polledAfterAll) {
+        long start = trace.start();
+        element.doActionsAfterTick();
+        traceInterface(trace, element, EventTrace.PASSIVE_AFTER_TICK, start);
+      }
+      return;
+    }
+
     for (PolledAfterAllTicks element : polledAfterAll) {
       element.doActionsAfterTick();
     }
@@ -342,6 +400,28 @@ public class MoteInterfaceHandler {
     polledAfterActive = null;
     polledBeforeAll = null;
     polledAfterAll = null;
+    requiresAllTicks = null;
+  }
+
+  /**
+   * Returns true if this mote has an interface that must be polled every
+   * tick, also while the mote sleeps.
+   *
+   * @return True if mote should be ticked every millisecond
+   * @see ToleratesSkippedTicks
+   */
+  public boolean requiresAllTicks() {
+    if (requiresAllTicks == null) {
+      requiresAllTicks = false;
+      for (MoteInterface intf: allInterfaces) {
+        if ((intf instanceof PolledBeforeAllTicks || intf instanceof PolledAfterAllTicks)
+            && !(intf instanceof ToleratesSkippedTicks)) {
+          requiresAllTicks = true;
+          break;
+        }
+      }
+    }
+    return requiresAllTicks;
   }
 
 }
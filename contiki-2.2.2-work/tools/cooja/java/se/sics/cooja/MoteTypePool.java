@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2008, Swedish Institute of Computer Science.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * $Id$
+ */
+
+package se.sics.cooja;
+
+import java.util.*;
+
+import org.jdom.Element;
+import org.jdom.output.XMLOutputter;
+
+import se.sics.cooja.contikimote.ContikiMoteType;
+
+/**
+ * Keeps loaded mote types for reuse by later simulations.
+ *
+ * A simulation loaded while a pool is set in the GUI checks out mote types
+ * whose config matches, instead of creating new ones. The checked out mote
+ * types are used by that simulation only, until released. A Contiki mote
+ * type keeps its library, and an MSP mote type keeps its firmware, so a
+ * pool holds at most one library per concurrently loaded simulation and
+ * mote type config.
+ *
+ * Simulations using a pool must be loaded one at a time.
+ *
+ * @see GUI#setMoteTypePool(MoteTypePool)
+ * @see BatchRunner
+ * @author Fredrik sterlind
+ */
+public class MoteTypePool {
+  private class Entry {
+    MoteType moteType;
+    String key;
+    String typeKey;
+    Simulation owner;
+  }
+
+  private ArrayList<Entry> entries = new ArrayList<Entry>();
+
+  private static String getKey(String className, Collection<Element> config, boolean withIdentifier) {
+    XMLOutputter outputter = new XMLOutputter();
+    StringBuilder key = new StringBuilder(className);
+    for (Element element: config) {
+      if (!withIdentifier && element.getName().equals("identifier")) {
+        continue;
+      }
+      key.append(outputter.outputString(element));
+    }
+    return key.toString();
+  }
+
+  /**
+   * Returns the identifier of a free mote type with given config, ignoring
+   * the identifier in the config. Used to map Contiki mote type identifiers
+   * to already loaded libraries.
+   *
+   * @param className Mote type class name
+   * @param config Mote type config
+   * @param reserved Identifiers that may not be returned
+   * @return Identifier, or null if no matching mote type is free
+   */
+  public synchronized String getFreeIdentifier(String className,
+      Collection<Element> config, Collection<?> reserved) {
+    String typeKey = getKey(className, config, false);
+    for (Entry entry: entries) {
+      if (entry.owner == null && entry.typeKey.equals(typeKey)
+          && !reserved.contains(entry.moteType.getIdentifier())) {
+        return entry.moteType.getIdentifier();
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Checks out a free mote type with given config.
+   *
+   * @param simulation Simulation using the mote type
+   * @param className Mote type class name
+   * @param config Mote type config
+   * @return Mote type, or null if no matching mote type is free
+   */
+  public synchronized MoteType acquire(Simulation simulation,
+      String className, Collection<Element> config) {
+    String key = getKey(className, config, true);
+    for (Entry entry: entries) {
+      if (entry.owner == null && entry.key.equals(key)) {
+        entry.owner = simulation;
+        if (entry.moteType instanceof ContikiMoteType) {
+          ((ContikiMoteType) entry.moteType).setSimulation(simulation);
+        }
+        return entry.moteType;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Adds a newly created mote type, checked out by given simulation.
+   *
+   * @param simulation Simulation using the mote type
+   * @param className Mote type class name
+   * @param config Mote type config
+   * @param moteType Mote type
+   */
+  public synchronized void add(Simulation simulation, String className,
+      Collection<Element> config, MoteType moteType) {
+    Entry entry = new Entry();
+    entry.moteType = moteType;
+    entry.key = getKey(className, config, true);
+    entry.typeKey = getKey(className, config, false);
+    entry.owner = simulation;
+    entries.add(entry);
+  }
+
+  /**
+   * Returns all mote types checked out by given simulation.
+   * The simulation must not be used afterwards.
+   *
+   * @param simulation Simulation
+   */
+  public synchronized void release(Simulation simulation) {
+    for (Entry entry: entries) {
+      if (entry.owner == simulation) {
+        entry.owner = null;
+      }
+    }
+  }
+
+  /**
+   * @return Number of mote types in pool
+   */
+  public synchronized int size() {
+    return entries.size();
+  }
+}
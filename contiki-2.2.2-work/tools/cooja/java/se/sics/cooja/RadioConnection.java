@@ -31,7 +31,7 @@
 
 package se.sics.cooja;
 
-import java.util.Vector;
+import java.util.ArrayList;
 
 import se.sics.cooja.interfaces.Radio;
 
@@ -46,9 +46,9 @@ import se.sics.cooja.interfaces.Radio;
 public class RadioConnection {
   private Radio source;
 
-  private Vector<Radio> destinations = new Vector<Radio>();
+  private ArrayList<Radio> destinations = new ArrayList<Radio>();
 
-  private Vector<Radio> interfered = new Vector<Radio>();
+  private ArrayList<Radio> interfered = new ArrayList<Radio>();
 
   /**
    * Creates a new radio connection with given source and no destinations.
@@ -110,6 +110,24 @@ public class RadioConnection {
     interfered.remove(radio);
   }
 
+  /**
+   * @param radio
+   *          Radio
+   * @return True if radio is a destination of this connection
+   */
+  public boolean isDestination(Radio radio) {
+    return destinations.contains(radio);
+  }
+
+  /**
+   * @param radio
+   *          Radio
+   * @return True if radio is interfered by this connection
+   */
+  public boolean isInterfered(Radio radio) {
+    return interfered.contains(radio);
+  }
+
   /**
    * @return Source radio
    */
@@ -167,6 +167,16 @@ public abstract class RadioMedium {
    */
   public abstract boolean setConfigXML(Collection<Element> configXML, boolean visAvailable);
 
+  /**
+   * Saves radio medium data kept in files next to the simulation config
+   * file, such as precalculated links. Called after the simulation config
+   * has been saved, and when a batch run ends. Does nothing by default.
+   *
+   * @see Simulation#getConfigFile()
+   */
+  public void saveConfigFiles() {
+  }
+
   /**
    * This method creates an instance of the given class with the given
    * simulation constructor argument. Instead of calling the constructors
@@ -29,6 +29,10 @@
 
 package se.sics.cooja;
 
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.*;
@@ -43,16 +47,39 @@ import se.sics.cooja.MoteMemory;
  * When an unhandled memory segment is set a new section is automatically
  * created for this segment.
  * <p>
+ * Sections are stored either in Java byte arrays, or in direct byte buffers
+ * outside the Java heap. Direct buffers can be accessed by native code
+ * without copying, see {@link #getBufferOfSection(int)}.
+ * <p>
+ * Copy-on-write memories instead store sections in pages that are shared
+ * with cloned memories, and with other memories via {@link #sharePages()}.
+ * A page is copied the first time it is modified, so motes of the same type
+ * only hold private copies of the pages they have written.
+ * <p>
  *
  * @author Fredrik Osterlind
  */
 public class SectionMoteMemory implements MoteMemory, AddressMemory {
   private static Logger logger = Logger.getLogger(SectionMoteMemory.class);
 
+  /**
+   * Size of pages used to track modified memory.
+   *
+   * @see #getDirtyRegionsOfSection(int)
+   */
+  public static final int PAGE_SIZE = 64;
+
   private Vector<MoteMemorySection> sections = new Vector<MoteMemorySection>();
 
   private final Properties variableAddresses;
 
+  private final boolean direct;
+
+  private final boolean copyOnWrite;
+
+  /* Incremented when sections are added or removed */
+  private int sectionsVersion = 0;
+
   /**
    * Create a new mote memory with information about which variables exist and
    * their relative memory addresses.
@@ -61,7 +88,53 @@ public class SectionMoteMemory implements MoteMemory, AddressMemory {
    *          Variable addresses
    */
   public SectionMoteMemory(Properties variableAddresses) {
+    this(variableAddresses, false);
+  }
+
+  /**
+   * Create a new mote memory with information about which variables exist and
+   * their relative memory addresses.
+   *
+   * @param variableAddresses
+   *          Variable addresses
+   * @param direct
+   *          If true, sections are stored in direct byte buffers
+   */
+  public SectionMoteMemory(Properties variableAddresses, boolean direct) {
+    this(variableAddresses, direct, false);
+  }
+
+  /**
+   * Create a new mote memory with information about which variables exist and
+   * their relative memory addresses.
+   *
+   * @param variableAddresses
+   *          Variable addresses
+   * @param direct
+   *          If true, sections are stored in direct byte buffers
+   * @param copyOnWrite
+   *          If true, sections are stored in copy-on-write pages.
+   *          Ignored for direct memories.
+   */
+  public SectionMoteMemory(Properties variableAddresses, boolean direct,
+      boolean copyOnWrite) {
     this.variableAddresses = variableAddresses;
+    this.direct = direct;
+    this.copyOnWrite = copyOnWrite && !direct;
+  }
+
+  /**
+   * @return True if sections are stored in direct byte buffers
+   */
+  public boolean isDirect() {
+    return direct;
+  }
+
+  /**
+   * @return True if sections are stored in copy-on-write pages
+   */
+  public boolean isCopyOnWrite() {
+    return copyOnWrite;
   }
 
   public String[] getVariableNames() {
@@ -86,6 +159,7 @@ public class SectionMoteMemory implements MoteMemory, AddressMemory {
 
   public void clearMemory() {
     sections.clear();
+    sectionsVersion++;
   }
 
   public byte[] getMemorySegment(int address, int size) {
@@ -107,7 +181,8 @@ public class SectionMoteMemory implements MoteMemory, AddressMemory {
         return;
       }
     }
-    sections.add(new MoteMemorySection(address, data));
+    sections.add(new MoteMemorySection(address, data, direct, copyOnWrite));
+    sectionsVersion++;
   }
 
   public int getTotalSize() {
@@ -150,12 +225,13 @@ public class SectionMoteMemory implements MoteMemory, AddressMemory {
                 + oldSection.getSize() - (startAddr + size)));
 
         MoteMemorySection newSectionFirstPart = new MoteMemorySection(
-            oldSection.startAddr, dataFirstPart);
+            oldSection.startAddr, dataFirstPart, direct, copyOnWrite);
         MoteMemorySection newSectionSecondPart = new MoteMemorySection(
-            startAddr + size, dataSecondPart);
+            startAddr + size, dataSecondPart, direct, copyOnWrite);
 
         // Remove old section, add new sections
         sections.remove(oldSection);
+        sectionsVersion++;
         if (newSectionFirstPart.getSize() > 0) {
           sections.add(newSectionFirstPart);
         }
@@ -196,9 +272,45 @@ public class SectionMoteMemory implements MoteMemory, AddressMemory {
     return sections.elementAt(sectionNr).getSize();
   }
 
+  /**
+   * Returns regions of section at given position modified since dirty pages
+   * were last cleared. Regions are page aligned, and adjacent dirty pages are
+   * merged into one region. New sections are entirely dirty.
+   *
+   * Only modifications via this memory's methods are tracked, not
+   * modifications directly on the array returned by getDataOfSection().
+   *
+   * @see #PAGE_SIZE
+   * @see #clearDirtyPages()
+   * @param sectionNr
+   *          Section position
+   * @return Offsets (relative to section start) and lengths of modified
+   *         regions: [offset0, length0, offset1, length1, ...]
+   */
+  public int[] getDirtyRegionsOfSection(int sectionNr) {
+    if (sectionNr >= sections.size()) {
+      return new int[0];
+    }
+
+    return sections.elementAt(sectionNr).getDirtyRegions();
+  }
+
+  /**
+   * Marks all pages in all sections as not modified.
+   */
+  public void clearDirtyPages() {
+    for (MoteMemorySection section : sections) {
+      section.clearDirtyPages();
+    }
+  }
+
   /**
    * Get data of section at given position.
    *
+   * If this memory is direct or copy-on-write, a copy of the section data is
+   * returned, and changes to the returned array do not affect the memory.
+   *
+   * @see #getBufferOfSection(int)
    * @param sectionNr
    *          Section position
    * @return Data at section
@@ -211,6 +323,116 @@ public class SectionMoteMemory implements MoteMemory, AddressMemory {
     return sections.elementAt(sectionNr).getData();
   }
 
+  /**
+   * Get buffer of section at given position. If this memory is direct, the
+   * buffer is a direct byte buffer holding the section data. Otherwise it
+   * wraps the section byte array, or a copy of a copy-on-write section.
+   *
+   * Changes made directly on the buffer are not tracked as dirty pages.
+   * Absolute get and put methods should be used, since the buffer position
+   * is shared.
+   *
+   * @param sectionNr
+   *          Section position
+   * @return Buffer of section
+   */
+  public ByteBuffer getBufferOfSection(int sectionNr) {
+    if (sectionNr >= sections.size()) {
+      return null;
+    }
+
+    return sections.elementAt(sectionNr).getBuffer();
+  }
+
+  /**
+   * Copies a region of section at given position to the same offset in the
+   * given array.
+   *
+   * @param sectionNr
+   *          Section position
+   * @param offset
+   *          Region start, relative to section start
+   * @param length
+   *          Region length
+   * @param dst
+   *          Destination array, at least as large as the section
+   */
+  public void copySectionRegion(int sectionNr, int offset, int length, byte[] dst) {
+    sections.elementAt(sectionNr).read(offset, dst, offset, length);
+  }
+
+  /**
+   * Overwrites section at given position with the given data, without
+   * marking pages as modified. Used when fetching memory modified by the
+   * core. In copy-on-write memories only pages that differ are written, and
+   * hence copied.
+   *
+   * @param sectionNr
+   *          Section position
+   * @param src
+   *          New section data
+   */
+  public void updateSection(int sectionNr, byte[] src) {
+    sections.elementAt(sectionNr).update(src, -1);
+  }
+
+  /**
+   * Overwrites section at given position with the given data, when the
+   * number of differing pages is known. Copy-on-write memories stop
+   * comparing pages when all differing pages have been written.
+   *
+   * @see #updateSection(int, byte[])
+   * @param sectionNr
+   *          Section position
+   * @param src
+   *          New section data
+   * @param changedPages
+   *          Number of pages differing from section
+   */
+  public void updateSection(int sectionNr, byte[] src, int changedPages) {
+    sections.elementAt(sectionNr).update(src, changedPages);
+  }
+
+  /**
+   * Replaces pages of this copy-on-write memory with shared pages having
+   * identical contents. Pages are shared with all copy-on-write memories
+   * whose pages have been shared, also in other simulations. For example,
+   * all motes restored from the same snapshot share their unmodified pages.
+   */
+  public void sharePages() {
+    for (MoteMemorySection section : sections) {
+      section.sharePages();
+    }
+  }
+
+  /**
+   * Returns number of bytes held by this memory.
+   * Copy-on-write pages shared with other memories are included.
+   *
+   * @return Resident size
+   */
+  public long getResidentSize() {
+    return getResidentSize(
+        Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>()));
+  }
+
+  /**
+   * Returns number of bytes held by this memory, excluding pages and sections
+   * already counted. Used to calculate the resident size of several memories
+   * sharing copy-on-write pages.
+   *
+   * @param counted
+   *          Pages and sections already counted, updated by this method
+   * @return Resident size not yet counted
+   */
+  public long getResidentSize(Set<Object> counted) {
+    long residentSize = 0;
+    for (MoteMemorySection section : sections) {
+      residentSize += section.getResidentSize(counted);
+    }
+    return residentSize;
+  }
+
   public boolean variableExists(String varName) {
     return variableAddresses.containsKey(varName);
   }
@@ -315,13 +537,127 @@ public class SectionMoteMemory implements MoteMemory, AddressMemory {
     setMemorySegment(varAddr, data);
   }
 
+  public IntVariable getIntVariable(String varName) throws UnknownVariableException {
+    return new SectionIntVariable(varName, getVariableAddress(varName));
+  }
+
+  public ByteVariable getByteVariable(String varName) throws UnknownVariableException {
+    return new SectionByteVariable(varName, getVariableAddress(varName));
+  }
+
+  public ByteArrayVariable getByteArrayVariable(String varName) throws UnknownVariableException {
+    final int varAddr = getVariableAddress(varName);
+    return new ByteArrayVariable() {
+      public byte[] getValue(int length) {
+        return getMemorySegment(varAddr, length);
+      }
+      public void setValue(byte[] data) {
+        setMemorySegment(varAddr, data);
+      }
+    };
+  }
+
+  /**
+   * Variable handle bound to the memory section containing the variable.
+   * The section is looked up again only if sections have been added or
+   * removed since the last access.
+   */
+  private abstract class SectionVariable {
+    protected final String varName;
+    private final int varAddr;
+    private final int varSize;
+
+    private MoteMemorySection section = null;
+    private int version = -1;
+    protected int offset;
+
+    protected SectionVariable(String varName, int varAddr, int varSize) {
+      this.varName = varName;
+      this.varAddr = varAddr;
+      this.varSize = varSize;
+    }
+
+    /**
+     * @return Section containing variable, or null
+     */
+    protected MoteMemorySection getSection() {
+      if (version != sectionsVersion) {
+        section = null;
+        for (MoteMemorySection s : sections) {
+          if (s.includesAddr(varAddr) && s.includesAddr(varAddr + varSize - 1)) {
+            section = s;
+            offset = varAddr - s.getStartAddr();
+            break;
+          }
+        }
+        version = sectionsVersion;
+      }
+      return section;
+    }
+
+    protected MoteMemorySection getExistingSection() throws UnknownVariableException {
+      MoteMemorySection section = getSection();
+      if (section == null) {
+        throw new UnknownVariableException(varName);
+      }
+      return section;
+    }
+  }
+
+  private class SectionIntVariable extends SectionVariable implements IntVariable {
+    public SectionIntVariable(String varName, int varAddr) {
+      super(varName, varAddr, 4);
+    }
+    public int getValue() {
+      return getExistingSection().getInt(offset);
+    }
+    public void setValue(int newVal) {
+      MoteMemorySection section = getSection();
+      if (section == null) {
+        setIntValueOf(varName, newVal);
+        return;
+      }
+      section.setInt(offset, newVal);
+    }
+  }
+
+  private class SectionByteVariable extends SectionVariable implements ByteVariable {
+    public SectionByteVariable(String varName, int varAddr) {
+      super(varName, varAddr, 1);
+    }
+    public byte getValue() {
+      return getExistingSection().getByte(offset);
+    }
+    public void setValue(byte newVal) {
+      MoteMemorySection section = getSection();
+      if (section == null) {
+        setByteValueOf(varName, newVal);
+        return;
+      }
+      section.setByte(offset, newVal);
+    }
+  }
+
   /**
-   * A memory section contains a byte array and a start address.
+   * A memory section contains a byte array (or a direct byte buffer) and a
+   * start address.
    *
    * @author Fredrik Osterlind
    */
   private class MoteMemorySection {
-    private byte[] data = null;
+    private byte[] data = null; /* Heap section */
+
+    private ByteBuffer buffer = null; /* Direct section, or wrapping data */
+
+    private byte[][] pages = null; /* Copy-on-write section */
+
+    private long[] privatePages; /* Bitmap, pages not shared with other memories */
+
+    private int size;
+
+    private long[] dirtyPages; /* Bitmap, one bit per page */
+
+    private boolean hasDirtyPages;
 
     private int startAddr;
 
@@ -332,10 +668,235 @@ public class SectionMoteMemory implements MoteMemory, AddressMemory {
      *          Start address of section
      * @param data
      *          Data of section
+     * @param direct
+     *          If true, data is copied to a direct byte buffer
+     * @param copyOnWrite
+     *          If true, data is copied to copy-on-write pages
      */
-    public MoteMemorySection(int startAddr, byte[] data) {
+    public MoteMemorySection(int startAddr, byte[] data, boolean direct,
+        boolean copyOnWrite) {
       this.startAddr = startAddr;
-      this.data = data;
+      this.size = data.length;
+      if (direct) {
+        buffer = ByteBuffer.allocateDirect(size).order(ByteOrder.nativeOrder());
+        buffer.put(data);
+        buffer.clear();
+      } else if (copyOnWrite) {
+        pages = new byte[(size + PAGE_SIZE - 1) / PAGE_SIZE][];
+        privatePages = new long[(pages.length + 63) / 64];
+        for (int page = 0; page < pages.length; page++) {
+          pages[page] = Arrays.copyOfRange(data, page * PAGE_SIZE,
+              Math.min(size, (page + 1) * PAGE_SIZE));
+          privatePages[page >> 6] |= 1L << (page & 63);
+        }
+      } else {
+        this.data = data;
+        buffer = ByteBuffer.wrap(data);
+      }
+
+      dirtyPages = new long[(size + 64*PAGE_SIZE - 1) / (64*PAGE_SIZE)];
+      markDirty(0, size);
+    }
+
+    /**
+     * Creates a copy-on-write section sharing all pages with given section.
+     *
+     * @param shared
+     *          Copy-on-write section
+     */
+    private MoteMemorySection(MoteMemorySection shared) {
+      this.startAddr = shared.startAddr;
+      this.size = shared.size;
+
+      /* Pages are now shared by both sections */
+      Arrays.fill(shared.privatePages, 0);
+      pages = shared.pages.clone();
+      privatePages = new long[shared.privatePages.length];
+
+      dirtyPages = new long[(size + 64*PAGE_SIZE - 1) / (64*PAGE_SIZE)];
+      markDirty(0, size);
+    }
+
+    /**
+     * Returns page for writing, first copying it if shared.
+     *
+     * @param page
+     *          Page number
+     * @return Private page
+     */
+    private byte[] getWritablePage(int page) {
+      long bit = 1L << (page & 63);
+      if ((privatePages[page >> 6] & bit) == 0) {
+        pages[page] = pages[page].clone();
+        privatePages[page >> 6] |= bit;
+      }
+      return pages[page];
+    }
+
+    /**
+     * Copies section data to an array.
+     *
+     * @param offset
+     *          Region start, relative to section start
+     * @param dst
+     *          Destination array
+     * @param dstPos
+     *          Destination position
+     * @param length
+     *          Region length
+     */
+    private void read(int offset, byte[] dst, int dstPos, int length) {
+      if (data != null) {
+        System.arraycopy(data, offset, dst, dstPos, length);
+      } else if (pages != null) {
+        while (length > 0) {
+          int pageOffset = offset % PAGE_SIZE;
+          int n = Math.min(length, PAGE_SIZE - pageOffset);
+          System.arraycopy(pages[offset / PAGE_SIZE], pageOffset, dst, dstPos, n);
+          offset += n;
+          dstPos += n;
+          length -= n;
+        }
+      } else {
+        ByteBuffer source = buffer.duplicate();
+        source.position(offset);
+        source.get(dst, dstPos, length);
+      }
+    }
+
+    /**
+     * Copies data from an array to this section. Shared pages are only
+     * copied if their contents change.
+     *
+     * @param offset
+     *          Region start, relative to section start
+     * @param src
+     *          Source array
+     * @param srcPos
+     *          Source position
+     * @param length
+     *          Region length
+     */
+    private void write(int offset, byte[] src, int srcPos, int length) {
+      if (data != null) {
+        System.arraycopy(src, srcPos, data, offset, length);
+      } else if (pages != null) {
+        while (length > 0) {
+          int page = offset / PAGE_SIZE;
+          int pageOffset = offset % PAGE_SIZE;
+          int n = Math.min(length, PAGE_SIZE - pageOffset);
+          if (!regionEquals(pages[page], pageOffset, src, srcPos, n)) {
+            System.arraycopy(src, srcPos, getWritablePage(page), pageOffset, n);
+          }
+          offset += n;
+          srcPos += n;
+          length -= n;
+        }
+      } else {
+        ByteBuffer destination = buffer.duplicate();
+        destination.position(offset);
+        destination.put(src, srcPos, length);
+      }
+    }
+
+    private void update(byte[] src, int changedPages) {
+      if (pages == null || changedPages < 0) {
+        write(0, src, 0, size);
+        return;
+      }
+      for (int page = 0; page < pages.length && changedPages > 0; page++) {
+        byte[] oldPage = pages[page];
+        if (!regionEquals(oldPage, 0, src, page * PAGE_SIZE, oldPage.length)) {
+          System.arraycopy(src, page * PAGE_SIZE, getWritablePage(page), 0, oldPage.length);
+          changedPages--;
+        }
+      }
+    }
+
+    private void sharePages() {
+      if (pages == null) {
+        return;
+      }
+      for (int page = 0; page < pages.length; page++) {
+        pages[page] = PagePool.intern(pages[page]);
+      }
+      Arrays.fill(privatePages, 0);
+    }
+
+    private long getResidentSize(Set<Object> counted) {
+      if (pages == null) {
+        return counted.add(this)?size:0;
+      }
+      long residentSize = 0;
+      for (byte[] page : pages) {
+        if (counted.add(page)) {
+          residentSize += page.length;
+        }
+      }
+      return residentSize;
+    }
+
+    /**
+     * Marks pages overlapping given region as modified.
+     *
+     * @param offset
+     *          Region start, relative to section start
+     * @param length
+     *          Region length
+     */
+    private void markDirty(int offset, int length) {
+      if (length <= 0) {
+        return;
+      }
+      for (int page = offset / PAGE_SIZE; page <= (offset + length - 1) / PAGE_SIZE; page++) {
+        dirtyPages[page >> 6] |= 1L << (page & 63);
+      }
+      hasDirtyPages = true;
+    }
+
+    private void clearDirtyPages() {
+      if (hasDirtyPages) {
+        Arrays.fill(dirtyPages, 0);
+        hasDirtyPages = false;
+      }
+    }
+
+    private int[] getDirtyRegions() {
+      if (!hasDirtyPages) {
+        return new int[0];
+      }
+
+      int[] regions = new int[8];
+      int nrRegions = 0;
+      int nrPages = (size + PAGE_SIZE - 1) / PAGE_SIZE;
+      int page = nextDirtyPage(0, nrPages);
+      while (page < nrPages) {
+        int firstPage = page;
+        while (page < nrPages && (dirtyPages[page >> 6] & (1L << (page & 63))) != 0) {
+          page++;
+        }
+
+        if (2*nrRegions + 2 > regions.length) {
+          regions = Arrays.copyOf(regions, 2*regions.length);
+        }
+        regions[2*nrRegions] = firstPage * PAGE_SIZE;
+        regions[2*nrRegions + 1] = Math.min(size, page * PAGE_SIZE) - firstPage * PAGE_SIZE;
+        nrRegions++;
+
+        page = nextDirtyPage(page, nrPages);
+      }
+      return Arrays.copyOf(regions, 2*nrRegions);
+    }
+
+    private int nextDirtyPage(int page, int endPage) {
+      while (page < endPage) {
+        long word = dirtyPages[page >> 6] >>> (page & 63);
+        if (word != 0) {
+          return Math.min(endPage, page + Long.numberOfTrailingZeros(word));
+        }
+        page = (page | 63) + 1;
+      }
+      return endPage;
     }
 
     /**
@@ -353,18 +914,35 @@ public class SectionMoteMemory implements MoteMemory, AddressMemory {
      * @return Size
      */
     public int getSize() {
-      return data.length;
+      return size;
     }
 
     /**
      * Returns the entire byte array which defines this section.
+     * For direct and copy-on-write sections, a copy is returned.
      *
      * @return Byte array
      */
     public byte[] getData() {
+      if (data == null) {
+        return getMemorySegment(startAddr, size);
+      }
       return data;
     }
 
+    /**
+     * Returns buffer holding section data.
+     * For copy-on-write sections, a buffer wrapping a copy is returned.
+     *
+     * @return Buffer
+     */
+    public ByteBuffer getBuffer() {
+      if (buffer == null) {
+        return ByteBuffer.wrap(getData());
+      }
+      return buffer;
+    }
+
     /**
      * True if given address is part of this memory section.
      *
@@ -374,11 +952,7 @@ public class SectionMoteMemory implements MoteMemory, AddressMemory {
      *         otherwise
      */
     public boolean includesAddr(int addr) {
-      if (data == null) {
-        return false;
-      }
-
-      return (addr >= startAddr && addr < (startAddr + data.length));
+      return (addr >= startAddr && addr < (startAddr + size));
     }
 
     /**
@@ -392,7 +966,7 @@ public class SectionMoteMemory implements MoteMemory, AddressMemory {
      */
     public byte[] getMemorySegment(int addr, int size) {
       byte[] ret = new byte[size];
-      System.arraycopy(data, addr - startAddr, ret, 0, size);
+      read(addr - startAddr, ret, 0, size);
       return ret;
     }
 
@@ -405,19 +979,136 @@ public class SectionMoteMemory implements MoteMemory, AddressMemory {
      *          Data of memory segment
      */
     public void setMemorySegment(int addr, byte[] data) {
-      System.arraycopy(data, 0, this.data, addr - startAddr, data.length);
+      write(addr - startAddr, data, 0, data.length);
+      markDirty(addr - startAddr, data.length);
+    }
+
+    public byte getByte(int offset) {
+      if (data != null) {
+        return data[offset];
+      }
+      if (pages != null) {
+        return pages[offset / PAGE_SIZE][offset % PAGE_SIZE];
+      }
+      return buffer.get(offset);
+    }
+
+    private void putByte(int offset, byte value) {
+      if (data != null) {
+        data[offset] = value;
+      } else if (pages != null) {
+        if (pages[offset / PAGE_SIZE][offset % PAGE_SIZE] != value) {
+          getWritablePage(offset / PAGE_SIZE)[offset % PAGE_SIZE] = value;
+        }
+      } else {
+        buffer.put(offset, value);
+      }
+    }
+
+    public void setByte(int offset, byte value) {
+      putByte(offset, value);
+      markDirty(offset, 1);
+    }
+
+    /* Integers are stored little-endian, see getIntValueOf() */
+    public int getInt(int offset) {
+      return (getByte(offset) & 0xFF)
+          | (getByte(offset + 1) & 0xFF) << 8
+          | (getByte(offset + 2) & 0xFF) << 16
+          | (getByte(offset + 3) & 0xFF) << 24;
+    }
+
+    public void setInt(int offset, int value) {
+      putByte(offset, (byte) value);
+      putByte(offset + 1, (byte) (value >> 8));
+      putByte(offset + 2, (byte) (value >> 16));
+      putByte(offset + 3, (byte) (value >> 24));
+      markDirty(offset, 4);
     }
 
     public MoteMemorySection clone() {
-      byte[] dataClone = new byte[data.length];
-      System.arraycopy(data, 0, dataClone, 0, data.length);
+      if (pages != null) {
+        return new MoteMemorySection(this);
+      }
+
+      byte[] dataClone = getMemorySegment(startAddr, size);
 
-      MoteMemorySection clone = new MoteMemorySection(startAddr, dataClone);
+      MoteMemorySection clone = new MoteMemorySection(startAddr, dataClone, data == null, false);
       return clone;
     }
 
   }
 
+  private static boolean regionEquals(byte[] a, int aPos, byte[] b, int bPos, int length) {
+    for (int i = 0; i < length; i++) {
+      if (a[aPos + i] != b[bPos + i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Pages shared by copy-on-write memories, looked up by contents.
+   * Pages no longer used by any memory are released by the garbage collector.
+   */
+  private static class PagePool {
+    private static class PageReference extends WeakReference<byte[]> {
+      private final int hash;
+
+      private PageReference(byte[] page, int hash, ReferenceQueue<byte[]> queue) {
+        super(page, queue);
+        this.hash = hash;
+      }
+    }
+
+    private static HashMap<Integer, ArrayList<PageReference>> pages =
+      new HashMap<Integer, ArrayList<PageReference>>();
+
+    private static ReferenceQueue<byte[]> releasedPages = new ReferenceQueue<byte[]>();
+
+    /**
+     * Returns shared page with the same contents as the given page.
+     * If no such page exists, the given page is added to the pool.
+     * Shared pages must not be modified.
+     *
+     * @param page
+     *          Page
+     * @return Shared page
+     */
+    private static synchronized byte[] intern(byte[] page) {
+      removeReleasedPages();
+
+      int hash = Arrays.hashCode(page);
+      ArrayList<PageReference> bucket = pages.get(hash);
+      if (bucket == null) {
+        bucket = new ArrayList<PageReference>(1);
+        pages.put(hash, bucket);
+      }
+      for (PageReference ref : bucket) {
+        byte[] sharedPage = ref.get();
+        if (sharedPage != null && Arrays.equals(sharedPage, page)) {
+          return sharedPage;
+        }
+      }
+      bucket.add(new PageReference(page, hash, releasedPages));
+      return page;
+    }
+
+    private static void removeReleasedPages() {
+      PageReference ref;
+      while ((ref = (PageReference) releasedPages.poll()) != null) {
+        ArrayList<PageReference> bucket = pages.get(ref.hash);
+        if (bucket != null) {
+          bucket.remove(ref);
+          if (bucket.isEmpty()) {
+            pages.remove(ref.hash);
+          }
+        }
+      }
+    }
+  }
+
   // EXPERIMENTAL AND DEBUG METHODS
   public SectionMoteMemory clone() {
     Vector<MoteMemorySection> clonedSections = new Vector<MoteMemorySection>();
@@ -425,7 +1116,7 @@ public class SectionMoteMemory implements MoteMemory, AddressMemory {
       clonedSections.add(section.clone());
     }
 
-    SectionMoteMemory clone = new SectionMoteMemory(variableAddresses);
+    SectionMoteMemory clone = new SectionMoteMemory(variableAddresses, direct, copyOnWrite);
     clone.sections = clonedSections;
 
     return clone;
@@ -437,7 +1128,7 @@ public class SectionMoteMemory implements MoteMemory, AddressMemory {
       messageDigest = MessageDigest.getInstance("MD5");
 
       for (MoteMemorySection section : sections) {
-        messageDigest.update(section.data, 0, section.getSize());
+        messageDigest.update(section.getData(), 0, section.getSize());
       }
     } catch (NoSuchAlgorithmException e) {
       return null;
@@ -465,7 +1156,7 @@ public class SectionMoteMemory implements MoteMemory, AddressMemory {
       }
 
       for (int j = 0; j < sections.get(i).getSize(); j++) {
-        if (this.sections.get(i).data[j] != anotherMem.getDataOfSection(i)[j]) {
+        if (this.sections.get(i).getData()[j] != anotherMem.getDataOfSection(i)[j]) {
           differences.add(new Integer(sections.get(i).startAddr + j));
         }
       }
@@ -502,7 +1193,7 @@ public class SectionMoteMemory implements MoteMemory, AddressMemory {
 
       System.err.print("Section[" + i + "]: ");
       for (int j = 0; j < sections.get(i).getSize(); j++) {
-        if (this.sections.get(i).data[j] != anotherMem.getDataOfSection(i)[j]) {
+        if (this.sections.get(i).getData()[j] != anotherMem.getDataOfSection(i)[j]) {
           System.err.print(j + ",");
         }
       }
@@ -29,16 +29,20 @@
 
 package se.sics.cooja;
 
+import java.io.File;
 import java.util.*;
+import java.util.concurrent.*;
 import org.apache.log4j.Logger;
 import org.jdom.*;
 
 import se.sics.cooja.dialogs.*;
+import se.sics.cooja.interfaces.MoteID;
 
 /**
  * A simulation consists of a number of motes and mote types.
  *
- * The motes in the simulation are ticked every millisecond.
+ * The motes in the simulation are ticked every millisecond, except
+ * event driven motes that are only ticked when they have work to do.
  *
  * A simulation is observable:
  * changed simulation state, added or deleted motes etc are observed.
@@ -60,6 +64,8 @@ public class Simulation extends Observable implements Runnable {
 
   private String title = null;
 
+  private File configFile = null;
+
   private RadioMedium currentRadioMedium = null;
 
   private static Logger logger = Logger.getLogger(Simulation.class);
@@ -117,27 +123,314 @@ public class Simulation extends Observable implements Runnable {
    * @param e Event
    * @param time Simulated time
    */
-  public void scheduleEvent(TimeEvent e, int time) {
+  public void scheduleEvent(final TimeEvent e, final int time) {
+    if (deferredTasks.get() != null) {
+      /* Called from tick worker thread */
+      invokeSimulationThread(new Runnable() {
+        public void run() {
+          eventQueue.addEvent(e, time);
+        }
+      });
+      return;
+    }
     eventQueue.addEvent(e, time);
   }
 
-  private EventQueue eventQueue = new EventQueue();
+  private EventQueue eventQueue = new HeapEventQueue();
 
-  private Mote[] mspMoteArray;
-  private TimeEvent tickMspMotesEvent = new TimeEvent(0) {
-    public void execute(int t) {
-      /*logger.info("MSP motes tick at: " + t);*/
+  /**
+   * Changes event scheduler implementation.
+   * Already scheduled events are moved to the new scheduler.
+   * Must not be called while simulation is running.
+   *
+   * @param newEventQueue Event queue
+   */
+  public void setEventQueue(EventQueue newEventQueue) {
+    if (isRunning()) {
+      logger.fatal("Can't change event queue of running simulation");
+      return;
+    }
+    eventQueue.transferTo(newEventQueue);
+    eventQueue = newEventQueue;
+  }
+
+  /**
+   * @return Event scheduler
+   */
+  public EventQueue getEventQueue() {
+    return eventQueue;
+  }
+
+  private volatile EventTrace eventTrace = null;
+
+  /**
+   * Enables or disables event tracing. Executed events, mote ticks and mote
+   * interface actions are recorded to the given trace. The trace is not
+   * closed when tracing is disabled.
+   *
+   * @param trace Event trace, or null to disable tracing
+   */
+  public void setEventTrace(EventTrace trace) {
+    eventTrace = trace;
+    for (Mote mote: motes) {
+      mote.getInterfaces().setEventTrace(trace);
+    }
+  }
+
+  /**
+   * @return Event trace, or null if tracing is disabled
+   */
+  public EventTrace getEventTrace() {
+    return eventTrace;
+  }
+
+  private boolean tickMote(Mote mote, int time) {
+    EventTrace trace = eventTrace;
+    if (trace == null) {
+      return mote.tick(time);
+    }
+    return trace.tickMote(mote, time);
+  }
 
-      /* Tick MSP motes */
-      boolean wantMoreTicks = true;
-      while (wantMoreTicks) {
-        /* Tick all MSP motes until none need more ticks */
-        wantMoreTicks = false;
-        for (Mote element : mspMoteArray) {
-          if (element.tick(currentSimulationTime)) {
+  private int tickThreads = 1;
+
+  private ExecutorService tickExecutor = null;
+
+  /* Tasks deferred by the mote currently ticked with several tick threads, null otherwise */
+  private ThreadLocal<ArrayList<Runnable>> deferredTasks = new ThreadLocal<ArrayList<Runnable>>();
+
+  /**
+   * Executes given task on the simulation thread.
+   *
+   * If called while a mote is ticked with several tick threads, the task is
+   * deferred until all motes have been ticked. Deferred tasks are executed
+   * per mote in mote ID order, so the result does not depend on the number
+   * of tick threads. Otherwise the task is executed immediately.
+   *
+   * Mote interfaces use this to update observed state and notify observers,
+   * and the radio medium to handle radio events.
+   *
+   * @see #setTickThreads(int)
+   * @param task Task
+   */
+  public void invokeSimulationThread(Runnable task) {
+    ArrayList<Runnable> deferred = deferredTasks.get();
+    if (deferred != null) {
+      deferred.add(task);
+    } else {
+      task.run();
+    }
+  }
+
+  /**
+   * Sets the number of threads used to tick motes. With more than one
+   * thread, motes ticked every millisecond (not event driven motes) are
+   * partitioned over a worker pool and ticked concurrently.
+   *
+   * Interactions between such motes, such as radio medium updates and
+   * observer notifications, are then deferred until all motes have been
+   * ticked, and are executed in mote ID order. Results are hence identical
+   * for any number of threads above one. With a single thread, interactions
+   * are handled immediately, and a mote sees interactions of motes ticked
+   * before it in the same tick round.
+   *
+   * The simulation must be restarted for a change to take effect.
+   *
+   * @see #invokeSimulationThread(Runnable)
+   * @param threads Number of threads, 1 ticks motes sequentially
+   */
+  public void setTickThreads(int threads) {
+    tickThreads = Math.max(1, threads);
+  }
+
+  /**
+   * @return Number of threads used to tick motes
+   */
+  public int getTickThreads() {
+    return tickThreads;
+  }
+
+  /**
+   * Motes ticked together every millisecond. Tasks deferred by each mote
+   * during a tick round are executed in mote ID order when all motes have
+   * been ticked.
+   */
+  private class TickRound {
+    private final Mote[] motes;
+    private final ArrayList<ArrayList<Runnable>> deferred = new ArrayList<ArrayList<Runnable>>();
+    private final Integer[] replayOrder;
+
+    /* Motes that may run ahead of each other, null if not all motes may */
+    private SynchronizedMote[] synchronizedMotes = null;
+
+    private TickRound(final Mote[] motes) {
+      this.motes = motes;
+      replayOrder = new Integer[motes.length];
+      for (int i=0; i < motes.length; i++) {
+        deferred.add(new ArrayList<Runnable>());
+        replayOrder[i] = i;
+      }
+
+      synchronizedMotes = new SynchronizedMote[motes.length];
+      for (int i=0; i < motes.length; i++) {
+        if (!(motes[i] instanceof SynchronizedMote)) {
+          synchronizedMotes = null;
+          break;
+        }
+        synchronizedMotes[i] = (SynchronizedMote) motes[i];
+      }
+      for (Mote mote : motes) {
+        if (synchronizedMotes == null && mote instanceof SynchronizedMote) {
+          ((SynchronizedMote) mote).setInteractionHorizon(Long.MIN_VALUE);
+        }
+      }
+
+      /* Stable sort: motes without ID keep their order, last */
+      Arrays.sort(replayOrder, new Comparator<Integer>() {
+        public int compare(Integer a, Integer b) {
+          int idA = getMoteID(motes[a]);
+          int idB = getMoteID(motes[b]);
+          return idA < idB ? -1 : (idA > idB ? 1 : 0);
+        }
+      });
+    }
+
+    private int getMoteID(Mote mote) {
+      MoteID moteID = mote.getInterfaces().getMoteID();
+      if (moteID == null) {
+        return Integer.MAX_VALUE;
+      }
+      return moteID.getMoteID();
+    }
+
+    /**
+     * Ticks all motes once, and executes tasks deferred during the ticks.
+     *
+     * @param time Simulation time
+     * @return True if any mote wants more ticks
+     */
+    private boolean tick(int time) {
+      try {
+        synchronizeMotes();
+
+        if (tickExecutor != null && motes.length > 1) {
+          return tickParallel(time);
+        }
+
+        boolean wantMoreTicks = false;
+        for (int i=0; i < motes.length; i++) {
+          if (tickMote(i, time)) {
             wantMoreTicks = true;
           }
         }
+        return wantMoreTicks;
+      } finally {
+        /* Execute deferred tasks in mote ID order */
+        for (int i : replayOrder) {
+          ArrayList<Runnable> tasks = deferred.get(i);
+          for (Runnable task : tasks) {
+            task.run();
+          }
+          tasks.clear();
+        }
+      }
+    }
+
+    /**
+     * Hands the earliest interaction of all motes to all motes.
+     */
+    private void synchronizeMotes() {
+      if (synchronizedMotes == null) {
+        return;
+      }
+      long horizon = Long.MAX_VALUE;
+      for (SynchronizedMote mote : synchronizedMotes) {
+        horizon = Math.min(horizon, mote.getEarliestInteraction());
+      }
+      for (SynchronizedMote mote : synchronizedMotes) {
+        mote.setInteractionHorizon(horizon);
+      }
+    }
+
+    private boolean tickMote(int index, int time) {
+      if (tickExecutor == null) {
+        /* Sequential ticks: mote interactions are handled immediately */
+        return Simulation.this.tickMote(motes[index], time);
+      }
+
+      deferredTasks.set(deferred.get(index));
+      try {
+        return Simulation.this.tickMote(motes[index], time);
+      } finally {
+        deferredTasks.set(null);
+      }
+    }
+
+    /**
+     * Ticks contiguous chunks of motes concurrently on the tick worker pool,
+     * and waits for all chunks.
+     */
+    private boolean tickParallel(final int time) {
+      int nrChunks = Math.min(tickThreads, motes.length);
+      ArrayList<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+      for (int i=0; i < nrChunks; i++) {
+        final int first = i*motes.length/nrChunks;
+        final int last = (i+1)*motes.length/nrChunks;
+        results.add(tickExecutor.submit(new Callable<Boolean>() {
+          public Boolean call() {
+            boolean wantMoreTicks = false;
+            for (int index=first; index < last; index++) {
+              if (tickMote(index, time)) {
+                wantMoreTicks = true;
+              }
+            }
+            return wantMoreTicks;
+          }
+        }));
+      }
+
+      /* Wait for all workers, even if interrupted (stop requests are handled later) */
+      boolean wantMoreTicks = false;
+      boolean interrupted = false;
+      RuntimeException failure = null;
+      for (Future<Boolean> result : results) {
+        while (true) {
+          try {
+            if (result.get()) {
+              wantMoreTicks = true;
+            }
+            break;
+          } catch (InterruptedException e) {
+            interrupted = true;
+          } catch (ExecutionException e) {
+            if (failure == null) {
+              if (e.getCause() instanceof RuntimeException) {
+                failure = (RuntimeException) e.getCause();
+              } else {
+                failure = new RuntimeException("Mote tick failed: " + e.getCause());
+              }
+            }
+            break;
+          }
+        }
+      }
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+      if (failure != null) {
+        throw failure;
+      }
+      return wantMoreTicks;
+    }
+  }
+
+  private TickRound mspTickRound;
+  private TimeEvent tickMspMotesEvent = new TimeEvent(0, "tick MSP motes") {
+    public void execute(int t) {
+      /*logger.info("MSP motes tick at: " + t);*/
+
+      /* Tick all MSP motes until none need more ticks */
+      while (mspTickRound.tick(currentSimulationTime)) {
       }
 
       /* Reschedule MSP motes */
@@ -145,22 +438,20 @@ public class Simulation extends Observable implements Runnable {
     }
   };
 
-  private Mote[] moteArray;
-  private TimeEvent tickMotesEvent = new TimeEvent(0) {
+  private TickRound moteTickRound;
+  private TimeEvent tickMotesEvent = new TimeEvent(0, "tick motes") {
     public void execute(int t) {
       /*logger.info("Contiki motes tick at: " + t);*/
 
       /* Tick Contiki motes */
-      for (Mote mote : moteArray) {
-        mote.tick(t);
-      }
+      moteTickRound.tick(t);
 
       /* Reschedule Contiki motes */
       scheduleEvent(this, t+1);
     }
   };
 
-  private TimeEvent delayEvent = new TimeEvent(0) {
+  private TimeEvent delayEvent = new TimeEvent(0, "delay") {
     public void execute(int t) {
       /*logger.info("Delay at: " + t);*/
 
@@ -176,27 +467,48 @@ public class Simulation extends Observable implements Runnable {
     logger.info("Simulation main loop started, system time: " + lastStartTime);
     isRunning = true;
 
-    /* Schedule tick events */
-    scheduleEvent(tickMotesEvent, currentSimulationTime);
-    scheduleEvent(tickMspMotesEvent, currentSimulationTime);
-    scheduleEvent(delayEvent, currentSimulationTime);
-
-    /* Simulation starting */
-    this.setChanged();
-    this.notifyObservers(this);
-
-    /* Tick MSP motes separately */
+    /* Event driven motes schedule their own ticks, MSP motes are ticked separately */
     ArrayList<Mote> mspMotes = new ArrayList<Mote>();
     ArrayList<Mote> contikiMotes = new ArrayList<Mote>();
     for (Mote mote: motes) {
-      if (mote.getType().getClass().toString().contains(".mspmote.")) {
+      if (mote instanceof EventDrivenMote) {
+        ((EventDrivenMote) mote).scheduleTicks();
+      } else if (mote.getType().getClass().toString().contains(".mspmote.")) {
         mspMotes.add(mote);
       } else {
         contikiMotes.add(mote);
       }
     }
-    mspMoteArray = mspMotes.toArray(new Mote[mspMotes.size()]);
-    moteArray = contikiMotes.toArray(new Mote[contikiMotes.size()]);
+    mspTickRound = new TickRound(mspMotes.toArray(new Mote[mspMotes.size()]));
+    moteTickRound = new TickRound(contikiMotes.toArray(new Mote[contikiMotes.size()]));
+
+    /* Schedule tick events */
+    if (moteTickRound.motes.length > 0) {
+      scheduleEvent(tickMotesEvent, currentSimulationTime);
+    } else {
+      tickMotesEvent.remove();
+    }
+    if (mspTickRound.motes.length > 0) {
+      scheduleEvent(tickMspMotesEvent, currentSimulationTime);
+    } else {
+      tickMspMotesEvent.remove();
+    }
+    scheduleEvent(delayEvent, currentSimulationTime);
+
+    /* Start tick worker pool */
+    if (tickThreads > 1 && Math.max(moteTickRound.motes.length, mspTickRound.motes.length) > 1) {
+      tickExecutor = Executors.newFixedThreadPool(tickThreads, new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+          Thread t = new Thread(r, "tick worker");
+          t.setDaemon(true);
+          return t;
+        }
+      });
+    }
+
+    /* Simulation starting */
+    this.setChanged();
+    this.notifyObservers(this);
 
     try {
       while (isRunning) {
@@ -207,7 +519,16 @@ public class Simulation extends Observable implements Runnable {
         }
 
         currentSimulationTime = nextEvent.time;
-        nextEvent.execute(currentSimulationTime);
+        EventTrace trace = eventTrace;
+        if (trace == null) {
+          nextEvent.execute(currentSimulationTime);
+        } else {
+          trace.setSimulationTime(currentSimulationTime);
+          long start = trace.start();
+          nextEvent.execute(currentSimulationTime);
+          trace.record(EventTrace.EVENT, -1, EventTrace.getEventName(nextEvent),
+              eventQueue.size(), start);
+        }
 
         /* Notify tick observers */
         tickObservable.allTicksPerformed();
@@ -223,6 +544,10 @@ public class Simulation extends Observable implements Runnable {
     } catch (RuntimeException e) {
       logger.warn("Simulation stop requested: " + e);
     }
+    if (tickExecutor != null) {
+      tickExecutor.shutdown();
+      tickExecutor = null;
+    }
     isRunning = false;
     thread = null;
     stopSimulation = false;
@@ -358,6 +683,16 @@ public class Simulation extends Observable implements Runnable {
     element.setText(Integer.toString(tickTime));
     config.add(element);
 
+    // Event queue
+    element = new Element("eventqueue");
+    element.setText(eventQueue.getClass().getName());
+    config.add(element);
+
+    // Tick threads
+    element = new Element("tickthreads");
+    element.setText(Integer.toString(tickThreads));
+    config.add(element);
+
     // Random seed
     element = new Element("randomseed");
     element.setText(Long.toString(randomSeed));
@@ -439,6 +774,25 @@ public class Simulation extends Observable implements Runnable {
         tickTime = Integer.parseInt(element.getText());
       }
 
+      // Event queue
+      if (element.getName().equals("eventqueue")) {
+        String eventQueueClassName = element.getText().trim();
+        Class<? extends EventQueue> eventQueueClass = myGUI.tryLoadClass(
+            this, EventQueue.class, eventQueueClassName);
+
+        if (eventQueueClass != null) {
+          setEventQueue(eventQueueClass.newInstance());
+        } else {
+          logger.warn("Could not load event queue class: "
+              + eventQueueClassName);
+        }
+      }
+
+      // Tick threads
+      if (element.getName().equals("tickthreads")) {
+        setTickThreads(Integer.parseInt(element.getText()));
+      }
+
       // Random seed
       if (element.getName().equals("randomseed")) {
         randomSeed = Long.parseLong(element.getText());
@@ -503,12 +857,25 @@ public class Simulation extends Observable implements Runnable {
           return false;
         }
 
+        /* Reuse loaded mote type, if any */
+        MoteTypePool pool = myGUI.getMoteTypePool();
+        if (pool != null) {
+          MoteType moteType = pool.acquire(this, moteTypeClassName, element.getChildren());
+          if (moteType != null) {
+            addMoteType(moteType);
+            continue;
+          }
+        }
+
         MoteType moteType = moteTypeClass.getConstructor((Class[]) null)
             .newInstance();
 
         boolean createdOK = moteType.setConfigXML(this, element.getChildren(),
             visAvailable);
         if (createdOK) {
+          if (pool != null) {
+            pool.add(this, moteTypeClassName, element.getChildren(), moteType);
+          }
           addMoteType(moteType);
         } else {
           logger
@@ -553,6 +920,10 @@ public class Simulation extends Observable implements Runnable {
       motes.remove(mote);
     }
 
+    if (mote instanceof EventDrivenMote) {
+      ((EventDrivenMote) mote).unscheduleTicks();
+    }
+
     myGUI.closeMotePlugins(mote);
     currentRadioMedium.unregisterMote(mote, this);
 
@@ -567,6 +938,7 @@ public class Simulation extends Observable implements Runnable {
    *          Mote to add
    */
   public void addMote(Mote mote) {
+    mote.getInterfaces().setEventTrace(eventTrace);
     if (isRunning()) {
       stopSimulation();
       motes.add(mote);
@@ -604,6 +976,28 @@ public class Simulation extends Observable implements Runnable {
     return motes.size();
   }
 
+  /**
+   * Returns number of bytes held by the memories of all motes in this
+   * simulation. Copy-on-write pages shared between motes are counted once.
+   *
+   * @see SectionMoteMemory#getResidentSize(Set)
+   * @return Resident mote memory size
+   */
+  public long getMoteMemorySize() {
+    Set<Object> counted =
+      Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+    long size = 0;
+    for (Mote mote: motes) {
+      MoteMemory memory = mote.getMemory();
+      if (memory instanceof SectionMoteMemory) {
+        size += ((SectionMoteMemory) memory).getResidentSize(counted);
+      } else if (memory != null && counted.add(memory)) {
+        size += memory.getTotalSize();
+      }
+    }
+    return size;
+  }
+
   /**
    * Returns all mote types in simulation.
    *
@@ -789,4 +1183,24 @@ public class Simulation extends Observable implements Runnable {
     this.title = title;
   }
 
+  /**
+   * Returns the simulation config file this simulation was loaded from,
+   * or last saved to. Components may store auxiliary files next to it.
+   *
+   * @return Simulation config file, or null
+   */
+  public File getConfigFile() {
+    return configFile;
+  }
+
+  /**
+   * Sets the simulation config file.
+   *
+   * @see #getConfigFile()
+   * @param configFile Simulation config file
+   */
+  public void setConfigFile(File configFile) {
+    this.configFile = configFile;
+  }
+
 }
@@ -0,0 +1,230 @@
+/*
+ * Copyright (c) 2008, Swedish Institute of Computer Science.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * $Id$
+ */
+
+package se.sics.cooja;
+
+import java.io.PrintStream;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Accumulates wall clock time spent per phase, mote type, mote, mote
+ * interface class, radio event and event type. Attached to a simulation
+ * as event trace.
+ *
+ * Phases nest: mote ticks are executed by events, and interface actions
+ * are executed by mote ticks. Mote core time is mote tick time minus the
+ * interface actions.
+ *
+ * @see Simulation#setEventTrace(EventTrace)
+ * @author Fredrik sterlind
+ */
+public class SimulationProfiler extends EventTrace {
+
+  public enum Category {
+    PHASE("Phase"),
+    MOTE_TYPE("Mote type"),
+    MOTE("Mote"),
+    INTERFACE("Interface"),
+    RADIO("Radio event"),
+    EVENT("Event");
+
+    private final String description;
+
+    private Category(String description) {
+      this.description = description;
+    }
+
+    public String toString() {
+      return description;
+    }
+  }
+
+  public static final String PHASE_EVENTS = "events";
+  public static final String PHASE_MOTE_TICKS = "mote ticks";
+  public static final String PHASE_MOTE_CORE = "mote core (ticks minus interfaces)";
+  public static final String PHASE_RADIO = "radio medium";
+  private static final String[] PHASE_INTERFACES = {
+    "interfaces: active before tick",
+    "interfaces: active after tick",
+    "interfaces: passive before tick",
+    "interfaces: passive after tick"
+  };
+
+  /**
+   * Accumulated count and time of one profiled item.
+   */
+  public static class Entry {
+    public final String name;
+    public final long count;
+    public final long nanos;
+
+    public Entry(String name, long count, long nanos) {
+      this.name = name;
+      this.count = count;
+      this.nanos = nanos;
+    }
+  }
+
+  private static class Counter {
+    final AtomicLong count = new AtomicLong();
+    final AtomicLong nanos = new AtomicLong();
+
+    void add(long duration) {
+      count.incrementAndGet();
+      nanos.addAndGet(duration);
+    }
+  }
+
+  private final EnumMap<Category, ConcurrentHashMap<Object, Counter>> counters =
+    new EnumMap<Category, ConcurrentHashMap<Object, Counter>>(Category.class);
+
+  public SimulationProfiler() {
+    for (Category category: Category.values()) {
+      counters.put(category, new ConcurrentHashMap<Object, Counter>());
+    }
+  }
+
+  private void add(Category category, Object key, long duration) {
+    ConcurrentHashMap<Object, Counter> map = counters.get(category);
+    Counter counter = map.get(key);
+    if (counter == null) {
+      Counter newCounter = new Counter();
+      counter = map.putIfAbsent(key, newCounter);
+      if (counter == null) {
+        counter = newCounter;
+      }
+    }
+    counter.add(duration);
+  }
+
+  public void record(int type, int moteID, String name, int arg, long start) {
+    long duration = System.nanoTime() - start;
+    switch (type) {
+    case EVENT:
+      add(Category.PHASE, PHASE_EVENTS, duration);
+      add(Category.EVENT, name, duration);
+      break;
+    case MOTE_TICK:
+      add(Category.PHASE, PHASE_MOTE_TICKS, duration);
+      add(Category.MOTE_TYPE, name, duration);
+      add(Category.MOTE, moteID, duration);
+      break;
+    case RADIO:
+      add(Category.PHASE, PHASE_RADIO, duration);
+      add(Category.RADIO, name, duration);
+      break;
+    case INTERFACE:
+      if (arg >= 0 && arg < PHASE_INTERFACES.length) {
+        add(Category.PHASE, PHASE_INTERFACES[arg], duration);
+      }
+      add(Category.INTERFACE, name, duration);
+      break;
+    }
+  }
+
+  /**
+   * Clears all accumulated values.
+   */
+  public void reset() {
+    for (ConcurrentHashMap<Object, Counter> map: counters.values()) {
+      map.clear();
+    }
+  }
+
+  /**
+   * @return Total time of executed events (ns)
+   */
+  public long getProfiledTime() {
+    Counter events = counters.get(Category.PHASE).get(PHASE_EVENTS);
+    return events == null ? 0 : events.nanos.get();
+  }
+
+  /**
+   * @param category Category
+   * @return Entries of category, sorted by decreasing time
+   */
+  public List<Entry> getEntries(Category category) {
+    ArrayList<Entry> entries = new ArrayList<Entry>();
+    long interfaceNanos = 0;
+    for (Map.Entry<Object, Counter> e: counters.get(category).entrySet()) {
+      long nanos = e.getValue().nanos.get();
+      entries.add(new Entry(e.getKey().toString(), e.getValue().count.get(), nanos));
+      if (category == Category.PHASE && e.getKey().toString().startsWith("interfaces:")) {
+        interfaceNanos += nanos;
+      }
+    }
+    if (category == Category.PHASE) {
+      Counter ticks = counters.get(Category.PHASE).get(PHASE_MOTE_TICKS);
+      if (ticks != null) {
+        entries.add(new Entry(PHASE_MOTE_CORE, ticks.count.get(),
+            Math.max(0, ticks.nanos.get() - interfaceNanos)));
+      }
+    }
+    Collections.sort(entries, new Comparator<Entry>() {
+      public int compare(Entry a, Entry b) {
+        return a.nanos == b.nanos ? 0 : (a.nanos > b.nanos ? -1 : 1);
+      }
+    });
+    return entries;
+  }
+
+  /**
+   * Prints all categories.
+   *
+   * @param out Output stream
+   * @param maxRows Maximum number of rows per category
+   */
+  public void print(PrintStream out, int maxRows) {
+    long total = getProfiledTime();
+    out.println(String.format("Profiled event time: %.1f ms", total/1e6));
+    for (Category category: Category.values()) {
+      List<Entry> entries = getEntries(category);
+      if (entries.isEmpty()) {
+        continue;
+      }
+      out.println();
+      out.println(category + ":");
+      out.println(String.format("  %10s %12s %10s %7s  %s",
+          "count", "total_ms", "avg_us", "share", "name"));
+      for (Entry e: entries.subList(0, Math.min(maxRows, entries.size()))) {
+        out.println(String.format("  %10d %12.1f %10.2f %6.1f%%  %s",
+            e.count, e.nanos/1e6, e.count > 0 ? e.nanos/1e3/e.count : 0.0,
+            total > 0 ? 100.0*e.nanos/total : 0.0, e.name));
+      }
+      if (entries.size() > maxRows) {
+        out.println("  (" + (entries.size() - maxRows) + " more)");
+      }
+    }
+  }
+
+}
@@ -0,0 +1,471 @@
+/*
+ * Copyright (c) 2008, Swedish Institute of Computer Science.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * $Id$
+ */
+
+package se.sics.cooja;
+
+import java.io.*;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import org.apache.log4j.Logger;
+import org.jdom.Document;
+import org.jdom.Element;
+import org.jdom.JDOMException;
+import org.jdom.input.SAXBuilder;
+import org.jdom.output.XMLOutputter;
+
+import se.sics.cooja.GUI.SimulationCreationException;
+
+/**
+ * Simulation snapshot: the simulation config together with the run-time state
+ * of a stopped simulation, stored in a compact binary file.
+ *
+ * Restoring a snapshot recreates the simulation from the config, and then
+ * overwrites the simulation time, the state of all motes and mote interfaces
+ * implementing Snapshottable, the radio medium connections and the event
+ * queue. Many experiments may hence be forked from one warmed-up network,
+ * for example with different random seeds.
+ *
+ * Scheduled events are stored as their time and the event field of their
+ * owner (mote, mote interface or radio medium). Events scheduled while the
+ * config is loaded are discarded. Random generators are reseeded from the
+ * config.
+ *
+ * Limitations:
+ * <ul>
+ * <li>Contiki mote memory holds absolute pointers into the mote type's
+ * library. A Contiki mote can hence only be restored into the library it was
+ * saved with, loaded at the same address, that is, in the same JVM.
+ * Restoring fails otherwise.
+ * <li>MSP motes are not supported. MSPSim keeps timer, USART and radio chip
+ * state private, and restoring only CPU registers and memory would resume
+ * the motes with reset peripherals. Saving a simulation with MSP motes
+ * fails.
+ * </ul>
+ *
+ * File format (GZIP compressed):
+ * <pre>
+ * magic, version, config XML, simulation time,
+ * for each mote: class, [mote state], interfaces count, {class, interface state},
+ * radio medium class, [radio medium state],
+ * events count, {time, owner index, owner class, field class, field name}
+ * </pre>
+ * All state blocks are length prefixed.
+ *
+ * @see Snapshottable
+ * @author Fredrik sterlind
+ */
+public class SimulationSnapshot {
+  private static Logger logger = Logger.getLogger(SimulationSnapshot.class);
+
+  public static final String FILE_EXTENSION = ".snapshot";
+
+  private static final String MAGIC = "COOJA simulation snapshot";
+  private static final int VERSION = 2;
+
+  private Element config;
+  private int simulationTime;
+  private byte[] state;
+
+  private SimulationSnapshot(Element config, int simulationTime, byte[] state) {
+    this.config = config;
+    this.simulationTime = simulationTime;
+    this.state = state;
+  }
+
+  /**
+   * Saves a snapshot of given simulation to file.
+   * The simulation must not be running.
+   *
+   * @param sim Simulation
+   * @param file File
+   * @throws IOException On write error
+   */
+  public static void save(Simulation sim, File file) throws IOException {
+    if (sim.isRunning()) {
+      throw new IllegalStateException("Simulation must be stopped");
+    }
+
+    /* Simulation config */
+    Element root = new Element("simconf");
+    Element simulationElement = new Element("simulation");
+    simulationElement.addContent(sim.getConfigXML());
+    root.addContent(simulationElement);
+    byte[] configData =
+      new XMLOutputter().outputString(new Document(root)).getBytes("UTF-8");
+
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+        new GZIPOutputStream(new FileOutputStream(file))));
+    boolean saved = false;
+    try {
+      out.writeUTF(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(configData.length);
+      out.write(configData);
+      out.writeInt(sim.getSimulationTime());
+
+      /* Motes and mote interfaces */
+      out.writeInt(sim.getMotesCount());
+      for (int i=0; i < sim.getMotesCount(); i++) {
+        Mote mote = sim.getMote(i);
+        writeComponent(out, mote);
+
+        int count = 0;
+        for (MoteInterface moteInterface: mote.getInterfaces().getInterfaces()) {
+          if (moteInterface instanceof Snapshottable) {
+            count++;
+          }
+        }
+        out.writeInt(count);
+        for (MoteInterface moteInterface: mote.getInterfaces().getInterfaces()) {
+          if (moteInterface instanceof Snapshottable) {
+            writeComponent(out, moteInterface);
+          }
+        }
+      }
+
+      /* Radio medium */
+      writeComponent(out, sim.getRadioMedium());
+
+      /* Scheduled events */
+      writeEvents(out, sim);
+      saved = true;
+    } finally {
+      out.close();
+      if (!saved) {
+        file.delete();
+      }
+    }
+
+    logger.info("Saved snapshot at " + sim.getSimulationTime() + " ms: " + file);
+  }
+
+  /**
+   * Reads snapshot from file.
+   *
+   * @param file File
+   * @return Snapshot
+   * @throws IOException On read error, or if file is not a snapshot
+   */
+  public static SimulationSnapshot read(File file) throws IOException {
+    DataInputStream in = new DataInputStream(new BufferedInputStream(
+        new GZIPInputStream(new FileInputStream(file))));
+    try {
+      if (!MAGIC.equals(in.readUTF())) {
+        throw new IOException("Not a simulation snapshot: " + file);
+      }
+      int version = in.readInt();
+      if (version != VERSION) {
+        throw new IOException("Unsupported snapshot version: " + version);
+      }
+
+      byte[] configData = new byte[in.readInt()];
+      in.readFully(configData);
+      Element config;
+      try {
+        config = new SAXBuilder().build(
+            new ByteArrayInputStream(configData)).getRootElement();
+      } catch (JDOMException e) {
+        throw (IOException) new IOException(
+            "Bad snapshot config: " + e.getMessage()).initCause(e);
+      }
+      config.detach();
+
+      int simulationTime = in.readInt();
+
+      ByteArrayOutputStream state = new ByteArrayOutputStream();
+      byte[] buf = new byte[8192];
+      int n;
+      while ((n = in.read(buf)) > 0) {
+        state.write(buf, 0, n);
+      }
+      return new SimulationSnapshot(config, simulationTime, state.toByteArray());
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Returns the simulation config of this snapshot. The config may be modified
+   * before restoring, for example to change the random seed, as long as the
+   * motes and mote types are left unchanged.
+   *
+   * @return Simulation config root element
+   */
+  public Element getConfig() {
+    return config;
+  }
+
+  /**
+   * @return Simulation time when snapshot was taken
+   */
+  public int getSimulationTime() {
+    return simulationTime;
+  }
+
+  /**
+   * Creates a new simulation from this snapshot.
+   * The current simulation of the GUI is not changed.
+   *
+   * @param gui GUI
+   * @return Restored simulation, or null if simulation config could not be loaded
+   * @throws IOException If state could not be restored
+   * @throws SimulationCreationException If simulation could not be created
+   */
+  public Simulation restore(GUI gui)
+  throws IOException, SimulationCreationException {
+    Simulation sim = gui.loadSimulationConfig((Element) config.clone(), true);
+    if (sim == null) {
+      return null;
+    }
+
+    /* Events scheduled by the config were scheduled relative to time 0 */
+    sim.getEventQueue().removeAll();
+    sim.setSimulationTime(simulationTime);
+
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(state));
+
+    /* Motes and mote interfaces */
+    int motes = in.readInt();
+    if (motes != sim.getMotesCount()) {
+      throw new IOException("Snapshot has " + motes + " motes, simulation has "
+          + sim.getMotesCount());
+    }
+    for (int i=0; i < motes; i++) {
+      Mote mote = sim.getMote(i);
+      readComponent(in, mote);
+
+      int count = in.readInt();
+      for (int j=0; j < count; j++) {
+        String className = in.readUTF();
+        MoteInterface moteInterface = null;
+        for (MoteInterface candidate: mote.getInterfaces().getInterfaces()) {
+          if (candidate.getClass().getName().equals(className)) {
+            moteInterface = candidate;
+            break;
+          }
+        }
+        if (moteInterface == null) {
+          throw new IOException("Mote " + i + " has no interface " + className);
+        }
+        readBlock(in, moteInterface);
+      }
+    }
+
+    /* Radio medium */
+    readComponent(in, sim.getRadioMedium());
+
+    /* Scheduled events */
+    sim.getEventQueue().removeAll();
+    readEvents(in, sim);
+
+    logger.info("Restored snapshot at " + simulationTime + " ms");
+    return sim;
+  }
+
+  /**
+   * Returns all components that may own scheduled events, in the same order
+   * for a saved and a restored simulation.
+   */
+  private static ArrayList<Object> getEventOwners(Simulation sim) {
+    ArrayList<Object> owners = new ArrayList<Object>();
+    for (int i=0; i < sim.getMotesCount(); i++) {
+      Mote mote = sim.getMote(i);
+      owners.add(mote);
+      owners.addAll(mote.getInterfaces().getInterfaces());
+    }
+    owners.add(sim.getRadioMedium());
+    return owners;
+  }
+
+  /**
+   * Returns all non-static event fields of given object.
+   */
+  private static ArrayList<Field> getEventFields(Object owner) {
+    ArrayList<Field> fields = new ArrayList<Field>();
+    for (Class<?> c = owner.getClass(); c != null; c = c.getSuperclass()) {
+      for (Field field: c.getDeclaredFields()) {
+        if (TimeEvent.class.isAssignableFrom(field.getType())
+            && !Modifier.isStatic(field.getModifiers())) {
+          field.setAccessible(true);
+          fields.add(field);
+        }
+      }
+    }
+    return fields;
+  }
+
+  private static void writeEvents(DataOutputStream out, Simulation sim)
+  throws IOException {
+    /* Find event owners */
+    ArrayList<Object> owners = getEventOwners(sim);
+    IdentityHashMap<TimeEvent, Integer> eventOwners =
+      new IdentityHashMap<TimeEvent, Integer>();
+    IdentityHashMap<TimeEvent, Field> eventFields =
+      new IdentityHashMap<TimeEvent, Field>();
+    try {
+      for (int i=0; i < owners.size(); i++) {
+        for (Field field: getEventFields(owners.get(i))) {
+          TimeEvent event = (TimeEvent) field.get(owners.get(i));
+          if (event != null && !eventOwners.containsKey(event)) {
+            eventOwners.put(event, i);
+            eventFields.put(event, field);
+          }
+        }
+      }
+
+      /* Simulation events are rescheduled when the simulation is started */
+      for (Field field: getEventFields(sim)) {
+        eventOwners.put((TimeEvent) field.get(sim), -1);
+      }
+    } catch (IllegalAccessException e) {
+      throw (IOException) new IOException(
+          "Can't access scheduled events: " + e.getMessage()).initCause(e);
+    }
+
+    /* Events in execution order */
+    EventQueue queue = sim.getEventQueue();
+    ArrayList<TimeEvent> events = new ArrayList<TimeEvent>();
+    TimeEvent event;
+    while ((event = queue.popFirst()) != null) {
+      events.add(event);
+    }
+    for (TimeEvent e: events) {
+      queue.addEvent(e);
+    }
+
+    ArrayList<TimeEvent> ownedEvents = new ArrayList<TimeEvent>();
+    for (TimeEvent e: events) {
+      Integer owner = eventOwners.get(e);
+      if (owner == null) {
+        throw new IOException("Scheduled event has no known owner: "
+            + e.getShort() + " (" + e.getClass().getName() + ")");
+      }
+      if (owner >= 0) {
+        ownedEvents.add(e);
+      }
+    }
+
+    out.writeInt(ownedEvents.size());
+    for (TimeEvent e: ownedEvents) {
+      int owner = eventOwners.get(e);
+      Field field = eventFields.get(e);
+      out.writeInt(e.getTime());
+      out.writeInt(owner);
+      out.writeUTF(owners.get(owner).getClass().getName());
+      out.writeUTF(field.getDeclaringClass().getName());
+      out.writeUTF(field.getName());
+    }
+  }
+
+  private static void readEvents(DataInputStream in, Simulation sim)
+  throws IOException {
+    ArrayList<Object> owners = getEventOwners(sim);
+    int count = in.readInt();
+    for (int i=0; i < count; i++) {
+      int time = in.readInt();
+      int ownerIndex = in.readInt();
+      String ownerClass = in.readUTF();
+      String fieldClass = in.readUTF();
+      String fieldName = in.readUTF();
+
+      if (ownerIndex < 0 || ownerIndex >= owners.size()
+          || !owners.get(ownerIndex).getClass().getName().equals(ownerClass)) {
+        throw new IOException("Snapshot event owner mismatch: " + ownerClass);
+      }
+      Object owner = owners.get(ownerIndex);
+      TimeEvent event = null;
+      for (Field field: getEventFields(owner)) {
+        if (field.getName().equals(fieldName)
+            && field.getDeclaringClass().getName().equals(fieldClass)) {
+          try {
+            event = (TimeEvent) field.get(owner);
+          } catch (IllegalAccessException e) {
+            throw (IOException) new IOException(
+                "Can't access event " + fieldName + ": " + e.getMessage()).initCause(e);
+          }
+          break;
+        }
+      }
+      if (event == null) {
+        throw new IOException("No event " + fieldClass + "." + fieldName
+            + " in " + ownerClass);
+      }
+      sim.scheduleEvent(event, time);
+    }
+  }
+
+  private static void writeComponent(DataOutputStream out, Object component)
+  throws IOException {
+    out.writeUTF(component.getClass().getName());
+    if (!(component instanceof Snapshottable)) {
+      out.writeInt(-1);
+      return;
+    }
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream blockOut = new DataOutputStream(bytes);
+    ((Snapshottable) component).writeSnapshot(blockOut);
+    blockOut.flush();
+    out.writeInt(bytes.size());
+    bytes.writeTo(out);
+  }
+
+  private static void readComponent(DataInputStream in, Object component)
+  throws IOException {
+    String className = in.readUTF();
+    if (!component.getClass().getName().equals(className)) {
+      throw new IOException("Snapshot component mismatch: " + className
+          + " != " + component.getClass().getName());
+    }
+    readBlock(in, component);
+  }
+
+  private static void readBlock(DataInputStream in, Object component)
+  throws IOException {
+    int length = in.readInt();
+    if (length < 0) {
+      return;
+    }
+    byte[] data = new byte[length];
+    in.readFully(data);
+    if (!(component instanceof Snapshottable)) {
+      throw new IOException("Component does not support snapshots: "
+          + component.getClass().getName());
+    }
+    ((Snapshottable) component).readSnapshot(
+        new DataInputStream(new ByteArrayInputStream(data)));
+  }
+
+}
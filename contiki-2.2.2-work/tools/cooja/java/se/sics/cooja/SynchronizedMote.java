@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2008, Swedish Institute of Computer Science.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * $Id$
+ */
+
+package se.sics.cooja;
+
+/**
+ * A mote ticked several times per millisecond, until it has caught up with
+ * the simulation time, that may run ahead of the other motes between their
+ * interactions.
+ *
+ * Before each tick round, the simulation collects the earliest time at which
+ * each such mote may affect other motes, for example by starting a radio
+ * transmission. The minimum of all motes is then handed to all motes: no mote
+ * may affect another before this time, so each mote may run until it without
+ * interacting with the other motes.
+ *
+ * Times are counted from simulation start in a unit shared by all motes of
+ * the same tick round, such as CPU cycles.
+ *
+ * @author Fredrik sterlind
+ */
+public interface SynchronizedMote {
+
+  /**
+   * @return Earliest time at which this mote may affect other motes
+   */
+  public long getEarliestInteraction();
+
+  /**
+   * Sets the time until which this mote may run in the next tick round.
+   * Long.MIN_VALUE means that the mote should not run ahead of other motes.
+   *
+   * @param time Earliest interaction of all motes in the tick round
+   */
+  public void setInteractionHorizon(long time);
+
+}
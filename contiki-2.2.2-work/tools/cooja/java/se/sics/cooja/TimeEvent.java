@@ -39,6 +39,12 @@ public abstract class TimeEvent {
   TimeEvent nextEvent;
   TimeEvent prevEvent;
 
+  // Position in heap based event queues
+  int queueIndex = -1;
+
+  // Insertion order, keeps events scheduled at the same time in FIFO order
+  long queueSequence;
+
   // Keeps track of where this is scheduled
   EventQueue scheduledIn = null;
   String name;
@@ -31,11 +31,15 @@
 
 package se.sics.cooja.contikimote;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.*;
 import org.apache.log4j.Logger;
 import org.jdom.Element;
 
 import se.sics.cooja.*;
+import se.sics.cooja.AddressMemory.IntVariable;
 
 /**
  * A Contiki mote executes an actual Contiki system via
@@ -51,9 +55,14 @@ import se.sics.cooja.*;
  * fetches the updated memory and finally polls all interfaces again.
  * The mote state is also updated during a mote tick.
  *
+ * A Contiki mote schedules its own ticks: it is ticked every millisecond
+ * while active, and is otherwise only ticked when its next Contiki timer
+ * expires, or when woken up by an interface. Motes with interfaces that must
+ * be polled every tick are always ticked every millisecond.
+ *
  * @author      Fredrik Osterlind
  */
-public class ContikiMote implements Mote {
+public class ContikiMote implements EventDrivenMote, Snapshottable {
   private static Logger logger = Logger.getLogger(ContikiMote.class);
 
   private ContikiMoteType myType = null;
@@ -64,6 +73,28 @@ public class ContikiMote implements Mote {
   // Time to wake up if sleeping
   private int wakeUpTime = 0;
 
+  // Core variables checked after each tick, resolved when memory is set
+  private IntVariable simProcessRunValue = null;
+  private IntVariable simEtimerPending = null;
+  private IntVariable simNextExpirationTime = null;
+
+  // Time of last tick, used to avoid ticking twice the same millisecond
+  private int lastTickTime = Integer.MIN_VALUE;
+
+  private boolean ticksEnabled = false;
+
+  private TimeEvent tickMoteEvent = new TimeEvent(0, "contiki mote tick") {
+    public void execute(int t) {
+      EventTrace trace = mySim.getEventTrace();
+      if (trace == null) {
+        tick(t);
+      } else {
+        trace.tickMote(ContikiMote.this, t);
+      }
+      scheduleNextTick(t);
+    }
+  };
+
   private State myState = State.ACTIVE;
 
   // State observable
@@ -96,7 +127,7 @@ public class ContikiMote implements Mote {
   public ContikiMote(ContikiMoteType moteType, Simulation sim) {
     this.mySim = sim;
     this.myType = moteType;
-    this.myMemory = moteType.createInitialMemory();
+    setMemory(moteType.createInitialMemory());
     this.myInterfaceHandler = new MoteInterfaceHandler(this, moteType.getMoteInterfaces());
 
     myState = State.ACTIVE;
@@ -115,6 +146,10 @@ public class ContikiMote implements Mote {
     if (myState == State.LPM && newState != State.LPM) {
       myState = newState;
       stateObservable.stateChanged();
+
+      if (myState == State.ACTIVE) {
+        requestTick();
+      }
     }
 
     if (myState == State.DEAD) {
@@ -148,6 +183,10 @@ public class ContikiMote implements Mote {
 
   public void setMemory(MoteMemory memory) {
     myMemory = (SectionMoteMemory) memory;
+
+    simProcessRunValue = myMemory.getIntVariable("simProcessRunValue");
+    simEtimerPending = myMemory.getIntVariable("simEtimerPending");
+    simNextExpirationTime = myMemory.getIntVariable("simNextExpirationTime");
   }
 
   public MoteType getType() {
@@ -162,6 +201,62 @@ public class ContikiMote implements Mote {
     return mySim;
   }
 
+  public void scheduleTicks() {
+    ticksEnabled = true;
+    if (tickMoteEvent.isScheduled()) {
+      return;
+    }
+    if (myState == State.ACTIVE || myInterfaceHandler.requiresAllTicks()) {
+      requestTick();
+    } else if (myState == State.LPM && wakeUpTime > 0) {
+      mySim.scheduleEvent(tickMoteEvent, Math.max(wakeUpTime, lastTickTime + 1));
+    }
+  }
+
+  public void unscheduleTicks() {
+    ticksEnabled = false;
+    tickMoteEvent.remove();
+  }
+
+  /**
+   * Schedules a mote tick as soon as possible: the current millisecond, or the
+   * next one if the mote has already been ticked this millisecond.
+   */
+  private void requestTick() {
+    if (!ticksEnabled || mySim == null) {
+      return;
+    }
+    int time = mySim.getSimulationTime();
+    if (lastTickTime >= time) {
+      time = lastTickTime + 1;
+    }
+    if (!tickMoteEvent.isScheduled() || tickMoteEvent.getTime() > time) {
+      mySim.scheduleEvent(tickMoteEvent, time);
+    }
+  }
+
+  /**
+   * Schedules next mote tick depending on mote state.
+   * Active motes, and motes with interfaces that must be polled every tick,
+   * are ticked every millisecond. Other sleeping motes are ticked when their
+   * next timer expires.
+   *
+   * @param time Time of last tick
+   */
+  private void scheduleNextTick(int time) {
+    if (!ticksEnabled) {
+      return;
+    }
+    if (myState == State.ACTIVE || myInterfaceHandler.requiresAllTicks()) {
+      mySim.scheduleEvent(tickMoteEvent, time + 1);
+    } else if (myState == State.LPM && wakeUpTime > 0) {
+      mySim.scheduleEvent(tickMoteEvent, Math.max(wakeUpTime, time + 1));
+    } else {
+      /* Sleeping until woken up by an interface, or dead */
+      tickMoteEvent.remove();
+    }
+  }
+
   public void setSimulation(Simulation simulation) {
     mySim = simulation;
   }
@@ -184,6 +279,8 @@ public class ContikiMote implements Mote {
       return false;
     }
 
+    lastTickTime = simTime;
+
     // If mote is sleeping and has a wake up time, should it wake up now?
     if (currentState == State.LPM && wakeUpTime > 0 && wakeUpTime <= simTime) {
       setState(State.ACTIVE);
@@ -226,9 +323,9 @@ public class ContikiMote implements Mote {
     // If mote is awake, should it go to sleep?
     if (currentState == State.ACTIVE) {
       // Check if this mote should sleep (no more pending timers or processes to poll)
-      int processRunValue = myMemory.getIntValueOf("simProcessRunValue");
-      int etimersPending = myMemory.getIntValueOf("simEtimerPending");
-      int nextExpirationTime = myMemory.getIntValueOf("simNextExpirationTime");
+      int processRunValue = simProcessRunValue.getValue();
+      int etimersPending = simEtimerPending.getValue();
+      int nextExpirationTime = simNextExpirationTime.getValue();
 
       if (processRunValue == 0 && etimersPending == 0) {
         setState(State.LPM);
@@ -238,6 +335,11 @@ public class ContikiMote implements Mote {
       if (processRunValue == 0 && etimersPending == 1 && nextExpirationTime > 0) {
         setState(State.LPM);
         wakeUpTime = nextExpirationTime;
+
+        // Timer expiration is in mote time, convert to simulation time
+        if (myInterfaceHandler.getClock() != null) {
+          wakeUpTime -= myInterfaceHandler.getClock().getDrift();
+        }
       }
 
     }
@@ -285,7 +387,7 @@ public class ContikiMote implements Mote {
 
       if (name.equals("motetype_identifier")) {
         myType = (ContikiMoteType) simulation.getMoteType(element.getText());
-        myMemory = myType.createInitialMemory();
+        setMemory(myType.createInitialMemory());
         myInterfaceHandler = new MoteInterfaceHandler(this, myType.getMoteInterfaces());
 
       } else if (name.equals("interface_config")) {
@@ -309,6 +411,66 @@ public class ContikiMote implements Mote {
     return true;
   }
 
+  /*
+   * Mote memory holds absolute pointers into the loaded library, which can
+   * not be told apart from other data. A snapshot can hence only be
+   * restored into the same library, loaded at the same address.
+   */
+  public void writeSnapshot(DataOutputStream out) throws IOException {
+    out.writeInt(myState.ordinal());
+    out.writeInt(wakeUpTime);
+    out.writeInt(lastTickTime);
+
+    /* Loaded library, and memory sections */
+    out.writeUTF(myType.getLibraryClassName());
+    out.writeInt(myType.getRelativeToAbsoluteOffset());
+    out.writeInt(myMemory.getNumberOfSections());
+    for (int i=0; i < myMemory.getNumberOfSections(); i++) {
+      int start = myMemory.getStartAddrOfSection(i);
+      int size = myMemory.getSizeOfSection(i);
+      out.writeInt(start);
+      out.writeInt(size);
+      out.write(myMemory.getMemorySegment(start, size));
+    }
+  }
+
+  public void readSnapshot(DataInputStream in) throws IOException {
+    State state = State.values()[in.readInt()];
+    int wakeUp = in.readInt();
+    int lastTick = in.readInt();
+
+    String library = in.readUTF();
+    int offset = in.readInt();
+    if (!library.equals(myType.getLibraryClassName())
+        || offset != myType.getRelativeToAbsoluteOffset()) {
+      throw new IOException("Snapshot of mote type " + myType.getIdentifier()
+          + " was saved with library " + library + " at offset " + offset
+          + ", but library " + myType.getLibraryClassName() + " is loaded at offset "
+          + myType.getRelativeToAbsoluteOffset()
+          + ": Contiki motes can only be restored into the same library");
+    }
+
+    int sections = in.readInt();
+    int[] starts = new int[sections];
+    byte[][] data = new byte[sections][];
+    for (int i=0; i < sections; i++) {
+      starts[i] = in.readInt();
+      data[i] = new byte[in.readInt()];
+      in.readFully(data[i]);
+    }
+
+    myState = state;
+    wakeUpTime = wakeUp;
+    lastTickTime = lastTick;
+    myMemory.clearMemory();
+    for (int i=0; i < sections; i++) {
+      myMemory.setMemorySegment(starts[i], data[i]);
+    }
+    myMemory.sharePages();
+    setMemory(myMemory);
+    stateObservable.stateChanged();
+  }
+
   public String toString() {
     if (getInterfaces().getMoteID() != null) {
       return "Contiki Mote, ID=" + getInterfaces().getMoteID().getMoteID();
@@ -161,6 +161,10 @@ public class ContikiMoteType implements MoteType {
 
   private boolean hasSystemSymbols = false;
 
+  private boolean useDirectMemory = false;
+
+  private boolean useCopyOnWriteMemory = false;
+
   private CommunicationStack commStack = CommunicationStack.RIME;
 
   // Simulation holding this mote type
@@ -182,6 +186,21 @@ public class ContikiMoteType implements MoteType {
   // Initial memory for all motes of this type
   private SectionMoteMemory initialMemory = null;
 
+  /**
+   * If true, only memory pages modified since the last tick are transferred
+   * between the Java and core memories when the same mote is ticked again.
+   * If false, entire memory sections are always transferred.
+   */
+  public static boolean SYNC_CHANGED_PAGES_ONLY = true;
+
+  // Copy-on-write memories: copy of sections mirrored by core
+  private byte[][] coreMirror = new byte[0][];
+
+  // Mote memory currently mirrored by core (since last transfer)
+  private SectionMoteMemory coreMemoryOwner = null;
+
+  private boolean coreSupportsPageSync = true;
+
   /**
    * Creates a new uninitialized Contiki mote type. This mote type needs to load
    * a library file and parse a map file before it can be used.
@@ -404,9 +423,11 @@ public class ContikiMoteType implements MoteType {
     byte[] initialBssSection = new byte[bssSectionSize];
     getCoreMemory(relBssSectionAddr + offsetRelToAbs, bssSectionSize,
         initialBssSection);
-    initialMemory = new SectionMoteMemory(varAddresses);
+    initialMemory = new SectionMoteMemory(varAddresses, useDirectMemory,
+        useCopyOnWriteMemory);
     initialMemory.setMemorySegment(relDataSectionAddr, initialDataSection);
     initialMemory.setMemorySegment(relBssSectionAddr, initialBssSection);
+    initialMemory.sharePages();
   }
 
   /**
@@ -436,10 +457,92 @@ public class ContikiMoteType implements MoteType {
    *          New memory
    */
   public void setCoreMemory(SectionMoteMemory mem) {
+    if (isPageSyncEnabled()) {
+      try {
+        for (int i = 0; i < mem.getNumberOfSections(); i++) {
+          if (mem != coreMemoryOwner) {
+            /* Core holds another mote's memory: transfer entire section */
+            setCoreMemoryRegion(mem, i, 0, mem.getSizeOfSection(i));
+            continue;
+          }
+
+          /* Core already holds this memory: only transfer modified pages */
+          int[] regions = mem.getDirtyRegionsOfSection(i);
+          for (int r = 0; r < regions.length; r += 2) {
+            setCoreMemoryRegion(mem, i, regions[r], regions[r+1]);
+          }
+        }
+        mem.clearDirtyPages();
+        coreMemoryOwner = mem;
+        return;
+      } catch (UnsatisfiedLinkError e) {
+        disablePageSync(e);
+      }
+    }
+
     for (int i = 0; i < mem.getNumberOfSections(); i++) {
       setCoreMemory(mem.getStartAddrOfSection(i) + offsetRelToAbs, mem
           .getSizeOfSection(i), mem.getDataOfSection(i));
     }
+    mem.clearDirtyPages();
+    coreMemoryOwner = mem;
+  }
+
+  private void setCoreMemoryRegion(SectionMoteMemory mem, int section,
+      int offset, int length) {
+    int start = mem.getStartAddrOfSection(section) + offsetRelToAbs;
+    if (mem.isDirect()) {
+      myCoreComm.setMemoryFromBuffer(start, offset, length,
+          mem.getBufferOfSection(section));
+    } else if (mem.isCopyOnWrite()) {
+      byte[] mirror = getCoreMirror(section, mem.getSizeOfSection(section));
+      mem.copySectionRegion(section, offset, length, mirror);
+      myCoreComm.setMemoryRegion(start, offset, length, mirror);
+    } else {
+      myCoreComm.setMemoryRegion(start, offset, length,
+          mem.getDataOfSection(section));
+    }
+  }
+
+  private void getCoreMemoryChanges(SectionMoteMemory mem, int section) {
+    int start = mem.getStartAddrOfSection(section) + offsetRelToAbs;
+    if (mem.isDirect()) {
+      myCoreComm.getMemoryChangesToBuffer(start,
+          mem.getSizeOfSection(section), mem.getBufferOfSection(section),
+          SectionMoteMemory.PAGE_SIZE);
+    } else if (mem.isCopyOnWrite()) {
+      /* Mirror equals memory since last transfer: only update changed pages */
+      int size = mem.getSizeOfSection(section);
+      byte[] mirror = getCoreMirror(section, size);
+      int changedPages = myCoreComm.getMemoryChanges(start, size, mirror,
+          SectionMoteMemory.PAGE_SIZE);
+      if (changedPages > 0) {
+        mem.updateSection(section, mirror, changedPages);
+      }
+    } else {
+      myCoreComm.getMemoryChanges(start, mem.getSizeOfSection(section),
+          mem.getDataOfSection(section), SectionMoteMemory.PAGE_SIZE);
+    }
+  }
+
+  private byte[] getCoreMirror(int section, int size) {
+    if (section >= coreMirror.length) {
+      coreMirror = Arrays.copyOf(coreMirror, section + 1);
+    }
+    if (coreMirror[section] == null || coreMirror[section].length != size) {
+      coreMirror[section] = new byte[size];
+    }
+    return coreMirror[section];
+  }
+
+  private boolean isPageSyncEnabled() {
+    return SYNC_CHANGED_PAGES_ONLY && coreSupportsPageSync;
+  }
+
+  private void disablePageSync(UnsatisfiedLinkError e) {
+    logger.warn("Core library does not support page memory synchronization, "
+        + "transferring entire memory: " + e.getMessage());
+    coreSupportsPageSync = false;
   }
 
   /**
@@ -531,13 +634,36 @@ public class ContikiMoteType implements MoteType {
    *          Memory to set
    */
   public void getCoreMemory(SectionMoteMemory mem) {
+    if (mem == coreMemoryOwner && isPageSyncEnabled()) {
+      /* Java memory mirrors core since last transfer: only fetch changed pages */
+      try {
+        for (int i = 0; i < mem.getNumberOfSections(); i++) {
+          getCoreMemoryChanges(mem, i);
+        }
+        mem.clearDirtyPages();
+        return;
+      } catch (UnsatisfiedLinkError e) {
+        disablePageSync(e);
+      }
+    }
+
     for (int i = 0; i < mem.getNumberOfSections(); i++) {
       int startAddr = mem.getStartAddrOfSection(i);
       int size = mem.getSizeOfSection(i);
-      byte[] data = mem.getDataOfSection(i);
 
+      if (mem.isDirect() || mem.isCopyOnWrite()) {
+        /* Section data is a copy: write back fetched data */
+        byte[] data = new byte[size];
+        getCoreMemory(startAddr + offsetRelToAbs, size, data);
+        mem.setMemorySegment(startAddr, data);
+        continue;
+      }
+
+      byte[] data = mem.getDataOfSection(i);
       getCoreMemory(startAddr + offsetRelToAbs, size, data);
     }
+    mem.clearDirtyPages();
+    coreMemoryOwner = mem;
   }
 
   public String getIdentifier() {
@@ -563,6 +689,45 @@ public class ContikiMoteType implements MoteType {
     return hasSystemSymbols;
   }
 
+  /**
+   * If true, mote memories are stored in direct byte buffers, and are
+   * transferred to and from the core without intermediate Java heap copies.
+   * Must be set before the mote type is initialized.
+   *
+   * @param direct Use direct memories
+   */
+  public void setDirectMemory(boolean direct) {
+    useDirectMemory = direct;
+  }
+
+  /**
+   * @return Whether mote memories are stored in direct byte buffers
+   */
+  public boolean isDirectMemory() {
+    return useDirectMemory;
+  }
+
+  /**
+   * If true, mote memories are stored in copy-on-write pages. Motes then
+   * share unmodified pages with the initial memory of their type, and with
+   * motes in other simulations loaded from the same sources or snapshot.
+   * Must be set before the mote type is initialized. Ignored for direct
+   * memories.
+   *
+   * @see SectionMoteMemory#sharePages()
+   * @param copyOnWrite Use copy-on-write memories
+   */
+  public void setCopyOnWriteMemory(boolean copyOnWrite) {
+    useCopyOnWriteMemory = copyOnWrite;
+  }
+
+  /**
+   * @return Whether mote memories are stored in copy-on-write pages
+   */
+  public boolean isCopyOnWriteMemory() {
+    return useCopyOnWriteMemory;
+  }
+
   /**
    * @param commStack
    *          Communication stack
@@ -613,6 +778,17 @@ public class ContikiMoteType implements MoteType {
     }
   }
 
+  /**
+   * Returns the offset between relative (map file) and absolute addresses
+   * of the currently loaded library. The offset may differ between libraries
+   * compiled from the same sources.
+   *
+   * @return Relative to absolute address offset
+   */
+  public int getRelativeToAbsoluteOffset() {
+    return offsetRelToAbs;
+  }
+
   private int getReferenceAbsAddr() {
     return myCoreComm.getReferenceAbsAddr();
   }
@@ -1380,6 +1556,16 @@ public class ContikiMoteType implements MoteType {
     element.setText(new Boolean(hasSystemSymbols).toString());
     config.add(element);
 
+    // Direct memories
+    element = new Element("directmemory");
+    element.setText(new Boolean(useDirectMemory).toString());
+    config.add(element);
+
+    // Copy-on-write memories
+    element = new Element("copyonwrite");
+    element.setText(new Boolean(useCopyOnWriteMemory).toString());
+    config.add(element);
+
     // Communication stack
     element = new Element("commstack");
     element.setText(commStack.toString());
@@ -1420,6 +1606,10 @@ public class ContikiMoteType implements MoteType {
         sensors.add(element.getText());
       } else if (name.equals("symbols")) {
         hasSystemSymbols = Boolean.parseBoolean(element.getText());
+      } else if (name.equals("directmemory")) {
+        useDirectMemory = Boolean.parseBoolean(element.getText());
+      } else if (name.equals("copyonwrite")) {
+        useCopyOnWriteMemory = Boolean.parseBoolean(element.getText());
       } else if (name.equals("commstack")) {
         commStack = CommunicationStack.parse(element.getText());
       } else if (name.equals("coreinterface")) {
@@ -39,6 +39,7 @@ import org.apache.log4j.Logger;
 import org.jdom.Element;
 
 import se.sics.cooja.*;
+import se.sics.cooja.AddressMemory.ByteVariable;
 import se.sics.cooja.contikimote.ContikiMoteInterface;
 import se.sics.cooja.interfaces.Beeper;
 import se.sics.cooja.interfaces.PolledAfterActiveTicks;
@@ -65,6 +66,7 @@ import se.sics.cooja.interfaces.PolledAfterActiveTicks;
 public class ContikiBeeper extends Beeper implements ContikiMoteInterface, PolledAfterActiveTicks {
   private Mote mote = null;
   private SectionMoteMemory moteMem = null;
+  private ByteVariable simBeeped;
   private static Logger logger = Logger.getLogger(ContikiBeeper.class);
 
   /**
@@ -91,10 +93,11 @@ public class ContikiBeeper extends Beeper implements ContikiMoteInterface, Polle
 
     this.mote = mote;
     this.moteMem = (SectionMoteMemory) mote.getMemory();
+    simBeeped = moteMem.getByteVariable("simBeeped");
   }
 
   public boolean isBeeping() {
-    return moteMem.getByteValueOf("simBeeped") == 1;
+    return simBeeped.getValue() == 1;
   }
 
   public static String[] getCoreInterfaceDependencies() {
@@ -108,13 +111,13 @@ public class ContikiBeeper extends Beeper implements ContikiMoteInterface, Polle
   };
 
   public void doActionsAfterTick() {
-    if (moteMem.getByteValueOf("simBeeped") == 1) {
+    if (simBeeped.getValue() == 1) {
       myEnergyConsumption = ENERGY_CONSUMPTION_BEEP;
 
       this.setChanged();
       this.notifyObservers(mote);
 
-      moteMem.setByteValueOf("simBeeped", (byte) 0);
+      simBeeped.setValue((byte) 0);
 
       /* Schedule stop beeping (reset energy consumption) */
       mote.getSimulation().scheduleEvent(stopBeepEvent, mote.getSimulation().getSimulationTime());
@@ -38,6 +38,7 @@ import org.apache.log4j.Logger;
 import org.jdom.Element;
 
 import se.sics.cooja.*;
+import se.sics.cooja.AddressMemory.ByteVariable;
 import se.sics.cooja.contikimote.ContikiMoteInterface;
 import se.sics.cooja.interfaces.Button;
 
@@ -63,6 +64,9 @@ import se.sics.cooja.interfaces.Button;
  */
 public class ContikiButton extends Button implements ContikiMoteInterface {
   private SectionMoteMemory moteMem;
+  private ByteVariable simButtonChanged;
+  private ByteVariable simButtonIsDown;
+  private ByteVariable simButtonIsActive;
   private Mote mote;
 
   private static Logger logger = Logger.getLogger(ContikiButton.class);
@@ -78,6 +82,9 @@ public class ContikiButton extends Button implements ContikiMoteInterface {
   public ContikiButton(Mote mote) {
     this.mote = mote;
     this.moteMem = (SectionMoteMemory) mote.getMemory();
+    simButtonChanged = moteMem.getByteVariable("simButtonChanged");
+    simButtonIsDown = moteMem.getByteVariable("simButtonIsDown");
+    simButtonIsActive = moteMem.getByteVariable("simButtonIsActive");
   }
 
   public static String[] getCoreInterfaceDependencies() {
@@ -91,7 +98,7 @@ public class ContikiButton extends Button implements ContikiMoteInterface {
       mote.setState(Mote.State.ACTIVE);
 
       /* Wait until button change is handled by Contiki */
-      if (moteMem.getByteValueOf("simButtonChanged") == 0) {
+      if (simButtonChanged.getValue() == 0) {
         logger.info("Releasing button at: " + t);
         releaseButton();
       } else {
@@ -112,10 +119,10 @@ public class ContikiButton extends Button implements ContikiMoteInterface {
   }
 
   public void releaseButton() {
-    moteMem.setByteValueOf("simButtonIsDown", (byte) 0);
+    simButtonIsDown.setValue((byte) 0);
 
-    if (moteMem.getByteValueOf("simButtonIsActive") == 1) {
-      moteMem.setByteValueOf("simButtonChanged", (byte) 1);
+    if (simButtonIsActive.getValue() == 1) {
+      simButtonChanged.setValue((byte) 1);
 
       /* If mote is inactive, wake it up */
       mote.setState(Mote.State.ACTIVE);
@@ -126,10 +133,10 @@ public class ContikiButton extends Button implements ContikiMoteInterface {
   }
 
   public void pressButton() {
-    moteMem.setByteValueOf("simButtonIsDown", (byte) 1);
+    simButtonIsDown.setValue((byte) 1);
 
-    if (moteMem.getByteValueOf("simButtonIsActive") == 1) {
-      moteMem.setByteValueOf("simButtonChanged", (byte) 1);
+    if (simButtonIsActive.getValue() == 1) {
+      simButtonChanged.setValue((byte) 1);
 
       /* If mote is inactive, wake it up */
       mote.setState(Mote.State.ACTIVE);
@@ -140,7 +147,7 @@ public class ContikiButton extends Button implements ContikiMoteInterface {
   }
 
   public boolean isPressed() {
-    return moteMem.getByteValueOf("simButtonIsDown") == 1;
+    return simButtonIsDown.getValue() == 1;
   }
 
   public JPanel getInterfaceVisualizer() {
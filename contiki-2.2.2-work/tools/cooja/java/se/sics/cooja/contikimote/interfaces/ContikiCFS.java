@@ -42,6 +42,9 @@ import org.apache.log4j.Logger;
 import org.jdom.Element;
 
 import se.sics.cooja.*;
+import se.sics.cooja.AddressMemory.ByteArrayVariable;
+import se.sics.cooja.AddressMemory.ByteVariable;
+import se.sics.cooja.AddressMemory.IntVariable;
 import se.sics.cooja.contikimote.ContikiMoteInterface;
 import se.sics.cooja.interfaces.PolledAfterActiveTicks;
 
@@ -74,6 +77,10 @@ public class ContikiCFS extends MoteInterface implements ContikiMoteInterface, P
 
   private Mote mote = null;
   private SectionMoteMemory moteMem = null;
+  private ByteVariable simCFSChanged;
+  private IntVariable simCFSRead;
+  private IntVariable simCFSWritten;
+  private ByteArrayVariable simCFSData;
 
   private int lastRead = 0;
   private int lastWritten = 0;
@@ -103,6 +110,10 @@ public class ContikiCFS extends MoteInterface implements ContikiMoteInterface, P
 
     this.mote = mote;
     this.moteMem = (SectionMoteMemory) mote.getMemory();
+    simCFSChanged = moteMem.getByteVariable("simCFSChanged");
+    simCFSRead = moteMem.getIntVariable("simCFSRead");
+    simCFSWritten = moteMem.getIntVariable("simCFSWritten");
+    simCFSData = moteMem.getByteArrayVariable("simCFSData");
   }
 
   public static String[] getCoreInterfaceDependencies() {
@@ -116,13 +127,13 @@ public class ContikiCFS extends MoteInterface implements ContikiMoteInterface, P
   };
 
   public void doActionsAfterTick() {
-    if (moteMem.getByteValueOf("simCFSChanged") == 1) {
-      lastRead = moteMem.getIntValueOf("simCFSRead");
-      lastWritten = moteMem.getIntValueOf("simCFSWritten");
+    if (simCFSChanged.getValue() == 1) {
+      lastRead = simCFSRead.getValue();
+      lastWritten = simCFSWritten.getValue();
 
-      moteMem.setIntValueOf("simCFSRead", 0);
-      moteMem.setIntValueOf("simCFSWritten", 0);
-      moteMem.setByteValueOf("simCFSChanged", (byte) 0);
+      simCFSRead.setValue(0);
+      simCFSWritten.setValue(0);
+      simCFSChanged.setValue((byte) 0);
 
       myEnergyConsumption =
         ENERGY_CONSUMPTION_PER_READ_CHAR_mQ*lastRead +
@@ -148,7 +159,7 @@ public class ContikiCFS extends MoteInterface implements ContikiMoteInterface, P
       return false;
     }
 
-    moteMem.setByteArray("simCFSData", data);
+    simCFSData.setValue(data);
     return true;
   }
 
@@ -158,7 +169,7 @@ public class ContikiCFS extends MoteInterface implements ContikiMoteInterface, P
    * @return Filesystem data
    */
   public byte[] getFilesystemData() {
-    return moteMem.getByteArray("simCFSData", FILESYSTEM_SIZE);
+    return simCFSData.getValue(FILESYSTEM_SIZE);
   }
 
   /**
@@ -36,6 +36,7 @@ import javax.swing.JPanel;
 import org.jdom.Element;
 
 import se.sics.cooja.*;
+import se.sics.cooja.AddressMemory.IntVariable;
 import se.sics.cooja.contikimote.ContikiMoteInterface;
 import se.sics.cooja.interfaces.Clock;
 import se.sics.cooja.interfaces.PolledBeforeActiveTicks;
@@ -62,6 +63,7 @@ public class ContikiClock extends Clock implements ContikiMoteInterface, PolledB
 
   private Mote mote = null;
   private SectionMoteMemory moteMem = null;
+  private IntVariable simCurrentTime;
 
   private int timeDrift = 0;
 
@@ -74,6 +76,7 @@ public class ContikiClock extends Clock implements ContikiMoteInterface, PolledB
   public ContikiClock(Mote mote) {
     this.mote = mote;
     this.moteMem = (SectionMoteMemory) mote.getMemory();
+    simCurrentTime = moteMem.getIntVariable("simCurrentTime");
   }
 
   public static String[] getCoreInterfaceDependencies() {
@@ -81,7 +84,7 @@ public class ContikiClock extends Clock implements ContikiMoteInterface, PolledB
   }
 
   public void setTime(int newTime) {
-    moteMem.setIntValueOf("simCurrentTime", newTime);
+    simCurrentTime.setValue(newTime);
   }
 
   public void setDrift(int timeDrift) {
@@ -93,7 +96,7 @@ public class ContikiClock extends Clock implements ContikiMoteInterface, PolledB
   }
 
   public int getTime() {
-    return moteMem.getIntValueOf("simCurrentTime");
+    return simCurrentTime.getValue();
   }
 
   public void doActionsBeforeTick() {
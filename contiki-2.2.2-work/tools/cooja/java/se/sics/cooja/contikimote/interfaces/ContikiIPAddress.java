@@ -37,6 +37,7 @@ import org.apache.log4j.Logger;
 import org.jdom.Element;
 
 import se.sics.cooja.*;
+import se.sics.cooja.AddressMemory.ByteVariable;
 import se.sics.cooja.contikimote.ContikiMoteInterface;
 import se.sics.cooja.interfaces.IPAddress;
 
@@ -67,6 +68,11 @@ import se.sics.cooja.interfaces.IPAddress;
  */
 public class ContikiIPAddress extends IPAddress implements ContikiMoteInterface {
   private SectionMoteMemory moteMem = null;
+  private ByteVariable simIPa;
+  private ByteVariable simIPb;
+  private ByteVariable simIPc;
+  private ByteVariable simIPd;
+  private ByteVariable simIPChanged;
   private static Logger logger = Logger.getLogger(ContikiIPAddress.class);
 
   /**
@@ -79,6 +85,11 @@ public class ContikiIPAddress extends IPAddress implements ContikiMoteInterface
    */
   public ContikiIPAddress(Mote mote) {
     this.moteMem = (SectionMoteMemory) mote.getMemory();
+    simIPa = moteMem.getByteVariable("simIPa");
+    simIPb = moteMem.getByteVariable("simIPb");
+    simIPc = moteMem.getByteVariable("simIPc");
+    simIPd = moteMem.getByteVariable("simIPd");
+    simIPChanged = moteMem.getByteVariable("simIPChanged");
   }
 
   public static String[] getCoreInterfaceDependencies() {
@@ -87,13 +98,13 @@ public class ContikiIPAddress extends IPAddress implements ContikiMoteInterface
 
   public String getIPString() {
     return
-    (int) moteMem.getByteValueOf("simIPa")
+    (int) simIPa.getValue()
     + "." +
-    (int) moteMem.getByteValueOf("simIPb")
+    (int) simIPb.getValue()
     + "." +
-    (int) moteMem.getByteValueOf("simIPc")
+    (int) simIPc.getValue()
     + "." +
-    (int) moteMem.getByteValueOf("simIPd");
+    (int) simIPd.getValue();
   }
 
   public void setIPString(String ipAddress) {
@@ -108,11 +119,11 @@ public class ContikiIPAddress extends IPAddress implements ContikiMoteInterface
   }
 
   public void setIPNumber(char a, char b, char c, char d) {
-    moteMem.setByteValueOf("simIPa", (byte) a);
-    moteMem.setByteValueOf("simIPb", (byte) b);
-    moteMem.setByteValueOf("simIPc", (byte) c);
-    moteMem.setByteValueOf("simIPd", (byte) d);
-    moteMem.setByteValueOf("simIPChanged", (byte) 1);
+    simIPa.setValue((byte) a);
+    simIPb.setValue((byte) b);
+    simIPc.setValue((byte) c);
+    simIPd.setValue((byte) d);
+    simIPChanged.setValue((byte) 1);
 
     setChanged();
     notifyObservers();
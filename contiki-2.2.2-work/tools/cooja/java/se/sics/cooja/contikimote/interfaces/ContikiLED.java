@@ -38,6 +38,7 @@ import org.apache.log4j.Logger;
 import org.jdom.Element;
 
 import se.sics.cooja.*;
+import se.sics.cooja.AddressMemory.ByteVariable;
 import se.sics.cooja.contikimote.ContikiMoteInterface;
 import se.sics.cooja.interfaces.LED;
 import se.sics.cooja.interfaces.PolledAfterActiveTicks;
@@ -66,6 +67,7 @@ public class ContikiLED extends LED implements ContikiMoteInterface, PolledAfter
 
   private Mote mote = null;
   private SectionMoteMemory moteMem = null;
+  private ByteVariable simLedsValue;
   private byte currentLedValue = 0;
 
   private static final byte LEDS_GREEN = 1;
@@ -128,6 +130,7 @@ public class ContikiLED extends LED implements ContikiMoteInterface, PolledAfter
 
     this.mote = mote;
     this.moteMem = (SectionMoteMemory) mote.getMemory();
+    simLedsValue = moteMem.getByteVariable("simLedsValue");
 
     if (energyOfGreenLedPerTick < 0) {
       energyOfGreenLedPerTick = ENERGY_CONSUMPTION_GREEN_LED * 0.001;
@@ -159,7 +162,7 @@ public class ContikiLED extends LED implements ContikiMoteInterface, PolledAfter
   public void doActionsAfterTick() {
     boolean ledChanged;
 
-    byte newLedsValue = moteMem.getByteValueOf("simLedsValue");
+    byte newLedsValue = simLedsValue.getValue();
     if (newLedsValue != currentLedValue) {
       ledChanged = true;
     } else {
@@ -38,6 +38,9 @@ import org.apache.log4j.Logger;
 import org.jdom.Element;
 
 import se.sics.cooja.*;
+import se.sics.cooja.AddressMemory.ByteArrayVariable;
+import se.sics.cooja.AddressMemory.ByteVariable;
+import se.sics.cooja.AddressMemory.IntVariable;
 import se.sics.cooja.contikimote.ContikiMoteInterface;
 import se.sics.cooja.interfaces.Log;
 import se.sics.cooja.interfaces.PolledAfterActiveTicks;
@@ -69,6 +72,9 @@ public class ContikiLog extends Log implements ContikiMoteInterface, PolledAfter
   private static Logger logger = Logger.getLogger(ContikiLog.class);
   private Mote mote = null;
   private SectionMoteMemory moteMem = null;
+  private ByteVariable simLoggedFlag;
+  private IntVariable simLoggedLength;
+  private ByteArrayVariable simLoggedData;
 
   private String lastLogMessage = null;
 
@@ -82,6 +88,9 @@ public class ContikiLog extends Log implements ContikiMoteInterface, PolledAfter
   public ContikiLog(Mote mote) {
     this.mote = mote;
     this.moteMem = (SectionMoteMemory) mote.getMemory();
+    simLoggedFlag = moteMem.getByteVariable("simLoggedFlag");
+    simLoggedLength = moteMem.getIntVariable("simLoggedLength");
+    simLoggedData = moteMem.getByteArrayVariable("simLoggedData");
   }
 
   public static String[] getCoreInterfaceDependencies() {
@@ -89,16 +98,16 @@ public class ContikiLog extends Log implements ContikiMoteInterface, PolledAfter
   }
 
   public void doActionsAfterTick() {
-    if (moteMem.getByteValueOf("simLoggedFlag") == 1) {
-     int totalLength = moteMem.getIntValueOf("simLoggedLength");
-      byte[] bytes = moteMem.getByteArray("simLoggedData", totalLength);
+    if (simLoggedFlag.getValue() == 1) {
+     int totalLength = simLoggedLength.getValue();
+      byte[] bytes = simLoggedData.getValue(totalLength);
       char[] chars = new char[bytes.length];
       for (int i=0; i < chars.length; i++) {
         chars[i] = (char) bytes[i];
       }
 
-      moteMem.setByteValueOf("simLoggedFlag", (byte) 0);
-      moteMem.setIntValueOf("simLoggedLength", 0);
+      simLoggedFlag.setValue((byte) 0);
+      simLoggedLength.setValue(0);
 
       String messages[] = String.valueOf(chars).split("\n");
       for (String message: messages) {
@@ -37,6 +37,8 @@ import org.apache.log4j.Logger;
 import org.jdom.Element;
 
 import se.sics.cooja.*;
+import se.sics.cooja.AddressMemory.ByteVariable;
+import se.sics.cooja.AddressMemory.IntVariable;
 import se.sics.cooja.contikimote.ContikiMoteInterface;
 import se.sics.cooja.interfaces.MoteID;
 
@@ -62,6 +64,8 @@ import se.sics.cooja.interfaces.MoteID;
  */
 public class ContikiMoteID extends MoteID implements ContikiMoteInterface {
   private SectionMoteMemory moteMem = null;
+  private IntVariable simMoteID;
+  private ByteVariable simMoteIDChanged;
   private static Logger logger = Logger.getLogger(ContikiMoteID.class);
 
   private int moteID = 0;
@@ -76,6 +80,8 @@ public class ContikiMoteID extends MoteID implements ContikiMoteInterface {
    */
   public ContikiMoteID(Mote mote) {
     this.moteMem = (SectionMoteMemory) mote.getMemory();
+    simMoteID = moteMem.getIntVariable("simMoteID");
+    simMoteIDChanged = moteMem.getByteVariable("simMoteIDChanged");
   }
 
   public static String[] getCoreInterfaceDependencies() {
@@ -88,8 +94,8 @@ public class ContikiMoteID extends MoteID implements ContikiMoteInterface {
 
   public void setMoteID(int newID) {
     moteID = newID;
-    moteMem.setIntValueOf("simMoteID", moteID);
-    moteMem.setByteValueOf("simMoteIDChanged", (byte) 1);
+    simMoteID.setValue(moteID);
+    simMoteIDChanged.setValue((byte) 1);
 
     setChanged();
     notifyObservers();
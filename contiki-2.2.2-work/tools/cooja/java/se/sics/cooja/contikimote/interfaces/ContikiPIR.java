@@ -38,6 +38,7 @@ import org.apache.log4j.Logger;
 import org.jdom.Element;
 
 import se.sics.cooja.*;
+import se.sics.cooja.AddressMemory.ByteVariable;
 import se.sics.cooja.contikimote.ContikiMoteInterface;
 import se.sics.cooja.interfaces.PIR;
 
@@ -74,6 +75,8 @@ public class ContikiPIR extends PIR implements ContikiMoteInterface {
 
   private Mote mote;
   private SectionMoteMemory moteMem;
+  private ByteVariable simPirIsActive;
+  private ByteVariable simPirChanged;
   private double myEnergyConsumption = 0.0;
 
   /**
@@ -91,6 +94,8 @@ public class ContikiPIR extends PIR implements ContikiMoteInterface {
 
     this.mote = mote;
     this.moteMem = (SectionMoteMemory) mote.getMemory();
+    simPirIsActive = moteMem.getByteVariable("simPirIsActive");
+    simPirChanged = moteMem.getByteVariable("simPirChanged");
 
     if (energyActivePerTick < 0) {
       energyActivePerTick = ENERGY_CONSUMPTION_PIR_mA * 0.001;
@@ -102,8 +107,8 @@ public class ContikiPIR extends PIR implements ContikiMoteInterface {
   }
 
   public void triggerChange() {
-    if (moteMem.getByteValueOf("simPirIsActive") == 1) {
-      moteMem.setByteValueOf("simPirChanged", (byte) 1);
+    if (simPirIsActive.getValue() == 1) {
+      simPirChanged.setValue((byte) 1);
 
       mote.setState(Mote.State.ACTIVE);
 
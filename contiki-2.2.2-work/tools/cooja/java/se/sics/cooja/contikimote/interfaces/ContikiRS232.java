@@ -40,6 +40,9 @@ import org.apache.log4j.Logger;
 import org.jdom.Element;
 
 import se.sics.cooja.*;
+import se.sics.cooja.AddressMemory.ByteArrayVariable;
+import se.sics.cooja.AddressMemory.ByteVariable;
+import se.sics.cooja.AddressMemory.IntVariable;
 import se.sics.cooja.contikimote.ContikiMoteInterface;
 import se.sics.cooja.interfaces.PolledAfterActiveTicks;
 
@@ -78,6 +81,12 @@ public class ContikiRS232 extends MoteInterface implements ContikiMoteInterface,
 
   private Mote mote = null;
   private SectionMoteMemory moteMem = null;
+  private ByteVariable simSerialSendingFlag;
+  private IntVariable simSerialSendingLength;
+  private ByteArrayVariable simSerialSendingData;
+  private ByteVariable simSerialReceivingFlag;
+  private IntVariable simSerialReceivingLength;
+  private ByteArrayVariable simSerialReceivingData;
 
   private String lastSerialMessage = null;
 
@@ -105,6 +114,12 @@ public class ContikiRS232 extends MoteInterface implements ContikiMoteInterface,
 
     this.mote = mote;
     this.moteMem = (SectionMoteMemory) mote.getMemory();
+    simSerialSendingFlag = moteMem.getByteVariable("simSerialSendingFlag");
+    simSerialSendingLength = moteMem.getIntVariable("simSerialSendingLength");
+    simSerialSendingData = moteMem.getByteArrayVariable("simSerialSendingData");
+    simSerialReceivingFlag = moteMem.getByteVariable("simSerialReceivingFlag");
+    simSerialReceivingLength = moteMem.getIntVariable("simSerialReceivingLength");
+    simSerialReceivingData = moteMem.getByteArrayVariable("simSerialReceivingData");
   }
 
   public static String[] getCoreInterfaceDependencies() {
@@ -112,9 +127,9 @@ public class ContikiRS232 extends MoteInterface implements ContikiMoteInterface,
   }
 
   public void doActionsAfterTick() {
-    if (moteMem.getByteValueOf("simSerialSendingFlag") == 1) {
-      int totalLength = moteMem.getIntValueOf("simSerialSendingLength");
-      byte[] bytes = moteMem.getByteArray("simSerialSendingData", totalLength);
+    if (simSerialSendingFlag.getValue() == 1) {
+      int totalLength = simSerialSendingLength.getValue();
+      byte[] bytes = simSerialSendingData.getValue(totalLength);
       char[] chars = new char[bytes.length];
       for (int i = 0; i < chars.length; i++) {
         chars[i] = (char) bytes[i];
@@ -125,8 +140,8 @@ public class ContikiRS232 extends MoteInterface implements ContikiMoteInterface,
       String message = String.valueOf(chars);
       lastSerialMessage = message;
 
-      moteMem.setByteValueOf("simSerialSendingFlag", (byte) 0);
-      moteMem.setIntValueOf("simSerialSendingLength", 0);
+      simSerialSendingFlag.setValue((byte) 0);
+      simSerialSendingLength.setValue(0);
 
       this.setChanged();
       this.notifyObservers(mote);
@@ -158,18 +173,18 @@ public class ContikiRS232 extends MoteInterface implements ContikiMoteInterface,
     }
 
     // Flag for incoming data
-    moteMem.setByteValueOf("simSerialReceivingFlag", (byte) 1);
+    simSerialReceivingFlag.setValue((byte) 1);
 
     byte[] dataToAppend = message.getBytes();
 
     // Increase receiving size
-    int oldSize = moteMem.getIntValueOf("simSerialReceivingLength");
-    moteMem.setIntValueOf("simSerialReceivingLength", oldSize
+    int oldSize = simSerialReceivingLength.getValue();
+    simSerialReceivingLength.setValue(oldSize
         + dataToAppend.length);
-    int newSize = moteMem.getIntValueOf("simSerialReceivingLength");
+    int newSize = simSerialReceivingLength.getValue();
 
     // Write buffer characters
-    byte[] oldData = moteMem.getByteArray("simSerialReceivingData", oldSize);
+    byte[] oldData = simSerialReceivingData.getValue(oldSize);
     byte[] newData = new byte[newSize];
 
     for (int i = 0; i < oldData.length; i++) {
@@ -180,7 +195,7 @@ public class ContikiRS232 extends MoteInterface implements ContikiMoteInterface,
       newData[i + oldSize] = dataToAppend[i];
     }
 
-    moteMem.setByteArray("simSerialReceivingData", newData);
+    simSerialReceivingData.setValue(newData);
 
     mote.setState(Mote.State.ACTIVE);
 
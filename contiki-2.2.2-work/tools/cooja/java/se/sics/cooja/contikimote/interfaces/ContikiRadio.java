@@ -31,6 +31,9 @@
 
 package se.sics.cooja.contikimote.interfaces;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.*;
 import javax.swing.*;
 import java.awt.BorderLayout;
@@ -40,6 +43,9 @@ import org.apache.log4j.Logger;
 import org.jdom.Element;
 
 import se.sics.cooja.*;
+import se.sics.cooja.AddressMemory.ByteArrayVariable;
+import se.sics.cooja.AddressMemory.ByteVariable;
+import se.sics.cooja.AddressMemory.IntVariable;
 import se.sics.cooja.contikimote.ContikiMoteInterface;
 import se.sics.cooja.interfaces.PolledAfterActiveTicks;
 import se.sics.cooja.interfaces.Position;
@@ -85,10 +91,21 @@ import se.sics.cooja.radiomediums.UDGM;
  *
  * @author Fredrik sterlind
  */
-public class ContikiRadio extends Radio implements ContikiMoteInterface, PolledAfterActiveTicks {
+public class ContikiRadio extends Radio implements ContikiMoteInterface,
+    PolledAfterActiveTicks, Snapshottable {
   private Mote myMote;
 
   private SectionMoteMemory myMoteMemory;
+  private ByteVariable simRadioHWOn;
+  private IntVariable simInSize;
+  private IntVariable simRadioChannel;
+  private ByteVariable simReceiving;
+  private ByteArrayVariable simInDataBuffer;
+  private ByteVariable simPower;
+  private IntVariable simSignalStrength;
+  private ByteVariable simTransmitting;
+  private IntVariable simOutSize;
+  private ByteArrayVariable simOutDataBuffer;
 
   private static Logger logger = Logger.getLogger(ContikiRadio.class);
 
@@ -148,13 +165,23 @@ public class ContikiRadio extends Radio implements ContikiMoteInterface, PolledA
 
     this.myMote = mote;
     this.myMoteMemory = (SectionMoteMemory) mote.getMemory();
+    simRadioHWOn = myMoteMemory.getByteVariable("simRadioHWOn");
+    simInSize = myMoteMemory.getIntVariable("simInSize");
+    simRadioChannel = myMoteMemory.getIntVariable("simRadioChannel");
+    simReceiving = myMoteMemory.getByteVariable("simReceiving");
+    simInDataBuffer = myMoteMemory.getByteArrayVariable("simInDataBuffer");
+    simPower = myMoteMemory.getByteVariable("simPower");
+    simSignalStrength = myMoteMemory.getIntVariable("simSignalStrength");
+    simTransmitting = myMoteMemory.getByteVariable("simTransmitting");
+    simOutSize = myMoteMemory.getIntVariable("simOutSize");
+    simOutDataBuffer = myMoteMemory.getByteArrayVariable("simOutDataBuffer");
 
     // Calculate energy consumption of a listening radio
     if (energyListeningRadioPerTick < 0) {
       energyListeningRadioPerTick = ENERGY_CONSUMPTION_RADIO_mA * 0.001;
     }
 
-    radioOn = myMoteMemory.getByteValueOf("simRadioHWOn") == 1;
+    radioOn = simRadioHWOn.getValue() == 1;
   }
 
   /* Contiki mote interface support */
@@ -189,7 +216,7 @@ public class ContikiRadio extends Radio implements ContikiMoteInterface, PolledA
       return true;
     }
 
-    return myMoteMemory.getIntValueOf("simInSize") != 0;
+    return simInSize.getValue() != 0;
   }
 
   public boolean isInterfered() {
@@ -197,7 +224,7 @@ public class ContikiRadio extends Radio implements ContikiMoteInterface, PolledA
   }
 
   public int getChannel() {
-    return myMoteMemory.getIntValueOf("simRadioChannel");
+    return simRadioChannel.getValue();
   }
 
   public void signalReceptionStart() {
@@ -221,20 +248,20 @@ public class ContikiRadio extends Radio implements ContikiMoteInterface, PolledA
 
       // Reset data
       packetToMote = null;
-      myMoteMemory.setIntValueOf("simInSize", 0);
+      simInSize.setValue(0);
 
       // Unlock (if locked)
-      myMoteMemory.setByteValueOf("simReceiving", (byte) 0);
+      simReceiving.setValue((byte) 0);
 
       return;
     }
 
     // Unlock (if locked)
-    myMoteMemory.setByteValueOf("simReceiving", (byte) 0);
+    simReceiving.setValue((byte) 0);
 
     // Set data
-    myMoteMemory.setIntValueOf("simInSize", packetToMote.getPacketData().length);
-    myMoteMemory.setByteArray("simInDataBuffer", packetToMote.getPacketData());
+    simInSize.setValue(packetToMote.getPacketData().length);
+    simInDataBuffer.setValue(packetToMote.getPacketData());
 
     lastEventTime = myMote.getSimulation().getSimulationTime();
     lastEvent = RadioEvent.RECEPTION_FINISHED;
@@ -268,15 +295,15 @@ public class ContikiRadio extends Radio implements ContikiMoteInterface, PolledA
   }
 
   public int getCurrentOutputPowerIndicator() {
-    return myMoteMemory.getByteValueOf("simPower");
+    return simPower.getValue();
   }
 
   public double getCurrentSignalStrength() {
-    return myMoteMemory.getIntValueOf("simSignalStrength");
+    return simSignalStrength.getValue();
   }
 
   public void setCurrentSignalStrength(double signalStrength) {
-    myMoteMemory.setIntValueOf("simSignalStrength", (int) signalStrength);
+    simSignalStrength.setValue((int) signalStrength);
   }
 
   public Position getPosition() {
@@ -287,14 +314,14 @@ public class ContikiRadio extends Radio implements ContikiMoteInterface, PolledA
    * @return True if locked at transmitting
    */
   private boolean isLockedAtTransmitting() {
-    return myMoteMemory.getByteValueOf("simTransmitting") == 1;
+    return simTransmitting.getValue() == 1;
   }
 
   /**
    * @return True if locked at receiving
    */
   private boolean isLockedAtReceiving() {
-    return myMoteMemory.getByteValueOf("simReceiving") == 1;
+    return simReceiving.getValue() == 1;
   }
 
   /**
@@ -315,20 +342,20 @@ public class ContikiRadio extends Radio implements ContikiMoteInterface, PolledA
     }
 
     // Lock core radio in receiving loop
-    myMoteMemory.setByteValueOf("simReceiving", (byte) 1);
+    simReceiving.setValue((byte) 1);
   }
 
   public void doActionsAfterTick() {
     /* Check if radio hardware status changed */
-    if (radioOn != (myMoteMemory.getByteValueOf("simRadioHWOn") == 1)) {
+    if (radioOn != (simRadioHWOn.getValue() == 1)) {
       radioOn = !radioOn;
 
       if (!radioOn) {
         // Reset status
-        myMoteMemory.setByteValueOf("simReceiving", (byte) 0);
-        myMoteMemory.setIntValueOf("simInSize", 0);
-        myMoteMemory.setByteValueOf("simTransmitting", (byte) 0);
-        myMoteMemory.setIntValueOf("simOutSize", 0);
+        simReceiving.setValue((byte) 0);
+        simInSize.setValue(0);
+        simTransmitting.setValue((byte) 0);
+        simOutSize.setValue(0);
         isTransmitting = false;
         lastEvent = RadioEvent.HW_OFF;
       } else {
@@ -346,8 +373,8 @@ public class ContikiRadio extends Radio implements ContikiMoteInterface, PolledA
     myEnergyConsumption = energyListeningRadioPerTick;
 
     // Check if radio output power changed
-    if (myMoteMemory.getByteValueOf("simPower") != oldOutputPowerIndicator) {
-      oldOutputPowerIndicator = myMoteMemory.getByteValueOf("simPower");
+    if (simPower.getValue() != oldOutputPowerIndicator) {
+      oldOutputPowerIndicator = simPower.getValue();
       lastEvent = RadioEvent.UNKNOWN;
       this.setChanged();
       this.notifyObservers();
@@ -357,8 +384,8 @@ public class ContikiRadio extends Radio implements ContikiMoteInterface, PolledA
     /* TODO Use time events */
     if (isTransmitting
         && myMote.getSimulation().getSimulationTime() >= transmissionEndTime) {
-      myMoteMemory.setByteValueOf("simTransmitting", (byte) 0);
-      myMoteMemory.setIntValueOf("simOutSize", 0);
+      simTransmitting.setValue((byte) 0);
+      simOutSize.setValue(0);
       isTransmitting = false;
 
       lastEventTime = myMote.getSimulation().getSimulationTime();
@@ -370,17 +397,17 @@ public class ContikiRadio extends Radio implements ContikiMoteInterface, PolledA
     }
 
     // Check if a new transmission should be started
-    if (!isTransmitting && myMoteMemory.getByteValueOf("simTransmitting") == 1) {
-      int size = myMoteMemory.getIntValueOf("simOutSize");
+    if (!isTransmitting && simTransmitting.getValue() == 1) {
+      int size = simOutSize.getValue();
       if (size <= 0) {
         logger.warn("Skipping zero sized Contiki packet (no size)");
-        myMoteMemory.setByteValueOf("simTransmitting", (byte) 0);
+        simTransmitting.setValue((byte) 0);
         return;
       }
-      packetFromMote = new COOJARadioPacket(myMoteMemory.getByteArray("simOutDataBuffer", size));
+      packetFromMote = new COOJARadioPacket(simOutDataBuffer.getValue(size));
       if (packetFromMote.getPacketData() == null || packetFromMote.getPacketData().length == 0) {
         logger.warn("Skipping zero sized Contiki packet (no buffer)");
-        myMoteMemory.setByteValueOf("simTransmitting", (byte) 0);
+        simTransmitting.setValue((byte) 0);
         return;
       }
 
@@ -494,6 +521,53 @@ public class ContikiRadio extends Radio implements ContikiMoteInterface, PolledA
   public void setConfigXML(Collection<Element> configXML, boolean visAvailable) {
   }
 
+  public void writeSnapshot(DataOutputStream out) throws IOException {
+    out.writeBoolean(radioOn);
+    out.writeBoolean(isTransmitting);
+    out.writeBoolean(isInterfered);
+    out.writeInt(transmissionEndTime);
+    out.writeInt(lastEvent.ordinal());
+    out.writeInt(lastEventTime);
+    out.writeInt(oldOutputPowerIndicator);
+    out.writeDouble(myEnergyConsumption);
+    writePacket(out, packetToMote);
+    writePacket(out, packetFromMote);
+  }
+
+  public void readSnapshot(DataInputStream in) throws IOException {
+    radioOn = in.readBoolean();
+    isTransmitting = in.readBoolean();
+    isInterfered = in.readBoolean();
+    transmissionEndTime = in.readInt();
+    lastEvent = RadioEvent.values()[in.readInt()];
+    lastEventTime = in.readInt();
+    oldOutputPowerIndicator = in.readInt();
+    myEnergyConsumption = in.readDouble();
+    packetToMote = readPacket(in);
+    packetFromMote = readPacket(in);
+  }
+
+  private static void writePacket(DataOutputStream out, RadioPacket packet)
+  throws IOException {
+    if (packet == null) {
+      out.writeInt(-1);
+      return;
+    }
+    byte[] data = packet.getPacketData();
+    out.writeInt(data.length);
+    out.write(data);
+  }
+
+  private static RadioPacket readPacket(DataInputStream in) throws IOException {
+    int length = in.readInt();
+    if (length < 0) {
+      return null;
+    }
+    byte[] data = new byte[length];
+    in.readFully(data);
+    return new COOJARadioPacket(data);
+  }
+
   public Mote getMote() {
     return myMote;
   }
@@ -38,6 +38,7 @@ import org.apache.log4j.Logger;
 import org.jdom.Element;
 
 import se.sics.cooja.*;
+import se.sics.cooja.AddressMemory.ByteVariable;
 import se.sics.cooja.contikimote.ContikiMoteInterface;
 
 /**
@@ -74,6 +75,8 @@ public class ContikiVib extends MoteInterface implements ContikiMoteInterface {
 
   private Mote mote;
   private SectionMoteMemory moteMem;
+  private ByteVariable simVibIsActive;
+  private ByteVariable simVibChanged;
   private double myEnergyConsumption = 0.0;
 
   /**
@@ -91,6 +94,8 @@ public class ContikiVib extends MoteInterface implements ContikiMoteInterface {
 
     this.mote = mote;
     this.moteMem = (SectionMoteMemory) mote.getMemory();
+    simVibIsActive = moteMem.getByteVariable("simVibIsActive");
+    simVibChanged = moteMem.getByteVariable("simVibChanged");
 
     if (energyActiveVibPerTick < 0) {
       energyActiveVibPerTick = ENERGY_CONSUMPTION_VIB_mA * 0.001;
@@ -105,8 +110,8 @@ public class ContikiVib extends MoteInterface implements ContikiMoteInterface {
    * Simulates a change in the vibration sensor.
    */
   public void triggerChange() {
-    if (moteMem.getByteValueOf("simVibIsActive") == 1) {
-      moteMem.setByteValueOf("simVibChanged", (byte) 1);
+    if (simVibIsActive.getValue() == 1) {
+      simVibChanged.setValue((byte) 1);
 
       mote.setState(Mote.State.ACTIVE);
     }
@@ -222,28 +222,34 @@ public class ApplicationRadio extends Radio implements PolledBeforeActiveTicks {
     if (outPacketExists) {
       outPacketExists = false;
       isTransmitting = true;
-      lastEvent = RadioEvent.TRANSMISSION_STARTED;
-      lastEventTime = currentTime;
       transmissionEndTime = currentTime + outPacketDuration;
-      this.setChanged();
-      this.notifyObservers();
+      notifyTransmission(RadioEvent.TRANSMISSION_STARTED, currentTime, null);
 
       // Deliver packet right away
-      packetFromMote = outPacket;
-      lastEvent = RadioEvent.PACKET_TRANSMITTED;
-      this.setChanged();
-      this.notifyObservers();
+      notifyTransmission(RadioEvent.PACKET_TRANSMITTED, currentTime, outPacket);
     }
 
     if (isTransmitting && currentTime >= transmissionEndTime) {
       isTransmitting = false;
-      lastEvent = RadioEvent.TRANSMISSION_FINISHED;
-      lastEventTime = currentTime;
-      this.setChanged();
-      this.notifyObservers();
+      notifyTransmission(RadioEvent.TRANSMISSION_FINISHED, currentTime, null);
     }
   }
 
+  private void notifyTransmission(final RadioEvent event, final int time, final RadioPacket packet) {
+    /* Notify observers on simulation thread */
+    myMote.getSimulation().invokeSimulationThread(new Runnable() {
+      public void run() {
+        if (packet != null) {
+          packetFromMote = packet;
+        }
+        lastEvent = event;
+        lastEventTime = time;
+        setChanged();
+        notifyObservers();
+      }
+    });
+  }
+
   public JPanel getInterfaceVisualizer() {
     // Location
     JPanel panel = new JPanel();
@@ -31,6 +31,9 @@
 
 package se.sics.cooja.interfaces;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.*;
 import javax.swing.*;
 import org.apache.log4j.Logger;
@@ -47,6 +50,10 @@ import se.sics.cooja.*;
  * In addition, the Battery adds the CPU energy.
  * <p>
  *
+ * Motes that are not ticked while sleeping are charged for the sleeping time
+ * at their next tick. A sleeping mote is woken up when its energy runs out.
+ * <p>
+ *
  * This observable notifies every tick (relatively time-consuming).
  *
  * When the energy left is below 0 the mote is dead.
@@ -57,7 +64,7 @@ import se.sics.cooja.*;
  * @author Fredrik sterlind
  */
 @ClassDescription("Battery")
-public class Battery extends MoteInterface implements PolledAfterAllTicks {
+public class Battery extends MoteInterface implements PolledAfterAllTicks, ToleratesSkippedTicks, Snapshottable {
   private static Logger logger = Logger.getLogger(Battery.class);
 
   /**
@@ -90,6 +97,16 @@ public class Battery extends MoteInterface implements PolledAfterAllTicks {
 
   private double totalEnergyConsumption = 0;
 
+  private int lastUpdateTime = Integer.MIN_VALUE;
+
+  private Mote.State lastUpdateState = Mote.State.ACTIVE;
+
+  private TimeEvent depletedEvent = new TimeEvent(0) {
+    public void execute(int t) {
+      doActionsAfterTick();
+    }
+  };
+
   /**
    * Creates a new battery connected to given mote.
    *
@@ -122,11 +139,17 @@ public class Battery extends MoteInterface implements PolledAfterAllTicks {
       return;
     }
 
-    if (mote.getState() == Mote.State.ACTIVE) {
-      cpuEnergyConsumption += cpuEnergyConsumptionLPMPerMs;
-    } else {
-      cpuEnergyConsumption += cpuEnergyConsumptionAwakePerMs;
+    /* Charge CPU energy for each millisecond since last update */
+    int time = mote.getSimulation().getSimulationTime();
+    if (time > lastUpdateTime) {
+      if (lastUpdateTime != Integer.MIN_VALUE && time - lastUpdateTime > 1) {
+        cpuEnergyConsumption +=
+          (time - lastUpdateTime - 1) * getCPUEnergyConsumptionPerMs(lastUpdateState);
+      }
+      cpuEnergyConsumption += getCPUEnergyConsumptionPerMs(mote.getState());
+      lastUpdateTime = time;
     }
+    lastUpdateState = mote.getState();
 
     totalEnergyConsumption = cpuEnergyConsumption;
     for (MoteInterface intf : mote.getInterfaces().getInterfaces()) {
@@ -135,18 +158,43 @@ public class Battery extends MoteInterface implements PolledAfterAllTicks {
 
     /* Check if we are out of energy */
     if (getEnergyConsumption() > INITIAL_ENERGY) {
+      depletedEvent.remove();
       mote.setState(Mote.State.DEAD);
+    } else if (mote.getState() == Mote.State.ACTIVE) {
+      depletedEvent.remove();
+    } else {
+      scheduleDepletedEvent(time);
     }
 
     setChanged();
     notifyObservers();
   }
 
+  private void scheduleDepletedEvent(int time) {
+    /* Mote may not be ticked while sleeping: wake up when out of energy */
+    double perMs = getCPUEnergyConsumptionPerMs(mote.getState());
+    if (perMs > 0) {
+      double msLeft = Math.ceil((INITIAL_ENERGY - getEnergyConsumption()) / perMs);
+      mote.getSimulation().scheduleEvent(depletedEvent,
+          time + (int) Math.max(1, Math.min(msLeft, Integer.MAX_VALUE - time)));
+    }
+  }
+
+  private double getCPUEnergyConsumptionPerMs(Mote.State state) {
+    if (state == Mote.State.ACTIVE) {
+      return cpuEnergyConsumptionLPMPerMs;
+    }
+    return cpuEnergyConsumptionAwakePerMs;
+  }
+
   /**
    * @param inf Infinite energy
    */
   public void setInfiniteEnergy(boolean inf) {
     hasInfiniteEnergy = inf;
+    if (hasInfiniteEnergy) {
+      depletedEvent.remove();
+    }
 
     setChanged();
     notifyObservers();
@@ -257,4 +305,18 @@ public class Battery extends MoteInterface implements PolledAfterAllTicks {
     }
   }
 
+  public void writeSnapshot(DataOutputStream out) throws IOException {
+    out.writeDouble(cpuEnergyConsumption);
+    out.writeDouble(totalEnergyConsumption);
+    out.writeInt(lastUpdateTime);
+    out.writeInt(lastUpdateState.ordinal());
+  }
+
+  public void readSnapshot(DataInputStream in) throws IOException {
+    cpuEnergyConsumption = in.readDouble();
+    totalEnergyConsumption = in.readDouble();
+    lastUpdateTime = in.readInt();
+    lastUpdateState = Mote.State.values()[in.readInt()];
+  }
+
 }
@@ -156,20 +156,26 @@ public class DisturberRadio extends Radio {
 
     if (!transmitting && currentTime % TRANSMISSION_INTERVAL == 0) {
       transmitting = true;
-      lastEvent = RadioEvent.TRANSMISSION_STARTED;
-      lastEventTime = currentTime;
       transEndTime = currentTime + TRANSMISSION_DURATION;
-      this.setChanged();
-      this.notifyObservers();
+      notifyRadioEvent(RadioEvent.TRANSMISSION_STARTED, currentTime);
     } else if (transmitting && currentTime >= transEndTime) {
       transmitting = false;
-      lastEvent = RadioEvent.TRANSMISSION_FINISHED;
-      lastEventTime = currentTime;
-      this.setChanged();
-      this.notifyObservers();
+      notifyRadioEvent(RadioEvent.TRANSMISSION_FINISHED, currentTime);
     }
   }
 
+  private void notifyRadioEvent(final RadioEvent event, final int time) {
+    /* Notify observers on simulation thread */
+    myMote.getSimulation().invokeSimulationThread(new Runnable() {
+      public void run() {
+        lastEvent = event;
+        lastEventTime = time;
+        setChanged();
+        notifyObservers();
+      }
+    });
+  }
+
   public void doActionsAfterTick() {
   }
 
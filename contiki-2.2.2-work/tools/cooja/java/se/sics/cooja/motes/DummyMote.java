@@ -150,12 +150,17 @@ public class DummyMote implements Mote {
 
     // Perform some dummy task
     if (myRandom.nextDouble() > 0.9) {
-      // Move mote randomly
-      Position myPosition = myInterfaceHandler.getPosition();
-      myPosition.setCoordinates(myPosition.getXCoordinate()
-          + myRandom.nextDouble() - 0.5, myPosition.getYCoordinate()
-          + myRandom.nextDouble() - 0.5, myPosition.getZCoordinate()
-          + myRandom.nextDouble() - 0.5);
+      // Move mote randomly (on simulation thread)
+      final Position myPosition = myInterfaceHandler.getPosition();
+      final double dx = myRandom.nextDouble() - 0.5;
+      final double dy = myRandom.nextDouble() - 0.5;
+      final double dz = myRandom.nextDouble() - 0.5;
+      mySim.invokeSimulationThread(new Runnable() {
+        public void run() {
+          myPosition.setCoordinates(myPosition.getXCoordinate() + dx,
+              myPosition.getYCoordinate() + dy, myPosition.getZCoordinate() + dz);
+        }
+      });
     }
     return false;
   }
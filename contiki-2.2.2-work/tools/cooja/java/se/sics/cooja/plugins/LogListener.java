@@ -37,7 +37,11 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.io.*;
 import java.util.*;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 import javax.swing.*;
+import javax.swing.Timer;
+import javax.swing.text.BadLocationException;
 import org.apache.log4j.Logger;
 import org.jdom.Element;
 import se.sics.cooja.*;
@@ -47,6 +51,11 @@ import se.sics.cooja.interfaces.Log;
  * A simple mote log listener.
  * Listens to all motes' log interfaces.
  *
+ * Log lines are kept in a fixed-size history, and the text area is refreshed
+ * at most REFRESH_INTERVAL ms apart with the lines added since last refresh.
+ * Lines may be filtered on mote ID and on a regular expression. Optionally,
+ * all lines are also written to a log file.
+ *
  * @author Fredrik Osterlind, Niclas Finne
  */
 @ClassDescription("Log Listener")
@@ -55,15 +64,37 @@ public class LogListener extends VisPlugin {
   private static final long serialVersionUID = 1L;
   private static Logger logger = Logger.getLogger(LogListener.class);
 
+  /**
+   * Default number of log lines kept in history (and shown).
+   */
+  public static final int DEFAULT_HISTORY = 10000;
+
+  /**
+   * Minimum time (ms) between text area refreshes.
+   */
+  public static final int REFRESH_INTERVAL = 100;
+
   private JTextArea logTextArea;
   private Observer logObserver;
   private Simulation simulation;
 
   private String filterText = "";
   private JTextField filterTextField = null;
+  private Pattern filterPattern = null;
+
+  private int filterMoteID = -1;
+  private JTextField moteIDTextField = null;
+
+  private volatile LogHistory history = new LogHistory(DEFAULT_HISTORY);
 
-  private String[] logCache = new String[256];
-  private int logPos;
+  private Timer refreshTimer;
+  private long displayedEntry = 0;
+  private int displayedLines = 0;
+
+  private final Object logFileLock = new Object();
+  private File logFile = null;
+  private BufferedWriter logFileWriter = null;
+  private JButton logFileButton;
 
   /**
    * Create a new simulation control panel.
@@ -88,36 +119,24 @@ public class LogListener extends VisPlugin {
         if (lastMessage.length() > 0 && lastMessage.charAt(lastMessage.length() - 1) == '\n') {
           lastMessage = lastMessage.substring(0, lastMessage.length() - 1);
         }
-        String outputString = "TIME:" + simulation.getSimulationTime() + "\t";
+        int moteID = -1;
         if (mote != null && mote.getInterfaces().getMoteID() != null) {
-          outputString += "ID:" + mote.getInterfaces().getMoteID().getMoteID() + "\t";
-        }
-        outputString += lastMessage;
-        if (logCache.length > 1) {
-          synchronized (logCache) {
-            logCache[logPos] = outputString;
-            logPos = (logPos + 1) % logCache.length;
-          }
-        }
-        // Match against filter (if any)
-        if (filterText.length() > 0 && !outputString.contains(filterText)) {
-          return;
+          moteID = mote.getInterfaces().getMoteID().getMoteID();
         }
+        int time = simulation.getSimulationTime();
+        history.add(time, moteID, lastMessage);
 
-
-        final String str = outputString;
-        SwingUtilities.invokeLater(new Runnable() {
-          public void run() {
-            int len = logTextArea.getDocument().getLength();
-            if (len == 0) {
-              logTextArea.append(str);
-            } else {
-              logTextArea.append('\n' + str);
-              len++;
+        synchronized (logFileLock) {
+          if (logFileWriter != null) {
+            try {
+              logFileWriter.write(formatLine(time, moteID, lastMessage));
+              logFileWriter.write('\n');
+            } catch (IOException e) {
+              logger.fatal("Could not write to log file: " + logFile + ": " + e.getMessage());
+              closeLogFile();
             }
-            logTextArea.setCaretPosition(len + str.length());
           }
-        });
+        }
       }
     };
 
@@ -150,89 +169,67 @@ public class LogListener extends VisPlugin {
     logTextArea.setEditable(false);
     logTextArea.setCursor(null);
 
+    ActionListener filterListener = new ActionListener() {
+      public void actionPerformed(ActionEvent e) {
+        applyFilter();
+      }
+    };
+
     JPanel filterPanel = new JPanel();
     filterPanel.setLayout(new BoxLayout(filterPanel, BoxLayout.X_AXIS));
+    moteIDTextField = new JTextField("", 4);
+    moteIDTextField.setMaximumSize(moteIDTextField.getPreferredSize());
+    moteIDTextField.setToolTipText("Show only lines from this mote ID (empty for all)");
+    moteIDTextField.addActionListener(filterListener);
     filterTextField = new JTextField("");
+    filterTextField.setToolTipText("Regular expression (or plain string)");
+    filterTextField.addActionListener(filterListener);
     filterPanel.add(Box.createHorizontalStrut(2));
-    filterPanel.add(new JLabel("Filter on string: "));
+    filterPanel.add(new JLabel("Mote ID: "));
+    filterPanel.add(moteIDTextField);
+    filterPanel.add(Box.createHorizontalStrut(5));
+    filterPanel.add(new JLabel("Filter: "));
     filterPanel.add(filterTextField);
-    filterTextField.addActionListener(new ActionListener() {
-      public void actionPerformed(ActionEvent e) {
-        String oldFilterText = filterText;
-        filterText = filterTextField.getText();
-        if (filterText == null) {
-          filterText = "";
-        }
-        if (!filterText.equals(oldFilterText) && logCache.length > 1) {
-          // Update from log cache
-          StringBuilder sb = new StringBuilder();
-          synchronized(logCache) {
-            int pos = logPos;
-            int count;
-            if(logCache[pos] != null) {
-              // Log cache has wrapped
-              count = logCache.length;
-            } else {
-              // Log cache has not wrapped yet
-              count = pos;
-              pos = 0;
-            }
-            for(int i = 0; i < count; i++) {
-              if (filterText.length() == 0 || logCache[pos].contains(filterText)) {
-                if (sb.length() > 0) {
-                  sb.append('\n');
-                }
-                sb.append(logCache[pos]);
-              }
-              pos = (pos + 1) % logCache.length;
-            }
-          }
-          logTextArea.setText(sb.toString());
-          logTextArea.setCaretPosition(logTextArea.getDocument().getLength());
-        }
-      }
-    });
     filterPanel.add(Box.createHorizontalStrut(2));
     JButton saveButton;
     filterPanel.add(saveButton = new JButton("Save log"));
     saveButton.addActionListener(new ActionListener() {
       public void actionPerformed(ActionEvent ev) {
-        JFileChooser fc = new JFileChooser();
-
-        int returnVal = fc.showSaveDialog(GUI.getTopParentContainer());
-        if (returnVal == JFileChooser.APPROVE_OPTION) {
-          File saveFile = fc.getSelectedFile();
-
-          if (saveFile.exists()) {
-            String s1 = "Overwrite";
-            String s2 = "Cancel";
-            Object[] options = { s1, s2 };
-            int n = JOptionPane.showOptionDialog(
-                GUI.getTopParentContainer(),
-                "A file with the same name already exists.\nDo you want to remove it?",
-                "Overwrite existing file?", JOptionPane.YES_NO_OPTION,
-                JOptionPane.QUESTION_MESSAGE, null, options, s1);
-            if (n != JOptionPane.YES_OPTION) {
-              return;
-            }
-          }
-
-          if (!saveFile.exists() || saveFile.canWrite()) {
-            try {
-              BufferedWriter outStream = new BufferedWriter(
-                  new OutputStreamWriter(
-                      new FileOutputStream(
-                          saveFile)));
-              outStream.write(logTextArea.getText());
-              outStream.close();
-            } catch (Exception ex) {
-              logger.fatal("Could not write to file: " + saveFile);
-              return;
-            }
+        File saveFile = chooseFile(true);
+        if (saveFile == null) {
+          return;
+        }
 
-          } else {
-            logger.fatal("No write access to file");
+        if (!saveFile.exists() || saveFile.canWrite()) {
+          try {
+            BufferedWriter outStream = new BufferedWriter(
+                new OutputStreamWriter(
+                    new FileOutputStream(
+                        saveFile)));
+            outStream.write(logTextArea.getText());
+            outStream.close();
+          } catch (Exception ex) {
+            logger.fatal("Could not write to file: " + saveFile);
+            return;
           }
+
+        } else {
+          logger.fatal("No write access to file");
+        }
+      }
+    });
+    filterPanel.add(Box.createHorizontalStrut(2));
+    filterPanel.add(logFileButton = new JButton("Log to file..."));
+    logFileButton.setToolTipText("Write all log lines to file, not only the history");
+    logFileButton.addActionListener(new ActionListener() {
+      public void actionPerformed(ActionEvent ev) {
+        if (logFile != null) {
+          setLogFile(null);
+          return;
+        }
+        File file = chooseFile(false);
+        if (file != null) {
+          setLogFile(file);
         }
       }
     });
@@ -240,11 +237,21 @@ public class LogListener extends VisPlugin {
     if (GUI.isVisualizedInApplet()) {
       saveButton.setToolTipText("Not available in applet");
       saveButton.setEnabled(false);
+      logFileButton.setToolTipText("Not available in applet");
+      logFileButton.setEnabled(false);
     }
 
     getContentPane().add(BorderLayout.CENTER, new JScrollPane(logTextArea));
     getContentPane().add(BorderLayout.SOUTH, filterPanel);
 
+    /* Refresh text area at a capped rate, instead of once per log line */
+    refreshTimer = new Timer(REFRESH_INTERVAL, new ActionListener() {
+      public void actionPerformed(ActionEvent e) {
+        refreshTextArea(false);
+      }
+    });
+    refreshTimer.start();
+
     setTitle("Log Listener - Listening on " + nrLogs + " mote logs");
     pack();
     setSize(gui.getDesktopPane().getWidth(), getHeight());
@@ -258,6 +265,162 @@ public class LogListener extends VisPlugin {
 
   }
 
+  private static String formatLine(int time, int moteID, String message) {
+    if (moteID < 0) {
+      return "TIME:" + time + "\t" + message;
+    }
+    return "TIME:" + time + "\tID:" + moteID + "\t" + message;
+  }
+
+  private File chooseFile(boolean confirmOverwrite) {
+    JFileChooser fc = new JFileChooser();
+
+    int returnVal = fc.showSaveDialog(GUI.getTopParentContainer());
+    if (returnVal != JFileChooser.APPROVE_OPTION) {
+      return null;
+    }
+    File file = fc.getSelectedFile();
+
+    if (confirmOverwrite && file.exists()) {
+      String s1 = "Overwrite";
+      String s2 = "Cancel";
+      Object[] options = { s1, s2 };
+      int n = JOptionPane.showOptionDialog(
+          GUI.getTopParentContainer(),
+          "A file with the same name already exists.\nDo you want to remove it?",
+          "Overwrite existing file?", JOptionPane.YES_NO_OPTION,
+          JOptionPane.QUESTION_MESSAGE, null, options, s1);
+      if (n != JOptionPane.YES_OPTION) {
+        return null;
+      }
+    }
+    return file;
+  }
+
+  /**
+   * Starts or stops writing all log lines to file.
+   * Lines are appended to any existing file contents.
+   *
+   * @param file Log file, or null to stop
+   */
+  private void setLogFile(File file) {
+    synchronized (logFileLock) {
+      closeLogFile();
+      if (file != null) {
+        try {
+          logFileWriter = new BufferedWriter(new FileWriter(file, true), 65536);
+          logFile = file;
+        } catch (IOException e) {
+          logger.fatal("Could not open log file: " + file + ": " + e.getMessage());
+        }
+      }
+    }
+    if (logFile != null) {
+      logFileButton.setText("Stop file log");
+      logFileButton.setToolTipText("Logging to " + logFile);
+    } else {
+      logFileButton.setText("Log to file...");
+      logFileButton.setToolTipText("Write all log lines to file, not only the history");
+    }
+  }
+
+  private void closeLogFile() {
+    synchronized (logFileLock) {
+      if (logFileWriter != null) {
+        try {
+          logFileWriter.close();
+        } catch (IOException e) {
+          logger.fatal("Could not close log file: " + logFile + ": " + e.getMessage());
+        }
+      }
+      logFileWriter = null;
+      logFile = null;
+    }
+  }
+
+  private void applyFilter() {
+    String newFilterText = filterTextField.getText();
+    if (newFilterText == null) {
+      newFilterText = "";
+    }
+    int newMoteID = -1;
+    String idText = moteIDTextField.getText();
+    if (idText != null && idText.trim().length() > 0) {
+      try {
+        newMoteID = Integer.parseInt(idText.trim());
+      } catch (NumberFormatException e) {
+        logger.fatal("Bad mote ID: " + idText);
+        moteIDTextField.setText(filterMoteID < 0 ? "" : "" + filterMoteID);
+        return;
+      }
+    }
+    if (newFilterText.equals(filterText) && newMoteID == filterMoteID) {
+      return;
+    }
+    setFilter(newFilterText, newMoteID);
+    refreshTextArea(true);
+  }
+
+  private void setFilter(String text, int moteID) {
+    filterText = text;
+    filterMoteID = moteID;
+    if (filterText.length() == 0) {
+      filterPattern = null;
+    } else {
+      try {
+        filterPattern = Pattern.compile(filterText);
+      } catch (PatternSyntaxException e) {
+        /* Not a regular expression: match as plain string */
+        filterPattern = Pattern.compile(Pattern.quote(filterText));
+      }
+    }
+  }
+
+  /**
+   * Updates text area with matching log lines.
+   * Must be called from the event dispatch thread.
+   *
+   * @param rebuild If true, the text area is rebuilt from history.
+   * Otherwise only lines added since last refresh are appended.
+   */
+  private void refreshTextArea(boolean rebuild) {
+    LogHistory history = this.history;
+    long to = history.getAdded();
+    if (!rebuild && to == displayedEntry) {
+      return;
+    }
+
+    StringBuilder sb = new StringBuilder();
+    int lines = history.appendMatching(rebuild ? 0 : displayedEntry, to,
+        filterMoteID, filterPattern, sb);
+    displayedEntry = to;
+
+    if (rebuild) {
+      logTextArea.setText(sb.toString());
+      displayedLines = lines;
+    } else if (lines > 0) {
+      if (logTextArea.getDocument().getLength() > 0) {
+        logTextArea.append("\n");
+      }
+      logTextArea.append(sb.toString());
+      displayedLines += lines;
+    } else {
+      return;
+    }
+
+    /* Show no more lines than kept in history */
+    int excess = displayedLines - history.getCapacity();
+    if (excess > 0) {
+      try {
+        logTextArea.replaceRange(null, 0, logTextArea.getLineEndOffset(excess - 1));
+        displayedLines -= excess;
+      } catch (BadLocationException e) {
+        logger.fatal("Error when trimming log: " + e.getMessage());
+      }
+    }
+    logTextArea.setCaretPosition(logTextArea.getDocument().getLength());
+  }
+
   public void closePlugin() {
     // Remove log observer from all log interfaces
     for (int i=0; i < simulation.getMotesCount(); i++) {
@@ -265,6 +428,8 @@ public class LogListener extends VisPlugin {
         simulation.getMote(i).getInterfaces().getLog().deleteObserver(logObserver);
       }
     }
+    refreshTimer.stop();
+    closeLogFile();
   }
 
   public Collection<Element> getConfigXML() {
@@ -276,32 +441,213 @@ public class LogListener extends VisPlugin {
     element = new Element("filter");
     element.setText(filterText);
     config.add(element);
+    if (filterMoteID >= 0) {
+      element = new Element("moteid");
+      element.setText("" + filterMoteID);
+      config.add(element);
+    }
     element = new Element("history");
-    element.setText("" + logCache.length);
+    element.setText("" + history.getCapacity());
     config.add(element);
+    if (logFile != null) {
+      element = new Element("logfile");
+      element.setText(logFile.getPath());
+      config.add(element);
+    }
 
     return config;
   }
 
   public boolean setConfigXML(Collection<Element> configXML, boolean visAvailable) {
+    String newFilterText = filterText;
+    int newMoteID = filterMoteID;
 
     for (Element element : configXML) {
       String name = element.getName();
       if ("filter".equals(name)) {
-        filterText = element.getText();
-        filterTextField.setText(filterText);
+        newFilterText = element.getText();
+      } else if ("moteid".equals(name)) {
+        try {
+          newMoteID = Integer.parseInt(element.getText().trim());
+        } catch (NumberFormatException e) {
+          // Ignore malformed mote ID
+        }
       } else if ("history".equals(name)) {
         try {
           int size = Integer.parseInt(element.getText().trim());
-          logCache = new String[size];
-          logPos = 0;
+          if (size > 0) {
+            history = new LogHistory(size);
+          }
         } catch (Exception e) {
           // Ignore malformed history size
         }
+      } else if ("logfile".equals(name)) {
+        if (!GUI.isVisualizedInApplet()) {
+          setLogFile(new File(element.getText()));
+        }
       }
     }
 
+    filterTextField.setText(newFilterText);
+    moteIDTextField.setText(newMoteID < 0 ? "" : "" + newMoteID);
+    setFilter(newFilterText, newMoteID);
+    refreshTextArea(true);
+
     return true;
   }
 
+  /**
+   * Fixed-size history of the most recent log lines.
+   *
+   * Each line is given an increasing entry number, and entry n is stored at
+   * position n % capacity. Entry numbers are also indexed per mote ID, so
+   * that filtering on a mote ID only visits that mote's lines.
+   */
+  private static class LogHistory {
+    private final int capacity;
+    private final int[] times;
+    private final int[] moteIDs;
+    private final String[] messages;
+    private long added = 0;
+
+    private final HashMap<Integer, EntryIndex> moteIndex = new HashMap<Integer, EntryIndex>();
+
+    public LogHistory(int capacity) {
+      this.capacity = capacity;
+      times = new int[capacity];
+      moteIDs = new int[capacity];
+      messages = new String[capacity];
+    }
+
+    public int getCapacity() {
+      return capacity;
+    }
+
+    /**
+     * @return Number of lines ever added, i.e. the next entry number
+     */
+    public synchronized long getAdded() {
+      return added;
+    }
+
+    private long getOldest() {
+      return Math.max(0, added - capacity);
+    }
+
+    public synchronized void add(int time, int moteID, String message) {
+      int pos = (int) (added % capacity);
+      times[pos] = time;
+      moteIDs[pos] = moteID;
+      messages[pos] = message;
+
+      EntryIndex index = moteIndex.get(moteID);
+      if (index == null) {
+        index = new EntryIndex();
+        moteIndex.put(moteID, index);
+      }
+      index.add(added, getOldest());
+      added++;
+
+      if (added % capacity == 0) {
+        /* Drop indexes of motes whose lines have all been overwritten */
+        long oldest = getOldest();
+        Iterator<EntryIndex> it = moteIndex.values().iterator();
+        while (it.hasNext()) {
+          if (it.next().purge(oldest)) {
+            it.remove();
+          }
+        }
+      }
+    }
+
+    /**
+     * Appends matching lines to given string builder, separated by newlines.
+     * Lines no longer in history are skipped.
+     *
+     * @param from First entry number
+     * @param to Entry number after last entry
+     * @param moteID Mote ID, or -1 for all motes
+     * @param pattern Pattern found in matching lines, or null
+     * @param sb String builder
+     * @return Number of appended lines
+     */
+    public synchronized int appendMatching(long from, long to, int moteID,
+        Pattern pattern, StringBuilder sb) {
+      from = Math.max(from, getOldest());
+      int count = 0;
+      if (moteID < 0) {
+        for (long entry = from; entry < to; entry++) {
+          count += appendIfMatching(entry, pattern, sb);
+        }
+      } else {
+        EntryIndex index = moteIndex.get(moteID);
+        if (index == null) {
+          return 0;
+        }
+        for (int i = index.find(from); i < index.end && index.entries[i] < to; i++) {
+          count += appendIfMatching(index.entries[i], pattern, sb);
+        }
+      }
+      return count;
+    }
+
+    private int appendIfMatching(long entry, Pattern pattern, StringBuilder sb) {
+      int pos = (int) (entry % capacity);
+      String line = formatLine(times[pos], moteIDs[pos], messages[pos]);
+      if (pattern != null && !pattern.matcher(line).find()) {
+        return 0;
+      }
+      if (sb.length() > 0) {
+        sb.append('\n');
+      }
+      sb.append(line);
+      return 1;
+    }
+  }
+
+  /**
+   * Sorted entry numbers of a single mote.
+   * Entries no longer in history are dropped when the array is full.
+   */
+  private static class EntryIndex {
+    private long[] entries = new long[16];
+    private int start = 0;
+    private int end = 0;
+
+    public void add(long entry, long oldest) {
+      if (end == entries.length) {
+        purge(oldest);
+        if (end > entries.length / 2) {
+          entries = Arrays.copyOf(entries, entries.length * 2);
+        }
+      }
+      entries[end++] = entry;
+    }
+
+    /**
+     * Drops entries older than given entry number.
+     *
+     * @param oldest Oldest entry number in history
+     * @return True if index is empty
+     */
+    public boolean purge(long oldest) {
+      while (start < end && entries[start] < oldest) {
+        start++;
+      }
+      System.arraycopy(entries, start, entries, 0, end - start);
+      end -= start;
+      start = 0;
+      return end == 0;
+    }
+
+    /**
+     * @param entry Entry number
+     * @return Position of first entry number not less than given
+     */
+    public int find(long entry) {
+      int i = Arrays.binarySearch(entries, start, end, entry);
+      return i >= 0 ? i : -i - 1;
+    }
+  }
+
 }
@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2008, Swedish Institute of Computer Science.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * $Id$
+ */
+
+package se.sics.cooja.plugins;
+
+import java.util.Hashtable;
+import se.sics.cooja.*;
+
+/**
+ * Java-based test script, an alternative to JavaScript test scripts.
+ * Avoids the script interpreter when scanning large amounts of log output.
+ *
+ * A script class is selected by script code consisting of a single line
+ * <code>java:[class name]</code>, and must have a public no-argument
+ * constructor. The class is loaded via the GUI, i.e. it may be part of a
+ * project directory.
+ *
+ * @see LogScriptEngine
+ * @author Fredrik sterlind
+ */
+public abstract class LogScript {
+
+  /**
+   * Shared storage, corresponds to the JavaScript "global" variable.
+   */
+  protected Hashtable<Object, Object> global = new Hashtable<Object, Object>();
+
+  private LogScriptEngine engine = null;
+
+  void setEngine(LogScriptEngine engine) {
+    this.engine = engine;
+  }
+
+  /**
+   * Called once, before the first log message.
+   */
+  public void init() {
+  }
+
+  /**
+   * Called on every mote log message.
+   *
+   * @param mote Mote
+   * @param id Mote ID
+   * @param msg Log message
+   */
+  public abstract void update(Mote mote, int id, String msg);
+
+  /**
+   * @return Observed simulation
+   */
+  protected Simulation getSimulation() {
+    return engine.getSimulation();
+  }
+
+  /**
+   * Writes to script log.
+   *
+   * @param msg Message
+   */
+  protected void log(String msg) {
+    engine.scriptLog(msg);
+  }
+
+  protected void testOK() {
+    engine.reportTestResult(true);
+  }
+
+  protected void testFailed() {
+    engine.reportTestResult(false);
+  }
+
+}
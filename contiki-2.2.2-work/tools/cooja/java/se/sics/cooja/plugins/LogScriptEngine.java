@@ -31,18 +31,26 @@
 
 package se.sics.cooja.plugins;
 
-import java.lang.reflect.UndeclaredThrowableException;
 import java.util.*;
 import javax.swing.*;
 import javax.script.*;
 
 import org.apache.log4j.Logger;
 import se.sics.cooja.*;
+import se.sics.cooja.interfaces.Log;
 
 /**
  * Executes JavaScripts on mote logs.
  *
+ * The script code is the body of a function called on every log message,
+ * with the variables mote, id and msg set. The function is compiled once,
+ * if supported by the script engine.
+ *
+ * Script code consisting of a single line <code>java:[class name]</code>
+ * instead runs the given Java test class.
+ *
  * @see ScriptRunner
+ * @see LogScript
  *
  * @author Fredrik Osterlind
  */
@@ -50,8 +58,9 @@ public class LogScriptEngine {
   private static final long serialVersionUID = 1L;
   private static Logger logger = Logger.getLogger(LogScriptEngine.class);
 
-  private ScriptEngineManager factory = new ScriptEngineManager();
-  private ScriptEngine engine = factory.getEngineByName("JavaScript");
+  private static final String JAVA_PREFIX = "java:";
+
+  private ScriptEngine engine = null;
 
   private Observer logObserver = null;
   private Observer simObserver = null;
@@ -59,7 +68,14 @@ public class LogScriptEngine {
 
   private GUI gui;
 
-  private Observer scriptedLogObserver = null;
+  /* Observed simulation, or null to follow the current simulation of the GUI */
+  private Simulation simulation = null;
+
+  private Boolean testResult = null;
+
+  /* Compiled JavaScript function, or Java test class */
+  private ScriptFunction scriptFunction = null;
+  private LogScript javaScript = null;
 
   private Observer scriptLogObserver = null;
 
@@ -73,15 +89,85 @@ public class LogScriptEngine {
     public void testFailed();
   }
 
+  /**
+   * Called on every log message, implemented by the compiled script.
+   */
+  public interface ScriptFunction {
+    public void update(Mote mote, int id, String msg);
+  }
+
+  /**
+   * Creates a script engine observing the given simulation only.
+   * When the script reports a test result, the simulation is stopped instead
+   * of quitting COOJA.
+   *
+   * @see #getTestResult()
+   * @param simulation Simulation
+   * @param code Script code
+   */
+  public LogScriptEngine(Simulation simulation, String code) {
+    this(simulation.getGUI(), simulation, code);
+  }
+
+  /**
+   * Creates a script engine running the given Java test script on the given
+   * simulation only.
+   *
+   * @param simulation Simulation
+   * @param script Test script
+   */
+  public LogScriptEngine(Simulation simulation, LogScript script) {
+    this(simulation.getGUI(), simulation, script);
+  }
+
+  public LogScriptEngine(GUI gui, LogScript script) {
+    this(gui, null, script);
+  }
+
   public LogScriptEngine(GUI gui, String code) {
+    this(gui, null, code);
+  }
+
+  /* The simulation is set before the script is initialized */
+  private LogScriptEngine(GUI gui, Simulation simulation, LogScript script) {
+    this.gui = gui;
+    this.simulation = simulation;
+    createObservers();
+    setJavaScript(script);
+  }
+
+  private LogScriptEngine(GUI gui, Simulation simulation, String code) {
     this.gui = gui;
+    this.simulation = simulation;
     this.scriptCode = code;
+    createObservers();
+
+    /* Create script engine */
+    try {
+      String trimmed = scriptCode.trim();
+      if (trimmed.startsWith(JAVA_PREFIX)) {
+        createJavaScript(trimmed.substring(JAVA_PREFIX.length()).trim());
+      } else {
+        createScriptEngine(scriptCode);
+      }
+    } catch (ScriptException e) {
+      e.printStackTrace();
+      if (GUI.isVisualized()) {
+        JOptionPane.showMessageDialog(GUI.getTopParentContainer(),
+            "See console for more information.",
+            "Script error", JOptionPane.ERROR_MESSAGE);
+      }
+      unregisterLogObserver();
+    }
+  }
+
+  private void createObservers() {
 
     /* Create GUI observer: keeps track of new simulations */
     guiObserver = new Observer() {
       public void update(Observable obs, Object obj) {
-        if (LogScriptEngine.this.gui.getSimulation() != null) {
-          LogScriptEngine.this.gui.getSimulation().addObserver(simObserver);
+        if (getSimulation() != null) {
+          getSimulation().addObserver(simObserver);
         }
 
         registerLogObserver();
@@ -98,41 +184,59 @@ public class LogScriptEngine {
     /* Create log observer: watches all log interfaces */
     logObserver = new Observer() {
       public void update(Observable obs, Object obj) {
+        if (obj == null) {
+          return;
+        }
+
+        /* Pass mote ID and message as plain arguments */
+        Mote mote = (Mote) obj;
+        int id = mote.getInterfaces().getMoteID().getMoteID();
+        String msg = ((Log) obs).getLastLogMessage();
         try {
-          if (scriptedLogObserver != null) {
-            scriptedLogObserver.update(obs, obj);
+          if (javaScript != null) {
+            javaScript.update(mote, id, msg);
+          } else if (scriptFunction != null) {
+            scriptMote.setMoteMsg(mote, id, msg);
+            scriptFunction.update(mote, id, msg);
           }
-        } catch (UndeclaredThrowableException e) {
+        } catch (RuntimeException e) {
+          /* Script errors are wrapped in UndeclaredThrowableException */
           e.printStackTrace();
-          JOptionPane.showMessageDialog(GUI.getTopParentContainer(),
-              "See console for more information.",
-              "Script error", JOptionPane.ERROR_MESSAGE);
+          if (GUI.isVisualized()) {
+            JOptionPane.showMessageDialog(GUI.getTopParentContainer(),
+                "See console for more information.",
+                "Script error", JOptionPane.ERROR_MESSAGE);
+          }
           unregisterLogObserver();
         }
       }
     };
-
-    /* Create script engine */
-    try {
-      createScriptEngine(scriptCode);
-    } catch (ScriptException e) {
-      e.printStackTrace();
-      JOptionPane.showMessageDialog(GUI.getTopParentContainer(),
-          "See console for more information.",
-          "Script error", JOptionPane.ERROR_MESSAGE);
-      unregisterLogObserver();
-    }
   }
 
   public void setScriptLogObserver(Observer observer) {
     scriptLogObserver = observer;
   }
 
+  /**
+   * @return True if test succeeded, false if test failed, or null if script
+   * has not yet reported a test result
+   */
+  public Boolean getTestResult() {
+    return testResult;
+  }
+
+  Simulation getSimulation() {
+    if (simulation != null) {
+      return simulation;
+    }
+    return gui.getSimulation();
+  }
+
   private void unregisterLogObserver() {
     /* Unregister mote log observer */
-    if (logObserver != null && gui.getSimulation() != null) {
-      for (int i=0; i < gui.getSimulation().getMotesCount(); i++) {
-        Mote mote = gui.getSimulation().getMote(i);
+    if (logObserver != null && getSimulation() != null) {
+      for (int i=0; i < getSimulation().getMotesCount(); i++) {
+        Mote mote = getSimulation().getMote(i);
         if (mote.getInterfaces().getLog() != null) {
           mote.getInterfaces().getLog().deleteObserver(logObserver);
         }
@@ -142,9 +246,9 @@ public class LogScriptEngine {
 
   private void registerLogObserver() {
     /* Register mote log observer */
-    if (logObserver != null && gui.getSimulation() != null) {
-      for (int i=0; i < gui.getSimulation().getMotesCount(); i++) {
-        Mote mote = gui.getSimulation().getMote(i);
+    if (logObserver != null && getSimulation() != null) {
+      for (int i=0; i < getSimulation().getMotesCount(); i++) {
+        Mote mote = getSimulation().getMote(i);
         if (mote.getInterfaces().getLog() != null) {
           mote.getInterfaces().getLog().addObserver(logObserver);
         }
@@ -156,10 +260,12 @@ public class LogScriptEngine {
    * Activate script
    */
   public void activateScript() {
-    gui.addObserver(guiObserver);
+    if (simulation == null) {
+      gui.addObserver(guiObserver);
+    }
 
-    if (gui.getSimulation() != null) {
-      gui.getSimulation().addObserver(simObserver);
+    if (getSimulation() != null) {
+      getSimulation().addObserver(simObserver);
     }
 
     registerLogObserver();
@@ -171,53 +277,65 @@ public class LogScriptEngine {
   public void deactiveScript() {
     gui.deleteObserver(guiObserver);
 
-    if (gui.getSimulation() != null) {
-      gui.getSimulation().deleteObserver(simObserver);
+    if (getSimulation() != null) {
+      getSimulation().deleteObserver(simObserver);
     }
 
     unregisterLogObserver();
   }
 
+  private void createJavaScript(String className) throws ScriptException {
+    Class<? extends LogScript> scriptClass =
+      gui.tryLoadClass(this, LogScript.class, className);
+    if (scriptClass == null) {
+      throw new ScriptException("Could not load test class: " + className);
+    }
+    try {
+      setJavaScript(scriptClass.newInstance());
+    } catch (Exception e) {
+      throw new ScriptException("Could not create test class: " + className + ": " + e);
+    }
+  }
+
+  private void setJavaScript(LogScript script) {
+    script.setEngine(this);
+    script.init();
+    javaScript = script;
+  }
+
   private void createScriptEngine(String code) throws ScriptException {
-    engine.eval("function update(obs, obj) { " +
-        "if (obj != null) {" +
-        "  mote = obj;" +
-        "  id = mote.getInterfaces().getMoteID().getMoteID();" +
-        "  msg = mote.getInterfaces().getLog().getLastLogMessage();" +
-        "  node.setMoteMsg(mote, msg);" +
-        "} else {" +
-        "  return;" +
-        "} " +
-        code +
-    " };");
+    engine = new ScriptEngineManager().getEngineByName("JavaScript");
+    if (engine == null) {
+      throw new ScriptException("No JavaScript engine available");
+    }
+
+    String function =
+      "function update(m, i, s) { " +
+      "mote = m; id = i; msg = s; " +
+      code +
+      " };";
+    if (engine instanceof Compilable) {
+      ((Compilable) engine).compile(function).eval();
+    } else {
+      engine.eval(function);
+    }
 
     Invocable inv = (Invocable) engine;
-    scriptedLogObserver = inv.getInterface(Observer.class);
+    scriptFunction = inv.getInterface(ScriptFunction.class);
+    if (scriptFunction == null) {
+      throw new ScriptException("Script function not found");
+    }
 
     /* Create script logger */
     engine.put("log", new ScriptLog() {
       public void log(String msg) {
-        if (scriptLogObserver != null) {
-          scriptLogObserver.update(null, msg);
-        }
+        scriptLog(msg);
       }
       public void testOK() {
-        log("TEST OK\n");
-
-        if (GUI.isVisualized()) {
-          log("[if test was run without visualization, COOJA would now have been terminated]\n");
-        } else {
-          gui.doQuit(false);
-        }
+        reportTestResult(true);
       }
       public void testFailed() {
-        log("TEST FAILED\n");
-
-        if (GUI.isVisualized()) {
-          log("[if test was run without visualization, COOJA would now have been terminated]\n");
-        } else {
-          gui.doQuit(false);
-        }
+        reportTestResult(false);
       }
     });
 
@@ -226,9 +344,25 @@ public class LogScriptEngine {
 
     scriptMote = new ScriptMote();
     engine.put("node", scriptMote);
+  }
 
-    /* TODO Test script */
-    logObserver.update(null, null);
+  void scriptLog(String msg) {
+    if (scriptLogObserver != null) {
+      scriptLogObserver.update(null, msg);
+    }
+  }
+
+  void reportTestResult(boolean ok) {
+    scriptLog(ok ? "TEST OK\n" : "TEST FAILED\n");
+    testResult = Boolean.valueOf(ok);
+
+    if (simulation != null) {
+      simulation.stopSimulation();
+    } else if (GUI.isVisualized()) {
+      scriptLog("[if test was run without visualization, COOJA would now have been terminated]\n");
+    } else {
+      gui.doQuit(false);
+    }
   }
 
 }
@@ -0,0 +1,242 @@
+/*
+ * Copyright (c) 2008, Swedish Institute of Computer Science.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * $Id$
+ */
+
+package se.sics.cooja.plugins;
+
+import java.awt.BorderLayout;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.io.*;
+import java.util.*;
+import java.util.List;
+import javax.swing.*;
+import javax.swing.Timer;
+import javax.swing.table.AbstractTableModel;
+
+import se.sics.cooja.*;
+import se.sics.cooja.SimulationProfiler.Category;
+import se.sics.cooja.SimulationProfiler.Entry;
+
+/**
+ * Shows where simulation wall clock time is spent: per phase, mote type,
+ * mote, mote interface class, radio event and event type.
+ *
+ * @see SimulationProfiler
+ * @author Fredrik Osterlind
+ */
+@ClassDescription("Profiler")
+@PluginType(PluginType.SIM_PLUGIN)
+public class Profiler extends VisPlugin {
+  private static final long serialVersionUID = 1L;
+
+  private static final int REFRESH_INTERVAL = 1000;
+
+  private static final String[] COLUMN_NAMES = {
+    "Name", "Count", "Total (ms)", "Average (us)", "Share (%)"
+  };
+
+  private Simulation simulation;
+  private SimulationProfiler profiler = new SimulationProfiler();
+
+  private Category category = Category.PHASE;
+  private List<Entry> entries = new ArrayList<Entry>();
+  private long profiledTime = 0;
+
+  private AbstractTableModel model;
+  private JButton startButton;
+  private JLabel statusLabel;
+  private Timer refreshTimer;
+
+  /**
+   * Creates a new profiler window. Profiling is started immediately.
+   *
+   * @param simulationToProfile Simulation to profile
+   */
+  public Profiler(Simulation simulationToProfile, GUI gui) {
+    super("Profiler", gui);
+    simulation = simulationToProfile;
+
+    model = new AbstractTableModel() {
+      public String getColumnName(int col) {
+        return COLUMN_NAMES[col];
+      }
+
+      public int getRowCount() {
+        return entries.size();
+      }
+
+      public int getColumnCount() {
+        return COLUMN_NAMES.length;
+      }
+
+      public Object getValueAt(int row, int col) {
+        Entry e = entries.get(row);
+        switch (col) {
+        case 0:
+          return e.name;
+        case 1:
+          return e.count;
+        case 2:
+          return String.format("%.1f", e.nanos/1e6);
+        case 3:
+          return String.format("%.2f", e.count > 0 ? e.nanos/1e3/e.count : 0.0);
+        default:
+          return String.format("%.1f", profiledTime > 0 ? 100.0*e.nanos/profiledTime : 0.0);
+        }
+      }
+    };
+    JTable table = new JTable(model);
+    table.getColumnModel().getColumn(0).setPreferredWidth(250);
+
+    final JComboBox categoryBox = new JComboBox(Category.values());
+    categoryBox.addActionListener(new ActionListener() {
+      public void actionPerformed(ActionEvent e) {
+        category = (Category) categoryBox.getSelectedItem();
+        refresh();
+      }
+    });
+
+    startButton = new JButton("Stop");
+    startButton.addActionListener(new ActionListener() {
+      public void actionPerformed(ActionEvent e) {
+        if (isProfiling()) {
+          stopProfiling();
+        } else {
+          startProfiling();
+        }
+      }
+    });
+
+    JButton resetButton = new JButton("Reset");
+    resetButton.addActionListener(new ActionListener() {
+      public void actionPerformed(ActionEvent e) {
+        profiler.reset();
+        refresh();
+      }
+    });
+
+    JButton saveButton = new JButton("Save");
+    saveButton.addActionListener(new ActionListener() {
+      public void actionPerformed(ActionEvent e) {
+        JFileChooser fc = new JFileChooser();
+        if (fc.showSaveDialog(GUI.getTopParentContainer()) != JFileChooser.APPROVE_OPTION) {
+          return;
+        }
+        File file = fc.getSelectedFile();
+        try {
+          PrintStream out = new PrintStream(new FileOutputStream(file));
+          profiler.print(out, Integer.MAX_VALUE);
+          out.close();
+        } catch (IOException ex) {
+          JOptionPane.showMessageDialog(GUI.getTopParentContainer(),
+              "Could not write to file: " + file, "Save failed", JOptionPane.ERROR_MESSAGE);
+        }
+      }
+    });
+    if (GUI.isVisualizedInApplet()) {
+      saveButton.setToolTipText("Not available in applet");
+      saveButton.setEnabled(false);
+    }
+
+    statusLabel = new JLabel();
+
+    JPanel controlPanel = new JPanel();
+    controlPanel.setLayout(new BoxLayout(controlPanel, BoxLayout.X_AXIS));
+    controlPanel.add(categoryBox);
+    controlPanel.add(Box.createHorizontalStrut(5));
+    controlPanel.add(startButton);
+    controlPanel.add(resetButton);
+    controlPanel.add(saveButton);
+    controlPanel.add(Box.createHorizontalStrut(5));
+    controlPanel.add(statusLabel);
+    controlPanel.add(Box.createHorizontalGlue());
+
+    getContentPane().add(BorderLayout.NORTH, controlPanel);
+    getContentPane().add(BorderLayout.CENTER, new JScrollPane(table));
+
+    refreshTimer = new Timer(REFRESH_INTERVAL, new ActionListener() {
+      public void actionPerformed(ActionEvent e) {
+        refresh();
+      }
+    });
+    refreshTimer.start();
+
+    startProfiling();
+
+    pack();
+    setSize(600, 300);
+  }
+
+  private boolean isProfiling() {
+    return simulation.getEventTrace() == profiler;
+  }
+
+  private void startProfiling() {
+    if (simulation.getEventTrace() != null && !isProfiling()) {
+      /* Simulation is already traced, for example to file */
+      startButton.setText("Start");
+      refresh();
+      return;
+    }
+    simulation.setEventTrace(profiler);
+    startButton.setText("Stop");
+    refresh();
+  }
+
+  private void stopProfiling() {
+    if (isProfiling()) {
+      simulation.setEventTrace(null);
+    }
+    startButton.setText("Start");
+    refresh();
+  }
+
+  private void refresh() {
+    entries = profiler.getEntries(category);
+    profiledTime = profiler.getProfiledTime();
+    String status;
+    if (isProfiling()) {
+      status = "Profiling";
+    } else if (simulation.getEventTrace() != null) {
+      status = "Stopped, simulation is traced by other";
+    } else {
+      status = "Stopped";
+    }
+    statusLabel.setText(status + ": " + String.format("%.1f ms", profiledTime/1e6));
+    model.fireTableDataChanged();
+  }
+
+  public void closePlugin() {
+    refreshTimer.stop();
+    stopProfiling();
+  }
+
+}
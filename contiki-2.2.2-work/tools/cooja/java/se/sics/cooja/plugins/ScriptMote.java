@@ -53,6 +53,12 @@ public class ScriptMote {
     lastMsg = msg;
   }
 
+  public void setMoteMsg(Mote mote, int id, String msg) {
+    this.mote = mote;
+    this.id = id;
+    lastMsg = msg;
+  }
+
   public void write(String data) {
     if (mote == null) return;
     SerialPort serialPort = (SerialPort) mote.getInterfaces().getInterfaceOfType(Log.class);
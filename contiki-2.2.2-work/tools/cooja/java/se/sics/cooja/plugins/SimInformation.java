@@ -55,6 +55,7 @@ public class SimInformation extends VisPlugin {
   private JLabel labelSimTime;
   private JLabel labelNrMotes;
   private JLabel labelNrMoteTypes;
+  private JLabel labelMemory;
 
   private Observer simObserver;
   private Observer tickObserver;
@@ -164,6 +165,27 @@ public class SimInformation extends VisPlugin {
 
     mainPane.add(Box.createRigidArea(new Dimension(0,5)));
 
+    // Mote memory
+    smallPane = new JPanel();
+    smallPane.setAlignmentX(Component.LEFT_ALIGNMENT);
+    smallPane.setLayout(new BoxLayout(smallPane, BoxLayout.X_AXIS));
+    label = new JLabel("Mote memory (kB)");
+    label.setPreferredSize(new Dimension(LABEL_WIDTH,LABEL_HEIGHT));
+    smallPane.add(label);
+
+    smallPane.add(Box.createHorizontalStrut(10));
+    smallPane.add(Box.createHorizontalGlue());
+
+    label = new JLabel();
+    label.setText(""  + simulation.getMoteMemorySize()/1024);
+
+    labelMemory = label;
+    smallPane.add(label);
+
+    mainPane.add(smallPane);
+
+    mainPane.add(Box.createRigidArea(new Dimension(0,5)));
+
 
 
     // Radio Medium type
@@ -204,6 +226,7 @@ public class SimInformation extends VisPlugin {
         }
         labelNrMotes.setText(""  + simulation.getMotesCount());
         labelNrMoteTypes.setText(""  + simulation.getMoteTypes().size());
+        labelMemory.setText(""  + simulation.getMoteMemorySize()/1024);
 
       }
     });
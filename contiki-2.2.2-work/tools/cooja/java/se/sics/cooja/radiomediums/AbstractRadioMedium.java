@@ -31,6 +31,9 @@
 
 package se.sics.cooja.radiomediums;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.*;
 import org.apache.log4j.Logger;
 
@@ -46,17 +49,46 @@ import se.sics.cooja.interfaces.*;
  *
  * @author Fredrik Osterlind
  */
-public abstract class AbstractRadioMedium extends RadioMedium {
+public abstract class AbstractRadioMedium extends RadioMedium implements Snapshottable {
   private static Logger logger = Logger.getLogger(AbstractRadioMedium.class);
 
-  private Vector<Radio> registeredRadios = new Vector<Radio>();
+  private ArrayList<Radio> registeredRadios = new ArrayList<Radio>();
 
-  private Vector<RadioConnection> activeConnections = new Vector<RadioConnection>();
+  private RadioGrid radioGrid = new RadioGrid(100);
 
-  private Vector<RadioConnection> finishedConnections = new Vector<RadioConnection>();
+  /* Connection state of a radio */
+  private static class RadioState {
+    /* Active connection with radio as source, and its index in active connections */
+    RadioConnection transmitting = null;
+    int activeIndex = -1;
+
+    /* Active connection with radio as destination, if still receiving */
+    RadioConnection receiving = null;
+
+    /* Connections involving radio, may include finished connections */
+    ArrayList<RadioConnection> connections = new ArrayList<RadioConnection>();
+  }
+
+  private HashMap<Radio, RadioState> radioStates = new HashMap<Radio, RadioState>();
+
+  /* Active connections in start order. Slots of finished connections are
+   * null until compacted */
+  private RadioConnection[] activeConnections = new RadioConnection[16];
+  private int activeConnectionsEnd = 0;
+  private int activeConnectionsCount = 0;
+
+  /* Copy of active connections, or null if changed since last copied */
+  private RadioConnection[] activeConnectionsArray = new RadioConnection[0];
+  private final Object activeConnectionsLock = new Object();
+
+  private ArrayList<RadioConnection> finishedConnections = new ArrayList<RadioConnection>();
 
   private boolean isTickObserver = false;
 
+  private Simulation simulation;
+
+  private boolean incrementalSignalStrengths = false;
+
   private class RadioMediumObservable extends Observable {
     private void setRadioMediumChanged() {
       setChanged();
@@ -73,20 +105,113 @@ public abstract class AbstractRadioMedium extends RadioMedium {
    * @param simulation Simulation
    */
   public AbstractRadioMedium(Simulation simulation) {
+    this.simulation = simulation;
   }
 
   /**
    * @return All registered radios
    */
-  public Vector<Radio> getRegisteredRadios() {
+  public List<Radio> getRegisteredRadios() {
     return registeredRadios;
   }
 
   /**
+   * Returns registered radios within given range of given position in the XY
+   * plane, in registration order. Uses a spatial index, and should be
+   * preferred over iterating over all registered radios.
+   *
+   * Z coordinates are ignored: callers using three dimensional distances
+   * must still check the distance of each returned radio.
+   *
+   * @see #setRadioGridCellSize(double)
+   * @param center Center position
+   * @param range Maximum distance
+   * @return Registered radios within range
+   */
+  public Radio[] getRadiosInRange(Position center, double range) {
+    return radioGrid.getRadiosInRange(center, range);
+  }
+
+  /**
+   * Sets cell size of the spatial index used to find radios in range.
+   * Lookups are fastest when the cell size is close to the lookup range.
+   *
+   * @see #getRadiosInRange(Position, double)
+   * @param cellSize Cell side length
+   */
+  protected void setRadioGridCellSize(double cellSize) {
+    if (!(cellSize > 0) || Double.isInfinite(cellSize)) {
+      return;
+    }
+    if (cellSize != radioGrid.getCellSize()) {
+      radioGrid.setCellSize(cellSize);
+    }
+  }
+
+  /**
+   * Returns all active connections, in the order they were started.
+   * The returned array is not modified by the radio medium, and may be read
+   * from other threads.
+   *
    * @return All active connections
    */
-  public Vector<RadioConnection> getActiveConnections() {
-    return activeConnections;
+  public RadioConnection[] getActiveConnections() {
+    synchronized (activeConnectionsLock) {
+      if (activeConnectionsArray == null) {
+        RadioConnection[] conns = new RadioConnection[activeConnectionsCount];
+        int count = 0;
+        for (int i=0; i < activeConnectionsEnd; i++) {
+          if (activeConnections[i] != null) {
+            conns[count++] = activeConnections[i];
+          }
+        }
+        activeConnectionsArray = conns;
+      }
+      return activeConnectionsArray;
+    }
+  }
+
+  /**
+   * @param radio Radio
+   * @return Active connection transmitted by radio, or null
+   */
+  public RadioConnection getTransmittingConnection(Radio radio) {
+    RadioState state = radioStates.get(radio);
+    if (state == null) {
+      return null;
+    }
+    return state.transmitting;
+  }
+
+  /**
+   * @param radio Radio
+   * @return Active connection with radio as destination, or null
+   */
+  public RadioConnection getReceivingConnection(Radio radio) {
+    RadioState state = radioStates.get(radio);
+    if (state == null || state.receiving == null) {
+      return null;
+    }
+    RadioConnection conn = state.receiving;
+    if (!isActive(conn) || !conn.isDestination(radio)) {
+      /* Connection finished, or radio no longer receiving */
+      state.receiving = null;
+      return null;
+    }
+    return conn;
+  }
+
+  private boolean isActive(RadioConnection conn) {
+    return getTransmittingConnection(conn.getSource()) == conn;
+  }
+
+  private RadioState getRadioState(Radio radio) {
+    RadioState state = radioStates.get(radio);
+    if (state == null) {
+      state = new RadioState();
+      radioStates.put(radio, state);
+    }
+    return state;
   }
 
   /**
@@ -106,13 +231,295 @@ public abstract class AbstractRadioMedium extends RadioMedium {
    */
   abstract public void updateSignalStrengths();
 
+  /**
+   * Returns true if this radio medium implements incremental signal strength
+   * updates.
+   *
+   * @see #setIncrementalSignalStrengths(boolean)
+   * @see #combineSignalStrengths(double, double)
+   * @see #getBaseSignalStrength(Radio)
+   * @see #getSignalStrength(RadioConnection, Radio)
+   * @return True if incremental signal strength updates are supported
+   */
+  protected boolean supportsIncrementalSignalStrengths() {
+    return false;
+  }
+
+  /**
+   * Returns signal strength of given radio when not involved in any
+   * connection. Used by incremental signal strength updates.
+   *
+   * @param radio Radio
+   * @return Signal strength
+   */
+  protected double getBaseSignalStrength(Radio radio) {
+    return Double.NaN;
+  }
+
+  /**
+   * Returns signal strength contributed by given connection at given radio.
+   * The radio is the source, a destination or interfered by the connection.
+   * Used by incremental signal strength updates.
+   *
+   * @param conn Active connection
+   * @param radio Radio
+   * @return Signal strength, or NaN if connection does not contribute
+   */
+  protected double getSignalStrength(RadioConnection conn, Radio radio) {
+    return Double.NaN;
+  }
+
+  /**
+   * Returns signal strength of given connection at given radio, as
+   * calculated by this radio medium.
+   *
+   * @param conn Connection
+   * @param radio Destination or interfered radio
+   * @return Signal strength, or NaN if not supported by this radio medium
+   */
+  public double getConnectionSignalStrength(RadioConnection conn, Radio radio) {
+    return getSignalStrength(conn, radio);
+  }
+
+  /**
+   * If true, radio events only update signal strengths of radios affected by
+   * the event, in radio mediums supporting it. The signal strength of a radio
+   * is then calculated from its base signal strength and the contributions
+   * of all active connections involving it, and is the same as with full
+   * updates.
+   *
+   * Radio mediums supporting incremental updates save this setting in their
+   * config as &lt;incremental_signal_strengths&gt;.
+   *
+   * @see #supportsIncrementalSignalStrengths()
+   * @param incremental Use incremental signal strength updates
+   */
+  public void setIncrementalSignalStrengths(boolean incremental) {
+    incrementalSignalStrengths = incremental;
+  }
+
+  /**
+   * @return True if incremental signal strength updates are enabled and
+   * supported
+   */
+  public boolean isIncrementalSignalStrengths() {
+    return incrementalSignalStrengths && supportsIncrementalSignalStrengths();
+  }
+
+  /**
+   * Updates signal strengths after a radio event.
+   * Recalculates all radios, or only the given radios in incremental mode.
+   *
+   * @param affectedRadios Radios affected by the event
+   */
+  private void updateSignalStrengths(Collection<Radio> affectedRadios) {
+    if (!isIncrementalSignalStrengths()) {
+      updateSignalStrengths();
+      return;
+    }
+
+    for (Radio radio: affectedRadios) {
+      updateSignalStrength(radio);
+    }
+  }
+
+  /**
+   * Combines a signal strength contribution of a connection with the signal
+   * strength calculated so far. Used by incremental signal strength updates,
+   * which must give the same result as updateSignalStrengths(): the
+   * contributions of connections with the radio as source or destination
+   * are combined first, then the contributions of connections interfering
+   * the radio, each in the order the connections were started.
+   *
+   * Keeps the strongest signal by default.
+   *
+   * @param signalStrength Signal strength so far
+   * @param contribution Contribution of next connection
+   * @return Combined signal strength
+   */
+  protected double combineSignalStrengths(double signalStrength, double contribution) {
+    return contribution > signalStrength ? contribution : signalStrength;
+  }
+
+  /**
+   * Recalculates signal strength of a single radio from the active
+   * connections involving it.
+   *
+   * @param radio Radio
+   */
+  private void updateSignalStrength(Radio radio) {
+    double signalStrength = getBaseSignalStrength(radio);
+    boolean interfered = false;
+
+    RadioState state = radioStates.get(radio);
+    if (state != null) {
+      ArrayList<RadioConnection> connections = state.connections;
+      Iterator<RadioConnection> iterator = connections.iterator();
+      while (iterator.hasNext()) {
+        RadioConnection conn = iterator.next();
+        if (!isActive(conn) || (conn.getSource() != radio
+            && !conn.isInterfered(radio) && !conn.isDestination(radio))) {
+          /* Connection finished, or radio no longer involved */
+          iterator.remove();
+        }
+      }
+
+      /* Sources and destinations first, then interfered radios */
+      for (RadioConnection conn: connections) {
+        if (!conn.isInterfered(radio)) {
+          signalStrength = addSignalStrength(signalStrength, conn, radio);
+        }
+      }
+      for (RadioConnection conn: connections) {
+        if (conn.isInterfered(radio)) {
+          signalStrength = addSignalStrength(signalStrength, conn, radio);
+          interfered = true;
+        }
+      }
+    }
+
+    radio.setCurrentSignalStrength(signalStrength);
+
+    if (interfered && !radio.isInterfered()) {
+      // Set to interfered again
+      radio.interfereAnyReception();
+    }
+  }
+
+  private double addSignalStrength(double signalStrength, RadioConnection conn, Radio radio) {
+    double contribution = getSignalStrength(conn, radio);
+    if (Double.isNaN(contribution)) {
+      return signalStrength;
+    }
+    return combineSignalStrengths(signalStrength, contribution);
+  }
+
+  /**
+   * Adds all radios involved in given connection to the given collection.
+   *
+   * @param conn Connection
+   * @param radios Radios
+   */
+  private static void addConnectionRadios(RadioConnection conn, Collection<Radio> radios) {
+    radios.add(conn.getSource());
+    for (Radio radio: conn.getDestinations()) {
+      radios.add(radio);
+    }
+    for (Radio radio: conn.getInterfered()) {
+      radios.add(radio);
+    }
+  }
+
+  /**
+   * Registers a new active connection.
+   *
+   * @param conn Connection
+   * @return Radios involved in connection
+   */
+  private Collection<Radio> addActiveConnection(RadioConnection conn) {
+    RadioState sourceState = getRadioState(conn.getSource());
+    if (sourceState.transmitting != null) {
+      endActiveConnection(sourceState.transmitting);
+    }
+
+    synchronized (activeConnectionsLock) {
+      if (activeConnectionsEnd == activeConnections.length) {
+        if (2*activeConnectionsCount > activeConnections.length) {
+          activeConnections = Arrays.copyOf(activeConnections, 2*activeConnections.length);
+        } else {
+          compactActiveConnections();
+        }
+      }
+      sourceState.transmitting = conn;
+      sourceState.activeIndex = activeConnectionsEnd;
+      activeConnections[activeConnectionsEnd++] = conn;
+      activeConnectionsCount++;
+      activeConnectionsArray = null;
+    }
+
+    for (Radio radio: conn.getDestinations()) {
+      getRadioState(radio).receiving = conn;
+    }
+
+    LinkedHashSet<Radio> radios = new LinkedHashSet<Radio>();
+    addConnectionRadios(conn, radios);
+    for (Radio radio: radios) {
+      ArrayList<RadioConnection> connections = getRadioState(radio).connections;
+      /* Drop finished connections */
+      Iterator<RadioConnection> iterator = connections.iterator();
+      while (iterator.hasNext()) {
+        if (!isActive(iterator.next())) {
+          iterator.remove();
+        }
+      }
+      if (!connections.contains(conn)) {
+        connections.add(conn);
+      }
+    }
+    return radios;
+  }
+
+  /**
+   * Moves active connections to the start of the active connections array,
+   * keeping their order. Called when the array is full but has many free
+   * slots, so the cost per started connection is constant.
+   */
+  private void compactActiveConnections() {
+    int count = 0;
+    for (int i=0; i < activeConnectionsEnd; i++) {
+      RadioConnection conn = activeConnections[i];
+      if (conn != null) {
+        activeConnections[i] = null;
+        activeConnections[count] = conn;
+        radioStates.get(conn.getSource()).activeIndex = count;
+        count++;
+      }
+    }
+    activeConnectionsEnd = count;
+  }
+
+  /**
+   * Removes an active connection, and ends reception at its destinations and
+   * interfered radios.
+   *
+   * @param conn Connection
+   */
+  private void endActiveConnection(RadioConnection conn) {
+    RadioState sourceState = radioStates.get(conn.getSource());
+    synchronized (activeConnectionsLock) {
+      activeConnections[sourceState.activeIndex] = null;
+      activeConnectionsCount--;
+      if (activeConnectionsCount == 0) {
+        activeConnectionsEnd = 0;
+      }
+      activeConnectionsArray = null;
+    }
+    sourceState.transmitting = null;
+    sourceState.activeIndex = -1;
+
+    for (Radio dstRadio : conn.getDestinations()) {
+      RadioState state = radioStates.get(dstRadio);
+      if (state != null && state.receiving == conn) {
+        state.receiving = null;
+      }
+      dstRadio.signalReceptionEnd();
+    }
+    for (Radio dstRadio : conn.getInterfered()) {
+      dstRadio.signalReceptionEnd();
+    }
+  }
+
   /**
    * Remove given radio from any active connections.
    * This method can be called if a radio node falls asleep or is removed.
    *
    * @param radio Radio
+   * @return Radios affected by removal
    */
-  private void removeFromActiveConnections(Radio radio) {
+  private Collection<Radio> removeFromActiveConnections(Radio radio) {
+    LinkedHashSet<Radio> affectedRadios = new LinkedHashSet<Radio>();
+    affectedRadios.add(radio);
+
     // Abort any reception
     if (radio.isReceiving()) {
       radio.interfereAnyReception();
@@ -120,26 +527,28 @@ public abstract class AbstractRadioMedium extends RadioMedium {
     }
 
     // Remove radio from all active connections
-    RadioConnection connToRemove = null;
-    for (RadioConnection conn : activeConnections) {
-      conn.removeDestination(radio);
-      conn.removeInterfered(radio);
-
-      if (conn.getSource() == radio) {
-        // Radio is currently transmitting
-        connToRemove = conn;
-        for (Radio dstRadio : conn.getDestinations()) {
-          dstRadio.interfereAnyReception();
-          dstRadio.signalReceptionEnd();
-        }
-        for (Radio dstRadio : conn.getInterfered()) {
-          dstRadio.signalReceptionEnd();
-        }
+    RadioState state = radioStates.get(radio);
+    if (state == null) {
+      return affectedRadios;
+    }
+    for (RadioConnection conn : state.connections) {
+      if (isActive(conn)) {
+        conn.removeDestination(radio);
+        conn.removeInterfered(radio);
       }
     }
+    state.receiving = null;
+
+    RadioConnection connToRemove = state.transmitting;
     if (connToRemove != null) {
-      activeConnections.remove(connToRemove);
+      // Radio is currently transmitting
+      addConnectionRadios(connToRemove, affectedRadios);
+      for (Radio dstRadio : connToRemove.getDestinations()) {
+        dstRadio.interfereAnyReception();
+      }
+      endActiveConnection(connToRemove);
     }
+    return affectedRadios;
   }
 
   /**
@@ -153,7 +562,7 @@ public abstract class AbstractRadioMedium extends RadioMedium {
         return;
       }
 
-      Radio radio = (Radio) obs;
+      final Radio radio = (Radio) obs;
 
       // Handle radio event
       final Radio.RadioEvent event = radio.getLastEvent();
@@ -165,135 +574,157 @@ public abstract class AbstractRadioMedium extends RadioMedium {
         return;
       }
 
-      if (event == Radio.RadioEvent.HW_OFF) {
-        // Destroy any(?) transfers
-        removeFromActiveConnections(radio);
-
-        // Recalculate signal strengths on all radios
-        updateSignalStrengths();
-
-        // Wake up tick observer
-        radioMediumObservable.setRadioMediumChanged();
-
-      } else if (event == Radio.RadioEvent.HW_ON) {
-        // No action
-        // TODO Maybe set signal strength levels now?
+      // Save transmitted data now, radio may change it before event is handled
+      final Object data;
+      if (event == Radio.RadioEvent.CUSTOM_DATA_TRANSMITTED) {
+        data = ((CustomDataRadio) radio).getLastCustomDataTransmitted();
+      } else if (event == Radio.RadioEvent.PACKET_TRANSMITTED) {
+        data = radio.getLastPacketTransmitted();
+      } else {
+        data = null;
+      }
 
-        // Recalculate signal strengths on all radios
-        updateSignalStrengths();
+      // Radio medium is updated on simulation thread
+      simulation.invokeSimulationThread(new Runnable() {
+        public void run() {
+          EventTrace trace = simulation.getEventTrace();
+          if (trace == null) {
+            handleRadioEvent(radio, event, data);
+            return;
+          }
+          long start = trace.start();
+          handleRadioEvent(radio, event, data);
+          trace.record(EventTrace.RADIO, EventTrace.getMoteID(radio.getMote()),
+              event.name(), 0, start);
+        }
+      });
+    }
+  };
 
-        // Wake up tick observer
-        radioMediumObservable.setRadioMediumChanged();
+  /**
+   * Handles radio event.
+   *
+   * @param radio Radio
+   * @param event Radio event
+   * @param data Custom data or packet transmitted, if any
+   */
+  private void handleRadioEvent(Radio radio, Radio.RadioEvent event, Object data) {
+    if (event == Radio.RadioEvent.HW_OFF) {
+      // Destroy any(?) transfers
+      Collection<Radio> affectedRadios = removeFromActiveConnections(radio);
+
+      // Recalculate signal strengths on affected radios
+      updateSignalStrengths(affectedRadios);
+
+      // Wake up tick observer
+      radioMediumObservable.setRadioMediumChanged();
+
+    } else if (event == Radio.RadioEvent.HW_ON) {
+      // No action
+      // TODO Maybe set signal strength levels now?
+
+      // Recalculate signal strengths on affected radios
+      updateSignalStrengths(Collections.singletonList(radio));
+
+      // Wake up tick observer
+      radioMediumObservable.setRadioMediumChanged();
+
+    } else if (event == Radio.RadioEvent.TRANSMISSION_STARTED) {
+      /* End unfinished transmission: a radio transmits one packet at a time */
+      LinkedHashSet<Radio> affectedRadios = new LinkedHashSet<Radio>();
+      affectedRadios.add(radio);
+      RadioConnection oldConnection = getTransmittingConnection(radio);
+      if (oldConnection != null) {
+        logger.warn("Radio started transmitting without finishing previous transmission");
+        addConnectionRadios(oldConnection, affectedRadios);
+        endActiveConnection(oldConnection);
+        finishedConnections.add(oldConnection);
+      }
 
-      } else if (event == Radio.RadioEvent.TRANSMISSION_STARTED) {
-        /* Create radio connections */
+      /* Create radio connections */
+      RadioConnection newConnection = createConnections(radio);
+      if (newConnection != null) {
+        affectedRadios.addAll(addActiveConnection(newConnection));
+      }
 
-        RadioConnection newConnection = createConnections(radio);
-        if (newConnection != null) {
-          activeConnections.add(newConnection);
-        }
+      // Recalculate signal strengths on affected radios
+      updateSignalStrengths(affectedRadios);
 
-        // Recalculate signal strengths on all radios
-        updateSignalStrengths();
+      // Wake up tick observer
+      radioMediumObservable.setRadioMediumChanged();
 
-        // Wake up tick observer
-        radioMediumObservable.setRadioMediumChanged();
+    } else if (event == Radio.RadioEvent.TRANSMISSION_FINISHED) {
+      /* Remove active connection */
 
-      } else if (event == Radio.RadioEvent.TRANSMISSION_FINISHED) {
-        /* Remove active connection */
+      // Find corresponding connection of radio
+      RadioConnection connection = getTransmittingConnection(radio);
 
-        // Find corresponding connection of radio
-        RadioConnection connection = null;
-        for (RadioConnection conn : activeConnections) {
-          if (conn.getSource() == radio) {
-            connection = conn;
-            break;
-          }
-        }
+      LinkedHashSet<Radio> affectedRadios = new LinkedHashSet<Radio>();
+      affectedRadios.add(radio);
+      if (connection == null) {
+        logger.fatal("Can't find active connection to remove");
+      } else {
+        addConnectionRadios(connection, affectedRadios);
+        endActiveConnection(connection);
+        finishedConnections.add(connection);
+      }
 
-        if (connection == null) {
-          logger.fatal("Can't find active connection to remove");
-        } else {
-          activeConnections.remove(connection);
-          finishedConnections.add(connection);
-          for (Radio dstRadio : connection.getDestinations()) {
-            dstRadio.signalReceptionEnd();
-          }
-          for (Radio dstRadio : connection.getInterfered()) {
-            dstRadio.signalReceptionEnd();
-          }
-        }
+      // Recalculate signal strengths on affected radios
+      updateSignalStrengths(affectedRadios);
 
-        // Recalculate signal strengths on all radios
-        updateSignalStrengths();
+      // Wake up tick observer
+      radioMediumObservable.setRadioMediumChanged();
 
-        // Wake up tick observer
-        radioMediumObservable.setRadioMediumChanged();
+    } else if (event == Radio.RadioEvent.CUSTOM_DATA_TRANSMITTED) {
+      /* Forward custom data, if any */
 
-      } else if (event == Radio.RadioEvent.CUSTOM_DATA_TRANSMITTED) {
-        /* Forward custom data, if any */
+      // Find corresponding connection of radio
+      RadioConnection connection = getTransmittingConnection(radio);
+      if (connection == null) {
+        logger.fatal("Can't find active connection to forward custom data in");
+        return;
+      }
 
-        // Find corresponding connection of radio
-        RadioConnection connection = null;
-        for (RadioConnection conn : activeConnections) {
-          if (conn.getSource() == radio) {
-            connection = conn;
-            break;
-          }
-        }
-        if (connection == null) {
-          logger.fatal("Can't find active connection to forward custom data in");
-          return;
-        }
+      if (data == null) {
+        logger.fatal("Custom data object is null");
+        return;
+      }
 
-        Object data = ((CustomDataRadio) radio).getLastCustomDataTransmitted();
-        if (data == null) {
-          logger.fatal("Custom data object is null");
-          return;
+      for (Radio dstRadio : connection.getDestinations()) {
+        if (dstRadio instanceof CustomDataRadio) {
+          ((CustomDataRadio) dstRadio).receiveCustomData(data);
         }
+      }
 
-        for (Radio dstRadio : connection.getDestinations()) {
-          if (dstRadio instanceof CustomDataRadio) {
-            ((CustomDataRadio) dstRadio).receiveCustomData(data);
-          }
-        }
+    } else if (event == Radio.RadioEvent.PACKET_TRANSMITTED) {
+      /* Forward packet, if any */
 
-      } else if (event == Radio.RadioEvent.PACKET_TRANSMITTED) {
-        /* Forward packet, if any */
-
-        // Find corresponding connection of radio
-        RadioConnection connection = null;
-        for (RadioConnection conn : activeConnections) {
-          if (conn.getSource() == radio) {
-            connection = conn;
-            break;
-          }
-        }
-        if (connection == null) {
-          logger.fatal("Can't find active connection to forward packet in");
-          return;
-        }
+      // Find corresponding connection of radio
+      RadioConnection connection = getTransmittingConnection(radio);
+      if (connection == null) {
+        logger.fatal("Can't find active connection to forward packet in");
+        return;
+      }
 
-        RadioPacket packet = radio.getLastPacketTransmitted();
-        if (packet == null) {
-          logger.fatal("Radio packet is null");
-          return;
-        }
+      RadioPacket packet = (RadioPacket) data;
+      if (packet == null) {
+        logger.fatal("Radio packet is null");
+        return;
+      }
 
-        Radio srcRadio = connection.getSource();
-        for (Radio dstRadio : connection.getDestinations()) {
-          if (!(srcRadio instanceof CustomDataRadio) || !(dstRadio instanceof CustomDataRadio)) {
-            dstRadio.setReceivedPacket(packet);
-          }
+      Radio srcRadio = connection.getSource();
+      for (Radio dstRadio : connection.getDestinations()) {
+        if (!(srcRadio instanceof CustomDataRadio) || !(dstRadio instanceof CustomDataRadio)) {
+          dstRadio.setReceivedPacket(packet);
         }
-
-      } else if (event == Radio.RadioEvent.UNKNOWN) {
-        // Do nothing
-      } else {
-        logger.fatal("Unsupported radio event: " + event);
       }
+
+    } else if (event == Radio.RadioEvent.UNKNOWN) {
+      // Do nothing
+    } else {
+      logger.fatal("Unsupported radio event: " + event);
     }
-  };
+  }
 
 
   /**
@@ -347,10 +778,11 @@ public abstract class AbstractRadioMedium extends RadioMedium {
 
       // Register and start observing radio
       registeredRadios.add(radio);
+      radioGrid.addRadio(radio);
       radio.addObserver(radioEventsObserver);
 
       // Set initial signal strength
-      updateSignalStrengths();
+      updateSignalStrengths(Collections.singletonList(radio));
     }
   }
 
@@ -362,8 +794,14 @@ public abstract class AbstractRadioMedium extends RadioMedium {
 
     radio.deleteObserver(radioEventsObserver);
     registeredRadios.remove(radio);
+    radioGrid.removeRadio(radio);
 
-    removeFromActiveConnections(radio);
+    Collection<Radio> affectedRadios = removeFromActiveConnections(radio);
+    radioStates.remove(radio);
+    if (isIncrementalSignalStrengths()) {
+      affectedRadios.remove(radio);
+      updateSignalStrengths(affectedRadios);
+    }
   }
 
   public void addRadioMediumObserver(Observer observer) {
@@ -382,4 +820,93 @@ public abstract class AbstractRadioMedium extends RadioMedium {
     return lastTickConnections;
   }
 
+  /**
+   * Recreates an active connection restored from a simulation snapshot.
+   * Radio mediums storing extra connection state, such as signal strengths,
+   * should override this method.
+   *
+   * @param source Source radio
+   * @param destinations Destination radios
+   * @param destinationStrengths Signal strengths at destinations
+   * @param interfered Interfered radios
+   * @param interferedStrengths Signal strengths at interfered radios
+   * @return Connection
+   * @see #getSignalStrength(RadioConnection, Radio)
+   */
+  protected RadioConnection restoreConnection(Radio source,
+      Radio[] destinations, double[] destinationStrengths,
+      Radio[] interfered, double[] interferedStrengths) {
+    RadioConnection conn = new RadioConnection(source);
+    for (Radio radio: destinations) {
+      conn.addDestination(radio);
+    }
+    for (Radio radio: interfered) {
+      conn.addInterfered(radio);
+    }
+    return conn;
+  }
+
+  public void writeSnapshot(DataOutputStream out) throws IOException {
+    /* Radios are identified by mote index */
+    HashMap<Radio, Integer> radioIndices = new HashMap<Radio, Integer>();
+    for (int i=0; i < simulation.getMotesCount(); i++) {
+      radioIndices.put(simulation.getMote(i).getInterfaces().getRadio(), i);
+    }
+
+    RadioConnection[] connections = getActiveConnections();
+    out.writeInt(connections.length);
+    for (RadioConnection conn: connections) {
+      out.writeInt(radioIndices.get(conn.getSource()));
+      writeRadios(out, conn, conn.getDestinations(), radioIndices);
+      writeRadios(out, conn, conn.getInterfered(), radioIndices);
+    }
+  }
+
+  private void writeRadios(DataOutputStream out, RadioConnection conn,
+      Radio[] radios, HashMap<Radio, Integer> radioIndices) throws IOException {
+    out.writeInt(radios.length);
+    for (Radio radio: radios) {
+      out.writeInt(radioIndices.get(radio));
+      out.writeDouble(getSignalStrength(conn, radio));
+    }
+  }
+
+  public void readSnapshot(DataInputStream in) throws IOException {
+    Radio[] radios = new Radio[simulation.getMotesCount()];
+    for (int i=0; i < radios.length; i++) {
+      radios[i] = simulation.getMote(i).getInterfaces().getRadio();
+    }
+
+    int count = in.readInt();
+    for (int c=0; c < count; c++) {
+      Radio source = readRadio(in, radios);
+      Radio[] destinations = new Radio[in.readInt()];
+      double[] destinationStrengths = new double[destinations.length];
+      for (int i=0; i < destinations.length; i++) {
+        destinations[i] = readRadio(in, radios);
+        destinationStrengths[i] = in.readDouble();
+      }
+      Radio[] interfered = new Radio[in.readInt()];
+      double[] interferedStrengths = new double[interfered.length];
+      for (int i=0; i < interfered.length; i++) {
+        interfered[i] = readRadio(in, radios);
+        interferedStrengths[i] = in.readDouble();
+      }
+
+      addActiveConnection(restoreConnection(source,
+          destinations, destinationStrengths, interfered, interferedStrengths));
+    }
+
+    updateSignalStrengths(registeredRadios);
+  }
+
+  private static Radio readRadio(DataInputStream in, Radio[] radios)
+  throws IOException {
+    int index = in.readInt();
+    if (index < 0 || index >= radios.length || radios[index] == null) {
+      throw new IOException("Bad radio index in snapshot: " + index);
+    }
+    return radios[index];
+  }
+
 }
@@ -0,0 +1,382 @@
+/*
+ * Copyright (c) 2008, Swedish Institute of Computer Science.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * $Id$
+ */
+
+package se.sics.cooja.radiomediums;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import org.apache.log4j.Logger;
+
+import se.sics.cooja.*;
+import se.sics.cooja.interfaces.MoteID;
+import se.sics.cooja.interfaces.Radio;
+
+/**
+ * Streams radio traffic of a simulation to capture files, without
+ * visualization. Finished radio connections are written through a fixed
+ * size buffer, so memory use does not grow with simulation length. The
+ * buffer only grows temporarily, for records larger than the buffer.
+ *
+ * Two formats are supported:
+ * <ul>
+ * <li>PCAP: one record per transmitted packet, with the simulation time as
+ * timestamp. Readable by Wireshark. COOJA packets, also those of MSPSim
+ * radios, have no IEEE 802.15.4 header, so the link type is USER0 by default
+ * (a Wireshark dissector may be assigned to it). Radios transmitting
+ * IEEE 802.15.4 frames may use link type IEEE 802.15.4 (no FCS) instead.
+ * <li>BINARY: one record per transmitted packet, also holding source and
+ * destination mote IDs and signal strengths. All values are big-endian:
+ * <pre>
+ * header: "CRLG" version(int)
+ * record: time_ms(int) source_id(int) length(short) data(length bytes)
+ *         nr_destinations(short) {id(int) signal_strength(float)}
+ *         nr_interfered(short) {id(int)}
+ * </pre>
+ * </ul>
+ * When a file reaches the rotation size, it is closed and capture continues
+ * in a new file: capture.pcap, capture.1.pcap, capture.2.pcap, and so on.
+ * Optionally only the most recent files are kept.
+ *
+ * @author Fredrik sterlind
+ */
+public class RadioCapture {
+  private static Logger logger = Logger.getLogger(RadioCapture.class);
+
+  public enum Format { PCAP, BINARY }
+
+  public static final int BUFFER_SIZE = 64*1024;
+
+  public static final long DEFAULT_ROTATION_SIZE = 64*1024*1024;
+
+  public static final int PCAP_LINKTYPE_USER0 = 147;
+  public static final int PCAP_LINKTYPE_IEEE802_15_4_NOFCS = 230;
+
+  private static final int PCAP_MAGIC = 0xa1b2c3d4;
+  private static final int PCAP_SNAPLEN = 65535;
+
+  private static final byte[] BINARY_MAGIC = { 'C', 'R', 'L', 'G' };
+  private static final int BINARY_VERSION = 1;
+
+  private Simulation simulation;
+  private RadioMedium radioMedium;
+  private File file;
+  private Format format;
+
+  private long rotationSize = DEFAULT_ROTATION_SIZE;
+  private int maxFiles = 0;
+  private int linkType = PCAP_LINKTYPE_USER0;
+
+  private ByteBuffer buffer;
+  private FileChannel channel = null;
+  private long fileSize = 0;
+  private int fileIndex = 0;
+  private LinkedList<File> files = new LinkedList<File>();
+
+  private long packetsCount = 0;
+  private RadioConnection[] lastConnections = null;
+  private Observer radioMediumObserver = null;
+
+  /**
+   * Creates a new capture. Capturing is started by start().
+   *
+   * @param simulation Simulation
+   * @param file First capture file
+   * @param format File format
+   */
+  public RadioCapture(Simulation simulation, File file, Format format) {
+    this.simulation = simulation;
+    this.radioMedium = simulation.getRadioMedium();
+    this.file = file;
+    this.format = format;
+
+    buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    buffer.order(format == Format.PCAP?ByteOrder.LITTLE_ENDIAN:ByteOrder.BIG_ENDIAN);
+  }
+
+  /**
+   * Creates a new capture, using the PCAP format for files ending with .pcap
+   * and the binary format otherwise.
+   *
+   * @param simulation Simulation
+   * @param file First capture file
+   */
+  public RadioCapture(Simulation simulation, File file) {
+    this(simulation, file,
+        file.getName().endsWith(".pcap")?Format.PCAP:Format.BINARY);
+  }
+
+  /**
+   * Sets the size at which capture continues in a new file.
+   *
+   * @param rotationSize Rotation size in bytes, or 0 to never rotate
+   */
+  public void setRotationSize(long rotationSize) {
+    this.rotationSize = rotationSize;
+  }
+
+  /**
+   * Sets the number of capture files kept. When exceeded, the oldest file is
+   * deleted.
+   *
+   * @param maxFiles Max number of files, or 0 to keep all files
+   */
+  public void setMaxFiles(int maxFiles) {
+    this.maxFiles = maxFiles;
+  }
+
+  /**
+   * Sets the link type written in PCAP files. Must be set before start().
+   *
+   * @param linkType PCAP link type, PCAP_LINKTYPE_USER0 by default
+   * @see #PCAP_LINKTYPE_IEEE802_15_4_NOFCS
+   */
+  public void setLinkType(int linkType) {
+    this.linkType = linkType;
+  }
+
+  /**
+   * @return Number of captured packets
+   */
+  public long getPacketsCount() {
+    return packetsCount;
+  }
+
+  /**
+   * Opens the first capture file, and starts observing the radio medium.
+   *
+   * @throws IOException If file could not be created
+   */
+  public void start() throws IOException {
+    openFile();
+    lastConnections = radioMedium.getLastTickConnections();
+    radioMedium.addRadioMediumObserver(radioMediumObserver = new Observer() {
+      public void update(Observable obs, Object obj) {
+        RadioConnection[] connections = radioMedium.getLastTickConnections();
+        if (connections == null || connections == lastConnections) {
+          /* No newly finished connections */
+          return;
+        }
+        lastConnections = connections;
+
+        try {
+          for (RadioConnection conn: connections) {
+            writeConnection(conn);
+          }
+        } catch (IOException e) {
+          logger.fatal("Radio capture stopped: " + e.getMessage());
+          stop();
+        }
+      }
+    });
+  }
+
+  /**
+   * Stops observing the radio medium, and flushes and closes the current
+   * capture file.
+   */
+  public void stop() {
+    if (radioMediumObserver != null) {
+      radioMedium.deleteRadioMediumObserver(radioMediumObserver);
+      radioMediumObserver = null;
+    }
+    try {
+      closeFile();
+    } catch (IOException e) {
+      logger.fatal("Error when closing radio capture: " + e.getMessage());
+    }
+  }
+
+  private void writeConnection(RadioConnection conn) throws IOException {
+    RadioPacket packet = conn.getSource().getLastPacketTransmitted();
+    byte[] data = packet != null?packet.getPacketData():null;
+    if (data == null) {
+      data = new byte[0];
+    }
+    int time = simulation.getSimulationTime();
+
+    if (format == Format.PCAP) {
+      int length = Math.min(data.length, PCAP_SNAPLEN);
+      reserve(16 + length);
+      buffer.putInt(time / 1000);
+      buffer.putInt((time % 1000) * 1000);
+      buffer.putInt(length);
+      buffer.putInt(data.length);
+      buffer.put(data, 0, length);
+    } else {
+      Radio[] destinations = conn.getDestinations();
+      Radio[] interfered = conn.getInterfered();
+      int length = Math.min(data.length, Short.MAX_VALUE);
+      reserve(4 + 4 + 2 + length + 2 + 8*destinations.length + 2 + 4*interfered.length);
+      buffer.putInt(time);
+      buffer.putInt(getMoteID(conn.getSource()));
+      buffer.putShort((short) length);
+      buffer.put(data, 0, length);
+      buffer.putShort((short) destinations.length);
+      for (Radio radio: destinations) {
+        buffer.putInt(getMoteID(radio));
+        buffer.putFloat((float) getSignalStrength(conn, radio));
+      }
+      buffer.putShort((short) interfered.length);
+      for (Radio radio: interfered) {
+        buffer.putInt(getMoteID(radio));
+      }
+    }
+    packetsCount++;
+
+    if (buffer.capacity() > BUFFER_SIZE) {
+      /* Release buffer of oversized record */
+      flush();
+      ByteBuffer smaller = ByteBuffer.allocate(BUFFER_SIZE);
+      smaller.order(buffer.order());
+      buffer = smaller;
+    }
+  }
+
+  private double getSignalStrength(RadioConnection conn, Radio radio) {
+    if (radioMedium instanceof AbstractRadioMedium) {
+      double signalStrength =
+        ((AbstractRadioMedium) radioMedium).getConnectionSignalStrength(conn, radio);
+      if (!Double.isNaN(signalStrength)) {
+        return signalStrength;
+      }
+    }
+    return radio.getCurrentSignalStrength();
+  }
+
+  private static int getMoteID(Radio radio) {
+    Mote mote = radio.getMote();
+    if (mote == null) {
+      return -1;
+    }
+    MoteID moteID = mote.getInterfaces().getMoteID();
+    if (moteID == null) {
+      return -1;
+    }
+    return moteID.getMoteID();
+  }
+
+  /**
+   * Makes room for a record in the buffer, and rotates the capture file
+   * before the record if the file is full.
+   */
+  private void reserve(int recordSize) throws IOException {
+    if (rotationSize > 0 && fileSize > getHeaderSize()
+        && fileSize + recordSize > rotationSize) {
+      closeFile();
+      fileIndex++;
+      openFile();
+    }
+    if (buffer.remaining() < recordSize) {
+      flush();
+      if (buffer.capacity() < recordSize) {
+        /* Oversized record, buffer is released after the record */
+        ByteBuffer larger = ByteBuffer.allocate(recordSize);
+        larger.order(buffer.order());
+        buffer = larger;
+      }
+    }
+    fileSize += recordSize;
+  }
+
+  private int getHeaderSize() {
+    return format == Format.PCAP?24:8;
+  }
+
+  private void openFile() throws IOException {
+    File current = getFile(fileIndex);
+    channel = new FileOutputStream(current).getChannel();
+    files.add(current);
+    if (maxFiles > 0 && files.size() > maxFiles) {
+      File oldest = files.removeFirst();
+      if (!oldest.delete()) {
+        logger.warn("Could not delete old radio capture file: " + oldest);
+      }
+    }
+
+    buffer.clear();
+    if (format == Format.PCAP) {
+      buffer.putInt(PCAP_MAGIC);
+      buffer.putShort((short) 2); /* Version 2.4 */
+      buffer.putShort((short) 4);
+      buffer.putInt(0); /* GMT offset */
+      buffer.putInt(0); /* Timestamp accuracy */
+      buffer.putInt(PCAP_SNAPLEN);
+      buffer.putInt(linkType);
+    } else {
+      buffer.put(BINARY_MAGIC);
+      buffer.putInt(BINARY_VERSION);
+    }
+    fileSize = getHeaderSize();
+  }
+
+  private void flush() throws IOException {
+    buffer.flip();
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+    buffer.clear();
+  }
+
+  private void closeFile() throws IOException {
+    if (channel == null) {
+      return;
+    }
+    try {
+      flush();
+    } finally {
+      channel.close();
+      channel = null;
+    }
+  }
+
+  /**
+   * @param index File index
+   * @return Capture file with given index
+   */
+  private File getFile(int index) {
+    if (index == 0) {
+      return file;
+    }
+    String name = file.getName();
+    int dot = name.lastIndexOf('.');
+    if (dot <= 0) {
+      return new File(file.getParentFile(), name + "." + index);
+    }
+    return new File(file.getParentFile(),
+        name.substring(0, dot) + "." + index + name.substring(dot));
+  }
+
+}
@@ -0,0 +1,261 @@
+/*
+ * Copyright (c) 2008, Swedish Institute of Computer Science.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * $Id$
+ */
+
+package se.sics.cooja.radiomediums;
+
+import java.util.*;
+
+import se.sics.cooja.interfaces.*;
+
+/**
+ * Uniform grid over radio positions (X and Y coordinates).
+ * Used by radio mediums to find radios within a given range without
+ * visiting all registered radios.
+ *
+ * Radios are returned in the order they were added, so that radio mediums
+ * depending on visiting order (for example random number draws) behave the
+ * same as when iterating over all radios.
+ *
+ * Radio positions are observed, and the grid is updated when a radio moves.
+ *
+ * @author Fredrik sterlind
+ */
+public class RadioGrid {
+
+  private class Entry {
+    Radio radio;
+    Position position;
+    long sequence;
+    long cell;
+  }
+
+  private double cellSize;
+
+  private long nextSequence = 0;
+
+  private HashMap<Long, ArrayList<Entry>> cells = new HashMap<Long, ArrayList<Entry>>();
+
+  private HashMap<Radio, Entry> radioEntries = new HashMap<Radio, Entry>();
+
+  private HashMap<Position, Entry> positionEntries = new HashMap<Position, Entry>();
+
+  private ArrayList<Entry> allEntries = new ArrayList<Entry>();
+
+  private static Comparator<Entry> sequenceComparator = new Comparator<Entry>() {
+    public int compare(Entry a, Entry b) {
+      return a.sequence < b.sequence ? -1 : (a.sequence == b.sequence ? 0 : 1);
+    }
+  };
+
+  private Observer positionObserver = new Observer() {
+    public void update(Observable obs, Object obj) {
+      synchronized (RadioGrid.this) {
+        Entry entry = positionEntries.get(obs);
+        if (entry == null) {
+          return;
+        }
+        long newCell = getCell(entry.position);
+        if (newCell != entry.cell) {
+          removeFromCell(entry);
+          entry.cell = newCell;
+          addToCell(entry);
+        }
+      }
+    }
+  };
+
+  /**
+   * Creates a new grid.
+   *
+   * @param cellSize Cell side length, should be close to the typical query range
+   */
+  public RadioGrid(double cellSize) {
+    setCellSize(cellSize);
+  }
+
+  /**
+   * Changes cell size and rebuilds grid.
+   *
+   * @param cellSize Cell side length
+   */
+  public synchronized void setCellSize(double cellSize) {
+    if (cellSize <= 0 || Double.isNaN(cellSize) || Double.isInfinite(cellSize)) {
+      throw new IllegalArgumentException("Bad cell size: " + cellSize);
+    }
+    this.cellSize = cellSize;
+
+    cells.clear();
+    for (Entry entry: allEntries) {
+      entry.cell = getCell(entry.position);
+      addToCell(entry);
+    }
+  }
+
+  /**
+   * @return Cell side length
+   */
+  public double getCellSize() {
+    return cellSize;
+  }
+
+  /**
+   * Adds radio to grid, and starts observing its position.
+   *
+   * @param radio Radio
+   */
+  public synchronized void addRadio(Radio radio) {
+    if (radioEntries.containsKey(radio)) {
+      return;
+    }
+
+    Entry entry = new Entry();
+    entry.radio = radio;
+    entry.position = radio.getPosition();
+    entry.sequence = nextSequence++;
+    entry.cell = getCell(entry.position);
+
+    radioEntries.put(radio, entry);
+    positionEntries.put(entry.position, entry);
+    allEntries.add(entry);
+    addToCell(entry);
+
+    entry.position.addObserver(positionObserver);
+  }
+
+  /**
+   * Removes radio from grid, and stops observing its position.
+   *
+   * @param radio Radio
+   */
+  public synchronized void removeRadio(Radio radio) {
+    Entry entry = radioEntries.remove(radio);
+    if (entry == null) {
+      return;
+    }
+
+    entry.position.deleteObserver(positionObserver);
+    positionEntries.remove(entry.position);
+    allEntries.remove(entry);
+    removeFromCell(entry);
+  }
+
+  /**
+   * Returns all radios within given range of given position in the XY plane,
+   * including any radio at the position itself. Radios are returned in the
+   * order they were added.
+   *
+   * Since Z coordinates are ignored, the result may contain radios further
+   * away than the given range in three dimensions.
+   *
+   * @param center Center position
+   * @param range Maximum distance
+   * @return Radios within range
+   */
+  public synchronized Radio[] getRadiosInRange(Position center, double range) {
+    ArrayList<Entry> found = new ArrayList<Entry>();
+
+    double x = center.getXCoordinate();
+    double y = center.getYCoordinate();
+    double reach = range * (1 + 1e-9); /* Cover rounding errors */
+    long minX = (long) Math.floor((x - reach) / cellSize);
+    long maxX = (long) Math.floor((x + reach) / cellSize);
+    long minY = (long) Math.floor((y - reach) / cellSize);
+    long maxY = (long) Math.floor((y + reach) / cellSize);
+
+    double nrCells = (double) (maxX - minX + 1) * (double) (maxY - minY + 1);
+    if (nrCells > cells.size()) {
+      /* Range covers more cells than are occupied: check all radios */
+      for (Entry entry: allEntries) {
+        if (isInRange(entry.position, x, y, range)) {
+          found.add(entry);
+        }
+      }
+    } else {
+      for (long cellX = minX; cellX <= maxX; cellX++) {
+        for (long cellY = minY; cellY <= maxY; cellY++) {
+          ArrayList<Entry> cell = cells.get(getCellKey(cellX, cellY));
+          if (cell == null) {
+            continue;
+          }
+          for (Entry entry: cell) {
+            if (isInRange(entry.position, x, y, range)) {
+              found.add(entry);
+            }
+          }
+        }
+      }
+      Collections.sort(found, sequenceComparator);
+    }
+
+    Radio[] radios = new Radio[found.size()];
+    for (int i=0; i < radios.length; i++) {
+      radios[i] = found.get(i).radio;
+    }
+    return radios;
+  }
+
+  private static boolean isInRange(Position position, double x, double y, double range) {
+    double dx = position.getXCoordinate() - x;
+    double dy = position.getYCoordinate() - y;
+    return Math.sqrt(dx*dx + dy*dy) <= range;
+  }
+
+  private long getCell(Position position) {
+    return getCellKey(
+        (long) Math.floor(position.getXCoordinate() / cellSize),
+        (long) Math.floor(position.getYCoordinate() / cellSize));
+  }
+
+  private static long getCellKey(long cellX, long cellY) {
+    return (cellX << 32) ^ (cellY & 0xffffffffL);
+  }
+
+  private void addToCell(Entry entry) {
+    ArrayList<Entry> cell = cells.get(entry.cell);
+    if (cell == null) {
+      cell = new ArrayList<Entry>();
+      cells.put(entry.cell, cell);
+    }
+    cell.add(entry);
+  }
+
+  private void removeFromCell(Entry entry) {
+    ArrayList<Entry> cell = cells.get(entry.cell);
+    if (cell == null) {
+      return;
+    }
+    cell.remove(entry);
+    if (cell.isEmpty()) {
+      cells.remove(entry.cell);
+    }
+  }
+
+}
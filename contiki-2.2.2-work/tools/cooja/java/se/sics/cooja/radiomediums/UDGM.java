@@ -71,8 +71,6 @@ import se.sics.cooja.plugins.Visualizer2D;
 public class UDGM extends AbstractRadioMedium {
   private static Logger logger = Logger.getLogger(UDGM.class);
 
-  private static RadioMedium myRadioMedium;
-
   /* Signal strengths in dBm.
    * Approx. values measured on TmoteSky */
   public static final double SS_NOTHING = -100;
@@ -81,14 +79,14 @@ public class UDGM extends AbstractRadioMedium {
 
   public static final double SS_WEAK = -95;
 
-  private static double SUCCESS_RATIO_TX = 1.0;
+  private double successRatioTx = 1.0;
 
-  private static double SUCCESS_RATIO_RX = 1.0;
+  private double successRatioRx = 1.0;
 
   // Maximum ranges (SS indicator 100)
-  private static double TRANSMITTING_RANGE = 50;
+  private double transmittingRange = 50;
 
-  private static double INTERFERENCE_RANGE = 100;
+  private double interferenceRange = 100;
 
   private Simulation mySimulation;
 
@@ -120,6 +118,8 @@ public class UDGM extends AbstractRadioMedium {
 
     private Observer radioMediumObserver;
 
+    private UDGM myRadioMedium;
+
     private class ChangeRangesMenuAction implements MoteMenuAction {
       public boolean isEnabled(Mote mote) {
         return true;
@@ -155,26 +155,27 @@ public class UDGM extends AbstractRadioMedium {
     public VisUDGM(Simulation sim, GUI gui) {
       super(sim, gui);
       setTitle("UDGM Visualizer");
+      myRadioMedium = (UDGM) sim.getRadioMedium();
 
       // Create spinners for changing ranges
       SpinnerNumberModel transmissionModel = new SpinnerNumberModel();
-      transmissionModel.setValue(new Double(TRANSMITTING_RANGE));
+      transmissionModel.setValue(new Double(myRadioMedium.getTransmittingRange()));
       transmissionModel.setStepSize(new Double(1.0)); // 1m
       transmissionModel.setMinimum(new Double(0.0));
 
       SpinnerNumberModel interferenceModel = new SpinnerNumberModel();
-      interferenceModel.setValue(new Double(INTERFERENCE_RANGE));
+      interferenceModel.setValue(new Double(myRadioMedium.getInterferenceRange()));
       interferenceModel.setStepSize(new Double(1.0)); // 1m
       interferenceModel.setMinimum(new Double(0.0));
 
       SpinnerNumberModel successRatioTxModel = new SpinnerNumberModel();
-      successRatioTxModel.setValue(new Double(SUCCESS_RATIO_TX));
+      successRatioTxModel.setValue(new Double(myRadioMedium.getSuccessRatioTx()));
       successRatioTxModel.setStepSize(new Double(0.001)); // 0.1%
       successRatioTxModel.setMinimum(new Double(0.0));
       successRatioTxModel.setMaximum(new Double(1.0));
 
       SpinnerNumberModel successRatioRxModel = new SpinnerNumberModel();
-      successRatioRxModel.setValue(new Double(SUCCESS_RATIO_RX));
+      successRatioRxModel.setValue(new Double(myRadioMedium.getSuccessRatioRx()));
       successRatioRxModel.setStepSize(new Double(0.001)); // 0.1%
       successRatioRxModel.setMinimum(new Double(0.0));
       successRatioRxModel.setMaximum(new Double(1.0));
@@ -209,32 +210,32 @@ public class UDGM extends AbstractRadioMedium {
 
       transmissionSpinner.addChangeListener(new ChangeListener() {
         public void stateChanged(ChangeEvent e) {
-          TRANSMITTING_RANGE = ((SpinnerNumberModel) transmissionSpinner
-              .getModel()).getNumber().doubleValue();
+          myRadioMedium.setTransmittingRange(((SpinnerNumberModel) transmissionSpinner
+              .getModel()).getNumber().doubleValue());
           repaint();
         }
       });
 
       interferenceSpinner.addChangeListener(new ChangeListener() {
         public void stateChanged(ChangeEvent e) {
-          INTERFERENCE_RANGE = ((SpinnerNumberModel) interferenceSpinner
-              .getModel()).getNumber().doubleValue();
+          myRadioMedium.setInterferenceRange(((SpinnerNumberModel) interferenceSpinner
+              .getModel()).getNumber().doubleValue());
           repaint();
         }
       });
 
       successRatioTxSpinner.addChangeListener(new ChangeListener() {
         public void stateChanged(ChangeEvent e) {
-          SUCCESS_RATIO_TX = ((SpinnerNumberModel) successRatioTxSpinner
-              .getModel()).getNumber().doubleValue();
+          myRadioMedium.setSuccessRatioTx(((SpinnerNumberModel) successRatioTxSpinner
+              .getModel()).getNumber().doubleValue());
           repaint();
         }
       });
 
       successRatioRxSpinner.addChangeListener(new ChangeListener() {
         public void stateChanged(ChangeEvent e) {
-          SUCCESS_RATIO_RX = ((SpinnerNumberModel) successRatioRxSpinner
-              .getModel()).getNumber().doubleValue();
+          myRadioMedium.setSuccessRatioRx(((SpinnerNumberModel) successRatioRxSpinner
+              .getModel()).getNumber().doubleValue());
           repaint();
         }
       });
@@ -358,9 +359,9 @@ public class UDGM extends AbstractRadioMedium {
         // Fetch current output power indicator (scale with as percent)
         if (selectedMote.getInterfaces().getRadio() != null) {
           Radio selectedRadio = selectedMote.getInterfaces().getRadio();
-          double moteInterferenceRange = INTERFERENCE_RANGE
+          double moteInterferenceRange = myRadioMedium.getInterferenceRange()
               * ((double) selectedRadio.getCurrentOutputPowerIndicator() / (double) selectedRadio.getOutputPowerIndicatorMax());
-          double moteTransmissionRange = TRANSMITTING_RANGE
+          double moteTransmissionRange = myRadioMedium.getTransmittingRange()
               * ((double) selectedRadio.getCurrentOutputPowerIndicator() / (double) selectedRadio.getOutputPowerIndicatorMax());
 
           Point translatedZero = transformPositionToPixel(0.0, 0.0, 0.0);
@@ -425,32 +426,90 @@ public class UDGM extends AbstractRadioMedium {
     super(simulation);
 
     // Register this radio medium's plugins
-    simulation.getGUI().registerTemporaryPlugin(VisUDGM.class);
+    if (simulation.getGUI() != null) {
+      simulation.getGUI().registerTemporaryPlugin(VisUDGM.class);
+    }
 
-    myRadioMedium = this;
     mySimulation = simulation;
     random.setSeed(simulation.getRandomSeed());
   }
 
+  /**
+   * @return Maximum transmitting range
+   */
+  public double getTransmittingRange() {
+    return transmittingRange;
+  }
+
+  /**
+   * @param range Maximum transmitting range
+   */
+  public void setTransmittingRange(double range) {
+    transmittingRange = range;
+  }
+
+  /**
+   * @return Maximum interference range
+   */
+  public double getInterferenceRange() {
+    return interferenceRange;
+  }
+
+  /**
+   * @param range Maximum interference range
+   */
+  public void setInterferenceRange(double range) {
+    interferenceRange = range;
+  }
+
+  /**
+   * @return Transmission success ratio
+   */
+  public double getSuccessRatioTx() {
+    return successRatioTx;
+  }
+
+  /**
+   * @param ratio Transmission success ratio
+   */
+  public void setSuccessRatioTx(double ratio) {
+    successRatioTx = ratio;
+  }
+
+  /**
+   * @return Reception success ratio
+   */
+  public double getSuccessRatioRx() {
+    return successRatioRx;
+  }
+
+  /**
+   * @param ratio Reception success ratio
+   */
+  public void setSuccessRatioRx(double ratio) {
+    successRatioRx = ratio;
+  }
+
   public RadioConnection createConnections(Radio sendingRadio) {
     Position sendingPosition = sendingRadio.getPosition();
 
     RadioConnection newConnection = new RadioConnection(sendingRadio);
 
     // Fetch current output power indicator (scale with as percent)
-    double moteTransmissionRange = TRANSMITTING_RANGE
+    double moteTransmissionRange = transmittingRange
         * ((double) sendingRadio.getCurrentOutputPowerIndicator() / (double) sendingRadio.getOutputPowerIndicatorMax());
-    double moteInterferenceRange = INTERFERENCE_RANGE
+    double moteInterferenceRange = interferenceRange
         * ((double) sendingRadio.getCurrentOutputPowerIndicator() / (double) sendingRadio.getOutputPowerIndicatorMax());
 
     /* Fail transmission randomly (affects all receiving nodes) */
-    if (SUCCESS_RATIO_TX < 1.0 && random.nextDouble() > SUCCESS_RATIO_TX) {
+    if (successRatioTx < 1.0 && random.nextDouble() > successRatioTx) {
       return newConnection;
     }
 
-    // Loop through all radios
-    for (int listenNr = 0; listenNr < getRegisteredRadios().size(); listenNr++) {
-      Radio listeningRadio = getRegisteredRadios().get(listenNr);
+    // Loop through all radios in range
+    setRadioGridCellSize(Math.max(transmittingRange, interferenceRange));
+    for (Radio listeningRadio: getRadiosInRange(sendingPosition,
+        Math.max(moteTransmissionRange, moteInterferenceRange))) {
       Position listeningRadioPosition = listeningRadio.getPosition();
 
       // Ignore sending radio and radios on different channels
@@ -472,22 +531,14 @@ public class UDGM extends AbstractRadioMedium {
           newConnection.addInterfered(listeningRadio);
 
         } else if (listeningRadio.isReceiving() ||
-            (SUCCESS_RATIO_RX < 1.0 && random.nextDouble() > SUCCESS_RATIO_RX)) {
+            (successRatioRx < 1.0 && random.nextDouble() > successRatioRx)) {
           newConnection.addInterfered(listeningRadio);
 
           // Start interfering radio
           listeningRadio.interfereAnyReception();
 
           // Update connection that is transmitting to this radio
-          RadioConnection existingConn = null;
-          for (RadioConnection conn : getActiveConnections()) {
-            for (Radio dstRadio : conn.getDestinations()) {
-              if (dstRadio == listeningRadio) {
-                existingConn = conn;
-                break;
-              }
-            }
-          }
+          RadioConnection existingConn = getReceivingConnection(listeningRadio);
           if (existingConn != null) {
             // Change radio from receiving to interfered
             existingConn.removeDestination(listeningRadio);
@@ -509,6 +560,38 @@ public class UDGM extends AbstractRadioMedium {
     return newConnection;
   }
 
+  protected boolean supportsIncrementalSignalStrengths() {
+    return true;
+  }
+
+  protected double getBaseSignalStrength(Radio radio) {
+    return SS_NOTHING;
+  }
+
+  protected double combineSignalStrengths(double signalStrength, double contribution) {
+    /* As updateSignalStrengths(): the last connection sets signal strength */
+    return contribution;
+  }
+
+  protected double getSignalStrength(RadioConnection conn, Radio radio) {
+    Radio source = conn.getSource();
+    if (radio == source) {
+      return SS_STRONG;
+    }
+
+    double dist = source.getPosition().getDistanceTo(radio.getPosition());
+
+    double maxTxDist = transmittingRange
+    * ((double) source.getCurrentOutputPowerIndicator() / (double) source.getOutputPowerIndicatorMax());
+    double distFactor = dist/maxTxDist;
+
+    if (distFactor >= 1 && !conn.isDestination(radio)) {
+      // Interfered radio outside transmission range
+      return SS_WEAK;
+    }
+    return SS_STRONG + distFactor*(SS_WEAK - SS_STRONG);
+  }
+
   public void updateSignalStrengths() {
     // // Save old signal strengths
     // double[] oldSignalStrengths = new double[registeredRadios.size()];
@@ -526,32 +609,14 @@ public class UDGM extends AbstractRadioMedium {
     for (RadioConnection conn : getActiveConnections()) {
       conn.getSource().setCurrentSignalStrength(SS_STRONG);
       for (Radio dstRadio : conn.getDestinations()) {
-        double dist = conn.getSource().getPosition().getDistanceTo(dstRadio.getPosition());
-
-        double maxTxDist = TRANSMITTING_RANGE
-        * ((double) conn.getSource().getCurrentOutputPowerIndicator() / (double) conn.getSource().getOutputPowerIndicatorMax());
-        double distFactor = dist/maxTxDist;
-
-        double signalStrength = SS_STRONG + distFactor*(SS_WEAK - SS_STRONG);
-        dstRadio.setCurrentSignalStrength(signalStrength);
+        dstRadio.setCurrentSignalStrength(getSignalStrength(conn, dstRadio));
       }
     }
 
     // Set signal strength on all interferences
     for (RadioConnection conn : getActiveConnections()) {
       for (Radio intfRadio : conn.getInterfered()) {
-        double dist = conn.getSource().getPosition().getDistanceTo(intfRadio.getPosition());
-
-        double maxTxDist = TRANSMITTING_RANGE
-        * ((double) conn.getSource().getCurrentOutputPowerIndicator() / (double) conn.getSource().getOutputPowerIndicatorMax());
-        double distFactor = dist/maxTxDist;
-
-        if (distFactor < 1) {
-          double signalStrength = SS_STRONG + distFactor*(SS_WEAK - SS_STRONG);
-          intfRadio.setCurrentSignalStrength(signalStrength);
-        } else {
-          intfRadio.setCurrentSignalStrength(SS_WEAK);
-        }
+        intfRadio.setCurrentSignalStrength(getSignalStrength(conn, intfRadio));
 
         if (!intfRadio.isInterfered()) {
           // Set to interfered again
@@ -581,22 +646,27 @@ public class UDGM extends AbstractRadioMedium {
 
     // Transmitting range
     element = new Element("transmitting_range");
-    element.setText(Double.toString(TRANSMITTING_RANGE));
+    element.setText(Double.toString(transmittingRange));
     config.add(element);
 
     // Interference range
     element = new Element("interference_range");
-    element.setText(Double.toString(INTERFERENCE_RANGE));
+    element.setText(Double.toString(interferenceRange));
     config.add(element);
 
     /* Transmission success probability */
     element = new Element("success_ratio_tx");
-    element.setText("" + SUCCESS_RATIO_TX);
+    element.setText("" + successRatioTx);
     config.add(element);
 
     /* Reception success probability */
     element = new Element("success_ratio_rx");
-    element.setText("" + SUCCESS_RATIO_RX);
+    element.setText("" + successRatioRx);
+    config.add(element);
+
+    /* Incremental signal strength updates */
+    element = new Element("incremental_signal_strengths");
+    element.setText(Boolean.toString(isIncrementalSignalStrengths()));
     config.add(element);
 
     return config;
@@ -606,25 +676,29 @@ public class UDGM extends AbstractRadioMedium {
       boolean visAvailable) {
     for (Element element : configXML) {
       if (element.getName().equals("transmitting_range")) {
-        TRANSMITTING_RANGE = Double.parseDouble(element.getText());
+        transmittingRange = Double.parseDouble(element.getText());
       }
 
       if (element.getName().equals("interference_range")) {
-        INTERFERENCE_RANGE = Double.parseDouble(element.getText());
+        interferenceRange = Double.parseDouble(element.getText());
       }
 
       /* Backwards compatibility */
       if (element.getName().equals("success_ratio")) {
-        SUCCESS_RATIO_TX = Double.parseDouble(element.getText());
+        successRatioTx = Double.parseDouble(element.getText());
         logger.warn("Loading old COOJA Config, XML element \"sucess_ratio\" parsed at \"sucess_ratio_tx\"");
       }
 
       if (element.getName().equals("success_ratio_tx")) {
-        SUCCESS_RATIO_TX = Double.parseDouble(element.getText());
+        successRatioTx = Double.parseDouble(element.getText());
       }
 
       if (element.getName().equals("success_ratio_rx")) {
-        SUCCESS_RATIO_RX = Double.parseDouble(element.getText());
+        successRatioRx = Double.parseDouble(element.getText());
+      }
+
+      if (element.getName().equals("incremental_signal_strengths")) {
+        setIncrementalSignalStrengths(Boolean.parseBoolean(element.getText()));
       }
     }
     random.setSeed(mySimulation.getRandomSeed());
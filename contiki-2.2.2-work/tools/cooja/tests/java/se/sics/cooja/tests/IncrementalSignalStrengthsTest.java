@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2008, Swedish Institute of Computer Science.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * $Id$
+ */
+
+package se.sics.cooja.tests;
+
+import java.util.Random;
+
+import org.apache.log4j.BasicConfigurator;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+import se.sics.cooja.Simulation;
+import se.sics.cooja.radiomediums.UDGM;
+
+/**
+ * Compares incremental and full signal strength updates in UDGM.
+ *
+ * Two UDGM radio mediums get identical radios and the same random sequence
+ * of radio events, one medium using incremental updates. After every
+ * event, signal strengths and reception states of all radios must be
+ * identical in both mediums. The incremental setting must also survive
+ * saving and loading the radio medium config.
+ *
+ * Prints "TEST OK" if all checks pass, otherwise the failed check.
+ *
+ * @author Fredrik sterlind
+ */
+public class IncrementalSignalStrengthsTest {
+  private static Logger logger = Logger.getLogger(IncrementalSignalStrengthsTest.class);
+
+  public static final int NR_RADIOS = 60;
+  public static final int NR_EVENTS = 50000;
+  public static final double AREA_SIZE = 200; /* m */
+
+  public static void main(String[] args) throws Exception {
+    BasicConfigurator.configure();
+    Logger.getRootLogger().setLevel(Level.WARN);
+    boolean ok = true;
+
+    Simulation sim = new Simulation(null);
+    UDGM full = new UDGM(sim);
+    UDGM incremental = new UDGM(sim);
+    incremental.setIncrementalSignalStrengths(true);
+
+    /* Setting is saved in radio medium config */
+    UDGM loaded = new UDGM(sim);
+    loaded.setConfigXML(incremental.getConfigXML(), false);
+    if (!loaded.isIncrementalSignalStrengths()) {
+      logger.fatal("Incremental setting not restored from radio medium config");
+      ok = false;
+    }
+
+    /* Identical radios in both mediums */
+    TestRadio[] fullRadios = new TestRadio[NR_RADIOS];
+    TestRadio[] incrementalRadios = new TestRadio[NR_RADIOS];
+    Random random = new Random(1);
+    for (int i=0; i < NR_RADIOS; i++) {
+      double x = random.nextDouble()*AREA_SIZE;
+      double y = random.nextDouble()*AREA_SIZE;
+      fullRadios[i] = new TestRadio(x, y);
+      incrementalRadios[i] = new TestRadio(x, y);
+      full.registerRadioInterface(fullRadios[i], sim);
+      incremental.registerRadioInterface(incrementalRadios[i], sim);
+    }
+
+    /* Random radio events */
+    int mismatches = 0;
+    for (int event=0; event < NR_EVENTS; event++) {
+      int index = random.nextInt(NR_RADIOS);
+      boolean turnOff = random.nextInt(10) == 0;
+      fullRadios[index].nextEvent(turnOff);
+      incrementalRadios[index].nextEvent(turnOff);
+
+      for (int i=0; i < NR_RADIOS; i++) {
+        TestRadio a = fullRadios[i];
+        TestRadio b = incrementalRadios[i];
+        if (a.signalStrength == b.signalStrength
+            && a.interfered == b.interfered && a.receiving == b.receiving) {
+          continue;
+        }
+        if (mismatches++ < 5) {
+          logger.fatal("Event " + event + ", radio " + i + ": signal strength "
+              + a.signalStrength + "/" + b.signalStrength + ", interfered "
+              + a.interfered + "/" + b.interfered + ", receiving "
+              + a.receiving + "/" + b.receiving);
+        }
+        b.signalStrength = a.signalStrength;
+        b.interfered = a.interfered;
+        b.receiving = a.receiving;
+      }
+    }
+    if (mismatches == 0) {
+      System.out.println("Incremental and full signal strengths are identical after "
+          + NR_EVENTS + " radio events");
+    } else {
+      logger.fatal("Incremental and full signal strengths differ " + mismatches + " times");
+      ok = false;
+    }
+
+    if (!ok) {
+      System.out.println("TEST FAILED");
+      System.exit(1);
+    }
+    System.out.println("TEST OK");
+  }
+}
@@ -0,0 +1,292 @@
+/*
+ * Copyright (c) 2008, Swedish Institute of Computer Science.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * $Id$
+ */
+
+package se.sics.cooja.tests;
+
+import java.io.File;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Observable;
+import java.util.Observer;
+
+import org.apache.log4j.BasicConfigurator;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+import se.sics.cooja.COOJARadioPacket;
+import se.sics.cooja.Mote;
+import se.sics.cooja.MoteType;
+import se.sics.cooja.RadioConnection;
+import se.sics.cooja.Simulation;
+import se.sics.cooja.TimeEvent;
+import se.sics.cooja.interfaces.LED;
+import se.sics.cooja.interfaces.Log;
+import se.sics.cooja.interfaces.Radio;
+import se.sics.cooja.motes.AbstractApplicationMote;
+import se.sics.cooja.motes.AbstractApplicationMoteType;
+import se.sics.cooja.mspmote.ESBMoteType;
+import se.sics.cooja.mspmote.MspMote;
+import se.sics.cooja.radiomediums.UDGM;
+
+/**
+ * Runs the same seeded simulation with sequential and with parallel mote
+ * ticks.
+ *
+ * The simulation consists of ESB motes running the bundled hello world
+ * firmware, and application motes sending packets to them. The log
+ * contains all log messages, LED changes, radio events and radio medium
+ * connections, and the final CPU state of all ESB motes.
+ *
+ * Sequential ticks must give the same log as the simulator did before mote
+ * ticks could be parallelized: the log is compared to a checksum recorded
+ * with that simulator. Parallel ticks must give the same log for any number
+ * of tick threads.
+ *
+ * Prints "TEST OK" if all checks pass, otherwise the failed check.
+ *
+ * @author Fredrik sterlind
+ */
+public class ParallelTicksTest {
+  private static Logger logger = Logger.getLogger(ParallelTicksTest.class);
+
+  public static final int NR_ESB_MOTES = 8;
+  public static final int NR_APPLICATION_MOTES = 3;
+  public static final int DURATION = 5000; /* ms */
+  public static final int[] PARALLEL_TICK_THREADS = { 2, 4 };
+
+  /* SHA-1 of sequential simulation log, recorded before parallel ticks */
+  public static final String SEQUENTIAL_LOG_SHA1 = "ea003c7625231111734a0196c09c0ba5ebf6b405";
+
+  public static final String DEFAULT_FIRMWARE = "../apps/mspsim/example/helloworld.firmware";
+
+  /**
+   * Runs the test simulation once.
+   *
+   * @param firmware ESB firmware
+   * @param tickThreads Number of tick threads
+   * @return Simulation log
+   * @throws Exception If the simulation could not be created
+   */
+  public static String runSimulation(File firmware, int tickThreads) throws Exception {
+    final Simulation sim = new Simulation(null);
+    final StringBuilder log = new StringBuilder();
+    sim.setRandomSeed(123456);
+    sim.setDelayTime(0);
+    sim.setTickThreads(tickThreads);
+
+    final UDGM radioMedium = new UDGM(sim);
+    sim.setRadioMedium(radioMedium);
+    radioMedium.addRadioMediumObserver(new Observer() {
+      public void update(Observable obs, Object obj) {
+        RadioConnection[] connections = radioMedium.getLastTickConnections();
+        if (connections == null) {
+          return;
+        }
+        for (RadioConnection conn: connections) {
+          log.append(sim.getSimulationTime() + "\tmedium\t" + getName(conn.getSource().getMote())
+              + " -> " + conn.getDestinations().length + " destinations, "
+              + conn.getInterfered().length + " interfered\n");
+        }
+      }
+    });
+
+    ESBMoteType esbType = new ESBMoteType("esb1");
+    esbType.setELFFile(firmware);
+    sim.addMoteType(esbType);
+    SenderMoteType senderType = new SenderMoteType("sender1");
+    sim.addMoteType(senderType);
+
+    for (int i=0; i < NR_ESB_MOTES + NR_APPLICATION_MOTES; i++) {
+      final Mote mote;
+      if (i < NR_ESB_MOTES) {
+        mote = esbType.generateMote(sim);
+        mote.getInterfaces().getMoteID().setMoteID(i + 1);
+      } else {
+        mote = senderType.generateMote(sim);
+      }
+      mote.getInterfaces().getPosition().setCoordinates(10*i, 10*(i%3), 0);
+      sim.addMote(mote);
+
+      final String name = getName(mote);
+      final Log moteLog = mote.getInterfaces().getLog();
+      if (moteLog != null) {
+        moteLog.addObserver(new Observer() {
+          public void update(Observable obs, Object obj) {
+            log.append(sim.getSimulationTime() + "\t" + name + "\tlog\t" + moteLog.getLastLogMessage());
+          }
+        });
+      }
+      final LED led = mote.getInterfaces().getLED();
+      if (led != null) {
+        led.addObserver(new Observer() {
+          public void update(Observable obs, Object obj) {
+            log.append(sim.getSimulationTime() + "\t" + name + "\tled\t"
+                + led.isRedOn() + " " + led.isGreenOn() + " " + led.isYellowOn() + "\n");
+          }
+        });
+      }
+      final Radio radio = mote.getInterfaces().getRadio();
+      radio.addObserver(new Observer() {
+        public void update(Observable obs, Object obj) {
+          log.append(sim.getSimulationTime() + "\t" + name + "\tradio\t" + radio.getLastEvent() + "\n");
+        }
+      });
+    }
+
+    /* Run simulation */
+    sim.scheduleEvent(new TimeEvent(0, "stop test") {
+      public void execute(int t) {
+        sim.stopSimulation();
+      }
+    }, DURATION);
+    sim.startSimulation();
+    while (sim.isRunning()) {
+      Thread.sleep(10);
+    }
+
+    /* Final CPU state */
+    for (int i=0; i < sim.getMotesCount(); i++) {
+      if (sim.getMote(i) instanceof MspMote) {
+        MspMote mote = (MspMote) sim.getMote(i);
+        log.append(sim.getSimulationTime() + "\tid" + mote.getInterfaces().getMoteID().getMoteID()
+            + "\tcpu\t" + mote.getCPU().cycles + " " + Arrays.toString(mote.getCPU().reg)
+            + " " + Arrays.hashCode(mote.getCPU().memory) + "\n");
+      }
+    }
+    return log.toString();
+  }
+
+  public static void main(String[] args) throws Exception {
+    BasicConfigurator.configure();
+    Logger.getRootLogger().setLevel(Level.WARN);
+
+    if (args.length > 1) {
+      System.err.println("Usage: ParallelTicksTest [ESB firmware]");
+      System.exit(1);
+    }
+    File firmware = new File(args.length > 0 ? args[0] : DEFAULT_FIRMWARE);
+    boolean ok = true;
+
+    /* Sequential ticks */
+    String sequential = runSimulation(firmware, 1);
+    String sequentialSHA1 = getSHA1(sequential);
+    if (sequentialSHA1.equals(SEQUENTIAL_LOG_SHA1)) {
+      System.out.println("Sequential simulation log is unchanged: " + sequential.length() + " bytes");
+    } else {
+      logger.fatal("Sequential simulation log changed: SHA-1 " + sequentialSHA1
+          + ", expected " + SEQUENTIAL_LOG_SHA1);
+      ok = false;
+    }
+
+    /* Parallel ticks */
+    String first = runSimulation(firmware, PARALLEL_TICK_THREADS[0]);
+    for (int i=1; i < PARALLEL_TICK_THREADS.length; i++) {
+      String parallel = runSimulation(firmware, PARALLEL_TICK_THREADS[i]);
+      if (first.equals(parallel)) {
+        System.out.println("Simulation logs with " + PARALLEL_TICK_THREADS[0] + " and "
+            + PARALLEL_TICK_THREADS[i] + " tick threads are identical: " + parallel.length() + " bytes");
+        continue;
+      }
+
+      int diff = 0;
+      while (diff < first.length() && diff < parallel.length()
+          && first.charAt(diff) == parallel.charAt(diff)) {
+        diff++;
+      }
+      int lineStart = first.lastIndexOf('\n', diff - 1) + 1;
+      logger.fatal("Simulation logs with " + PARALLEL_TICK_THREADS[0] + " and "
+          + PARALLEL_TICK_THREADS[i] + " tick threads differ at byte " + diff);
+      logger.fatal(PARALLEL_TICK_THREADS[0] + " threads: " + firstLine(first.substring(Math.min(lineStart, first.length()))));
+      logger.fatal(PARALLEL_TICK_THREADS[i] + " threads: " + firstLine(parallel.substring(Math.min(lineStart, parallel.length()))));
+      ok = false;
+    }
+
+    if (!ok) {
+      System.out.println("TEST FAILED");
+      System.exit(1);
+    }
+    System.out.println("TEST OK");
+  }
+
+  /**
+   * Application mote sending a packet every 97 ms, phase given by position.
+   */
+  private static class SenderMote extends AbstractApplicationMote {
+    private int counter = 0;
+
+    public SenderMote(MoteType moteType, Simulation sim) {
+      super(moteType, sim);
+    }
+
+    public boolean tick(int simTime) {
+      int offset = (int) getInterfaces().getPosition().getXCoordinate();
+      if ((simTime + offset) % 97 == 0) {
+        counter++;
+        myApplicationRadio.startTransmittingPacket(
+            new COOJARadioPacket(new byte[] { 1, 2, 3, (byte) counter }), 5);
+      }
+      myInterfaceHandler.doActiveActionsBeforeTick();
+      return false;
+    }
+  }
+
+  private static class SenderMoteType extends AbstractApplicationMoteType {
+    public SenderMoteType(String identifier) {
+      super(identifier);
+    }
+
+    public Mote generateMote(Simulation simulation) {
+      return new SenderMote(this, simulation);
+    }
+  }
+
+  private static String getName(Mote mote) {
+    if (mote.getInterfaces().getMoteID() == null) {
+      return "mote" + mote.getInterfaces().getPosition().getXCoordinate();
+    }
+    return "id" + mote.getInterfaces().getMoteID().getMoteID();
+  }
+
+  private static String getSHA1(String s) throws Exception {
+    byte[] digest = MessageDigest.getInstance("SHA-1").digest(s.getBytes("UTF-8"));
+    StringBuilder sb = new StringBuilder();
+    for (byte b: digest) {
+      sb.append(String.format("%02x", b & 0xff));
+    }
+    return sb.toString();
+  }
+
+  private static String firstLine(String s) {
+    int end = s.indexOf('\n');
+    return end < 0 ? s : s.substring(0, end);
+  }
+
+}
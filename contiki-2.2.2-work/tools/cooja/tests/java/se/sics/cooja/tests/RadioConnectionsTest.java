@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) 2008, Swedish Institute of Computer Science.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * $Id$
+ */
+
+package se.sics.cooja.tests;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.apache.log4j.BasicConfigurator;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+import se.sics.cooja.RadioConnection;
+import se.sics.cooja.Simulation;
+import se.sics.cooja.radiomediums.UDGM;
+
+/**
+ * Checks the active connection bookkeeping of abstract radio mediums.
+ *
+ * A radio starting a new transmission without finishing the previous one
+ * must end the previous connection: its destinations stop receiving, and
+ * the radio has a single active connection. Active connections must stay
+ * in start order while random connections start and end.
+ *
+ * Prints "TEST OK" if all checks pass, otherwise the failed check.
+ *
+ * @author Fredrik sterlind
+ */
+public class RadioConnectionsTest {
+  private static Logger logger = Logger.getLogger(RadioConnectionsTest.class);
+
+  public static final int NR_RADIOS = 200;
+  public static final int NR_EVENTS = 100000;
+
+  private static boolean ok = true;
+
+  private static void check(boolean condition, String message) {
+    if (!condition) {
+      logger.fatal(message);
+      ok = false;
+    }
+  }
+
+  /**
+   * Starts a second transmission before the first one has finished.
+   */
+  private static void testRestartedTransmission() {
+    Simulation sim = new Simulation(null);
+    UDGM radioMedium = new UDGM(sim);
+    TestRadio source = new TestRadio(0, 0);
+    TestRadio destination = new TestRadio(10, 0);
+    radioMedium.registerRadioInterface(source, sim);
+    radioMedium.registerRadioInterface(destination, sim);
+
+    source.startTransmission();
+    RadioConnection first = radioMedium.getTransmittingConnection(source);
+    check(first != null && first.isDestination(destination),
+        "First transmission has no connection to destination");
+    check(destination.receiving, "Destination is not receiving first transmission");
+
+    /* Previous transmission is ended, and a new connection started */
+    final boolean[] receptionEnded = new boolean[1];
+    TestRadio observer = new TestRadio(20, 0) {
+      public void signalReceptionEnd() {
+        super.signalReceptionEnd();
+        receptionEnded[0] = true;
+      }
+    };
+    radioMedium.registerRadioInterface(observer, sim);
+    check(!observer.receiving, "Radio registered during transmission is receiving");
+    source.startTransmission();
+    RadioConnection second = radioMedium.getTransmittingConnection(source);
+    check(second != null && second != first,
+        "Second transmission did not create a new connection");
+    check(radioMedium.getActiveConnections().length == 1
+        && radioMedium.getActiveConnections()[0] == second,
+        "First connection still active after second transmission started: "
+        + radioMedium.getActiveConnections().length + " active connections");
+    check(radioMedium.getReceivingConnection(destination) == second,
+        "Destination is not receiving second transmission");
+    check(destination.receiving && observer.receiving,
+        "Radios in range are not receiving second transmission");
+
+    /* Only the second connection ends when transmission finishes */
+    source.finishTransmission();
+    check(radioMedium.getActiveConnections().length == 0,
+        "Connections still active after transmission finished");
+    check(radioMedium.getTransmittingConnection(source) == null,
+        "Source still has a transmitting connection");
+    check(!destination.receiving && receptionEnded[0],
+        "Reception did not end when transmission finished");
+
+    if (ok) {
+      System.out.println("Restarted transmission ends previous connection");
+    }
+  }
+
+  /**
+   * Starts and ends random connections, and compares active connections
+   * with the expected start order.
+   */
+  private static void testConnectionOrder() {
+    Simulation sim = new Simulation(null);
+    UDGM radioMedium = new UDGM(sim);
+    TestRadio[] radios = new TestRadio[NR_RADIOS];
+    Random random = new Random(3);
+    for (int i=0; i < NR_RADIOS; i++) {
+      /* Radios far apart: connections have no destinations */
+      radios[i] = new TestRadio(i*1000, 0);
+      radioMedium.registerRadioInterface(radios[i], sim);
+    }
+
+    ArrayList<TestRadio> expected = new ArrayList<TestRadio>();
+    int errors = 0;
+    for (int event=0; event < NR_EVENTS; event++) {
+      TestRadio radio = radios[random.nextInt(NR_RADIOS)];
+      if (!radio.transmitting) {
+        radio.startTransmission();
+        expected.add(radio);
+      } else if (random.nextInt(4) == 0) {
+        /* Restarted transmission moves radio last */
+        radio.startTransmission();
+        expected.remove(radio);
+        expected.add(radio);
+      } else {
+        radio.finishTransmission();
+        expected.remove(radio);
+      }
+
+      RadioConnection[] active = radioMedium.getActiveConnections();
+      boolean same = active.length == expected.size();
+      for (int i=0; same && i < active.length; i++) {
+        same = active[i].getSource() == expected.get(i)
+          && radioMedium.getTransmittingConnection(expected.get(i)) == active[i];
+      }
+      if (!same && errors++ < 5) {
+        logger.fatal("Event " + event + ": " + active.length
+            + " active connections not in start order, expected " + expected.size());
+      }
+    }
+    check(errors == 0, "Active connections out of order after " + errors + " events");
+    if (errors == 0) {
+      System.out.println("Active connections stay in start order after " + NR_EVENTS + " events");
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    BasicConfigurator.configure();
+    Logger.getRootLogger().setLevel(Level.ERROR);
+
+    testRestartedTransmission();
+    testConnectionOrder();
+
+    if (!ok) {
+      System.out.println("TEST FAILED");
+      System.exit(1);
+    }
+    System.out.println("TEST OK");
+  }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) 2008, Swedish Institute of Computer Science.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * $Id$
+ */
+
+package se.sics.cooja.tests;
+
+import java.util.Collection;
+
+import javax.swing.JPanel;
+
+import org.jdom.Element;
+
+import se.sics.cooja.Mote;
+import se.sics.cooja.RadioPacket;
+import se.sics.cooja.interfaces.Position;
+import se.sics.cooja.interfaces.Radio;
+
+/**
+ * Radio controlled by tests. Radio events are fired by the test, and
+ * reception state is set by the radio medium.
+ *
+ * @author Fredrik sterlind
+ */
+class TestRadio extends Radio {
+  Position position = new Position(null);
+  RadioEvent lastEvent = RadioEvent.UNKNOWN;
+  boolean on = true;
+  boolean transmitting = false;
+  boolean receiving = false;
+  boolean interfered = false;
+  double signalStrength = 0;
+
+  TestRadio(double x, double y) {
+    position.setCoordinates(x, y, 0);
+  }
+
+  /**
+   * Cycles through turned off, idle and transmitting.
+   *
+   * @param turnOff Turn off instead of transmitting
+   */
+  void nextEvent(boolean turnOff) {
+    if (!on) {
+      on = true;
+      fireEvent(RadioEvent.HW_ON);
+    } else if (transmitting) {
+      finishTransmission();
+    } else if (turnOff) {
+      on = false;
+      receiving = false;
+      interfered = false;
+      fireEvent(RadioEvent.HW_OFF);
+    } else if (!receiving && !interfered) {
+      startTransmission();
+    }
+  }
+
+  void startTransmission() {
+    transmitting = true;
+    fireEvent(RadioEvent.TRANSMISSION_STARTED);
+  }
+
+  void finishTransmission() {
+    transmitting = false;
+    fireEvent(RadioEvent.TRANSMISSION_FINISHED);
+  }
+
+  void fireEvent(RadioEvent event) {
+    lastEvent = event;
+    setChanged();
+    notifyObservers();
+  }
+
+  public void setReceivedPacket(RadioPacket packet) {
+  }
+
+  public RadioPacket getLastPacketTransmitted() {
+    return null;
+  }
+
+  public RadioPacket getLastPacketReceived() {
+    return null;
+  }
+
+  public void signalReceptionStart() {
+    receiving = true;
+    interfered = false;
+  }
+
+  public void signalReceptionEnd() {
+    receiving = false;
+    interfered = false;
+  }
+
+  public RadioEvent getLastEvent() {
+    return lastEvent;
+  }
+
+  public boolean isTransmitting() {
+    return transmitting;
+  }
+
+  public boolean isReceiving() {
+    return receiving;
+  }
+
+  public boolean isInterfered() {
+    return interfered;
+  }
+
+  public void interfereAnyReception() {
+    interfered = true;
+    receiving = false;
+  }
+
+  public double getCurrentOutputPower() {
+    return 0;
+  }
+
+  public int getCurrentOutputPowerIndicator() {
+    return 100;
+  }
+
+  public int getOutputPowerIndicatorMax() {
+    return 100;
+  }
+
+  public double getCurrentSignalStrength() {
+    return signalStrength;
+  }
+
+  public void setCurrentSignalStrength(double signalStrength) {
+    this.signalStrength = signalStrength;
+  }
+
+  public int getChannel() {
+    return -1;
+  }
+
+  public Position getPosition() {
+    return position;
+  }
+
+  public Mote getMote() {
+    return null;
+  }
+
+  public JPanel getInterfaceVisualizer() {
+    return null;
+  }
+
+  public void releaseInterfaceVisualizer(JPanel panel) {
+  }
+
+  public double energyConsumption() {
+    return 0;
+  }
+
+  public Collection<Element> getConfigXML() {
+    return null;
+  }
+
+  public void setConfigXML(Collection<Element> configXML, boolean visAvailable) {
+  }
+}
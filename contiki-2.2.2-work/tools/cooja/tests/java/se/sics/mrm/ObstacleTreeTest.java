@@ -0,0 +1,249 @@
+/*
+ * Copyright (c) 2008, Swedish Institute of Computer Science.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * $Id$
+ */
+
+package se.sics.mrm;
+
+import java.awt.geom.Rectangle2D;
+import java.util.Random;
+import java.util.Vector;
+
+import org.apache.log4j.BasicConfigurator;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+/**
+ * Compares obstacle tree queries with a brute-force scan of all obstacles.
+ *
+ * Random obstacle worlds mix boxes and thin walls, some overlapping. For
+ * each world, random angle interval, point, containment and segment queries
+ * must give the same obstacles as checking every obstacle. Angle interval
+ * queries must also give them in the same order: by distance from the
+ * center point, and by registration order for equal distances.
+ *
+ * Placed in the MRM package, since the obstacle tree is package private.
+ *
+ * Prints "TEST OK" if all checks pass, otherwise the failed check.
+ *
+ * @author Fredrik sterlind
+ */
+public class ObstacleTreeTest {
+  private static Logger logger = Logger.getLogger(ObstacleTreeTest.class);
+
+  public static final int NR_WORLDS = 100;
+  public static final int MAX_OBSTACLES = 400;
+  public static final int NR_QUERIES = 200;
+  public static final double AREA_SIZE = 200; /* m */
+
+  /* Same as obstacle tree */
+  private static final double SEGMENT_TOLERANCE = 1e-6;
+
+  private static int failures = 0;
+
+  public static void main(String[] args) throws Exception {
+    BasicConfigurator.configure();
+    Logger.getRootLogger().setLevel(Level.WARN);
+
+    Random random = new Random(1);
+    int nrQueries = 0;
+    for (int world=0; world < NR_WORLDS; world++) {
+      Vector<Rectangle2D> obstacles = randomObstacles(random, random.nextInt(MAX_OBSTACLES + 1));
+      ObstacleTree tree = new ObstacleTree(obstacles);
+      if (tree.size() != obstacles.size()) {
+        fail("World " + world + ": tree size " + tree.size() + ", expected " + obstacles.size());
+      }
+
+      for (int query=0; query < NR_QUERIES; query++) {
+        double x = -10 + random.nextDouble()*(AREA_SIZE + 20);
+        double y = -10 + random.nextDouble()*(AREA_SIZE + 20);
+
+        /* Angle interval */
+        double startAngle = random.nextDouble()*2*Math.PI;
+        double size = random.nextInt(10) == 0 ? 2*Math.PI : 0.01 + random.nextDouble()*Math.PI;
+        AngleInterval interval = new AngleInterval(startAngle, startAngle + size);
+        compare("World " + world + ": angle interval " + interval + " from (" + x + ", " + y + ")",
+            tree.getObstaclesInAngleInterval(x, y, interval),
+            bruteObstaclesInAngleInterval(obstacles, x, y, interval));
+
+        /* Point */
+        double tolerance = random.nextInt(3) == 0 ? 0 : random.nextDouble();
+        compare("World " + world + ": near (" + x + ", " + y + "), tolerance " + tolerance,
+            tree.getObstaclesNear(x, y, tolerance),
+            bruteObstaclesNear(obstacles, x, y, tolerance));
+
+        int max = random.nextInt(3);
+        int count = tree.countObstaclesContaining(x, y, max);
+        int expected = Math.min(max + 1, bruteCountContaining(obstacles, x, y));
+        if (count != expected) {
+          fail("World " + world + ": containing (" + x + ", " + y + "), max " + max
+              + ": " + count + ", expected " + expected);
+        }
+
+        /* Segment, sometimes horizontal, vertical or a point */
+        double x2 = x + (random.nextDouble() - 0.5)*AREA_SIZE;
+        double y2 = y + (random.nextDouble() - 0.5)*AREA_SIZE;
+        switch (random.nextInt(8)) {
+        case 0: x2 = x; break;
+        case 1: y2 = y; break;
+        case 2: x2 = x; y2 = y; break;
+        }
+        boolean intersects = tree.intersectsSegment(x, y, x2, y2);
+        boolean expectedIntersects = bruteIntersectsSegment(obstacles, x, y, x2, y2);
+        if (intersects != expectedIntersects) {
+          fail("World " + world + ": segment (" + x + ", " + y + ") -> (" + x2 + ", " + y2
+              + "): " + intersects + ", expected " + expectedIntersects);
+        }
+
+        nrQueries++;
+      }
+    }
+
+    if (failures > 0) {
+      logger.fatal("Obstacle tree and brute-force queries differ " + failures + " times");
+      System.out.println("TEST FAILED");
+      System.exit(1);
+    }
+    System.out.println("Obstacle tree and brute-force queries are identical in "
+        + NR_WORLDS + " worlds, " + nrQueries + " queries of each kind");
+    System.out.println("TEST OK");
+  }
+
+  private static void fail(String message) {
+    if (failures++ < 5) {
+      logger.fatal(message);
+    }
+  }
+
+  /**
+   * Compares obstacle vectors by identity, since equal obstacles may exist.
+   */
+  private static void compare(String query, Vector<Rectangle2D> result, Vector<Rectangle2D> expected) {
+    boolean equal = result.size() == expected.size();
+    for (int i=0; equal && i < result.size(); i++) {
+      equal = result.get(i) == expected.get(i);
+    }
+    if (!equal) {
+      fail(query + ": " + result.size() + " obstacles, expected " + expected.size());
+    }
+  }
+
+  private static Vector<Rectangle2D> randomObstacles(Random random, int nrObstacles) {
+    Vector<Rectangle2D> obstacles = new Vector<Rectangle2D>();
+    for (int i=0; i < nrObstacles; i++) {
+      double x = random.nextDouble()*AREA_SIZE;
+      double y = random.nextDouble()*AREA_SIZE;
+      switch (random.nextInt(4)) {
+      case 0: /* Horizontal wall */
+        obstacles.add(new Rectangle2D.Double(x, y, 1 + random.nextDouble()*30, 0));
+        break;
+      case 1: /* Vertical wall */
+        obstacles.add(new Rectangle2D.Double(x, y, 0, 1 + random.nextDouble()*30));
+        break;
+      default: /* Box */
+        obstacles.add(new Rectangle2D.Double(x, y,
+            0.1 + random.nextDouble()*20, 0.1 + random.nextDouble()*20));
+        break;
+      }
+    }
+
+    /* Duplicate obstacle */
+    if (nrObstacles > 0 && random.nextBoolean()) {
+      Rectangle2D obstacle = obstacles.get(random.nextInt(nrObstacles));
+      obstacles.add(new Rectangle2D.Double(obstacle.getX(), obstacle.getY(),
+          obstacle.getWidth(), obstacle.getHeight()));
+    }
+    return obstacles;
+  }
+
+  private static Vector<Rectangle2D> bruteObstaclesInAngleInterval(Vector<Rectangle2D> obstacles,
+      double x, double y, AngleInterval interval) {
+    Vector<Rectangle2D> found = new Vector<Rectangle2D>();
+    Vector<Double> distances = new Vector<Double>();
+    for (Rectangle2D obstacle: obstacles) {
+      boolean inInterval =
+        x >= obstacle.getMinX() && x <= obstacle.getMaxX() &&
+        y >= obstacle.getMinY() && y <= obstacle.getMaxY();
+      inInterval = inInterval || AngleInterval.getAngleIntervalOfLine(x, y,
+          obstacle.getMinX(), obstacle.getMinY(), obstacle.getMaxX(), obstacle.getMaxY()).intersects(interval);
+      inInterval = inInterval || AngleInterval.getAngleIntervalOfLine(x, y,
+          obstacle.getMinX(), obstacle.getMaxY(), obstacle.getMaxX(), obstacle.getMinY()).intersects(interval);
+      if (!inInterval) {
+        continue;
+      }
+
+      /* Insert by distance, after obstacles at equal distance */
+      double dx = Math.max(0, Math.max(obstacle.getMinX() - x, x - obstacle.getMaxX()));
+      double dy = Math.max(0, Math.max(obstacle.getMinY() - y, y - obstacle.getMaxY()));
+      double distance = dx*dx + dy*dy;
+      int index = found.size();
+      while (index > 0 && distances.get(index-1) > distance) {
+        index--;
+      }
+      found.add(index, obstacle);
+      distances.add(index, distance);
+    }
+    return found;
+  }
+
+  private static Vector<Rectangle2D> bruteObstaclesNear(Vector<Rectangle2D> obstacles,
+      double x, double y, double tolerance) {
+    Vector<Rectangle2D> found = new Vector<Rectangle2D>();
+    for (Rectangle2D obstacle: obstacles) {
+      if (x >= obstacle.getMinX() - tolerance && x <= obstacle.getMaxX() + tolerance &&
+          y >= obstacle.getMinY() - tolerance && y <= obstacle.getMaxY() + tolerance) {
+        found.add(obstacle);
+      }
+    }
+    return found;
+  }
+
+  private static int bruteCountContaining(Vector<Rectangle2D> obstacles, double x, double y) {
+    int count = 0;
+    for (Rectangle2D obstacle: obstacles) {
+      if (obstacle.contains(x, y)) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  private static boolean bruteIntersectsSegment(Vector<Rectangle2D> obstacles,
+      double x1, double y1, double x2, double y2) {
+    for (Rectangle2D obstacle: obstacles) {
+      Rectangle2D grown = new Rectangle2D.Double(
+          obstacle.getX() - SEGMENT_TOLERANCE, obstacle.getY() - SEGMENT_TOLERANCE,
+          obstacle.getWidth() + 2*SEGMENT_TOLERANCE, obstacle.getHeight() + 2*SEGMENT_TOLERANCE);
+      if (grown.intersectsLine(x1, y1, x2, y2)) {
+        return true;
+      }
+    }
+    return false;
+  }
+}